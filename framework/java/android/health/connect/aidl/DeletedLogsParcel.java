@@ -17,6 +17,7 @@
 package android.health.connect.aidl;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.health.connect.changelog.ChangeLogsResponse.DeletedLog;
 import android.health.connect.internal.ParcelUtils;
 import android.os.Parcel;
@@ -24,6 +25,7 @@ import android.os.Parcelable;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * A {@link Parcelable} that reads and writes {@link DeletedLog}s.
@@ -46,26 +48,74 @@ public final class DeletedLogsParcel implements Parcelable {
                 }
             };
 
-    private final List<DeletedLog> mDeletedLogs;
+    // Deleted record ids are written either as strings, or packed as UUID bits when they are known
+    // to be UUIDs, which is much smaller and doesn't need a String per id.
+    private static final int FORMAT_STRING_IDS = 0;
+    private static final int FORMAT_PACKED_UUIDS = 1;
+
+    // Most and least significant bits of each deleted record id, interleaved, if ids are packed.
+    @Nullable private final long[] mPackedUuids;
+    private final long mPackedDeletedTime;
+    // Decoded from mPackedUuids on first access if ids are packed.
+    @Nullable private volatile List<DeletedLog> mDeletedLogs;
 
     public DeletedLogsParcel(@NonNull List<DeletedLog> deletedLogs) {
         mDeletedLogs = deletedLogs;
+        mPackedUuids = null;
+        mPackedDeletedTime = 0;
+    }
+
+    /**
+     * Creates a parcel of records with UUID ids, all deleted at {@code deletedTime}.
+     *
+     * @param packedUuids most and least significant bits of each deleted record id, interleaved.
+     */
+    public DeletedLogsParcel(@NonNull long[] packedUuids, long deletedTime) {
+        if (packedUuids.length % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of UUID bits: " + packedUuids.length);
+        }
+        mPackedUuids = packedUuids;
+        mPackedDeletedTime = deletedTime;
     }
 
     private DeletedLogsParcel(@NonNull Parcel in) {
         in = ParcelUtils.getParcelForSharedMemoryIfRequired(in);
+        int format = in.readInt();
+        if (format == FORMAT_PACKED_UUIDS) {
+            mPackedDeletedTime = in.readLong();
+            mPackedUuids = in.createLongArray();
+            return;
+        }
+
         int size = in.readInt();
-        mDeletedLogs = new ArrayList<>(size);
+        List<DeletedLog> deletedLogs = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
             String id = in.readString();
             long time = in.readLong();
-            mDeletedLogs.add(new DeletedLog(id, time));
+            deletedLogs.add(new DeletedLog(id, time));
         }
+        mDeletedLogs = deletedLogs;
+        mPackedUuids = null;
+        mPackedDeletedTime = 0;
     }
 
     @NonNull
     public List<DeletedLog> getDeletedLogs() {
-        return mDeletedLogs;
+        List<DeletedLog> deletedLogs = mDeletedLogs;
+        if (deletedLogs == null) {
+            deletedLogs = new ArrayList<>(mPackedUuids.length / 2);
+            for (int i = 0; i < mPackedUuids.length; i += 2) {
+                String id = new UUID(mPackedUuids[i], mPackedUuids[i + 1]).toString();
+                deletedLogs.add(new DeletedLog(id, mPackedDeletedTime));
+            }
+            mDeletedLogs = deletedLogs;
+        }
+        return deletedLogs;
+    }
+
+    /** Returns the number of deleted logs, without decoding them. */
+    public int size() {
+        return mPackedUuids != null ? mPackedUuids.length / 2 : mDeletedLogs.size();
     }
 
     @Override
@@ -79,8 +129,17 @@ public final class DeletedLogsParcel implements Parcelable {
     }
 
     private void writeToParcelInternal(@NonNull Parcel dest) {
-        dest.writeInt(mDeletedLogs.size());
-        for (DeletedLog deletedLog : mDeletedLogs) {
+        if (mPackedUuids != null) {
+            dest.writeInt(FORMAT_PACKED_UUIDS);
+            dest.writeLong(mPackedDeletedTime);
+            dest.writeLongArray(mPackedUuids);
+            return;
+        }
+
+        List<DeletedLog> deletedLogs = mDeletedLogs;
+        dest.writeInt(FORMAT_STRING_IDS);
+        dest.writeInt(deletedLogs.size());
+        for (DeletedLog deletedLog : deletedLogs) {
             dest.writeString(deletedLog.getDeletedRecordId());
             dest.writeLong(deletedLog.getDeletedTime().toEpochMilli());
         }
@@ -25,7 +25,6 @@ import android.health.connect.internal.datatypes.utils.ParcelRecordConverter;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -66,19 +65,13 @@ public class RecordsParcel implements Parcelable {
         mRecordsSize = new ArrayList<>(size);
         long remainingParcelSize = in.dataAvail();
         mRecordsChunkSize = remainingParcelSize;
+        ParcelRecordConverter converter = ParcelRecordConverter.getInstance();
         for (int i = 0; i < size; i++) {
             int identifier = in.readInt();
-            try {
-                mRecordInternals.add(ParcelRecordConverter.getInstance().getRecord(in, identifier));
-                // Calculating record size based on before and after values of parcel size.
-                mRecordsSize.add(remainingParcelSize - in.dataAvail());
-                remainingParcelSize = in.dataAvail();
-            } catch (InstantiationException
-                     | IllegalAccessException
-                     | NoSuchMethodException
-                     | InvocationTargetException e) {
-                throw new IllegalArgumentException();
-            }
+            mRecordInternals.add(converter.getRecord(in, identifier));
+            // Calculating record size based on before and after values of parcel size.
+            mRecordsSize.add(remainingParcelSize - in.dataAvail());
+            remainingParcelSize = in.dataAvail();
         }
     }
 
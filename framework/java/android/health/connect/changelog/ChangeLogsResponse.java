@@ -37,7 +37,7 @@ import java.util.Objects;
  */
 public final class ChangeLogsResponse implements Parcelable {
     private final List<Record> mUpsertedRecords;
-    private final List<DeletedLog> mDeletedLogs;
+    private final DeletedLogsParcel mDeletedLogs;
     private final String mNextChangesToken;
     private final boolean mHasMorePages;
 
@@ -51,6 +51,23 @@ public final class ChangeLogsResponse implements Parcelable {
             @NonNull List<DeletedLog> deletedLogs,
             @NonNull String nextChangesToken,
             boolean hasMorePages) {
+        this(
+                upsertedRecords,
+                new DeletedLogsParcel(Objects.requireNonNull(deletedLogs)),
+                nextChangesToken,
+                hasMorePages);
+    }
+
+    /**
+     * Response for {@link HealthConnectManager#getChangeLogs}
+     *
+     * @hide
+     */
+    public ChangeLogsResponse(
+            @NonNull RecordsParcel upsertedRecords,
+            @NonNull DeletedLogsParcel deletedLogs,
+            @NonNull String nextChangesToken,
+            boolean hasMorePages) {
         Objects.requireNonNull(upsertedRecords);
         Objects.requireNonNull(deletedLogs);
         Objects.requireNonNull(nextChangesToken);
@@ -72,8 +89,8 @@ public final class ChangeLogsResponse implements Parcelable {
                                                 RecordsParcel.class)
                                         .getRecords());
         mDeletedLogs =
-                in.readParcelable(DeletedLogsParcel.class.getClassLoader(), DeletedLogsParcel.class)
-                        .getDeletedLogs();
+                in.readParcelable(
+                        DeletedLogsParcel.class.getClassLoader(), DeletedLogsParcel.class);
         mNextChangesToken = in.readString();
         mHasMorePages = in.readBoolean();
     }
@@ -112,7 +129,7 @@ public final class ChangeLogsResponse implements Parcelable {
      */
     @NonNull
     public List<DeletedLog> getDeletedLogs() {
-        return mDeletedLogs;
+        return mDeletedLogs.getDeletedLogs();
     }
 
     /** Returns token for future reads using {@link HealthConnectManager#getChangeLogs} */
@@ -138,7 +155,7 @@ public final class ChangeLogsResponse implements Parcelable {
             recordInternal.add(record.toRecordInternal());
         }
         dest.writeParcelable(new RecordsParcel(recordInternal), 0);
-        dest.writeParcelable(new DeletedLogsParcel(mDeletedLogs), 0);
+        dest.writeParcelable(mDeletedLogs, 0);
         dest.writeString(mNextChangesToken);
         dest.writeBoolean(mHasMorePages);
     }
@@ -38,32 +38,58 @@ public final class ParcelUtils {
         void writeToParcel(Parcel dest);
     }
 
+    /**
+     * Returns the parcel to read data from, which is {@code in} itself unless the data was put in
+     * shared memory by {@link #putToRequiredMemory}.
+     *
+     * <p>The shared memory mapping is released as soon as its contents are copied out, so the
+     * mapping and the unmarshalled parcel are never both alive.
+     */
     @NonNull
     public static Parcel getParcelForSharedMemoryIfRequired(Parcel in) {
         int parcelType = in.readInt();
         if (parcelType == USING_SHARED_MEMORY) {
+            byte[] payload;
             try (SharedMemory memory = SharedMemory.CREATOR.createFromParcel(in)) {
-                Parcel dataParcel = Parcel.obtain();
                 ByteBuffer buffer = memory.mapReadOnly();
-                byte[] payload = new byte[buffer.limit()];
-                buffer.get(payload);
-                dataParcel.unmarshall(payload, 0, payload.length);
-                dataParcel.setDataPosition(0);
-                return dataParcel;
+                try {
+                    payload = new byte[buffer.limit()];
+                    buffer.get(payload);
+                } finally {
+                    SharedMemory.unmap(buffer);
+                }
             } catch (ErrnoException e) {
                 throw new RuntimeException(e);
             }
+            Parcel dataParcel = Parcel.obtain();
+            dataParcel.unmarshall(payload, 0, payload.length);
+            dataParcel.setDataPosition(0);
+            return dataParcel;
         }
         return in;
     }
 
+    /**
+     * Returns a new {@link SharedMemory} holding the first {@code dataParcelSize} bytes of {@code
+     * dataParcel}.
+     *
+     * <p>The caller owns the returned memory and must close it. The mapping used to fill it is
+     * released before returning.
+     */
     public static SharedMemory getSharedMemoryForParcel(Parcel dataParcel, int dataParcelSize) {
+        byte[] data = dataParcel.marshall();
+        return getSharedMemoryForBytes(data, dataParcelSize);
+    }
+
+    private static SharedMemory getSharedMemoryForBytes(byte[] data, int size) {
         try {
-            SharedMemory sharedMemory =
-                    SharedMemory.create("RecordsParcelSharedMemory", dataParcelSize);
+            SharedMemory sharedMemory = SharedMemory.create("RecordsParcelSharedMemory", size);
             ByteBuffer buffer = sharedMemory.mapReadWrite();
-            byte[] data = dataParcel.marshall();
-            buffer.put(data, 0, dataParcelSize);
+            try {
+                buffer.put(data, 0, size);
+            } finally {
+                SharedMemory.unmap(buffer);
+            }
             return sharedMemory;
         } catch (ErrnoException e) {
             throw new RuntimeException(e);
@@ -73,25 +99,33 @@ public final class ParcelUtils {
     /**
      * Determines which memory to use and puts the {@code parcel} in it, and details of it in {@code
      * dest}
+     *
+     * <p>{@code parcelRunnable} is invoked exactly once. Small payloads are copied from the
+     * temporary parcel into {@code dest} rather than being written a second time. For large
+     * payloads the temporary parcel is recycled before the shared memory is allocated, so at most
+     * two copies of the payload exist at any point.
      */
     public static void putToRequiredMemory(
             Parcel dest, int flags, IPutToParcelRunnable parcelRunnable) {
-        final Parcel dataParcel = Parcel.obtain();
+        Parcel dataParcel = Parcel.obtain();
+        final byte[] data;
+        final int dataParcelSize;
         try {
             parcelRunnable.writeToParcel(dataParcel);
-            final int dataParcelSize = dataParcel.dataSize();
-            if (dataParcelSize > IPC_PARCEL_LIMIT) {
-                try (SharedMemory sharedMemory =
-                        ParcelUtils.getSharedMemoryForParcel(dataParcel, dataParcelSize)) {
-                    dest.writeInt(USING_SHARED_MEMORY);
-                    sharedMemory.writeToParcel(dest, flags);
-                }
-            } else {
+            dataParcelSize = dataParcel.dataSize();
+            if (dataParcelSize <= IPC_PARCEL_LIMIT) {
                 dest.writeInt(USING_PARCEL);
-                parcelRunnable.writeToParcel(dest);
+                dest.appendFrom(dataParcel, 0, dataParcelSize);
+                return;
             }
+            data = dataParcel.marshall();
         } finally {
             dataParcel.recycle();
         }
+
+        try (SharedMemory sharedMemory = getSharedMemoryForBytes(data, dataParcelSize)) {
+            dest.writeInt(USING_SHARED_MEMORY);
+            sharedMemory.writeToParcel(dest, flags);
+        }
     }
 }
@@ -44,6 +44,16 @@ public class CyclingPedalingCadenceRecordInternal
     @Override
     @NonNull
     public Set<CyclingPedalingCadenceRecordSample> getSamples() {
+        if (hasPackedSamples()) {
+            Set<CyclingPedalingCadenceRecordSample> samples = new HashSet<>(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                samples.add(
+                        new CyclingPedalingCadenceRecordSample(
+                                getPackedSampleValue(i), getPackedSampleEpochMillis(i)));
+            }
+            mCyclingPedalingCadenceRecordSamples = samples;
+            clearPackedSamples();
+        }
         return mCyclingPedalingCadenceRecordSamples;
     }
 
@@ -51,6 +61,7 @@ public class CyclingPedalingCadenceRecordInternal
     @Override
     public CyclingPedalingCadenceRecordInternal setSamples(Set<? extends Sample> samples) {
         Objects.requireNonNull(samples);
+        clearPackedSamples();
         this.mCyclingPedalingCadenceRecordSamples =
                 (Set<CyclingPedalingCadenceRecordSample>) samples;
         return this;
@@ -78,6 +89,14 @@ public class CyclingPedalingCadenceRecordInternal
 
     @Override
     void populateIntervalRecordTo(@NonNull Parcel parcel) {
+        if (hasPackedSamples()) {
+            parcel.writeInt(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                parcel.writeDouble(getPackedSampleValue(i));
+                parcel.writeLong(getPackedSampleEpochMillis(i));
+            }
+            return;
+        }
         parcel.writeInt(mCyclingPedalingCadenceRecordSamples.size());
         for (CyclingPedalingCadenceRecordSample cyclingPedalingCadenceRecordSample :
                 mCyclingPedalingCadenceRecordSamples) {
@@ -88,6 +107,18 @@ public class CyclingPedalingCadenceRecordInternal
 
     private List<CyclingPedalingCadenceRecord.CyclingPedalingCadenceRecordSample>
             getExternalSamples() {
+        if (hasPackedSamples()) {
+            List<CyclingPedalingCadenceRecord.CyclingPedalingCadenceRecordSample> samples =
+                    new ArrayList<>(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                samples.add(
+                        new CyclingPedalingCadenceRecord.CyclingPedalingCadenceRecordSample(
+                                getPackedSampleValue(i),
+                                Instant.ofEpochMilli(getPackedSampleEpochMillis(i)),
+                                true));
+            }
+            return samples;
+        }
         List<CyclingPedalingCadenceRecord.CyclingPedalingCadenceRecordSample>
                 cyclingPedalingCadenceRecords =
                         new ArrayList<>(mCyclingPedalingCadenceRecordSamples.size());
@@ -77,11 +77,22 @@ public class HeartRateRecordInternal
     @Override
     @Nullable
     public Set<HeartRateSample> getSamples() {
+        if (hasPackedSamples()) {
+            Set<HeartRateSample> samples = new HashSet<>(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                samples.add(
+                        new HeartRateSample(
+                                (int) getPackedSampleValue(i), getPackedSampleEpochMillis(i)));
+            }
+            mHeartRateHeartRateSamples = samples;
+            clearPackedSamples();
+        }
         return mHeartRateHeartRateSamples;
     }
 
     @Override
     public HeartRateRecordInternal setSamples(Set<? extends Sample> samples) {
+        clearPackedSamples();
         this.mHeartRateHeartRateSamples = (Set<HeartRateSample>) samples;
         return this;
     }
@@ -108,6 +119,14 @@ public class HeartRateRecordInternal
 
     @Override
     void populateIntervalRecordTo(@NonNull Parcel parcel) {
+        if (hasPackedSamples()) {
+            parcel.writeInt(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                parcel.writeInt((int) getPackedSampleValue(i));
+                parcel.writeLong(getPackedSampleEpochMillis(i));
+            }
+            return;
+        }
         parcel.writeInt(mHeartRateHeartRateSamples.size());
         for (HeartRateSample heartRateSample : mHeartRateHeartRateSamples) {
             parcel.writeInt(heartRateSample.getBeatsPerMinute());
@@ -116,6 +135,17 @@ public class HeartRateRecordInternal
     }
 
     private List<HeartRateRecord.HeartRateSample> getExternalSamples() {
+        if (hasPackedSamples()) {
+            List<HeartRateRecord.HeartRateSample> samples = new ArrayList<>(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                samples.add(
+                        new HeartRateRecord.HeartRateSample(
+                                (int) getPackedSampleValue(i),
+                                Instant.ofEpochMilli(getPackedSampleEpochMillis(i)),
+                                true));
+            }
+            return samples;
+        }
         List<HeartRateRecord.HeartRateSample> heartRateRecords =
                 new ArrayList<>(mHeartRateHeartRateSamples.size());
 
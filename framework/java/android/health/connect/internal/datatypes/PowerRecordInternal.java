@@ -52,6 +52,16 @@ public class PowerRecordInternal
     @Override
     @NonNull
     public Set<PowerRecordSample> getSamples() {
+        if (hasPackedSamples()) {
+            Set<PowerRecordSample> samples = new HashSet<>(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                samples.add(
+                        new PowerRecordSample(
+                                getPackedSampleValue(i), getPackedSampleEpochMillis(i)));
+            }
+            mPowerRecordSamples = samples;
+            clearPackedSamples();
+        }
         return mPowerRecordSamples;
     }
 
@@ -59,6 +69,7 @@ public class PowerRecordInternal
     @Override
     public PowerRecordInternal setSamples(Set<? extends Sample> samples) {
         Objects.requireNonNull(samples);
+        clearPackedSamples();
         this.mPowerRecordSamples = (Set<PowerRecordSample>) samples;
         return this;
     }
@@ -75,6 +86,14 @@ public class PowerRecordInternal
 
     @Override
     void populateIntervalRecordTo(@NonNull Parcel parcel) {
+        if (hasPackedSamples()) {
+            parcel.writeInt(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                parcel.writeDouble(getPackedSampleValue(i));
+                parcel.writeLong(getPackedSampleEpochMillis(i));
+            }
+            return;
+        }
         parcel.writeInt(mPowerRecordSamples.size());
         for (PowerRecordSample powerRecordSample : mPowerRecordSamples) {
             parcel.writeDouble(powerRecordSample.getPower());
@@ -83,6 +102,17 @@ public class PowerRecordInternal
     }
 
     private List<PowerRecord.PowerRecordSample> getExternalSamples() {
+        if (hasPackedSamples()) {
+            List<PowerRecord.PowerRecordSample> samples = new ArrayList<>(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                samples.add(
+                        new PowerRecord.PowerRecordSample(
+                                Power.fromWatts(getPackedSampleValue(i)),
+                                Instant.ofEpochMilli(getPackedSampleEpochMillis(i)),
+                                true));
+            }
+            return samples;
+        }
         List<PowerRecord.PowerRecordSample> powerRecords =
                 new ArrayList<>(mPowerRecordSamples.size());
         for (PowerRecordSample powerRecordSample : mPowerRecordSamples) {
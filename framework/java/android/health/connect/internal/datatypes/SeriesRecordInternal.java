@@ -17,8 +17,10 @@
 package android.health.connect.internal.datatypes;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.health.connect.datatypes.IntervalRecord;
 
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -30,12 +32,59 @@ import java.util.Set;
  */
 public abstract class SeriesRecordInternal<T extends IntervalRecord, U>
         extends IntervalRecordInternal<T> {
+    // Samples set as primitives, which are only turned into Sample objects by getSamples, so that
+    // records read from the database and sent to the client don't need an object per sample.
+    @Nullable private long[] mPackedEpochMillis;
+    @Nullable private double[] mPackedValues;
+    private int mPackedSampleCount;
+
     @NonNull
     public abstract Set<? extends Sample> getSamples();
 
     @NonNull
     public abstract SeriesRecordInternal setSamples(Set<? extends Sample> samples);
 
+    /**
+     * Sets the samples to the first {@code count} pairs of {@code epochMillis} and {@code values},
+     * replacing any samples set before. The arrays are used as is, without copying them.
+     */
+    public final void setSamples(@NonNull long[] epochMillis, @NonNull double[] values, int count) {
+        Objects.requireNonNull(epochMillis);
+        Objects.requireNonNull(values);
+        if (count < 0 || count > epochMillis.length || count > values.length) {
+            throw new IndexOutOfBoundsException("Invalid sample count " + count);
+        }
+        mPackedEpochMillis = epochMillis;
+        mPackedValues = values;
+        mPackedSampleCount = count;
+    }
+
+    /** Returns whether the samples are currently stored as primitives. */
+    final boolean hasPackedSamples() {
+        return mPackedEpochMillis != null;
+    }
+
+    final int getPackedSampleCount() {
+        return mPackedSampleCount;
+    }
+
+    @SuppressWarnings("NullAway") // Only called when hasPackedSamples() is true.
+    final long getPackedSampleEpochMillis(int index) {
+        return mPackedEpochMillis[index];
+    }
+
+    @SuppressWarnings("NullAway") // Only called when hasPackedSamples() is true.
+    final double getPackedSampleValue(int index) {
+        return mPackedValues[index];
+    }
+
+    /** Drops the primitive samples, once they were turned into objects or replaced. */
+    final void clearPackedSamples() {
+        mPackedEpochMillis = null;
+        mPackedValues = null;
+        mPackedSampleCount = 0;
+    }
+
     /** Base class for the series data stored in {@link SeriesRecordInternal} types */
     public interface Sample {}
 }
@@ -52,6 +52,16 @@ public class SpeedRecordInternal
     @Override
     @NonNull
     public Set<SpeedRecordSample> getSamples() {
+        if (hasPackedSamples()) {
+            Set<SpeedRecordSample> samples = new HashSet<>(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                samples.add(
+                        new SpeedRecordSample(
+                                getPackedSampleValue(i), getPackedSampleEpochMillis(i)));
+            }
+            mSpeedRecordSamples = samples;
+            clearPackedSamples();
+        }
         return mSpeedRecordSamples;
     }
 
@@ -59,6 +69,7 @@ public class SpeedRecordInternal
     @Override
     public SpeedRecordInternal setSamples(Set<? extends Sample> samples) {
         Objects.requireNonNull(samples);
+        clearPackedSamples();
         this.mSpeedRecordSamples = (Set<SpeedRecordSample>) samples;
         return this;
     }
@@ -75,6 +86,14 @@ public class SpeedRecordInternal
 
     @Override
     void populateIntervalRecordTo(@NonNull Parcel parcel) {
+        if (hasPackedSamples()) {
+            parcel.writeInt(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                parcel.writeDouble(getPackedSampleValue(i));
+                parcel.writeLong(getPackedSampleEpochMillis(i));
+            }
+            return;
+        }
         parcel.writeInt(mSpeedRecordSamples.size());
         for (SpeedRecordSample speedRecordSample : mSpeedRecordSamples) {
             parcel.writeDouble(speedRecordSample.getSpeed());
@@ -83,6 +102,17 @@ public class SpeedRecordInternal
     }
 
     private List<SpeedRecord.SpeedRecordSample> getExternalSamples() {
+        if (hasPackedSamples()) {
+            List<SpeedRecord.SpeedRecordSample> samples = new ArrayList<>(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                samples.add(
+                        new SpeedRecord.SpeedRecordSample(
+                                Velocity.fromMetersPerSecond(getPackedSampleValue(i)),
+                                Instant.ofEpochMilli(getPackedSampleEpochMillis(i)),
+                                true));
+            }
+            return samples;
+        }
         List<SpeedRecord.SpeedRecordSample> speedRecords =
                 new ArrayList<>(mSpeedRecordSamples.size());
         for (SpeedRecordSample speedRecordSample : mSpeedRecordSamples) {
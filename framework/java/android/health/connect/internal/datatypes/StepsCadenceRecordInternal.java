@@ -43,6 +43,16 @@ public class StepsCadenceRecordInternal
     @Override
     @NonNull
     public Set<StepsCadenceRecordSample> getSamples() {
+        if (hasPackedSamples()) {
+            Set<StepsCadenceRecordSample> samples = new HashSet<>(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                samples.add(
+                        new StepsCadenceRecordSample(
+                                getPackedSampleValue(i), getPackedSampleEpochMillis(i)));
+            }
+            mStepsCadenceRecordSamples = samples;
+            clearPackedSamples();
+        }
         return mStepsCadenceRecordSamples;
     }
 
@@ -50,6 +60,7 @@ public class StepsCadenceRecordInternal
     @Override
     public StepsCadenceRecordInternal setSamples(Set<? extends Sample> samples) {
         Objects.requireNonNull(samples);
+        clearPackedSamples();
         this.mStepsCadenceRecordSamples = (Set<StepsCadenceRecordSample>) samples;
         return this;
     }
@@ -75,6 +86,18 @@ public class StepsCadenceRecordInternal
     }
 
     private List<StepsCadenceRecord.StepsCadenceRecordSample> getExternalSamples() {
+        if (hasPackedSamples()) {
+            List<StepsCadenceRecord.StepsCadenceRecordSample> samples =
+                    new ArrayList<>(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                samples.add(
+                        new StepsCadenceRecord.StepsCadenceRecordSample(
+                                getPackedSampleValue(i),
+                                Instant.ofEpochMilli(getPackedSampleEpochMillis(i)),
+                                true));
+            }
+            return samples;
+        }
         List<StepsCadenceRecord.StepsCadenceRecordSample> stepsCadenceRecords =
                 new ArrayList<>(mStepsCadenceRecordSamples.size());
         for (StepsCadenceRecordSample stepsCadenceRecordSample : mStepsCadenceRecordSamples) {
@@ -89,6 +112,14 @@ public class StepsCadenceRecordInternal
 
     @Override
     void populateIntervalRecordTo(@NonNull Parcel parcel) {
+        if (hasPackedSamples()) {
+            parcel.writeInt(getPackedSampleCount());
+            for (int i = 0; i < getPackedSampleCount(); i++) {
+                parcel.writeDouble(getPackedSampleValue(i));
+                parcel.writeLong(getPackedSampleEpochMillis(i));
+            }
+            return;
+        }
         parcel.writeInt(mStepsCadenceRecordSamples.size());
         for (StepsCadenceRecordSample stepsCadenceRecordSample : mStepsCadenceRecordSamples) {
             parcel.writeDouble(stepsCadenceRecordSample.getRate());
@@ -23,11 +23,9 @@ import android.health.connect.datatypes.Record;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.RecordInternal;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
 /**
  * A helper class used to convert internal and external data types.
@@ -38,14 +36,10 @@ public final class InternalExternalRecordConverter {
     @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
     private static volatile InternalExternalRecordConverter sInternalExternalRecordConverter;
 
-    private final Map<Integer, Class<? extends RecordInternal<?>>>
-            mRecordIdToInternalRecordClassMap;
     private final Map<Integer, Class<? extends Record>> mRecordIdToExternalRecordClassMap;
 
     private InternalExternalRecordConverter() {
         // Add any new data type here to facilitate its conversion.
-        mRecordIdToInternalRecordClassMap =
-                RecordMapper.getInstance().getRecordIdToInternalRecordClassMap();
         mRecordIdToExternalRecordClassMap =
                 RecordMapper.getInstance().getRecordIdToExternalRecordClassMap();
     }
@@ -62,20 +56,7 @@ public final class InternalExternalRecordConverter {
     /** Returns a new instance of {@link RecordInternal} for the provided {@code type }. */
     @NonNull
     public RecordInternal<?> newInternalRecord(@RecordTypeIdentifier.RecordType int type) {
-        Class<? extends RecordInternal<?>> recordClass =
-                mRecordIdToInternalRecordClassMap.get(type);
-        Objects.requireNonNull(recordClass);
-        RecordInternal<?> recordInternal;
-        try {
-            recordInternal = recordClass.getConstructor().newInstance();
-        } catch (InstantiationException
-                | IllegalAccessException
-                | InvocationTargetException
-                | NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        }
-
-        return recordInternal;
+        return RecordMapper.getInstance().newInternalRecord(type);
     }
 
     /** Returns a record for {@param record} */
@@ -101,6 +101,8 @@ import android.health.connect.internal.datatypes.WheelchairPushesRecordInternal;
 import android.util.ArrayMap;
 
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 /** @hide */
 public final class RecordMapper {
@@ -111,112 +113,174 @@ public final class RecordMapper {
 
     private final Map<Integer, Class<? extends RecordInternal<?>>>
             mRecordIdToInternalRecordClassMap;
+    private final Map<Integer, Supplier<? extends RecordInternal<?>>>
+            mRecordIdToInternalRecordFactoryMap;
     private final Map<Integer, Class<? extends Record>> mRecordIdToExternalRecordClassMap;
     private final Map<Class<? extends Record>, Integer> mExternalRecordClassToRecordIdMap;
 
     private RecordMapper() {
         mRecordIdToInternalRecordClassMap = new ArrayMap<>(NUM_ENTRIES);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_STEPS, StepsRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_HEART_RATE, HeartRateRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_FLOORS_CLIMBED, FloorsClimbedRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_HYDRATION, HydrationRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+        mRecordIdToInternalRecordFactoryMap = new ArrayMap<>(NUM_ENTRIES);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_STEPS,
+                StepsRecordInternal.class,
+                StepsRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_HEART_RATE,
+                HeartRateRecordInternal.class,
+                HeartRateRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_FLOORS_CLIMBED,
+                FloorsClimbedRecordInternal.class,
+                FloorsClimbedRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_HYDRATION,
+                HydrationRecordInternal.class,
+                HydrationRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_ACTIVE_CALORIES_BURNED,
-                ActiveCaloriesBurnedRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                ActiveCaloriesBurnedRecordInternal.class,
+                ActiveCaloriesBurnedRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_ELEVATION_GAINED,
-                ElevationGainedRecordInternal.class);
+                ElevationGainedRecordInternal.class,
+                ElevationGainedRecordInternal::new);
 
-        mRecordIdToInternalRecordClassMap.put(
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_WHEELCHAIR_PUSHES,
-                WheelchairPushesRecordInternal.class);
+                WheelchairPushesRecordInternal.class,
+                WheelchairPushesRecordInternal::new);
 
-        mRecordIdToInternalRecordClassMap.put(
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_TOTAL_CALORIES_BURNED,
-                TotalCaloriesBurnedRecordInternal.class);
+                TotalCaloriesBurnedRecordInternal.class,
+                TotalCaloriesBurnedRecordInternal::new);
 
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_DISTANCE, DistanceRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_DISTANCE,
+                DistanceRecordInternal.class,
+                DistanceRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_BASAL_METABOLIC_RATE,
-                BasalMetabolicRateRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                BasalMetabolicRateRecordInternal.class,
+                BasalMetabolicRateRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_CYCLING_PEDALING_CADENCE,
-                CyclingPedalingCadenceRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_POWER, PowerRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_NUTRITION, NutritionRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_SPEED, SpeedRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_STEPS_CADENCE, StepsCadenceRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                CyclingPedalingCadenceRecordInternal.class,
+                CyclingPedalingCadenceRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_POWER,
+                PowerRecordInternal.class,
+                PowerRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_NUTRITION,
+                NutritionRecordInternal.class,
+                NutritionRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_SPEED,
+                SpeedRecordInternal.class,
+                SpeedRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_STEPS_CADENCE,
+                StepsCadenceRecordInternal.class,
+                StepsCadenceRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_BODY_WATER_MASS,
-                BodyWaterMassRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                BodyWaterMassRecordInternal.class,
+                BodyWaterMassRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_HEART_RATE_VARIABILITY_RMSSD,
-                HeartRateVariabilityRmssdRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                HeartRateVariabilityRmssdRecordInternal.class,
+                HeartRateVariabilityRmssdRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_MENSTRUATION_PERIOD,
-                MenstruationPeriodRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                MenstruationPeriodRecordInternal.class,
+                MenstruationPeriodRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_INTERMENSTRUAL_BLEEDING,
-                IntermenstrualBleedingRecordInternal.class);
+                IntermenstrualBleedingRecordInternal.class,
+                IntermenstrualBleedingRecordInternal::new);
 
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_VO2_MAX, Vo2MaxRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_VO2_MAX,
+                Vo2MaxRecordInternal.class,
+                Vo2MaxRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_SEXUAL_ACTIVITY,
-                SexualActivityRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                SexualActivityRecordInternal.class,
+                SexualActivityRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_RESTING_HEART_RATE,
-                RestingHeartRateRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_WEIGHT, WeightRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                RestingHeartRateRecordInternal.class,
+                RestingHeartRateRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_WEIGHT,
+                WeightRecordInternal.class,
+                WeightRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_OXYGEN_SATURATION,
-                OxygenSaturationRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                OxygenSaturationRecordInternal.class,
+                OxygenSaturationRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_RESPIRATORY_RATE,
-                RespiratoryRateRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                RespiratoryRateRecordInternal.class,
+                RespiratoryRateRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_BODY_TEMPERATURE,
-                BodyTemperatureRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_BONE_MASS, BoneMassRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_BLOOD_PRESSURE, BloodPressureRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_BODY_FAT, BodyFatRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_BLOOD_GLUCOSE, BloodGlucoseRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                BodyTemperatureRecordInternal.class,
+                BodyTemperatureRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_BONE_MASS,
+                BoneMassRecordInternal.class,
+                BoneMassRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_BLOOD_PRESSURE,
+                BloodPressureRecordInternal.class,
+                BloodPressureRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_BODY_FAT,
+                BodyFatRecordInternal.class,
+                BodyFatRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_BLOOD_GLUCOSE,
+                BloodGlucoseRecordInternal.class,
+                BloodGlucoseRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_BASAL_BODY_TEMPERATURE,
-                BasalBodyTemperatureRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_OVULATION_TEST, OvulationTestRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                BasalBodyTemperatureRecordInternal.class,
+                BasalBodyTemperatureRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_OVULATION_TEST,
+                OvulationTestRecordInternal.class,
+                OvulationTestRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_MENSTRUATION_FLOW,
-                MenstruationFlowRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_CERVICAL_MUCUS, CervicalMucusRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_HEIGHT, HeightRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_LEAN_BODY_MASS, LeanBodyMassRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                MenstruationFlowRecordInternal.class,
+                MenstruationFlowRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_CERVICAL_MUCUS,
+                CervicalMucusRecordInternal.class,
+                CervicalMucusRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_HEIGHT,
+                HeightRecordInternal.class,
+                HeightRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_LEAN_BODY_MASS,
+                LeanBodyMassRecordInternal.class,
+                LeanBodyMassRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_EXERCISE_SESSION,
-                ExerciseSessionRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
-                RecordTypeIdentifier.RECORD_TYPE_SLEEP_SESSION, SleepSessionRecordInternal.class);
-        mRecordIdToInternalRecordClassMap.put(
+                ExerciseSessionRecordInternal.class,
+                ExerciseSessionRecordInternal::new);
+        putInternalRecord(
+                RecordTypeIdentifier.RECORD_TYPE_SLEEP_SESSION,
+                SleepSessionRecordInternal.class,
+                SleepSessionRecordInternal::new);
+        putInternalRecord(
                 RecordTypeIdentifier.RECORD_TYPE_SKIN_TEMPERATURE,
-                SkinTemperatureRecordInternal.class);
+                SkinTemperatureRecordInternal.class,
+                SkinTemperatureRecordInternal::new);
 
         mRecordIdToExternalRecordClassMap = new ArrayMap<>(NUM_ENTRIES);
         mRecordIdToExternalRecordClassMap.put(
@@ -330,6 +394,20 @@ public final class RecordMapper {
         return mRecordIdToInternalRecordClassMap;
     }
 
+    /**
+     * Returns a new, empty {@link RecordInternal} for {@code recordType}.
+     *
+     * <p>Prefer this over instantiating classes from {@link #getRecordIdToInternalRecordClassMap}
+     * reflectively, as it is called for every record read from a parcel or a cursor.
+     */
+    @NonNull
+    public RecordInternal<?> newInternalRecord(@RecordTypeIdentifier.RecordType int recordType) {
+        Supplier<? extends RecordInternal<?>> factory =
+                mRecordIdToInternalRecordFactoryMap.get(recordType);
+        Objects.requireNonNull(factory);
+        return factory.get();
+    }
+
     @NonNull
     public Map<Integer, Class<? extends Record>> getRecordIdToExternalRecordClassMap() {
         return mRecordIdToExternalRecordClassMap;
@@ -340,4 +418,12 @@ public final class RecordMapper {
     public int getRecordType(Class<? extends Record> recordClass) {
         return mExternalRecordClassToRecordIdMap.get(recordClass);
     }
+
+    private <T extends RecordInternal<?>> void putInternalRecord(
+            @RecordTypeIdentifier.RecordType int recordType,
+            @NonNull Class<T> recordClass,
+            @NonNull Supplier<T> factory) {
+        mRecordIdToInternalRecordClassMap.put(recordType, recordClass);
+        mRecordIdToInternalRecordFactoryMap.put(recordType, factory);
+    }
 }
@@ -17,21 +17,20 @@
 package android.health.connect.ratelimiter;
 
 import android.annotation.IntDef;
+import android.annotation.Nullable;
 import android.health.connect.HealthConnectException;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.GuardedBy;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.time.Duration;
-import java.time.Instant;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Basic rate limiter that assigns a fixed request rate quota. If no quota has previously been noted
@@ -45,33 +44,59 @@ public final class RateLimiter {
     // The maximum size in bytes of a single record a client can insert in one go.
     public static final String RECORD_SIZE_LIMIT_IN_BYTES = "record_size_limit_in_bytes";
     private static final int DEFAULT_API_CALL_COST = 1;
+    // Quota buckets are consecutive ints starting at 0, used as indices of quota arrays.
+    private static final int NUM_QUOTA_BUCKETS =
+            QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M + 1;
+    private static final int NUM_LOCK_STRIPES = 16;
+    private static final long WINDOW_15M_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private static final long WINDOW_24H_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private static final List<Integer> READS_FOREGROUND_QUOTA_BUCKETS =
+            List.of(
+                    QuotaBucket.QUOTA_BUCKET_READS_PER_15M_FOREGROUND,
+                    QuotaBucket.QUOTA_BUCKET_READS_PER_24H_FOREGROUND);
+    private static final List<Integer> READS_BACKGROUND_QUOTA_BUCKETS =
+            List.of(
+                    QuotaBucket.QUOTA_BUCKET_READS_PER_15M_BACKGROUND,
+                    QuotaBucket.QUOTA_BUCKET_READS_PER_24H_BACKGROUND);
+    private static final List<Integer> WRITES_FOREGROUND_QUOTA_BUCKETS =
+            List.of(
+                    QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_FOREGROUND,
+                    QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND);
+    private static final List<Integer> WRITES_BACKGROUND_QUOTA_BUCKETS =
+            List.of(
+                    QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND,
+                    QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND);
+    private static final List<Integer> MEMORY_BACKGROUND_QUOTA_BUCKETS =
+            List.of(QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_PER_APP_15M);
+
+    // Quotas of each UID live in the stripe at index uid % NUM_LOCK_STRIPES, which also guards
+    // them, so that requests of different apps rarely contend.
+    private static final QuotaStripe[] sQuotaStripes = new QuotaStripe[NUM_LOCK_STRIPES];
+
+    static {
+        for (int i = 0; i < NUM_LOCK_STRIPES; i++) {
+            sQuotaStripes[i] = new QuotaStripe();
+        }
+    }
 
-    private static final ReentrantReadWriteLock sLockAcrossAppQuota = new ReentrantReadWriteLock();
-    private static final Map<Integer, Quota> sQuotaBucketToAcrossAppsRemainingMemoryQuota =
-            new HashMap<>();
-
-    private static final Map<Integer, Map<Integer, Quota>> sUserIdToQuotasMap = new HashMap<>();
+    // Memory quota shared by all apps, null until first spent. Updated by compare-and-set.
+    private static final AtomicReference<AcrossAppsQuota> sAcrossAppsRemainingMemoryQuota =
+            new AtomicReference<>();
 
-    private static final ConcurrentMap<Integer, Integer> sLocks = new ConcurrentHashMap<>();
+    private static final Object sConfigLock = new Object();
 
-    private static final Map<Integer, Float> QUOTA_BUCKET_TO_MAX_ROLLING_QUOTA_MAP =
-            new HashMap<>();
-    private static final Map<String, Integer> QUOTA_BUCKET_TO_MAX_MEMORY_QUOTA_MAP =
-            new HashMap<>();
-    private static final ReentrantReadWriteLock sLock = new ReentrantReadWriteLock();
+    // Configured values are replaced as a whole on update, so that reading them needs no lock.
+    // A NaN max rolling quota means that the quota bucket isn't configured.
+    private static volatile float[] sQuotaBucketToMaxRollingQuota = newUnconfiguredQuotas();
+    private static volatile Map<String, Integer> sQuotaBucketToMaxMemoryQuota = Map.of();
 
-    @GuardedBy("sLock")
-    private static boolean sRateLimiterEnabled;
+    private static volatile boolean sRateLimiterEnabled;
 
     public static void tryAcquireApiCallQuota(
             int uid, @QuotaCategory.Type int quotaCategory, boolean isInForeground) {
-        sLock.readLock().lock();
-        try {
-            if (!sRateLimiterEnabled) {
-                return;
-            }
-        } finally {
-            sLock.readLock().unlock();
+        if (!sRateLimiterEnabled) {
+            return;
         }
         if (quotaCategory == QuotaCategory.QUOTA_CATEGORY_UNDEFINED) {
             throw new IllegalArgumentException("Quota category not defined.");
@@ -82,11 +107,13 @@ public final class RateLimiter {
             return;
         }
 
-        synchronized (getLockObject(uid)) {
-            spendApiCallResourcesIfAvailable(
-                    uid,
-                    getAffectedAPIQuotaBuckets(quotaCategory, isInForeground),
-                    DEFAULT_API_CALL_COST);
+        List<Integer> quotaBuckets = getAffectedAPIQuotaBuckets(quotaCategory, isInForeground);
+        QuotaStripe stripe = getQuotaStripe(uid);
+        synchronized (stripe) {
+            UidQuotas quotas = stripe.getUidQuotas(uid);
+            long now = System.currentTimeMillis();
+            checkIfResourcesAreAvailable(quotas, quotaBuckets, DEFAULT_API_CALL_COST, now);
+            spendAvailableResources(quotas, quotaBuckets, DEFAULT_API_CALL_COST, now);
         }
     }
 
@@ -95,13 +122,8 @@ public final class RateLimiter {
             @QuotaCategory.Type int quotaCategory,
             boolean isInForeground,
             long memoryCost) {
-        sLock.readLock().lock();
-        try {
-            if (!sRateLimiterEnabled) {
-                return;
-            }
-        } finally {
-            sLock.readLock().unlock();
+        if (!sRateLimiterEnabled) {
+            return;
         }
         if (quotaCategory == QuotaCategory.QUOTA_CATEGORY_UNDEFINED) {
             throw new IllegalArgumentException("Quota category not defined.");
@@ -114,30 +136,36 @@ public final class RateLimiter {
         if (quotaCategory != QuotaCategory.QUOTA_CATEGORY_WRITE) {
             throw new IllegalArgumentException("Quota category must be QUOTA_CATEGORY_WRITE.");
         }
-        sLockAcrossAppQuota.writeLock().lock();
-        try {
-            synchronized (getLockObject(uid)) {
-                spendApiAndMemoryResourcesIfAvailable(
-                        uid,
-                        getAffectedAPIQuotaBuckets(quotaCategory, isInForeground),
-                        getAffectedMemoryQuotaBuckets(quotaCategory, isInForeground),
-                        DEFAULT_API_CALL_COST,
+
+        List<Integer> apiQuotaBuckets = getAffectedAPIQuotaBuckets(quotaCategory, isInForeground);
+        List<Integer> memoryQuotaBuckets =
+                getAffectedMemoryQuotaBuckets(quotaCategory, isInForeground);
+        QuotaStripe stripe = getQuotaStripe(uid);
+        synchronized (stripe) {
+            UidQuotas quotas = stripe.getUidQuotas(uid);
+            long now = System.currentTimeMillis();
+            if (!isInForeground) {
+                hasSufficientQuota(
+                        getAvailableAcrossAppsMemoryQuota(
+                                sAcrossAppsRemainingMemoryQuota.get(), now),
                         memoryCost,
-                        isInForeground);
+                        QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M);
             }
-        } finally {
-            sLockAcrossAppQuota.writeLock().unlock();
+            checkIfResourcesAreAvailable(quotas, apiQuotaBuckets, DEFAULT_API_CALL_COST, now);
+            checkIfResourcesAreAvailable(quotas, memoryQuotaBuckets, memoryCost, now);
+            if (!isInForeground) {
+                // Other apps may have spent the shared quota since it was checked, in which case
+                // this throws before anything is spent.
+                spendAcrossAppsMemoryQuota(memoryCost);
+            }
+            spendAvailableResources(quotas, apiQuotaBuckets, DEFAULT_API_CALL_COST, now);
+            spendAvailableResources(quotas, memoryQuotaBuckets, memoryCost, now);
         }
     }
 
     public static void checkMaxChunkMemoryUsage(long memoryCost) {
-        sLock.readLock().lock();
-        try {
-            if (!sRateLimiterEnabled) {
-                return;
-            }
-        } finally {
-            sLock.readLock().unlock();
+        if (!sRateLimiterEnabled) {
+            return;
         }
         long memoryLimit = getConfiguredMaxApiMemoryQuota(CHUNK_SIZE_LIMIT_IN_BYTES);
         if (memoryCost > memoryLimit) {
@@ -151,13 +179,8 @@ public final class RateLimiter {
     }
 
     public static void checkMaxRecordMemoryUsage(long memoryCost) {
-        sLock.readLock().lock();
-        try {
-            if (!sRateLimiterEnabled) {
-                return;
-            }
-        } finally {
-            sLock.readLock().unlock();
+        if (!sRateLimiterEnabled) {
+            return;
         }
         long memoryLimit = getConfiguredMaxApiMemoryQuota(RECORD_SIZE_LIMIT_IN_BYTES);
         if (memoryCost > memoryLimit) {
@@ -171,124 +194,86 @@ public final class RateLimiter {
     }
 
     public static void clearCache() {
-        sUserIdToQuotasMap.clear();
-        sQuotaBucketToAcrossAppsRemainingMemoryQuota.clear();
+        for (QuotaStripe stripe : sQuotaStripes) {
+            synchronized (stripe) {
+                stripe.mUidToQuotas.clear();
+            }
+        }
+        sAcrossAppsRemainingMemoryQuota.set(null);
     }
 
     public static void updateMaxRollingQuotaMap(
             Map<Integer, Integer> quotaBucketToMaxRollingQuotaMap) {
-
-        for (Integer key : quotaBucketToMaxRollingQuotaMap.keySet()) {
-            QUOTA_BUCKET_TO_MAX_ROLLING_QUOTA_MAP.put(
-                    key, (float) quotaBucketToMaxRollingQuotaMap.get(key));
+        synchronized (sConfigLock) {
+            float[] maxRollingQuotas = sQuotaBucketToMaxRollingQuota.clone();
+            for (Map.Entry<Integer, Integer> entry : quotaBucketToMaxRollingQuotaMap.entrySet()) {
+                maxRollingQuotas[entry.getKey()] = entry.getValue();
+            }
+            sQuotaBucketToMaxRollingQuota = maxRollingQuotas;
         }
     }
 
     public static void updateMemoryQuotaMap(Map<String, Integer> quotaBucketToMaxMemoryQuotaMap) {
-        for (String key : quotaBucketToMaxMemoryQuotaMap.keySet()) {
-            QUOTA_BUCKET_TO_MAX_MEMORY_QUOTA_MAP.put(key, quotaBucketToMaxMemoryQuotaMap.get(key));
+        synchronized (sConfigLock) {
+            Map<String, Integer> maxMemoryQuotas = new HashMap<>(sQuotaBucketToMaxMemoryQuota);
+            maxMemoryQuotas.putAll(quotaBucketToMaxMemoryQuotaMap);
+            sQuotaBucketToMaxMemoryQuota = maxMemoryQuotas;
         }
     }
 
     public static void updateEnableRateLimiterFlag(boolean enableRateLimiter) {
-        sLock.writeLock().lock();
-        try {
-            sRateLimiterEnabled = enableRateLimiter;
-        } finally {
-            sLock.writeLock().unlock();
-        }
-    }
-
-    @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
-    private static Object getLockObject(int uid) {
-        sLocks.putIfAbsent(uid, uid);
-        return sLocks.get(uid);
+        sRateLimiterEnabled = enableRateLimiter;
     }
 
-    private static void spendApiCallResourcesIfAvailable(
-            int uid, List<Integer> quotaBuckets, int cost) {
-        Map<Integer, Float> quotaBucketToAvailableQuotaMap =
-                getQuotaBucketToAvailableQuotaMap(uid, quotaBuckets);
-        checkIfResourcesAreAvailable(quotaBucketToAvailableQuotaMap, quotaBuckets, cost);
-        spendAvailableResources(uid, quotaBucketToAvailableQuotaMap, quotaBuckets, cost);
+    private static QuotaStripe getQuotaStripe(int uid) {
+        return sQuotaStripes[Math.floorMod(uid, NUM_LOCK_STRIPES)];
     }
 
-    private static void spendApiAndMemoryResourcesIfAvailable(
-            int uid,
-            List<Integer> apiQuotaBuckets,
-            List<Integer> memoryQuotaBuckets,
-            int cost,
-            long memoryCost,
-            boolean isInForeground) {
-        Map<Integer, Float> apiQuotaBucketToAvailableQuotaMap =
-                getQuotaBucketToAvailableQuotaMap(uid, apiQuotaBuckets);
-        Map<Integer, Float> memoryQuotaBucketToAvailableQuotaMap =
-                getQuotaBucketToAvailableQuotaMap(uid, memoryQuotaBuckets);
-        if (!isInForeground) {
-            hasSufficientQuota(
-                    getAvailableQuota(
-                            QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M,
-                            getQuota(QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M)),
-                    memoryCost,
-                    QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M);
-        }
-        checkIfResourcesAreAvailable(apiQuotaBucketToAvailableQuotaMap, apiQuotaBuckets, cost);
-        checkIfResourcesAreAvailable(
-                memoryQuotaBucketToAvailableQuotaMap, memoryQuotaBuckets, memoryCost);
-        if (!isInForeground) {
-            spendAvailableResources(
-                    getQuota(QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M),
-                    QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M,
-                    memoryCost);
-        }
-        spendAvailableResources(uid, apiQuotaBucketToAvailableQuotaMap, apiQuotaBuckets, cost);
-        spendAvailableResources(
-                uid, memoryQuotaBucketToAvailableQuotaMap, memoryQuotaBuckets, memoryCost);
-    }
-
-    @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
     private static void checkIfResourcesAreAvailable(
-            Map<Integer, Float> quotaBucketToAvailableQuotaMap,
-            List<Integer> quotaBuckets,
-            long cost) {
-        for (@QuotaBucket.Type int quotaBucket : quotaBuckets) {
-            hasSufficientQuota(quotaBucketToAvailableQuotaMap.get(quotaBucket), cost, quotaBucket);
+            UidQuotas quotas, List<Integer> quotaBuckets, long cost, long now) {
+        for (int i = 0; i < quotaBuckets.size(); i++) {
+            @QuotaBucket.Type int quotaBucket = quotaBuckets.get(i);
+            hasSufficientQuota(quotas.getAvailableQuota(quotaBucket, now), cost, quotaBucket);
         }
     }
 
-    private static void spendAvailableResources(Quota quota, Integer quotaBucket, long memoryCost) {
-        quota.setRemainingQuota(getAvailableQuota(quotaBucket, quota) - memoryCost);
-        quota.setLastUpdatedTime(Instant.now());
-    }
-
-    @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
     private static void spendAvailableResources(
-            int uid,
-            Map<Integer, Float> quotaBucketToAvailableQuotaMap,
-            List<Integer> quotaBuckets,
-            long cost) {
-        for (@QuotaBucket.Type int quotaBucket : quotaBuckets) {
-            spendResources(uid, quotaBucket, quotaBucketToAvailableQuotaMap.get(quotaBucket), cost);
+            UidQuotas quotas, List<Integer> quotaBuckets, long cost, long now) {
+        for (int i = 0; i < quotaBuckets.size(); i++) {
+            @QuotaBucket.Type int quotaBucket = quotaBuckets.get(i);
+            quotas.setRemainingQuota(
+                    quotaBucket, quotas.getAvailableQuota(quotaBucket, now) - cost, now);
         }
     }
 
-    @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
-    private static void spendResources(
-            int uid, @QuotaBucket.Type int quotaBucket, float availableQuota, long cost) {
-        sUserIdToQuotasMap
-                .get(uid)
-                .put(quotaBucket, new Quota(Instant.now(), availableQuota - cost));
+    private static void spendAcrossAppsMemoryQuota(long memoryCost) {
+        while (true) {
+            AcrossAppsQuota quota = sAcrossAppsRemainingMemoryQuota.get();
+            long now = System.currentTimeMillis();
+            float availableQuota = getAvailableAcrossAppsMemoryQuota(quota, now);
+            hasSufficientQuota(
+                    availableQuota,
+                    memoryCost,
+                    QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M);
+            if (sAcrossAppsRemainingMemoryQuota.compareAndSet(
+                    quota, new AcrossAppsQuota(availableQuota - memoryCost, now))) {
+                return;
+            }
+        }
     }
 
-    private static Map<Integer, Float> getQuotaBucketToAvailableQuotaMap(
-            int uid, List<Integer> quotaBuckets) {
-        return quotaBuckets.stream()
-                .collect(
-                        Collectors.toMap(
-                                quotaBucket -> quotaBucket,
-                                quotaBucket ->
-                                        getAvailableQuota(
-                                                quotaBucket, getQuota(uid, quotaBucket))));
+    private static float getAvailableAcrossAppsMemoryQuota(
+            @Nullable AcrossAppsQuota quota, long now) {
+        // Handles first request scenario.
+        if (quota == null) {
+            return getConfiguredMaxRollingQuota(
+                    QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M);
+        }
+        return getAvailableQuota(
+                QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M,
+                quota.mRemainingQuota,
+                quota.mLastUpdatedTimeMillis,
+                now);
     }
 
     private static void hasSufficientQuota(
@@ -304,60 +289,32 @@ public final class RateLimiter {
         }
     }
 
-    private static float getAvailableQuota(@QuotaBucket.Type int quotaBucket, Quota quota) {
-        Instant lastUpdatedTime = quota.getLastUpdatedTime();
-        Instant currentTime = Instant.now();
-        Duration timeSinceLastQuotaSpend = Duration.between(lastUpdatedTime, currentTime);
-        Duration window = getWindowDuration(quotaBucket);
+    private static float getAvailableQuota(
+            @QuotaBucket.Type int quotaBucket,
+            float remainingQuota,
+            long lastUpdatedTimeMillis,
+            long now) {
+        float maxQuota = getConfiguredMaxRollingQuota(quotaBucket);
         float accumulated =
-                timeSinceLastQuotaSpend.toMillis()
-                        * (getConfiguredMaxRollingQuota(quotaBucket) / (float) window.toMillis());
+                (now - lastUpdatedTimeMillis) * (maxQuota / (float) getWindowMillis(quotaBucket));
         // Cannot accumulate more than the configured max quota.
-        return Math.min(
-                quota.getRemainingQuota() + accumulated, getConfiguredMaxRollingQuota(quotaBucket));
+        return Math.min(remainingQuota + accumulated, maxQuota);
     }
 
-    private static Quota getQuota(int uid, @QuotaBucket.Type int quotaBucket) {
-        // Handles first request scenario.
-        if (!sUserIdToQuotasMap.containsKey(uid)) {
-            sUserIdToQuotasMap.put(uid, new HashMap<>());
-        }
-        Map<Integer, Quota> packageQuotas = sUserIdToQuotasMap.get(uid);
-        Quota quota = packageQuotas.get(quotaBucket);
-        if (quota == null) {
-            quota = getInitialQuota(quotaBucket);
-        }
-        return quota;
-    }
-
-    private static Quota getQuota(@QuotaBucket.Type int quotaBucket) {
-        // Handles first request scenario.
-        if (!sQuotaBucketToAcrossAppsRemainingMemoryQuota.containsKey(quotaBucket)) {
-            sQuotaBucketToAcrossAppsRemainingMemoryQuota.put(
-                    quotaBucket,
-                    new Quota(Instant.now(), getConfiguredMaxRollingQuota(quotaBucket)));
-        }
-        return sQuotaBucketToAcrossAppsRemainingMemoryQuota.get(quotaBucket);
-    }
-
-    private static Quota getInitialQuota(@QuotaBucket.Type int bucket) {
-        return new Quota(Instant.now(), getConfiguredMaxRollingQuota(bucket));
-    }
-
-    private static Duration getWindowDuration(@QuotaBucket.Type int quotaBucket) {
+    private static long getWindowMillis(@QuotaBucket.Type int quotaBucket) {
         switch (quotaBucket) {
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND:
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_24H_BACKGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_24H_FOREGROUND:
-                return Duration.ofHours(24);
+                return WINDOW_24H_MILLIS;
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_15M_FOREGROUND:
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_FOREGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_15M_BACKGROUND:
             case QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_ACROSS_APPS_15M:
             case QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_PER_APP_15M:
-                return Duration.ofMinutes(15);
+                return WINDOW_15M_MILLIS;
             case QuotaBucket.QUOTA_BUCKET_UNDEFINED:
                 throw new IllegalArgumentException("Invalid quota bucket.");
         }
@@ -365,44 +322,36 @@ public final class RateLimiter {
     }
 
     private static float getConfiguredMaxRollingQuota(@QuotaBucket.Type int quotaBucket) {
-        if (!QUOTA_BUCKET_TO_MAX_ROLLING_QUOTA_MAP.containsKey(quotaBucket)) {
+        float[] maxRollingQuotas = sQuotaBucketToMaxRollingQuota;
+        if (quotaBucket < 0
+                || quotaBucket >= maxRollingQuotas.length
+                || Float.isNaN(maxRollingQuotas[quotaBucket])) {
             throw new IllegalArgumentException(
                     "Max quota not found for quotaBucket: " + quotaBucket);
         }
-        return QUOTA_BUCKET_TO_MAX_ROLLING_QUOTA_MAP.get(quotaBucket);
+        return maxRollingQuotas[quotaBucket];
     }
 
     private static int getConfiguredMaxApiMemoryQuota(String quotaBucket) {
-        if (!QUOTA_BUCKET_TO_MAX_MEMORY_QUOTA_MAP.containsKey(quotaBucket)) {
+        Integer maxMemoryQuota = sQuotaBucketToMaxMemoryQuota.get(quotaBucket);
+        if (maxMemoryQuota == null) {
             throw new IllegalArgumentException(
                     "Max quota not found for quotaBucket: " + quotaBucket);
         }
-        return QUOTA_BUCKET_TO_MAX_MEMORY_QUOTA_MAP.get(quotaBucket);
+        return maxMemoryQuota;
     }
 
     private static List<Integer> getAffectedAPIQuotaBuckets(
             @QuotaCategory.Type int quotaCategory, boolean isInForeground) {
         switch (quotaCategory) {
             case QuotaCategory.QUOTA_CATEGORY_READ:
-                if (isInForeground) {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_15M_FOREGROUND,
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_24H_FOREGROUND);
-                } else {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_15M_BACKGROUND,
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_24H_BACKGROUND);
-                }
+                return isInForeground
+                        ? READS_FOREGROUND_QUOTA_BUCKETS
+                        : READS_BACKGROUND_QUOTA_BUCKETS;
             case QuotaCategory.QUOTA_CATEGORY_WRITE:
-                if (isInForeground) {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_FOREGROUND,
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND);
-                } else {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND,
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND);
-                }
+                return isInForeground
+                        ? WRITES_FOREGROUND_QUOTA_BUCKETS
+                        : WRITES_BACKGROUND_QUOTA_BUCKETS;
             case QuotaCategory.QUOTA_CATEGORY_UNDEFINED:
             case QuotaCategory.QUOTA_CATEGORY_UNMETERED:
                 throw new IllegalArgumentException("Invalid quota category.");
@@ -414,11 +363,7 @@ public final class RateLimiter {
             @QuotaCategory.Type int quotaCategory, boolean isInForeground) {
         switch (quotaCategory) {
             case QuotaCategory.QUOTA_CATEGORY_WRITE:
-                if (isInForeground) {
-                    return List.of();
-                } else {
-                    return List.of(QuotaBucket.QUOTA_BUCKET_DATA_PUSH_LIMIT_PER_APP_15M);
-                }
+                return isInForeground ? List.of() : MEMORY_BACKGROUND_QUOTA_BUCKETS;
             case QuotaCategory.QUOTA_CATEGORY_READ:
             case QuotaCategory.QUOTA_CATEGORY_UNDEFINED:
             case QuotaCategory.QUOTA_CATEGORY_UNMETERED:
@@ -427,6 +372,63 @@ public final class RateLimiter {
         throw new IllegalArgumentException("Invalid quota category.");
     }
 
+    private static float[] newUnconfiguredQuotas() {
+        float[] quotas = new float[NUM_QUOTA_BUCKETS];
+        Arrays.fill(quotas, Float.NaN);
+        return quotas;
+    }
+
+    /** Quotas of the UIDs in one lock stripe. */
+    private static final class QuotaStripe {
+        @GuardedBy("this")
+        private final SparseArray<UidQuotas> mUidToQuotas = new SparseArray<>();
+
+        @GuardedBy("this")
+        UidQuotas getUidQuotas(int uid) {
+            UidQuotas quotas = mUidToQuotas.get(uid);
+            if (quotas == null) {
+                quotas = new UidQuotas();
+                mUidToQuotas.put(uid, quotas);
+            }
+            return quotas;
+        }
+    }
+
+    /** Remaining quota of each quota bucket of one UID, guarded by its {@link QuotaStripe}. */
+    private static final class UidQuotas {
+        private final float[] mRemainingQuotas = new float[NUM_QUOTA_BUCKETS];
+        // 0 if the quota bucket hasn't been spent from yet, in which case its full quota is
+        // available.
+        private final long[] mLastUpdatedTimesMillis = new long[NUM_QUOTA_BUCKETS];
+
+        float getAvailableQuota(@QuotaBucket.Type int quotaBucket, long now) {
+            // Handles first request scenario.
+            if (mLastUpdatedTimesMillis[quotaBucket] == 0) {
+                return getConfiguredMaxRollingQuota(quotaBucket);
+            }
+            return RateLimiter.getAvailableQuota(
+                    quotaBucket,
+                    mRemainingQuotas[quotaBucket],
+                    mLastUpdatedTimesMillis[quotaBucket],
+                    now);
+        }
+
+        void setRemainingQuota(@QuotaBucket.Type int quotaBucket, float remainingQuota, long now) {
+            mRemainingQuotas[quotaBucket] = remainingQuota;
+            mLastUpdatedTimesMillis[quotaBucket] = now;
+        }
+    }
+
+    private static final class AcrossAppsQuota {
+        private final float mRemainingQuota;
+        private final long mLastUpdatedTimeMillis;
+
+        AcrossAppsQuota(float remainingQuota, long lastUpdatedTimeMillis) {
+            mRemainingQuota = remainingQuota;
+            mLastUpdatedTimeMillis = lastUpdatedTimeMillis;
+        }
+    }
+
     public static final class QuotaBucket {
         public static final int QUOTA_BUCKET_UNDEFINED = 0;
         public static final int QUOTA_BUCKET_READS_PER_15M_FOREGROUND = 1;
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_GONE;
+
+import android.annotation.NonNull;
+import android.app.ActivityManager;
+import android.util.SparseBooleanArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+/**
+ * Tracks which UIDs are in foreground, i.e. have importance {@link
+ * ActivityManager.RunningAppProcessInfo#IMPORTANCE_FOREGROUND}.
+ *
+ * <p>The state of each UID is cached and kept up to date by importance changes reported by {@link
+ * ActivityManager}, so that checking it doesn't need a call into the activity manager for every
+ * request. The importance of a UID is only queried the first time it's checked, or again once all
+ * its processes are gone.
+ *
+ * @hide
+ */
+final class ForegroundUidTracker implements ActivityManager.OnUidImportanceListener {
+    private final ActivityManager mActivityManager;
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final SparseBooleanArray mForegroundUids = new SparseBooleanArray();
+
+    ForegroundUidTracker(@NonNull ActivityManager activityManager) {
+        mActivityManager = activityManager;
+        mActivityManager.addOnUidImportanceListener(this, IMPORTANCE_FOREGROUND);
+    }
+
+    /** Returns whether {@code uid} is currently in foreground. */
+    boolean isUidInForeground(int uid) {
+        synchronized (mLock) {
+            int index = mForegroundUids.indexOfKey(uid);
+            if (index >= 0) {
+                return mForegroundUids.valueAt(index);
+            }
+        }
+
+        boolean isInForeground = isForeground(mActivityManager.getUidImportance(uid));
+        synchronized (mLock) {
+            // A change reported meanwhile is more recent than the queried importance.
+            int index = mForegroundUids.indexOfKey(uid);
+            if (index >= 0) {
+                return mForegroundUids.valueAt(index);
+            }
+            mForegroundUids.put(uid, isInForeground);
+        }
+        return isInForeground;
+    }
+
+    @Override
+    public void onUidImportance(int uid, int importance) {
+        synchronized (mLock) {
+            if (importance == IMPORTANCE_GONE) {
+                mForegroundUids.delete(uid);
+            } else {
+                mForegroundUids.put(uid, isForeground(importance));
+            }
+        }
+    }
+
+    private static boolean isForeground(int importance) {
+        return importance <= IMPORTANCE_FOREGROUND;
+    }
+}
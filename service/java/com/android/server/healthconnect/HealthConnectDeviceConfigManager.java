@@ -26,6 +26,7 @@ import android.util.ArraySet;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.healthconnect.storage.datatypehelpers.SeriesRecordHelper;
 
 import java.time.Duration;
 import java.util.HashMap;
@@ -33,7 +34,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Singleton class to provide values and listen changes of settings flags.
@@ -126,6 +126,17 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
     public static final String ENABLE_AGGREGATION_SOURCE_CONTROLS_FLAG =
             "aggregation_source_controls_enable";
 
+    @VisibleForTesting
+    public static final String FOREGROUND_THREAD_COUNT_FLAG = "foreground_thread_count";
+
+    @VisibleForTesting
+    public static final String BACKGROUND_THREAD_COUNT_FLAG = "background_thread_count";
+
+    @VisibleForTesting
+    public static final String PACKED_SERIES_SAMPLES_FLAG = "packed_series_samples_enable";
+
+    @VisibleForTesting public static final String READ_PARALLELISM_FLAG = "read_parallelism";
+
     private static final boolean SESSION_DATATYPE_DEFAULT_FLAG_VALUE = true;
     private static final boolean EXERCISE_ROUTE_DEFAULT_FLAG_VALUE = true;
     private static final boolean EXERCISE_ROUTES_READ_ALL_DEFAULT_FLAG_VALUE = true;
@@ -178,133 +189,25 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
     @VisibleForTesting
     public static final boolean ENABLE_AGGREGATION_SOURCE_CONTROLS_DEFAULT_FLAG_VALUE = true;
 
+    public static final int FOREGROUND_THREAD_COUNT_DEFAULT_FLAG_VALUE = 4;
+    public static final int BACKGROUND_THREAD_COUNT_DEFAULT_FLAG_VALUE = 2;
+    public static final int READ_PARALLELISM_DEFAULT_FLAG_VALUE = 4;
+
+    @VisibleForTesting public static final boolean PACKED_SERIES_SAMPLES_DEFAULT_FLAG_VALUE = false;
+
     @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
     private static HealthConnectDeviceConfigManager sDeviceConfigManager;
 
-    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
     private static final String HEALTH_FITNESS_NAMESPACE = DeviceConfig.NAMESPACE_HEALTH_FITNESS;
 
-    @GuardedBy("mLock")
-    private boolean mExerciseRouteEnabled =
-            DeviceConfig.getBoolean(
-                    HEALTH_FITNESS_NAMESPACE,
-                    EXERCISE_ROUTE_FEATURE_FLAG,
-                    EXERCISE_ROUTE_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private boolean mExerciseRoutesReadAllEnabled =
-            DeviceConfig.getBoolean(
-                    HEALTH_FITNESS_NAMESPACE,
-                    EXERCISE_ROUTES_READ_ALL_FEATURE_FLAG,
-                    EXERCISE_ROUTES_READ_ALL_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private boolean mSessionDatatypeEnabled =
-            DeviceConfig.getBoolean(
-                    HEALTH_FITNESS_NAMESPACE,
-                    SESSION_DATATYPE_FEATURE_FLAG,
-                    SESSION_DATATYPE_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private int mMigrationStateInProgressCount =
-            DeviceConfig.getInt(
-                    HEALTH_FITNESS_NAMESPACE,
-                    COUNT_MIGRATION_STATE_IN_PROGRESS_FLAG,
-                    MIGRATION_STATE_IN_PROGRESS_COUNT_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private int mMigrationStateAllowedCount =
-            DeviceConfig.getInt(
-                    HEALTH_FITNESS_NAMESPACE,
-                    COUNT_MIGRATION_STATE_ALLOWED_FLAG,
-                    MIGRATION_STATE_ALLOWED_COUNT_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private int mMaxStartMigrationCalls =
-            DeviceConfig.getInt(
-                    HEALTH_FITNESS_NAMESPACE,
-                    MAX_START_MIGRATION_CALLS_ALLOWED_FLAG,
-                    MAX_START_MIGRATION_CALLS_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private int mIdleStateTimeoutPeriod =
-            DeviceConfig.getInt(
-                    HEALTH_FITNESS_NAMESPACE,
-                    IDLE_STATE_TIMEOUT_DAYS_FLAG,
-                    IDLE_STATE_TIMEOUT_DAYS_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private int mNonIdleStateTimeoutPeriod =
-            DeviceConfig.getInt(
-                    HEALTH_FITNESS_NAMESPACE,
-                    NON_IDLE_STATE_TIMEOUT_DAYS_FLAG,
-                    NON_IDLE_STATE_TIMEOUT_DAYS_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private int mInProgressStateTimeoutPeriod =
-            DeviceConfig.getInt(
-                    HEALTH_FITNESS_NAMESPACE,
-                    IN_PROGRESS_STATE_TIMEOUT_HOURS_FLAG,
-                    IN_PROGRESS_STATE_TIMEOUT_HOURS_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private int mExecutionTimeBuffer =
-            DeviceConfig.getInt(
-                    HEALTH_FITNESS_NAMESPACE,
-                    EXECUTION_TIME_BUFFER_MINUTES_FLAG,
-                    EXECUTION_TIME_BUFFER_MINUTES_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private int mMigrationCompletionJobRunInterval =
-            DeviceConfig.getInt(
-                    HEALTH_FITNESS_NAMESPACE,
-                    MIGRATION_COMPLETION_JOB_RUN_INTERVAL_DAYS_FLAG,
-                    MIGRATION_COMPLETION_JOB_RUN_INTERVAL_DAYS_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private int mMigrationPauseJobRunInterval =
-            DeviceConfig.getInt(
-                    HEALTH_FITNESS_NAMESPACE,
-                    MIGRATION_PAUSE_JOB_RUN_INTERVAL_HOURS_FLAG,
-                    MIGRATION_PAUSE_JOB_RUN_INTERVAL_HOURS_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private boolean mEnablePauseStateChangeJob =
-            DeviceConfig.getBoolean(
-                    HEALTH_FITNESS_NAMESPACE,
-                    ENABLE_PAUSE_STATE_CHANGE_JOBS_FLAG,
-                    ENABLE_PAUSE_STATE_CHANGE_JOB_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private boolean mEnableCompleteStateChangeJob =
-            DeviceConfig.getBoolean(
-                    HEALTH_FITNESS_NAMESPACE,
-                    ENABLE_COMPLETE_STATE_CHANGE_JOBS_FLAG,
-                    ENABLE_COMPLETE_STATE_CHANGE_JOB_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private boolean mEnableMigrationNotifications =
-            DeviceConfig.getBoolean(
-                    HEALTH_FITNESS_NAMESPACE,
-                    ENABLE_MIGRATION_NOTIFICATIONS_FLAG,
-                    ENABLE_MIGRATION_NOTIFICATIONS_DEFAULT_FLAG_VALUE);
-
-    @GuardedBy("mLock")
-    private boolean mBackgroundReadFeatureEnabled =
-            DeviceConfig.getBoolean(
-                    HEALTH_FITNESS_NAMESPACE,
-                    BACKGROUND_READ_FEATURE_FLAG,
-                    BACKGROUND_READ_DEFAULT_FLAG_VALUE);
+    private final Object mLock = new Object();
 
+    // Flag values the current snapshot was built from.
     @GuardedBy("mLock")
-    private boolean mHistoryReadFeatureEnabled =
-            DeviceConfig.getBoolean(
-                    HEALTH_FITNESS_NAMESPACE,
-                    HISTORY_READ_FEATURE_FLAG,
-                    HISTORY_READ_DEFAULT_FLAG_VALUE);
+    private DeviceConfig.Properties mProperties =
+            DeviceConfig.getProperties(HEALTH_FITNESS_NAMESPACE);
 
-    @GuardedBy("mLock")
-    private boolean mAggregationSourceControlsEnabled = true;
+    private volatile Snapshot mSnapshot = new Snapshot(mProperties);
 
     @NonNull
     @VisibleForTesting(visibility = VisibleForTesting.Visibility.PACKAGE)
@@ -314,6 +217,9 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
             DeviceConfig.addOnPropertiesChangedListener(
                     HEALTH_FITNESS_NAMESPACE, context.getMainExecutor(), sDeviceConfigManager);
             addFlagsToTrack();
+            sDeviceConfigManager.updateThreadCounts();
+            SeriesRecordHelper.setPackedSamplesEnabled(
+                    sDeviceConfigManager.isPackedSeriesSamplesEnabled());
         }
     }
 
@@ -346,43 +252,25 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
         sFlagsToTrack.add(BACKGROUND_READ_FEATURE_FLAG);
         sFlagsToTrack.add(HISTORY_READ_FEATURE_FLAG);
         sFlagsToTrack.add(ENABLE_AGGREGATION_SOURCE_CONTROLS_FLAG);
+        sFlagsToTrack.add(FOREGROUND_THREAD_COUNT_FLAG);
+        sFlagsToTrack.add(BACKGROUND_THREAD_COUNT_FLAG);
+        sFlagsToTrack.add(PACKED_SERIES_SAMPLES_FLAG);
+        sFlagsToTrack.add(READ_PARALLELISM_FLAG);
     }
 
     /** Returns if operations with exercise route are enabled. */
     public boolean isExerciseRouteFeatureEnabled() {
-        mLock.readLock().lock();
-        try {
-            return mExerciseRouteEnabled;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.isExerciseRouteFeatureEnabled();
     }
 
     /** Returns true if READ_EXERCISE_ROUTES permission is effective. */
     public boolean isExerciseRoutesReadAllFeatureEnabled() {
-        mLock.readLock().lock();
-        try {
-            return mExerciseRoutesReadAllEnabled;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.isExerciseRoutesReadAllFeatureEnabled();
     }
 
-    @GuardedBy("mLock")
-    private boolean mRateLimiterEnabled =
-            DeviceConfig.getBoolean(
-                    DeviceConfig.NAMESPACE_HEALTH_FITNESS,
-                    ENABLE_RATE_LIMITER_FLAG,
-                    ENABLE_RATE_LIMITER_DEFAULT_FLAG_VALUE);
-
     /** Returns if operations with sessions datatypes are enabled. */
     public boolean isSessionDatatypeFeatureEnabled() {
-        mLock.readLock().lock();
-        try {
-            return mSessionDatatypeEnabled;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.isSessionDatatypeFeatureEnabled();
     }
 
     /**
@@ -390,12 +278,7 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
      * android.health.connect.HealthConnectDataState.MIGRATION_STATE_IN_PROGRESS}.
      */
     public int getMigrationStateInProgressCount() {
-        mLock.readLock().lock();
-        try {
-            return mMigrationStateInProgressCount;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.getMigrationStateInProgressCount();
     }
 
     /**
@@ -403,22 +286,12 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
      * android.health.connect.HealthConnectDataState.MIGRATION_STATE_ALLOWED}.
      */
     public int getMigrationStateAllowedCount() {
-        mLock.readLock().lock();
-        try {
-            return mMigrationStateAllowedCount;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.getMigrationStateAllowedCount();
     }
 
     /** Returns the maximum number of start migration calls allowed. */
     public int getMaxStartMigrationCalls() {
-        mLock.readLock().lock();
-        try {
-            return mMaxStartMigrationCalls;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.getMaxStartMigrationCalls();
     }
 
     /**
@@ -426,22 +299,12 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
      * android.health.connect.HealthConnectDataState.MIGRATION_STATE_IDLE}.
      */
     public Duration getIdleStateTimeoutPeriod() {
-        mLock.readLock().lock();
-        try {
-            return Duration.ofDays(mIdleStateTimeoutPeriod);
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.getIdleStateTimeoutPeriod();
     }
 
     /** Returns the timeout period of non-idle migration states. */
     public Duration getNonIdleStateTimeoutPeriod() {
-        mLock.readLock().lock();
-        try {
-            return Duration.ofDays(mNonIdleStateTimeoutPeriod);
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.getNonIdleStateTimeoutPeriod();
     }
 
     /**
@@ -449,102 +312,76 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
      * android.health.connect.HealthConnectDataState.MIGRATION_STATE_IN_PROGRESS}.
      */
     public Duration getInProgressStateTimeoutPeriod() {
-        mLock.readLock().lock();
-        try {
-            return Duration.ofHours(mInProgressStateTimeoutPeriod);
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.getInProgressStateTimeoutPeriod();
     }
 
     /** Returns the time buffer kept to ensure that job execution is not skipped. */
     public long getExecutionTimeBuffer() {
-        mLock.readLock().lock();
-        try {
-            return TimeUnit.MINUTES.toMillis(mExecutionTimeBuffer);
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.getExecutionTimeBuffer();
     }
 
     /** Returns the time interval at which the migration completion job will run periodically. */
     public long getMigrationCompletionJobRunInterval() {
-        mLock.readLock().lock();
-        try {
-            return TimeUnit.DAYS.toMillis(mMigrationCompletionJobRunInterval);
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.getMigrationCompletionJobRunInterval();
     }
 
     /** Returns the time interval at which the migration pause job will run periodically. */
     public long getMigrationPauseJobRunInterval() {
-        mLock.readLock().lock();
-        try {
-            return TimeUnit.HOURS.toMillis(mMigrationPauseJobRunInterval);
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.getMigrationPauseJobRunInterval();
     }
 
     /** Returns if migration pause change jobs are enabled. */
     public boolean isPauseStateChangeJobEnabled() {
-        mLock.readLock().lock();
-        try {
-            return mEnablePauseStateChangeJob;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.isPauseStateChangeJobEnabled();
     }
 
     /** Returns if migration completion jobs are enabled. */
     public boolean isCompleteStateChangeJobEnabled() {
-        mLock.readLock().lock();
-        try {
-            return mEnableCompleteStateChangeJob;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.isCompleteStateChangeJobEnabled();
     }
 
     /** Returns if migration notifications are enabled. */
     public boolean areMigrationNotificationsEnabled() {
-        mLock.readLock().lock();
-        try {
-            return mEnableMigrationNotifications;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.areMigrationNotificationsEnabled();
     }
 
     /** Returns whether reading in background is enabled or not. */
     public boolean isBackgroundReadFeatureEnabled() {
-        mLock.readLock().lock();
-        try {
-            return mBackgroundReadFeatureEnabled;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.isBackgroundReadFeatureEnabled();
     }
 
     /** Returns whether full history reading is enabled or not. */
     public boolean isHistoryReadFeatureEnabled() {
-        mLock.readLock().lock();
-        try {
-            return mHistoryReadFeatureEnabled;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.isHistoryReadFeatureEnabled();
     }
 
     /** Returns whether the new aggregation source control feature is enabled or not. */
     public boolean isAggregationSourceControlsEnabled() {
-        mLock.readLock().lock();
-        try {
-            return mAggregationSourceControlsEnabled;
-        } finally {
-            mLock.readLock().unlock();
-        }
+        return mSnapshot.isAggregationSourceControlsEnabled();
+    }
+
+    /** Returns whether samples of series records are written packed into a single blob. */
+    public boolean isPackedSeriesSamplesEnabled() {
+        return mSnapshot.isPackedSeriesSamplesEnabled();
+    }
+
+    /** Updates the thread counts used by {@link HealthConnectThreadScheduler}. */
+    private void updateThreadCounts() {
+        Snapshot snapshot = mSnapshot;
+        HealthConnectThreadScheduler.setClientThreadCounts(
+                snapshot.mForegroundThreadCount, snapshot.mBackgroundThreadCount);
+        HealthConnectThreadScheduler.setReadParallelism(snapshot.mReadParallelism);
+    }
+
+    /**
+     * Returns the current values of all flags.
+     *
+     * <p>Reading several flags from the same snapshot guarantees that they are consistent with each
+     * other, even if the flags change in between.
+     */
+    @NonNull
+    public Snapshot getSnapshot() {
+        return mSnapshot;
     }
 
     /** Updates rate limiting quota values. */
@@ -625,12 +462,7 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
                         RECORD_SIZE_LIMIT_IN_BYTES_DEFAULT_FLAG_VALUE));
         RateLimiter.updateMaxRollingQuotaMap(quotaBucketToMaxRollingQuotaMap);
         RateLimiter.updateMemoryQuotaMap(quotaBucketToMaxMemoryQuotaMap);
-        mLock.readLock().lock();
-        try {
-            RateLimiter.updateEnableRateLimiterFlag(mRateLimiterEnabled);
-        } finally {
-            mLock.readLock().unlock();
-        }
+        RateLimiter.updateEnableRateLimiterFlag(mSnapshot.mRateLimiterEnabled);
     }
 
     @Override
@@ -641,125 +473,269 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
 
         Set<String> changedFlags = new ArraySet<>(properties.getKeyset());
         changedFlags.retainAll(sFlagsToTrack);
+        if (changedFlags.isEmpty()) {
+            return;
+        }
+
+        Snapshot snapshot;
+        synchronized (mLock) {
+            DeviceConfig.Properties.Builder builder =
+                    new DeviceConfig.Properties.Builder(HEALTH_FITNESS_NAMESPACE);
+            for (String name : mProperties.getKeyset()) {
+                builder.setString(name, mProperties.getString(name, null));
+            }
+            for (String name : changedFlags) {
+                builder.setString(name, properties.getString(name, null));
+            }
+            mProperties = builder.build();
+            snapshot = new Snapshot(mProperties);
+            mSnapshot = snapshot;
+        }
 
         for (String name : changedFlags) {
-            try {
-                mLock.writeLock().lock();
-                switch (name) {
-                    case EXERCISE_ROUTE_FEATURE_FLAG:
-                        mExerciseRouteEnabled =
-                                properties.getBoolean(
-                                        EXERCISE_ROUTE_FEATURE_FLAG,
-                                        EXERCISE_ROUTE_DEFAULT_FLAG_VALUE);
-                        break;
-                    case EXERCISE_ROUTES_READ_ALL_FEATURE_FLAG:
-                        mExerciseRoutesReadAllEnabled =
-                                properties.getBoolean(
-                                        EXERCISE_ROUTES_READ_ALL_FEATURE_FLAG,
-                                        EXERCISE_ROUTES_READ_ALL_DEFAULT_FLAG_VALUE);
-                        break;
-                    case SESSION_DATATYPE_FEATURE_FLAG:
-                        mSessionDatatypeEnabled =
-                                properties.getBoolean(
-                                        SESSION_DATATYPE_FEATURE_FLAG,
-                                        SESSION_DATATYPE_DEFAULT_FLAG_VALUE);
-                        break;
-                    case ENABLE_RATE_LIMITER_FLAG:
-                        mRateLimiterEnabled =
-                                properties.getBoolean(
-                                        ENABLE_RATE_LIMITER_FLAG,
-                                        ENABLE_RATE_LIMITER_DEFAULT_FLAG_VALUE);
-                        RateLimiter.updateEnableRateLimiterFlag(mRateLimiterEnabled);
-                        break;
-                    case COUNT_MIGRATION_STATE_IN_PROGRESS_FLAG:
-                        mMigrationStateInProgressCount =
-                                properties.getInt(
-                                        COUNT_MIGRATION_STATE_IN_PROGRESS_FLAG,
-                                        MIGRATION_STATE_IN_PROGRESS_COUNT_DEFAULT_FLAG_VALUE);
-                        break;
-                    case COUNT_MIGRATION_STATE_ALLOWED_FLAG:
-                        mMigrationStateAllowedCount =
-                                properties.getInt(
-                                        COUNT_MIGRATION_STATE_ALLOWED_FLAG,
-                                        MIGRATION_STATE_ALLOWED_COUNT_DEFAULT_FLAG_VALUE);
-                        break;
-                    case MAX_START_MIGRATION_CALLS_ALLOWED_FLAG:
-                        mMaxStartMigrationCalls =
-                                properties.getInt(
-                                        MAX_START_MIGRATION_CALLS_ALLOWED_FLAG,
-                                        MAX_START_MIGRATION_CALLS_DEFAULT_FLAG_VALUE);
-                        break;
-                    case IDLE_STATE_TIMEOUT_DAYS_FLAG:
-                        mIdleStateTimeoutPeriod =
-                                properties.getInt(
-                                        IDLE_STATE_TIMEOUT_DAYS_FLAG,
-                                        IDLE_STATE_TIMEOUT_DAYS_DEFAULT_FLAG_VALUE);
-                        break;
-                    case NON_IDLE_STATE_TIMEOUT_DAYS_FLAG:
-                        mNonIdleStateTimeoutPeriod =
-                                properties.getInt(
-                                        NON_IDLE_STATE_TIMEOUT_DAYS_FLAG,
-                                        NON_IDLE_STATE_TIMEOUT_DAYS_DEFAULT_FLAG_VALUE);
-                        break;
-                    case IN_PROGRESS_STATE_TIMEOUT_HOURS_FLAG:
-                        mInProgressStateTimeoutPeriod =
-                                properties.getInt(
-                                        IN_PROGRESS_STATE_TIMEOUT_HOURS_FLAG,
-                                        IN_PROGRESS_STATE_TIMEOUT_HOURS_DEFAULT_FLAG_VALUE);
-                        break;
-                    case EXECUTION_TIME_BUFFER_MINUTES_FLAG:
-                        mExecutionTimeBuffer =
-                                properties.getInt(
-                                        EXECUTION_TIME_BUFFER_MINUTES_FLAG,
-                                        EXECUTION_TIME_BUFFER_MINUTES_DEFAULT_FLAG_VALUE);
-                        break;
-                    case MIGRATION_COMPLETION_JOB_RUN_INTERVAL_DAYS_FLAG:
-                        mMigrationCompletionJobRunInterval =
-                                properties.getInt(
-                                        MIGRATION_COMPLETION_JOB_RUN_INTERVAL_DAYS_FLAG,
-                                        MIGRATION_COMPLETION_JOB_RUN_INTERVAL_DAYS_DEFAULT_FLAG_VALUE);
-                        break;
-                    case MIGRATION_PAUSE_JOB_RUN_INTERVAL_HOURS_FLAG:
-                        mMigrationPauseJobRunInterval =
-                                properties.getInt(
-                                        MIGRATION_PAUSE_JOB_RUN_INTERVAL_HOURS_FLAG,
-                                        MIGRATION_PAUSE_JOB_RUN_INTERVAL_HOURS_DEFAULT_FLAG_VALUE);
-                        break;
-                    case ENABLE_PAUSE_STATE_CHANGE_JOBS_FLAG:
-                        mEnablePauseStateChangeJob =
-                                properties.getBoolean(
-                                        ENABLE_PAUSE_STATE_CHANGE_JOBS_FLAG,
-                                        ENABLE_PAUSE_STATE_CHANGE_JOB_DEFAULT_FLAG_VALUE);
-                        break;
-                    case ENABLE_COMPLETE_STATE_CHANGE_JOBS_FLAG:
-                        mEnableCompleteStateChangeJob =
-                                properties.getBoolean(
-                                        ENABLE_COMPLETE_STATE_CHANGE_JOBS_FLAG,
-                                        ENABLE_COMPLETE_STATE_CHANGE_JOB_DEFAULT_FLAG_VALUE);
-                        break;
-                    case ENABLE_MIGRATION_NOTIFICATIONS_FLAG:
-                        mEnableMigrationNotifications =
-                                properties.getBoolean(
-                                        ENABLE_MIGRATION_NOTIFICATIONS_FLAG,
-                                        ENABLE_MIGRATION_NOTIFICATIONS_DEFAULT_FLAG_VALUE);
-                        break;
-                    case BACKGROUND_READ_FEATURE_FLAG:
-                        mBackgroundReadFeatureEnabled =
-                                properties.getBoolean(
-                                        BACKGROUND_READ_FEATURE_FLAG,
-                                        BACKGROUND_READ_DEFAULT_FLAG_VALUE);
-                        break;
-                    case HISTORY_READ_FEATURE_FLAG:
-                        mHistoryReadFeatureEnabled =
-                                properties.getBoolean(
-                                        HISTORY_READ_FEATURE_FLAG, HISTORY_READ_DEFAULT_FLAG_VALUE);
-                        break;
-                    case ENABLE_AGGREGATION_SOURCE_CONTROLS_FLAG:
-                        mAggregationSourceControlsEnabled = true;
-                }
-            } finally {
-                mLock.writeLock().unlock();
+            switch (name) {
+                case ENABLE_RATE_LIMITER_FLAG:
+                    RateLimiter.updateEnableRateLimiterFlag(snapshot.mRateLimiterEnabled);
+                    break;
+                case FOREGROUND_THREAD_COUNT_FLAG:
+                case BACKGROUND_THREAD_COUNT_FLAG:
+                    HealthConnectThreadScheduler.setClientThreadCounts(
+                            snapshot.mForegroundThreadCount, snapshot.mBackgroundThreadCount);
+                    break;
+                case PACKED_SERIES_SAMPLES_FLAG:
+                    SeriesRecordHelper.setPackedSamplesEnabled(
+                            snapshot.mPackedSeriesSamplesEnabled);
+                    break;
+                case READ_PARALLELISM_FLAG:
+                    HealthConnectThreadScheduler.setReadParallelism(snapshot.mReadParallelism);
+                    break;
+                default:
+                    break;
             }
         }
     }
+
+    /**
+     * Immutable values of all flags, published whenever a flag changes.
+     *
+     * @hide
+     */
+    public static final class Snapshot {
+        private final boolean mExerciseRouteEnabled;
+        private final boolean mExerciseRoutesReadAllEnabled;
+        private final boolean mSessionDatatypeEnabled;
+        private final int mMigrationStateInProgressCount;
+        private final int mMigrationStateAllowedCount;
+        private final int mMaxStartMigrationCalls;
+        private final int mIdleStateTimeoutPeriod;
+        private final int mNonIdleStateTimeoutPeriod;
+        private final int mInProgressStateTimeoutPeriod;
+        private final int mExecutionTimeBuffer;
+        private final int mMigrationCompletionJobRunInterval;
+        private final int mMigrationPauseJobRunInterval;
+        private final boolean mEnablePauseStateChangeJob;
+        private final boolean mEnableCompleteStateChangeJob;
+        private final boolean mEnableMigrationNotifications;
+        private final boolean mBackgroundReadFeatureEnabled;
+        private final boolean mHistoryReadFeatureEnabled;
+        private final boolean mAggregationSourceControlsEnabled;
+        private final int mForegroundThreadCount;
+        private final int mBackgroundThreadCount;
+        private final int mReadParallelism;
+        private final boolean mPackedSeriesSamplesEnabled;
+        private final boolean mRateLimiterEnabled;
+
+        private Snapshot(DeviceConfig.Properties properties) {
+            mExerciseRouteEnabled =
+                    properties.getBoolean(
+                            EXERCISE_ROUTE_FEATURE_FLAG, EXERCISE_ROUTE_DEFAULT_FLAG_VALUE);
+            mExerciseRoutesReadAllEnabled =
+                    properties.getBoolean(
+                            EXERCISE_ROUTES_READ_ALL_FEATURE_FLAG,
+                            EXERCISE_ROUTES_READ_ALL_DEFAULT_FLAG_VALUE);
+            mSessionDatatypeEnabled =
+                    properties.getBoolean(
+                            SESSION_DATATYPE_FEATURE_FLAG, SESSION_DATATYPE_DEFAULT_FLAG_VALUE);
+            mMigrationStateInProgressCount =
+                    properties.getInt(
+                            COUNT_MIGRATION_STATE_IN_PROGRESS_FLAG,
+                            MIGRATION_STATE_IN_PROGRESS_COUNT_DEFAULT_FLAG_VALUE);
+            mMigrationStateAllowedCount =
+                    properties.getInt(
+                            COUNT_MIGRATION_STATE_ALLOWED_FLAG,
+                            MIGRATION_STATE_ALLOWED_COUNT_DEFAULT_FLAG_VALUE);
+            mMaxStartMigrationCalls =
+                    properties.getInt(
+                            MAX_START_MIGRATION_CALLS_ALLOWED_FLAG,
+                            MAX_START_MIGRATION_CALLS_DEFAULT_FLAG_VALUE);
+            mIdleStateTimeoutPeriod =
+                    properties.getInt(
+                            IDLE_STATE_TIMEOUT_DAYS_FLAG,
+                            IDLE_STATE_TIMEOUT_DAYS_DEFAULT_FLAG_VALUE);
+            mNonIdleStateTimeoutPeriod =
+                    properties.getInt(
+                            NON_IDLE_STATE_TIMEOUT_DAYS_FLAG,
+                            NON_IDLE_STATE_TIMEOUT_DAYS_DEFAULT_FLAG_VALUE);
+            mInProgressStateTimeoutPeriod =
+                    properties.getInt(
+                            IN_PROGRESS_STATE_TIMEOUT_HOURS_FLAG,
+                            IN_PROGRESS_STATE_TIMEOUT_HOURS_DEFAULT_FLAG_VALUE);
+            mExecutionTimeBuffer =
+                    properties.getInt(
+                            EXECUTION_TIME_BUFFER_MINUTES_FLAG,
+                            EXECUTION_TIME_BUFFER_MINUTES_DEFAULT_FLAG_VALUE);
+            mMigrationCompletionJobRunInterval =
+                    properties.getInt(
+                            MIGRATION_COMPLETION_JOB_RUN_INTERVAL_DAYS_FLAG,
+                            MIGRATION_COMPLETION_JOB_RUN_INTERVAL_DAYS_DEFAULT_FLAG_VALUE);
+            mMigrationPauseJobRunInterval =
+                    properties.getInt(
+                            MIGRATION_PAUSE_JOB_RUN_INTERVAL_HOURS_FLAG,
+                            MIGRATION_PAUSE_JOB_RUN_INTERVAL_HOURS_DEFAULT_FLAG_VALUE);
+            mEnablePauseStateChangeJob =
+                    properties.getBoolean(
+                            ENABLE_PAUSE_STATE_CHANGE_JOBS_FLAG,
+                            ENABLE_PAUSE_STATE_CHANGE_JOB_DEFAULT_FLAG_VALUE);
+            mEnableCompleteStateChangeJob =
+                    properties.getBoolean(
+                            ENABLE_COMPLETE_STATE_CHANGE_JOBS_FLAG,
+                            ENABLE_COMPLETE_STATE_CHANGE_JOB_DEFAULT_FLAG_VALUE);
+            mEnableMigrationNotifications =
+                    properties.getBoolean(
+                            ENABLE_MIGRATION_NOTIFICATIONS_FLAG,
+                            ENABLE_MIGRATION_NOTIFICATIONS_DEFAULT_FLAG_VALUE);
+            mBackgroundReadFeatureEnabled =
+                    properties.getBoolean(
+                            BACKGROUND_READ_FEATURE_FLAG, BACKGROUND_READ_DEFAULT_FLAG_VALUE);
+            mHistoryReadFeatureEnabled =
+                    properties.getBoolean(
+                            HISTORY_READ_FEATURE_FLAG, HISTORY_READ_DEFAULT_FLAG_VALUE);
+            mAggregationSourceControlsEnabled = true;
+            mForegroundThreadCount =
+                    properties.getInt(
+                            FOREGROUND_THREAD_COUNT_FLAG,
+                            FOREGROUND_THREAD_COUNT_DEFAULT_FLAG_VALUE);
+            mBackgroundThreadCount =
+                    properties.getInt(
+                            BACKGROUND_THREAD_COUNT_FLAG,
+                            BACKGROUND_THREAD_COUNT_DEFAULT_FLAG_VALUE);
+            mReadParallelism =
+                    properties.getInt(READ_PARALLELISM_FLAG, READ_PARALLELISM_DEFAULT_FLAG_VALUE);
+            mPackedSeriesSamplesEnabled =
+                    properties.getBoolean(
+                            PACKED_SERIES_SAMPLES_FLAG, PACKED_SERIES_SAMPLES_DEFAULT_FLAG_VALUE);
+            mRateLimiterEnabled =
+                    properties.getBoolean(
+                            ENABLE_RATE_LIMITER_FLAG, ENABLE_RATE_LIMITER_DEFAULT_FLAG_VALUE);
+        }
+
+        /** Returns if operations with exercise route are enabled. */
+        public boolean isExerciseRouteFeatureEnabled() {
+            return mExerciseRouteEnabled;
+        }
+
+        /** Returns true if READ_EXERCISE_ROUTES permission is effective. */
+        public boolean isExerciseRoutesReadAllFeatureEnabled() {
+            return mExerciseRoutesReadAllEnabled;
+        }
+
+        /** Returns if operations with sessions datatypes are enabled. */
+        public boolean isSessionDatatypeFeatureEnabled() {
+            return mSessionDatatypeEnabled;
+        }
+
+        /**
+         * Returns the required count for {@link
+         * android.health.connect.HealthConnectDataState.MIGRATION_STATE_IN_PROGRESS}.
+         */
+        public int getMigrationStateInProgressCount() {
+            return mMigrationStateInProgressCount;
+        }
+
+        /**
+         * Returns the required count for {@link
+         * android.health.connect.HealthConnectDataState.MIGRATION_STATE_ALLOWED}.
+         */
+        public int getMigrationStateAllowedCount() {
+            return mMigrationStateAllowedCount;
+        }
+
+        /** Returns the maximum number of start migration calls allowed. */
+        public int getMaxStartMigrationCalls() {
+            return mMaxStartMigrationCalls;
+        }
+
+        /**
+         * Returns the timeout period of {@link
+         * android.health.connect.HealthConnectDataState.MIGRATION_STATE_IDLE}.
+         */
+        public Duration getIdleStateTimeoutPeriod() {
+            return Duration.ofDays(mIdleStateTimeoutPeriod);
+        }
+
+        /** Returns the timeout period of non-idle migration states. */
+        public Duration getNonIdleStateTimeoutPeriod() {
+            return Duration.ofDays(mNonIdleStateTimeoutPeriod);
+        }
+
+        /**
+         * Returns the timeout period of {@link
+         * android.health.connect.HealthConnectDataState.MIGRATION_STATE_IN_PROGRESS}.
+         */
+        public Duration getInProgressStateTimeoutPeriod() {
+            return Duration.ofHours(mInProgressStateTimeoutPeriod);
+        }
+
+        /** Returns the time buffer kept to ensure that job execution is not skipped. */
+        public long getExecutionTimeBuffer() {
+            return TimeUnit.MINUTES.toMillis(mExecutionTimeBuffer);
+        }
+
+        /**
+         * Returns the time interval at which the migration completion job will run periodically.
+         */
+        public long getMigrationCompletionJobRunInterval() {
+            return TimeUnit.DAYS.toMillis(mMigrationCompletionJobRunInterval);
+        }
+
+        /** Returns the time interval at which the migration pause job will run periodically. */
+        public long getMigrationPauseJobRunInterval() {
+            return TimeUnit.HOURS.toMillis(mMigrationPauseJobRunInterval);
+        }
+
+        /** Returns if migration pause change jobs are enabled. */
+        public boolean isPauseStateChangeJobEnabled() {
+            return mEnablePauseStateChangeJob;
+        }
+
+        /** Returns if migration completion jobs are enabled. */
+        public boolean isCompleteStateChangeJobEnabled() {
+            return mEnableCompleteStateChangeJob;
+        }
+
+        /** Returns if migration notifications are enabled. */
+        public boolean areMigrationNotificationsEnabled() {
+            return mEnableMigrationNotifications;
+        }
+
+        /** Returns whether reading in background is enabled or not. */
+        public boolean isBackgroundReadFeatureEnabled() {
+            return mBackgroundReadFeatureEnabled;
+        }
+
+        /** Returns whether full history reading is enabled or not. */
+        public boolean isHistoryReadFeatureEnabled() {
+            return mHistoryReadFeatureEnabled;
+        }
+
+        /** Returns whether the new aggregation source control feature is enabled or not. */
+        public boolean isAggregationSourceControlsEnabled() {
+            return mAggregationSourceControlsEnabled;
+        }
+
+        /** Returns whether samples of series records are written packed into a single blob. */
+        public boolean isPackedSeriesSamplesEnabled() {
+            return mPackedSeriesSamplesEnabled;
+        }
+    }
 }
@@ -40,7 +40,7 @@ import com.android.server.healthconnect.permission.HealthConnectPermissionHelper
 import com.android.server.healthconnect.permission.HealthPermissionIntentAppsTracker;
 import com.android.server.healthconnect.permission.PermissionPackageChangesOrchestrator;
 import com.android.server.healthconnect.storage.TransactionManager;
-import com.android.server.healthconnect.storage.datatypehelpers.DatabaseHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.MigrationEntityHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.PreferenceHelper;
 
@@ -138,10 +138,13 @@ public class HealthConnectManagerService extends SystemService {
             // We need to cancel any pending timers for the foreground user before it goes into the
             // background.
             mHealthConnectService.cancelBackupRestoreTimeouts();
+            // The previous user's database is still open here, write its pending access logs
+            // before it's closed. Otherwise they are dropped when the caches are cleared.
+            flushPendingAccessLogs();
         }
 
         HealthConnectThreadScheduler.shutdownThreadPools();
-        DatabaseHelper.clearAllCache();
+        // Keeps the database and caches of the previous user, for switching back to it.
         mTransactionManager.onUserSwitching();
         RateLimiter.clearCache();
         HealthConnectThreadScheduler.resetThreadPools();
@@ -174,6 +177,14 @@ public class HealthConnectManagerService extends SystemService {
         switchToSetupForUser(user.getUserHandle());
     }
 
+    @Override
+    public void onUserStopping(@NonNull TargetUser user) {
+        if (user.getUserHandle().equals(mCurrentForegroundUser)) {
+            flushPendingAccessLogs();
+        }
+        mTransactionManager.onUserStopping(user.getUserHandle());
+    }
+
     @Override
     public boolean isUserSupported(@NonNull TargetUser user) {
         UserManager userManager =
@@ -181,6 +192,14 @@ public class HealthConnectManagerService extends SystemService {
         return !(Objects.requireNonNull(userManager).isProfile());
     }
 
+    private static void flushPendingAccessLogs() {
+        try {
+            AccessLogsHelper.getInstance().flushPendingAccessLogs();
+        } catch (Exception e) {
+            Slog.e(TAG, "Failed to write pending access logs", e);
+        }
+    }
+
     private void switchToSetupForUser(UserHandle user) {
         // Note: This is for test setup debugging, please don't surround with DEBUG flag
         Slog.d(TAG, "switchToSetupForUser: " + user);
@@ -17,90 +17,410 @@
 package com.android.server.healthconnect;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A scheduler class to run the tasks in a Round Robin fashion based on client package names.
  *
+ * <p>Tasks are run by dispatches submitted to a (possibly multi-threaded) executor, one dispatch
+ * per task added. Each dispatch runs the next runnable task in round robin order, with two
+ * restrictions: tasks of the same UID never run concurrently, so each app's requests still run in
+ * the order they were made, and at most one write task runs at a time, so that writers don't occupy
+ * every thread waiting for the database write lock while reads could make progress.
+ *
+ * <p>Queued work is bounded: an app can't have more than a fixed number of tasks waiting, and tasks
+ * waiting for longer than a deadline are shed, both reported to the client through the task's shed
+ * callback. Tasks whose client died are dropped without running, as no one is waiting for them.
+ *
  * @hide
  */
 public final class HealthConnectRoundRobinScheduler {
     private static final String TAG = "HealthConnectScheduler";
-    private final ConcurrentSkipListMap<Integer, Queue<Runnable>> mTasks =
+    // A finished task frees its UID and possibly the write slot, so unblocks at most two tasks.
+    private static final int MAX_TASKS_UNBLOCKED_PER_FINISHED_TASK = 2;
+    private static final int DEFAULT_MAX_QUEUED_TASKS_PER_UID = 64;
+    private static final long DEFAULT_TASK_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    // Upper bounds of the wait time histogram buckets, the last bucket counts longer waits.
+    private static final long[] WAIT_TIME_HISTOGRAM_BUCKET_MILLIS = {10, 100, 1_000, 10_000};
+
+    private final int mMaxQueuedTasksPerUid;
+    private final long mTaskDeadlineNanos;
+
+    private final ConcurrentSkipListMap<Integer, Queue<ScheduledTask>> mTasks =
             new ConcurrentSkipListMap<>();
     private final Object mLock = new Object();
 
     @GuardedBy("mLock")
     private boolean mPauseScheduler;
 
-    @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
     @GuardedBy("mLock")
+    @Nullable
     private Integer mLastKeyUsed;
 
+    @GuardedBy("mLock")
+    private final Set<Integer> mRunningUids = new ArraySet<>();
+
+    @GuardedBy("mLock")
+    private boolean mWriteRunning;
+
+    // Dispatches which found only blocked tasks and gave up, to be resumed when a task finishes.
+    @GuardedBy("mLock")
+    private int mParkedDispatches;
+
+    @GuardedBy("mLock")
+    private int mQueueDepth;
+
+    @GuardedBy("mLock")
+    private int mMaxQueueDepth;
+
+    @GuardedBy("mLock")
+    private long mStartedTaskCount;
+
+    @GuardedBy("mLock")
+    private long mTotalWaitTimeNanos;
+
+    @GuardedBy("mLock")
+    private long mMaxWaitTimeNanos;
+
+    @GuardedBy("mLock")
+    private final long[] mWaitTimeHistogram =
+            new long[WAIT_TIME_HISTOGRAM_BUCKET_MILLIS.length + 1];
+
+    @GuardedBy("mLock")
+    private long mShedTaskCount;
+
+    @GuardedBy("mLock")
+    private long mDeadClientTaskCount;
+
+    HealthConnectRoundRobinScheduler() {
+        this(DEFAULT_MAX_QUEUED_TASKS_PER_UID, DEFAULT_TASK_DEADLINE_MILLIS);
+    }
+
+    @VisibleForTesting
+    HealthConnectRoundRobinScheduler(int maxQueuedTasksPerUid, long taskDeadlineMillis) {
+        mMaxQueuedTasksPerUid = maxQueuedTasksPerUid;
+        mTaskDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(taskDeadlineMillis);
+    }
+
     void resume() {
         synchronized (mLock) {
             mPauseScheduler = false;
+            mMaxQueueDepth = mQueueDepth;
+            mStartedTaskCount = 0;
+            mTotalWaitTimeNanos = 0;
+            mMaxWaitTimeNanos = 0;
+            Arrays.fill(mWaitTimeHistogram, 0);
+            mShedTaskCount = 0;
+            mDeadClientTaskCount = 0;
         }
     }
 
-    @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
-    void addTask(int uid, Runnable task) {
+    /**
+     * Adds a task for {@code uid}, unless the scheduler is paused or {@code uid} has too many tasks
+     * waiting already, in which case {@code onShed} is run instead. Every task added must be
+     * followed by one dispatch, i.e. a call to {@link #runNextTask} on the executor.
+     *
+     * @param client binder of the client waiting for the task, if any. The task is dropped without
+     *     running if the client dies before the task starts.
+     * @param onShed run instead of the task if the task is shed, to report the error to the client.
+     * @return whether the task was added.
+     */
+    boolean addTask(
+            int uid,
+            @NonNull Runnable task,
+            boolean isWrite,
+            @Nullable IBinder client,
+            @NonNull Runnable onShed) {
+        List<ScheduledTask> shedTasks = new ArrayList<>();
+        boolean added = false;
         synchronized (mLock) {
             // If the scheduler is currently paused (this can happen if the platform is doing a user
             // switch), ignore this request. This most likely means that we won't be able to deliver
             // the result back anyway.
             if (mPauseScheduler) {
                 Log.e(TAG, "Unable to schedule task for uid: " + uid);
-                return;
+                return false;
             }
 
-            mTasks.putIfAbsent(uid, new LinkedBlockingQueue<>());
-            mTasks.get(uid).add(task);
+            Queue<ScheduledTask> tasks = mTasks.computeIfAbsent(uid, key -> new ArrayDeque<>());
+            if (tasks.size() >= mMaxQueuedTasksPerUid) {
+                removeShedTasks(tasks, shedTasks);
+            }
+            ScheduledTask scheduledTask = new ScheduledTask(uid, task, isWrite, client, onShed);
+            if (tasks.size() < mMaxQueuedTasksPerUid) {
+                tasks.add(scheduledTask);
+                mQueueDepth++;
+                mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueueDepth);
+                added = true;
+            } else {
+                Log.w(TAG, "Too many tasks queued for uid: " + uid);
+                mShedTaskCount++;
+                shedTasks.add(scheduledTask);
+            }
         }
+
+        runShedCallbacks(shedTasks);
+        return added;
     }
 
-    @NonNull
-    Runnable getNextTask() {
-        synchronized (mLock) {
-            if (mLastKeyUsed == null) {
-                mLastKeyUsed = mTasks.firstKey();
+    /**
+     * Runs the next runnable task, if any, on the calling thread.
+     *
+     * <p>If all queued tasks are blocked by running ones, the dispatch is parked and later resumed
+     * by a finishing task, either on its own thread or by submitting a dispatch to {@code
+     * executor}.
+     */
+    void runNextTask(@NonNull Executor executor) {
+        List<ScheduledTask> shedTasks = new ArrayList<>();
+        ScheduledTask task = pollRunnableTask(shedTasks);
+        runShedCallbacks(shedTasks);
+        while (task != null) {
+            try {
+                task.mTask.run();
+            } finally {
+                task = onTaskFinished(task, executor, shedTasks);
+                runShedCallbacks(shedTasks);
             }
+        }
+    }
+
+    /** Returns the number of tasks waiting to be run. */
+    int getQueueDepth() {
+        synchronized (mLock) {
+            return mQueueDepth;
+        }
+    }
+
+    /** Returns the largest number of tasks waiting to be run since the scheduler was resumed. */
+    int getMaxQueueDepth() {
+        synchronized (mLock) {
+            return mMaxQueueDepth;
+        }
+    }
+
+    /** Returns the mean time tasks waited before running since the scheduler was resumed. */
+    long getAverageWaitTimeMillis() {
+        synchronized (mLock) {
+            return mStartedTaskCount == 0
+                    ? 0
+                    : TimeUnit.NANOSECONDS.toMillis(mTotalWaitTimeNanos / mStartedTaskCount);
+        }
+    }
+
+    /** Returns the longest time a task waited before running since the scheduler was resumed. */
+    long getMaxWaitTimeMillis() {
+        synchronized (mLock) {
+            return TimeUnit.NANOSECONDS.toMillis(mMaxWaitTimeNanos);
+        }
+    }
 
-            Map.Entry<Integer, Queue<Runnable>> entry = mTasks.higherEntry(mLastKeyUsed);
-            while (entry != null && entry.getValue().isEmpty()) {
-                mTasks.remove(entry.getKey());
-                entry = mTasks.higherEntry(entry.getKey());
+    /**
+     * Returns the upper bounds of the buckets of {@link #getWaitTimeHistogram}, the last bucket
+     * counts longer waits.
+     */
+    static long[] getWaitTimeHistogramBucketMillis() {
+        return WAIT_TIME_HISTOGRAM_BUCKET_MILLIS.clone();
+    }
+
+    /** Returns the number of tasks started since the scheduler was resumed, by wait time. */
+    long[] getWaitTimeHistogram() {
+        synchronized (mLock) {
+            return mWaitTimeHistogram.clone();
+        }
+    }
+
+    /**
+     * Returns the number of tasks shed since the scheduler was resumed, as their app had too many
+     * tasks waiting or as they waited past the deadline.
+     */
+    long getShedTaskCount() {
+        synchronized (mLock) {
+            return mShedTaskCount;
+        }
+    }
+
+    /**
+     * Returns the number of tasks dropped since the scheduler was resumed, as their client died.
+     */
+    long getDeadClientTaskCount() {
+        synchronized (mLock) {
+            return mDeadClientTaskCount;
+        }
+    }
+
+    void killTasksAndPauseScheduler() {
+        synchronized (mLock) {
+            mPauseScheduler = true;
+            mTasks.clear();
+            mQueueDepth = 0;
+            mParkedDispatches = 0;
+        }
+    }
+
+    /** Polls the next runnable task, adding the tasks shed meanwhile to {@code shedTasks}. */
+    @Nullable
+    private ScheduledTask pollRunnableTask(List<ScheduledTask> shedTasks) {
+        synchronized (mLock) {
+            if (mQueueDepth == 0) {
+                return null;
             }
 
+            Map.Entry<Integer, Queue<ScheduledTask>> entry = null;
+            if (mLastKeyUsed != null) {
+                entry =
+                        findRunnableEntry(
+                                mTasks.tailMap(mLastKeyUsed, /* inclusive= */ false), shedTasks);
+            }
+            if (entry == null) {
+                // Reached the end, no runnable tasks found. Start again from the first entry.
+                entry = findRunnableEntry(mTasks, shedTasks);
+            }
             if (entry == null) {
-                // Reached the end, no tasks found. Reset to first entry and try again.
-                entry = mTasks.firstEntry();
-                while (entry != null && entry.getValue().isEmpty()) {
-                    mTasks.remove(entry.getKey());
-                    entry = mTasks.higherEntry(entry.getKey());
+                if (mQueueDepth == 0) {
+                    // All remaining tasks were shed
+                    return null;
                 }
+                mParkedDispatches++;
+                return null;
             }
 
-            if (entry != null) {
-                mLastKeyUsed = entry.getKey();
-                return entry.getValue().poll();
+            ScheduledTask task = entry.getValue().poll();
+            mLastKeyUsed = entry.getKey();
+            mQueueDepth--;
+            mRunningUids.add(task.mUid);
+            mWriteRunning |= task.mIsWrite;
+
+            long waitTimeNanos = SystemClock.elapsedRealtimeNanos() - task.mEnqueueTimeNanos;
+            mStartedTaskCount++;
+            mTotalWaitTimeNanos += waitTimeNanos;
+            mMaxWaitTimeNanos = Math.max(mMaxWaitTimeNanos, waitTimeNanos);
+            mWaitTimeHistogram[getWaitTimeHistogramBucket(waitTimeNanos)]++;
+            return task;
+        }
+    }
+
+    @GuardedBy("mLock")
+    @Nullable
+    private Map.Entry<Integer, Queue<ScheduledTask>> findRunnableEntry(
+            Map<Integer, Queue<ScheduledTask>> tasks, List<ScheduledTask> shedTasks) {
+        Iterator<Map.Entry<Integer, Queue<ScheduledTask>>> iterator = tasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Queue<ScheduledTask>> entry = iterator.next();
+            removeShedTasks(entry.getValue(), shedTasks);
+            ScheduledTask task = entry.getValue().peek();
+            if (task == null) {
+                iterator.remove();
+            } else if (!mRunningUids.contains(task.mUid) && !(task.mIsWrite && mWriteRunning)) {
+                return entry;
             }
+        }
+        return null;
+    }
 
-            throw new InternalError("Task scheduled but none found");
+    /**
+     * Removes the tasks at the head of {@code tasks} which shouldn't run anymore, adding those
+     * whose client is still waiting to {@code shedTasks}.
+     */
+    @GuardedBy("mLock")
+    private void removeShedTasks(Queue<ScheduledTask> tasks, List<ScheduledTask> shedTasks) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        ScheduledTask task;
+        while ((task = tasks.peek()) != null) {
+            if (task.mClient != null && !task.mClient.isBinderAlive()) {
+                mDeadClientTaskCount++;
+            } else if (now - task.mEnqueueTimeNanos >= mTaskDeadlineNanos) {
+                mShedTaskCount++;
+                shedTasks.add(task);
+            } else {
+                return;
+            }
+            tasks.poll();
+            mQueueDepth--;
         }
     }
 
-    void killTasksAndPauseScheduler() {
+    private static int getWaitTimeHistogramBucket(long waitTimeNanos) {
+        long waitTimeMillis = TimeUnit.NANOSECONDS.toMillis(waitTimeNanos);
+        int bucket = 0;
+        while (bucket < WAIT_TIME_HISTOGRAM_BUCKET_MILLIS.length
+                && waitTimeMillis >= WAIT_TIME_HISTOGRAM_BUCKET_MILLIS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /** Runs the shed callbacks of {@code shedTasks}, outside of the lock, and clears the list. */
+    private static void runShedCallbacks(List<ScheduledTask> shedTasks) {
+        for (ScheduledTask task : shedTasks) {
+            try {
+                task.mOnShed.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to report shed task for uid: " + task.mUid, e);
+            }
+        }
+        shedTasks.clear();
+    }
+
+    @Nullable
+    private ScheduledTask onTaskFinished(
+            ScheduledTask task, Executor executor, List<ScheduledTask> shedTasks) {
+        int resumedDispatches;
         synchronized (mLock) {
-            mPauseScheduler = true;
-            mTasks.clear();
+            mRunningUids.remove(task.mUid);
+            if (task.mIsWrite) {
+                mWriteRunning = false;
+            }
+            resumedDispatches = Math.min(mParkedDispatches, MAX_TASKS_UNBLOCKED_PER_FINISHED_TASK);
+            mParkedDispatches -= resumedDispatches;
+        }
+
+        if (resumedDispatches == 0) {
+            return null;
+        }
+        for (int i = 1; i < resumedDispatches; i++) {
+            executor.execute(() -> runNextTask(executor));
+        }
+        return pollRunnableTask(shedTasks);
+    }
+
+    private static final class ScheduledTask {
+        private final int mUid;
+        private final Runnable mTask;
+        private final boolean mIsWrite;
+        @Nullable private final IBinder mClient;
+        private final Runnable mOnShed;
+        private final long mEnqueueTimeNanos = SystemClock.elapsedRealtimeNanos();
+
+        ScheduledTask(
+                int uid,
+                Runnable task,
+                boolean isWrite,
+                @Nullable IBinder client,
+                Runnable onShed) {
+            mUid = uid;
+            mTask = task;
+            mIsWrite = isWrite;
+            mClient = client;
+            mOnShed = onShed;
         }
     }
 }
@@ -60,6 +60,7 @@ import android.health.connect.aidl.ActivityDatesResponseParcel;
 import android.health.connect.aidl.AggregateDataRequestParcel;
 import android.health.connect.aidl.ApplicationInfoResponseParcel;
 import android.health.connect.aidl.DeleteUsingFiltersRequestParcel;
+import android.health.connect.aidl.DeletedLogsParcel;
 import android.health.connect.aidl.GetPriorityResponseParcel;
 import android.health.connect.aidl.HealthConnectExceptionParcel;
 import android.health.connect.aidl.IAccessLogsResponseCallback;
@@ -89,7 +90,6 @@ import android.health.connect.changelog.ChangeLogTokenRequest;
 import android.health.connect.changelog.ChangeLogTokenResponse;
 import android.health.connect.changelog.ChangeLogsRequest;
 import android.health.connect.changelog.ChangeLogsResponse;
-import android.health.connect.changelog.ChangeLogsResponse.DeletedLog;
 import android.health.connect.datatypes.AppInfo;
 import android.health.connect.datatypes.DataOrigin;
 import android.health.connect.datatypes.Record;
@@ -131,6 +131,7 @@ import com.android.server.healthconnect.migration.PriorityMigrationHelper;
 import com.android.server.healthconnect.permission.DataPermissionEnforcer;
 import com.android.server.healthconnect.permission.FirstGrantTimeManager;
 import com.android.server.healthconnect.permission.HealthConnectPermissionHelper;
+import com.android.server.healthconnect.storage.AggregationResultCache;
 import com.android.server.healthconnect.storage.AutoDeleteService;
 import com.android.server.healthconnect.storage.ScheduledExportSettingsStorage;
 import com.android.server.healthconnect.storage.TransactionManager;
@@ -144,7 +145,6 @@ import com.android.server.healthconnect.storage.datatypehelpers.DeviceInfoHelper
 import com.android.server.healthconnect.storage.datatypehelpers.HealthDataCategoryPriorityHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.MigrationEntityHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
-import com.android.server.healthconnect.storage.request.AggregateTransactionRequest;
 import com.android.server.healthconnect.storage.request.DeleteTransactionRequest;
 import com.android.server.healthconnect.storage.request.ReadTransactionRequest;
 import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
@@ -163,6 +163,7 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -442,14 +443,16 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                false);
+                false,
+                /* isWrite= */ true,
+                callback.asBinder(),
+                onShed(logger, callback));
     }
 
     private void postInsertTasks(
             @NonNull AttributionSource attributionSource, @NonNull RecordsParcel recordsParcel) {
         Trace.traceBegin(TRACE_TAG_INSERT_SUBTASKS, TAG_INSERT.concat("PostInsertTasks"));
 
-        ActivityDateHelper.getInstance().insertRecordDate(recordsParcel.getRecords());
         Set<Integer> recordsTypesInsertedSet =
                 recordsParcel.getRecords().stream()
                         .map(RecordInternal::getRecordType)
@@ -542,11 +545,13 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                                                     .collect(Collectors.toList()));
                         }
                         callback.onResult(
-                                new AggregateTransactionRequest(
+                                AggregationResultCache.getInstance()
+                                        .getAggregateDataResponseParcel(
                                                 attributionSource.getPackageName(),
                                                 request,
-                                                startDateAccess)
-                                        .getAggregateDataResponseParcel());
+                                                startDateAccess,
+                                                mDeviceConfigManager
+                                                        .isAggregationSourceControlsEnabled()));
                         logger.setDataTypesFromRecordTypes(recordTypesToTest)
                                 .setHealthDataServiceApiStatusSuccess();
                     } catch (SQLiteException sqLiteException) {
@@ -575,7 +580,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                holdsDataManagementPermission);
+                holdsDataManagementPermission,
+                /* isWrite= */ false,
+                callback.asBinder(),
+                onShed(logger, callback));
     }
 
     /**
@@ -730,7 +738,7 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                                 Trace.traceBegin(
                                         TRACE_TAG_READ_SUBTASKS, TAG_READ.concat("AddAccessLog"));
                                 AccessLogsHelper.getInstance()
-                                        .addAccessLog(callingPackageName, recordTypes, READ);
+                                        .enqueueAccessLog(callingPackageName, recordTypes, READ);
                                 Trace.traceEnd(TRACE_TAG_READ_SUBTASKS);
                             }
                             callback.onResult(
@@ -791,7 +799,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                holdsDataManagementPermission);
+                holdsDataManagementPermission,
+                /* isWrite= */ false,
+                callback.asBinder(),
+                onShed(logger, callback));
     }
 
     private void maybeEnforceOnlyCallingPackageDataRequested(
@@ -870,14 +881,6 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                         logRecordTypeSpecificUpsertMetrics(
                                 recordInternals, attributionSource.getPackageName());
                         logger.setDataTypesFromRecordInternals(recordInternals);
-                        // Update activity dates table
-                        HealthConnectThreadScheduler.scheduleInternalTask(
-                                () ->
-                                        ActivityDateHelper.getInstance()
-                                                .reSyncByRecordTypeIds(
-                                                        recordInternals.stream()
-                                                                .map(RecordInternal::getRecordType)
-                                                                .toList()));
                     } catch (SecurityException securityException) {
                         logger.setHealthDataServiceApiStatusError(ERROR_SECURITY);
                         tryAndThrowException(callback, securityException, ERROR_SECURITY);
@@ -913,7 +916,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                false);
+                false,
+                /* isWrite= */ true,
+                callback.asBinder(),
+                onShed(logger, callback));
     }
 
     /**
@@ -989,7 +995,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                false);
+                false,
+                /* isWrite= */ true,
+                callback.asBinder(),
+                onShed(logger, callback));
     }
 
     /**
@@ -1070,7 +1079,7 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                                                 grantedExtraReadPermissions,
                                                 isInForeground));
 
-                        List<DeletedLog> deletedLogs =
+                        DeletedLogsParcel deletedLogs =
                                 ChangeLogsHelper.getDeletedLogs(
                                         changeLogsResponse.getChangeLogsMap());
 
@@ -1121,7 +1130,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                false);
+                false,
+                /* isWrite= */ false,
+                callback.asBinder(),
+                onShed(logger, callback));
     }
 
     /**
@@ -1217,7 +1229,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                holdsDataManagementPermission);
+                holdsDataManagementPermission,
+                /* isWrite= */ true,
+                callback.asBinder(),
+                onShed(logger, callback));
     }
 
     /**
@@ -1299,7 +1314,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                holdsDataManagementPermission);
+                holdsDataManagementPermission,
+                /* isWrite= */ true,
+                callback.asBinder(),
+                onShed(logger, callback));
     }
 
     private void deleteUsingFiltersInternal(
@@ -2394,7 +2412,6 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
         if (recordTypeIdsToDelete != null && !recordTypeIdsToDelete.isEmpty()) {
             AppInfoHelper.getInstance()
                     .syncAppInfoRecordTypesUsed(new HashSet<>(recordTypeIdsToDelete));
-            ActivityDateHelper.getInstance().reSyncByRecordTypeIds(recordTypeIdsToDelete);
         }
         Trace.traceEnd(TRACE_TAG_DELETE_SUBTASKS);
     }
@@ -2579,6 +2596,49 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
         }
     }
 
+    /**
+     * Returns what to do when the scheduler sheds a request before running it: log the error and
+     * send it to {@code callback}.
+     */
+    private static Consumer<HealthConnectException> onShed(
+            HealthConnectServiceLogger.Builder logger, IInsertRecordsResponseCallback callback) {
+        return onShed(logger, e -> tryAndThrowException(callback, e, e.getErrorCode()));
+    }
+
+    private static Consumer<HealthConnectException> onShed(
+            HealthConnectServiceLogger.Builder logger, IAggregateRecordsResponseCallback callback) {
+        return onShed(logger, e -> tryAndThrowException(callback, e, e.getErrorCode()));
+    }
+
+    private static Consumer<HealthConnectException> onShed(
+            HealthConnectServiceLogger.Builder logger, IReadRecordsResponseCallback callback) {
+        return onShed(logger, e -> tryAndThrowException(callback, e, e.getErrorCode()));
+    }
+
+    private static Consumer<HealthConnectException> onShed(
+            HealthConnectServiceLogger.Builder logger, IEmptyResponseCallback callback) {
+        return onShed(logger, e -> tryAndThrowException(callback, e, e.getErrorCode()));
+    }
+
+    private static Consumer<HealthConnectException> onShed(
+            HealthConnectServiceLogger.Builder logger, IGetChangeLogTokenCallback callback) {
+        return onShed(logger, e -> tryAndThrowException(callback, e, e.getErrorCode()));
+    }
+
+    private static Consumer<HealthConnectException> onShed(
+            HealthConnectServiceLogger.Builder logger, IChangeLogsResponseCallback callback) {
+        return onShed(logger, e -> tryAndThrowException(callback, e, e.getErrorCode()));
+    }
+
+    private static Consumer<HealthConnectException> onShed(
+            HealthConnectServiceLogger.Builder logger, Consumer<HealthConnectException> sendError) {
+        return exception -> {
+            logger.setHealthDataServiceApiStatusError(exception.getErrorCode());
+            sendError.accept(exception);
+            logger.build().log();
+        };
+    }
+
     private static void checkParamsNonNull(Object... params) {
         for (Object param : params) {
             Objects.requireNonNull(param);
@@ -17,18 +17,30 @@
 package com.android.server.healthconnect;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.app.ActivityManager;
 import android.content.Context;
+import android.health.connect.HealthConnectException;
+import android.os.IBinder;
 import android.util.Slog;
 
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * A scheduler class to schedule task on the most relevant thread-pool.
@@ -38,25 +50,39 @@ import java.util.concurrent.TimeUnit;
 public final class HealthConnectThreadScheduler {
     private static final int NUM_EXECUTOR_THREADS_INTERNAL_BACKGROUND = 1;
     private static final long KEEP_ALIVE_TIME_INTERNAL_BACKGROUND = 60L;
-    private static final int NUM_EXECUTOR_THREADS_BACKGROUND = 1;
     private static final long KEEP_ALIVE_TIME_BACKGROUND = 60L;
-    private static final int NUM_EXECUTOR_THREADS_FOREGROUND = 1;
     private static final long KEEP_ALIVE_TIME_SHARED = 60L;
     private static final int NUM_EXECUTOR_THREADS_CONTROLLER = 1;
     private static final long KEEP_ALIVE_TIME_CONTROLLER = 60L;
+    private static final long KEEP_ALIVE_TIME_PARALLEL_READ = 60L;
 
-    // Scheduler to run the tasks in a RR fashion based on client package names.
+    // Number of threads running client tasks, updated by HealthConnectDeviceConfigManager.
+    private static volatile int sNumExecutorThreadsForeground =
+            HealthConnectDeviceConfigManager.FOREGROUND_THREAD_COUNT_DEFAULT_FLAG_VALUE;
+    private static volatile int sNumExecutorThreadsBackground =
+            HealthConnectDeviceConfigManager.BACKGROUND_THREAD_COUNT_DEFAULT_FLAG_VALUE;
+    // Number of queries run at once by a parallel read, including the calling thread.
+    private static volatile int sReadParallelism =
+            HealthConnectDeviceConfigManager.READ_PARALLELISM_DEFAULT_FLAG_VALUE;
+
+    // Schedulers to run the tasks in a RR fashion based on client package names.
+    private static final HealthConnectRoundRobinScheduler
+            HEALTH_CONNECT_FOREGROUND_ROUND_ROBIN_SCHEDULER =
+                    new HealthConnectRoundRobinScheduler();
     private static final HealthConnectRoundRobinScheduler
             HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER =
                     new HealthConnectRoundRobinScheduler();
     private static final String TAG = "HealthConnectScheduler";
 
+    // Created on first use, as it needs a context.
+    @VisibleForTesting @Nullable static volatile ForegroundUidTracker sForegroundUidTracker;
+
     // Executor to run HC background tasks
     @VisibleForTesting
     static volatile ThreadPoolExecutor sBackgroundThreadExecutor =
             new ThreadPoolExecutor(
-                    NUM_EXECUTOR_THREADS_BACKGROUND,
-                    NUM_EXECUTOR_THREADS_BACKGROUND,
+                    sNumExecutorThreadsBackground,
+                    sNumExecutorThreadsBackground,
                     KEEP_ALIVE_TIME_BACKGROUND,
                     TimeUnit.SECONDS,
                     new LinkedBlockingQueue<>());
@@ -75,8 +101,8 @@ public final class HealthConnectThreadScheduler {
     @VisibleForTesting
     static volatile ThreadPoolExecutor sForegroundExecutor =
             new ThreadPoolExecutor(
-                    NUM_EXECUTOR_THREADS_FOREGROUND,
-                    NUM_EXECUTOR_THREADS_FOREGROUND,
+                    sNumExecutorThreadsForeground,
+                    sNumExecutorThreadsForeground,
                     KEEP_ALIVE_TIME_SHARED,
                     TimeUnit.SECONDS,
                     new LinkedBlockingQueue<>());
@@ -91,7 +117,17 @@ public final class HealthConnectThreadScheduler {
                     TimeUnit.SECONDS,
                     new LinkedBlockingQueue<>());
 
+    // Executor helping client tasks run their reads in parallel, it never waits for other tasks.
+    @VisibleForTesting
+    static volatile ThreadPoolExecutor sParallelReadExecutor = createParallelReadExecutor();
+
+    // Holds delayed internal tasks until they are due, then hands them to the internal executor.
+    private static volatile ScheduledThreadPoolExecutor sInternalDelayExecutor =
+            createInternalDelayExecutor();
+
     public static void resetThreadPools() {
+        sInternalDelayExecutor = createInternalDelayExecutor();
+
         sInternalBackgroundExecutor =
                 new ThreadPoolExecutor(
                         NUM_EXECUTOR_THREADS_INTERNAL_BACKGROUND,
@@ -102,16 +138,16 @@ public final class HealthConnectThreadScheduler {
 
         sBackgroundThreadExecutor =
                 new ThreadPoolExecutor(
-                        NUM_EXECUTOR_THREADS_BACKGROUND,
-                        NUM_EXECUTOR_THREADS_BACKGROUND,
+                        sNumExecutorThreadsBackground,
+                        sNumExecutorThreadsBackground,
                         KEEP_ALIVE_TIME_BACKGROUND,
                         TimeUnit.SECONDS,
                         new LinkedBlockingQueue<>());
 
         sForegroundExecutor =
                 new ThreadPoolExecutor(
-                        NUM_EXECUTOR_THREADS_FOREGROUND,
-                        NUM_EXECUTOR_THREADS_FOREGROUND,
+                        sNumExecutorThreadsForeground,
+                        sNumExecutorThreadsForeground,
                         KEEP_ALIVE_TIME_SHARED,
                         TimeUnit.SECONDS,
                         new LinkedBlockingQueue<>());
@@ -123,16 +159,82 @@ public final class HealthConnectThreadScheduler {
                         KEEP_ALIVE_TIME_CONTROLLER,
                         TimeUnit.SECONDS,
                         new LinkedBlockingQueue<>());
+
+        sParallelReadExecutor = createParallelReadExecutor();
+        HEALTH_CONNECT_FOREGROUND_ROUND_ROBIN_SCHEDULER.resume();
         HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.resume();
     }
 
     static void shutdownThreadPools() {
+        Slog.i(TAG, "Shutting down, client task stats: " + getClientTaskStats());
+        HEALTH_CONNECT_FOREGROUND_ROUND_ROBIN_SCHEDULER.killTasksAndPauseScheduler();
         HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.killTasksAndPauseScheduler();
 
+        sInternalDelayExecutor.shutdownNow();
         sInternalBackgroundExecutor.shutdownNow();
         sBackgroundThreadExecutor.shutdownNow();
         sForegroundExecutor.shutdownNow();
         sControllerExecutor.shutdownNow();
+        sParallelReadExecutor.shutdownNow();
+    }
+
+    /** Sets the number of threads running tasks of foreground and background clients. */
+    static void setClientThreadCounts(int foregroundThreadCount, int backgroundThreadCount) {
+        sNumExecutorThreadsForeground = Math.max(1, foregroundThreadCount);
+        sNumExecutorThreadsBackground = Math.max(1, backgroundThreadCount);
+        setPoolSize(sForegroundExecutor, sNumExecutorThreadsForeground);
+        setPoolSize(sBackgroundThreadExecutor, sNumExecutorThreadsBackground);
+    }
+
+    /**
+     * Sets the number of queries run at once by {@link #runParallelReads}, including the calling
+     * thread. A parallelism of one runs them one after another.
+     */
+    static void setReadParallelism(int readParallelism) {
+        sReadParallelism = Math.max(1, readParallelism);
+        setPoolSize(sParallelReadExecutor, Math.max(1, sReadParallelism - 1));
+    }
+
+    /**
+     * Runs {@code reads} on the calling thread and, up to the read parallelism, on helper threads,
+     * so that they use several database connections. Returns their results in order, or throws the
+     * exception of the first failed read once the others are done.
+     *
+     * <p>Reads must not wait for other tasks, nor run in a transaction of the calling thread.
+     */
+    public static <T> List<T> runParallelReads(@NonNull List<Supplier<T>> reads) {
+        int helperCount = Math.min(sReadParallelism - 1, reads.size() - 1);
+        if (helperCount <= 0) {
+            List<T> results = new ArrayList<>(reads.size());
+            for (Supplier<T> read : reads) {
+                results.add(read.get());
+            }
+            return results;
+        }
+
+        ParallelReads<T> parallelReads = new ParallelReads<>(reads);
+        ThreadPoolExecutor executor = sParallelReadExecutor;
+        for (int i = 0; i < helperCount; i++) {
+            try {
+                executor.execute(parallelReads::runReads);
+            } catch (RejectedExecutionException ex) {
+                // Shutting down, the calling thread runs the remaining reads
+                break;
+            }
+        }
+        parallelReads.runReads();
+        return parallelReads.getResults();
+    }
+
+    /** Returns a summary of queue depths and wait times of client tasks. */
+    static String getClientTaskStats() {
+        return "waitTimeHistogramBucketMillis="
+                + Arrays.toString(
+                        HealthConnectRoundRobinScheduler.getWaitTimeHistogramBucketMillis())
+                + ", foreground: "
+                + getStats(HEALTH_CONNECT_FOREGROUND_ROUND_ROBIN_SCHEDULER)
+                + ", background: "
+                + getStats(HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER);
     }
 
     /** Schedules the task on the executor dedicated for performing internal tasks */
@@ -140,70 +242,180 @@ public final class HealthConnectThreadScheduler {
         safeExecute(sInternalBackgroundExecutor, getSafeRunnable(task));
     }
 
+    /**
+     * Schedules the task on the executor dedicated for performing internal tasks, once {@code
+     * delayMillis} have passed.
+     */
+    public static void scheduleInternalTask(Runnable task, long delayMillis) {
+        ScheduledThreadPoolExecutor delayExecutor = sInternalDelayExecutor;
+        try {
+            delayExecutor.schedule(
+                    () -> scheduleInternalTask(task), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            Slog.e(TAG, delayExecutor + " is shutting down or already terminated!", ex);
+        }
+    }
+
     /** Schedules the task on the executor dedicated for performing controller tasks */
     static void scheduleControllerTask(Runnable task) {
         safeExecute(sControllerExecutor, getSafeRunnable(task));
     }
 
-    /** Schedules the task on the best possible executor based on the parameters */
-    static void schedule(Context context, @NonNull Runnable task, int uid, boolean isController) {
+    /**
+     * Schedules the task on the best possible executor based on the parameters.
+     *
+     * <p>{@code isWrite} should be set for tasks writing to the database. Write tasks of clients
+     * are run one at a time, while read tasks of different clients run in parallel.
+     *
+     * <p>Client tasks which can't be queued or which waited too long are shed, and {@code onShed}
+     * is run instead with a rate limit error to report to the client. Tasks are dropped without
+     * running once the client's {@code callback} binder died.
+     */
+    static void schedule(
+            Context context,
+            @NonNull Runnable task,
+            int uid,
+            boolean isController,
+            boolean isWrite,
+            @Nullable IBinder callback,
+            @NonNull Consumer<HealthConnectException> onShed) {
         if (isController) {
             safeExecute(sControllerExecutor, getSafeRunnable(task));
             return;
         }
 
         if (isUidInForeground(context, uid)) {
-            safeExecute(
-                    sForegroundExecutor,
-                    getSafeRunnable(
-                            () -> {
-                                if (!isUidInForeground(context, uid)) {
-                                    // The app is no longer in foreground so move the task to
-                                    // background thread. This is because foreground thread should
-                                    // only be used by the foreground app and since the request of
-                                    // this task is no longer in foreground we don't want it to
-                                    // consume foreground resource anymore.
-                                    HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.addTask(
-                                            uid, task);
-                                    safeExecute(
-                                            sBackgroundThreadExecutor,
-                                            () ->
-                                                    HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER
-                                                            .getNextTask()
-                                                            .run());
-                                    return;
-                                }
-
-                                task.run();
-                            }));
+            scheduleOnRoundRobinScheduler(
+                    HEALTH_CONNECT_FOREGROUND_ROUND_ROBIN_SCHEDULER,
+                    HealthConnectThreadScheduler::executeOnForegroundExecutor,
+                    uid,
+                    () -> {
+                        if (!isUidInForeground(context, uid)) {
+                            // The app is no longer in foreground so move the task to
+                            // background thread. This is because foreground thread should
+                            // only be used by the foreground app and since the request of
+                            // this task is no longer in foreground we don't want it to
+                            // consume foreground resource anymore.
+                            scheduleOnRoundRobinScheduler(
+                                    HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER,
+                                    HealthConnectThreadScheduler::executeOnBackgroundExecutor,
+                                    uid,
+                                    task,
+                                    isWrite,
+                                    callback,
+                                    onShed);
+                            return;
+                        }
+
+                        task.run();
+                    },
+                    isWrite,
+                    callback,
+                    onShed);
         } else {
-            HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.addTask(uid, task);
-            safeExecute(
-                    sBackgroundThreadExecutor,
-                    getSafeRunnable(
-                            () ->
-                                    HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER
-                                            .getNextTask()
-                                            .run()));
+            scheduleOnRoundRobinScheduler(
+                    HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER,
+                    HealthConnectThreadScheduler::executeOnBackgroundExecutor,
+                    uid,
+                    task,
+                    isWrite,
+                    callback,
+                    onShed);
         }
     }
 
-    private static boolean isUidInForeground(Context context, int uid) {
-        ActivityManager activityManager = context.getSystemService(ActivityManager.class);
-        Objects.requireNonNull(activityManager);
-        List<ActivityManager.RunningAppProcessInfo> runningAppProcesses =
-                activityManager.getRunningAppProcesses();
-        if (runningAppProcesses == null) {
-            return false;
+    private static void scheduleOnRoundRobinScheduler(
+            HealthConnectRoundRobinScheduler scheduler,
+            Executor executor,
+            int uid,
+            Runnable task,
+            boolean isWrite,
+            @Nullable IBinder callback,
+            Consumer<HealthConnectException> onShed) {
+        Runnable onTaskShed =
+                () ->
+                        onShed.accept(
+                                new HealthConnectException(
+                                        HealthConnectException.ERROR_RATE_LIMIT_EXCEEDED,
+                                        "Too many pending requests, try again later"));
+        if (scheduler.addTask(
+                uid, getSafeRunnable(task), isWrite, callback, getSafeRunnable(onTaskShed))) {
+            executor.execute(() -> scheduler.runNextTask(executor));
+        }
+    }
+
+    private static void executeOnForegroundExecutor(Runnable task) {
+        safeExecute(sForegroundExecutor, getSafeRunnable(task));
+    }
+
+    private static void executeOnBackgroundExecutor(Runnable task) {
+        safeExecute(sBackgroundThreadExecutor, getSafeRunnable(task));
+    }
+
+    private static ThreadPoolExecutor createParallelReadExecutor() {
+        int threadCount = Math.max(1, sReadParallelism - 1);
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        threadCount,
+                        threadCount,
+                        KEEP_ALIVE_TIME_PARALLEL_READ,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ScheduledThreadPoolExecutor createInternalDelayExecutor() {
+        ScheduledThreadPoolExecutor executor =
+                new ScheduledThreadPoolExecutor(NUM_EXECUTOR_THREADS_INTERNAL_BACKGROUND);
+        executor.setKeepAliveTime(KEEP_ALIVE_TIME_INTERNAL_BACKGROUND, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static void setPoolSize(ThreadPoolExecutor executor, int threadCount) {
+        // The core pool size can't exceed the maximum pool size, so update them in an order that
+        // keeps it that way.
+        if (threadCount > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threadCount);
+            executor.setCorePoolSize(threadCount);
+        } else {
+            executor.setCorePoolSize(threadCount);
+            executor.setMaximumPoolSize(threadCount);
         }
-        for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
-            if (info.uid == uid
-                    && info.importance
-                            == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND) {
-                return true;
+    }
+
+    private static String getStats(HealthConnectRoundRobinScheduler scheduler) {
+        return "queueDepth="
+                + scheduler.getQueueDepth()
+                + " maxQueueDepth="
+                + scheduler.getMaxQueueDepth()
+                + " averageWaitTimeMillis="
+                + scheduler.getAverageWaitTimeMillis()
+                + " maxWaitTimeMillis="
+                + scheduler.getMaxWaitTimeMillis()
+                + " waitTimeHistogram="
+                + Arrays.toString(scheduler.getWaitTimeHistogram())
+                + " shedTasks="
+                + scheduler.getShedTaskCount()
+                + " deadClientTasks="
+                + scheduler.getDeadClientTaskCount();
+    }
+
+    private static boolean isUidInForeground(Context context, int uid) {
+        ForegroundUidTracker foregroundUidTracker = sForegroundUidTracker;
+        if (foregroundUidTracker == null) {
+            synchronized (HealthConnectThreadScheduler.class) {
+                if (sForegroundUidTracker == null) {
+                    ActivityManager activityManager =
+                            context.getSystemService(ActivityManager.class);
+                    Objects.requireNonNull(activityManager);
+                    sForegroundUidTracker = new ForegroundUidTracker(activityManager);
+                }
+                foregroundUidTracker = sForegroundUidTracker;
             }
         }
-        return false;
+        return foregroundUidTracker.isUidInForeground(uid);
     }
 
     private static void safeExecute(ThreadPoolExecutor executor, Runnable task) {
@@ -225,4 +437,64 @@ public final class HealthConnectThreadScheduler {
             }
         };
     }
+
+    /**
+     * Reads shared between the calling thread and helper threads, each of them claiming the next
+     * read until all are claimed. Helpers which start late find nothing left to do.
+     */
+    private static final class ParallelReads<T> {
+        private final List<Supplier<T>> mReads;
+        private final Object[] mResults;
+        private final AtomicInteger mNextRead = new AtomicInteger();
+        private final CountDownLatch mDoneReads;
+        private final AtomicReference<RuntimeException> mFailure = new AtomicReference<>();
+
+        ParallelReads(List<Supplier<T>> reads) {
+            mReads = reads;
+            mResults = new Object[reads.size()];
+            mDoneReads = new CountDownLatch(reads.size());
+        }
+
+        void runReads() {
+            int read;
+            while ((read = mNextRead.getAndIncrement()) < mReads.size()) {
+                try {
+                    // Skip the remaining reads once one failed
+                    if (mFailure.get() == null) {
+                        mResults[read] = mReads.get(read).get();
+                    }
+                } catch (RuntimeException e) {
+                    mFailure.compareAndSet(null, e);
+                } finally {
+                    mDoneReads.countDown();
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        List<T> getResults() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mDoneReads.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            RuntimeException failure = mFailure.get();
+            if (failure != null) {
+                throw failure;
+            }
+            List<T> results = new ArrayList<>(mResults.length);
+            for (Object result : mResults) {
+                results.add((T) result);
+            }
+            return results;
+        }
+    }
 }
@@ -637,8 +637,10 @@ public final class BackupRestore {
     private Map<String, File> getBackupFilesByFileNames(UserHandle userHandle) {
         ArrayMap<String, File> backupFilesByFileNames = new ArrayMap<>();
 
-        File databasePath = TransactionManager.getInitialisedInstance().getDatabasePath();
-        backupFilesByFileNames.put(STAGED_DATABASE_NAME, databasePath);
+        TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
+        // The database file is copied as is, without the commits still in its write-ahead log.
+        transactionManager.checkpoint();
+        backupFilesByFileNames.put(STAGED_DATABASE_NAME, transactionManager.getDatabasePath());
 
         File backupDataDir = getBackupDataDirectoryForUser(userHandle.getIdentifier());
         backupDataDir.mkdirs();
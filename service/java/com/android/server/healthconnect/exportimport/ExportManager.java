@@ -57,9 +57,9 @@ public class ExportManager {
             exportFile.createNewFile();
             pfd = ParcelFileDescriptor.open(exportFile, ParcelFileDescriptor.MODE_WRITE_ONLY);
             try (FileOutputStream outputStream = new FileOutputStream(pfd.getFileDescriptor())) {
-                Files.copy(
-                        TransactionManager.getInitialisedInstance().getDatabasePath().toPath(),
-                        outputStream);
+                TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
+                transactionManager.checkpoint();
+                Files.copy(transactionManager.getDatabasePath().toPath(), outputStream);
             } catch (IOException | SecurityException e) {
                 Slog.e(TAG, "Failed to send data for export", e);
             } finally {
@@ -40,6 +40,7 @@ public class DailyLoggingService {
 
         logDatabaseStats(context);
         logUsageStats(context, userHandle);
+        HealthConnectServiceLogger.logAggregationCacheStats();
     }
 
     private static void logDatabaseStats(@NonNull Context context) {
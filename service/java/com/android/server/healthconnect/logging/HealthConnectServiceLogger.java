@@ -143,6 +143,7 @@ import android.annotation.NonNull;
 import android.health.HealthFitnessStatsLog;
 import android.health.connect.internal.datatypes.RecordInternal;
 import android.health.connect.ratelimiter.RateLimiter;
+import android.util.Slog;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -154,6 +155,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class to log metrics from HealthConnectService
@@ -174,6 +176,12 @@ public class HealthConnectServiceLogger {
     private final int mCallerForegroundState;
     private static final int MAX_NUMBER_OF_LOGGED_DATA_TYPES = 6;
     private static final int RECORD_TYPE_NOT_ASSIGNED_DEFAULT_VALUE = -1;
+    private static final String TAG = "HealthConnectServiceLogger";
+
+    // There is no atom for the aggregation result cache, counters are logged with daily metrics
+    private static final AtomicLong sAggregationCacheHits = new AtomicLong();
+    private static final AtomicLong sAggregationCacheMisses = new AtomicLong();
+    private static final AtomicLong sAggregationCacheEvictions = new AtomicLong();
 
     /**
      * HealthConnectService ApiMethods supported by logging.
@@ -657,6 +665,33 @@ public class HealthConnectServiceLogger {
                 getRecordTypeEnumToLog(mRecordTypes, 5));
     }
 
+    /** Counts an aggregation answered from the aggregation result cache. */
+    public static void logAggregationCacheHit() {
+        sAggregationCacheHits.incrementAndGet();
+    }
+
+    /** Counts an aggregation not found in the aggregation result cache. */
+    public static void logAggregationCacheMiss() {
+        sAggregationCacheMisses.incrementAndGet();
+    }
+
+    /** Counts an entry evicted from the aggregation result cache as it was full. */
+    public static void logAggregationCacheEviction() {
+        sAggregationCacheEvictions.incrementAndGet();
+    }
+
+    /** Logs the aggregation result cache counters since they were last logged. */
+    public static void logAggregationCacheStats() {
+        Slog.i(
+                TAG,
+                "Aggregation cache hits: "
+                        + sAggregationCacheHits.getAndSet(0)
+                        + ", misses: "
+                        + sAggregationCacheMisses.getAndSet(0)
+                        + ", evictions: "
+                        + sAggregationCacheEvictions.getAndSet(0));
+    }
+
     private int getRecordTypeEnumToLog(int[] recordTypes, int index) {
         if (recordTypes[index] == RECORD_TYPE_NOT_ASSIGNED_DEFAULT_VALUE) {
             return HEALTH_CONNECT_API_INVOKED__DATA_TYPE_ONE__DATA_TYPE_NOT_ASSIGNED;
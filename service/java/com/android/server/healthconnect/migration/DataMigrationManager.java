@@ -28,12 +28,16 @@ import android.health.connect.migration.MigrationPayload;
 import android.health.connect.migration.PermissionMigrationPayload;
 import android.health.connect.migration.PriorityMigrationPayload;
 import android.health.connect.migration.RecordMigrationPayload;
+import android.os.SystemClock;
 import android.os.UserHandle;
+import android.util.Slog;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.server.healthconnect.permission.FirstGrantTimeManager;
 import com.android.server.healthconnect.permission.HealthConnectPermissionHelper;
+import com.android.server.healthconnect.storage.AggregationResultCache;
 import com.android.server.healthconnect.storage.AutoDeleteService;
+import com.android.server.healthconnect.storage.BatchInsertWriter;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
@@ -46,7 +50,9 @@ import com.android.server.healthconnect.storage.utils.StorageUtils;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -56,6 +62,7 @@ import java.util.stream.Stream;
  * @hide
  */
 public final class DataMigrationManager {
+    private static final String TAG = "HealthConnectDataMigrationManager";
 
     private static final Object sLock = new Object();
 
@@ -102,18 +109,86 @@ public final class DataMigrationManager {
      * @param entities a collection of {@link MigrationEntity} to be applied.
      */
     public void apply(@NonNull Collection<MigrationEntity> entities) throws EntityWriteException {
+        final long startTimeMillis = SystemClock.elapsedRealtime();
+        final int[] numRecords = new int[1];
         synchronized (sLock) {
             mTransactionManager.runAsTransaction(
                     db -> {
                         // Grab the lock again to make sure error-prone is happy, and so that tests
                         // break if the following code is run asynchronously
                         synchronized (sLock) {
-                            for (MigrationEntity entity : entities) {
-                                migrateEntity(db, entity);
-                            }
+                            numRecords[0] = migrateEntities(db, entities);
                         }
                     });
         }
+        // Migrated records and priorities may change any aggregation
+        AggregationResultCache.getInstance().invalidateAll();
+        mActivityDateHelper.clearCache();
+
+        final long durationMillis = SystemClock.elapsedRealtime() - startTimeMillis;
+        Slog.i(
+                TAG,
+                "Migrated "
+                        + entities.size()
+                        + " entities, "
+                        + numRecords[0]
+                        + " of them records, in "
+                        + durationMillis
+                        + " ms ("
+                        + numRecords[0] * 1000L / Math.max(durationMillis, 1)
+                        + " records/s)");
+    }
+
+    /**
+     * Migrates the provided entities, writing records of the same type together. Must be called
+     * inside a DB transaction.
+     *
+     * <p>Records are buffered until the next entity of another payload type, which is migrated
+     * after them as it may depend on them, such as app info of the records' packages.
+     *
+     * @return the number of record entities.
+     */
+    @GuardedBy("sLock")
+    private int migrateEntities(
+            @NonNull SQLiteDatabase db, @NonNull Collection<MigrationEntity> entities)
+            throws EntityWriteException {
+        final Map<Integer, List<MigrationEntity>> recordTypeToEntities = new LinkedHashMap<>();
+        int numRecords = 0;
+        try (BatchInsertWriter writer = new BatchInsertWriter(db)) {
+            for (MigrationEntity entity : entities) {
+                if (entity.getPayload() instanceof RecordMigrationPayload payload) {
+                    recordTypeToEntities
+                            .computeIfAbsent(
+                                    payload.getRecordInternal().getRecordType(),
+                                    recordType -> new ArrayList<>())
+                            .add(entity);
+                    numRecords++;
+                } else {
+                    migrateRecords(writer, recordTypeToEntities);
+                    migrateEntity(db, entity);
+                }
+            }
+            migrateRecords(writer, recordTypeToEntities);
+        }
+        return numRecords;
+    }
+
+    /** Migrates and clears the buffered record entities. Must be called inside a DB transaction. */
+    @GuardedBy("sLock")
+    private void migrateRecords(
+            @NonNull BatchInsertWriter writer,
+            @NonNull Map<Integer, List<MigrationEntity>> recordTypeToEntities)
+            throws EntityWriteException {
+        for (List<MigrationEntity> recordEntities : recordTypeToEntities.values()) {
+            for (MigrationEntity entity : recordEntities) {
+                try {
+                    migrateRecord(writer, (RecordMigrationPayload) entity.getPayload());
+                } catch (RuntimeException e) {
+                    throw new EntityWriteException(entity.getEntityId(), e);
+                }
+            }
+        }
+        recordTypeToEntities.clear();
     }
 
     /** Migrates the provided {@link MigrationEntity}. Must be called inside a DB transaction. */
@@ -126,9 +201,7 @@ public final class DataMigrationManager {
             }
 
             final MigrationPayload payload = entity.getPayload();
-            if (payload instanceof RecordMigrationPayload) {
-                migrateRecord(db, (RecordMigrationPayload) payload);
-            } else if (payload instanceof PermissionMigrationPayload) {
+            if (payload instanceof PermissionMigrationPayload) {
                 migratePermissions((PermissionMigrationPayload) payload);
             } else if (payload instanceof AppInfoMigrationPayload) {
                 migrateAppInfo((AppInfoMigrationPayload) payload);
@@ -144,14 +217,14 @@ public final class DataMigrationManager {
         }
     }
 
+    /**
+     * Inserts the record of the provided payload, unless a record with the same UUID exists. The
+     * activity dates table is updated by triggers.
+     */
     @GuardedBy("sLock")
     private void migrateRecord(
-            @NonNull SQLiteDatabase db, @NonNull RecordMigrationPayload payload) {
-        long recordRowId = mTransactionManager.insertOrIgnore(db, parseRecord(payload));
-        if (recordRowId != -1) {
-            mTransactionManager.insertOrIgnore(
-                    db, mActivityDateHelper.getUpsertTableRequest(payload.getRecordInternal()));
-        }
+            @NonNull BatchInsertWriter writer, @NonNull RecordMigrationPayload payload) {
+        writer.insertOrIgnore(parseRecord(payload));
     }
 
     @NonNull
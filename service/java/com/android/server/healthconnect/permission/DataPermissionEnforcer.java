@@ -24,14 +24,18 @@ import static java.util.stream.Collectors.toSet;
 import android.annotation.NonNull;
 import android.content.AttributionSource;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.health.connect.HealthPermissions;
 import android.health.connect.internal.datatypes.RecordInternal;
 import android.health.connect.internal.datatypes.utils.RecordMapper;
 import android.health.connect.internal.datatypes.utils.RecordTypePermissionCategoryMapper;
+import android.os.SystemClock;
 import android.permission.PermissionManager;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
@@ -39,18 +43,34 @@ import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 /**
  * Helper class to force caller of data apis to hold api required permissions.
  *
+ * <p>Each call checks every distinct permission at most once. Decisions are also cached per uid,
+ * package and permission for {@link #PERMISSION_CACHE_TTL_MILLIS}, so that apps writing at a high
+ * rate don't pay several binder calls per request. The cache is cleared for a uid when its
+ * permissions change.
+ *
  * @hide
  */
-public class DataPermissionEnforcer {
+public class DataPermissionEnforcer implements PackageManager.OnPermissionsChangedListener {
+    @VisibleForTesting static final long PERMISSION_CACHE_TTL_MILLIS = 1000;
+    private static final int PERMISSION_CACHE_MAX_SIZE = 256;
+
     private final PermissionManager mPermissionManager;
     private final Context mContext;
     private final HealthConnectDeviceConfigManager mDeviceConfigManager;
 
+    @GuardedBy("mPermissionCache")
+    private final Map<PermissionCacheKey, PermissionDecision> mPermissionCache = new ArrayMap<>();
+
+    // Bumped on permission changes, so that decisions checked before a change aren't cached.
+    @GuardedBy("mPermissionCache")
+    private long mPermissionCacheGeneration;
+
     public DataPermissionEnforcer(
             @NonNull PermissionManager permissionManager,
             @NonNull Context context,
@@ -58,24 +78,44 @@ public class DataPermissionEnforcer {
         mPermissionManager = permissionManager;
         mContext = context;
         mDeviceConfigManager = deviceConfigManager;
+        mContext.getPackageManager().addOnPermissionsChangeListener(this);
+    }
+
+    @Override
+    public void onPermissionsChanged(int uid) {
+        synchronized (mPermissionCache) {
+            mPermissionCacheGeneration++;
+            mPermissionCache.keySet().removeIf(key -> key.mUid == uid);
+        }
     }
 
     /** Enforces default write permissions for given recordTypeIds */
     public void enforceRecordIdsWritePermissions(
             List<Integer> recordTypeIds, AttributionSource attributionSource) {
-        enforceRecordIdWritePermissionInternal(recordTypeIds, attributionSource);
+        enforceRecordIdWritePermissionInternal(recordTypeIds, attributionSource, new ArrayMap<>());
     }
 
     /** Enforces default read permissions for given recordTypeIds */
     public void enforceRecordIdsReadPermissions(
             List<Integer> recordTypeIds, AttributionSource attributionSource) {
+        enforceRecordIdReadPermissionInternal(recordTypeIds, attributionSource, new ArrayMap<>());
+    }
+
+    private void enforceRecordIdReadPermissionInternal(
+            List<Integer> recordTypeIds,
+            AttributionSource attributionSource,
+            Map<String, Boolean> decisions) {
         for (Integer recordTypeId : recordTypeIds) {
             String permissionName =
                     HealthPermissions.getHealthReadPermission(
                             RecordTypePermissionCategoryMapper
                                     .getHealthPermissionCategoryForRecordType(recordTypeId));
             enforceRecordPermission(
-                    permissionName, attributionSource, recordTypeId, /* isReadPermission= */ true);
+                    permissionName,
+                    attributionSource,
+                    recordTypeId,
+                    /* isReadPermission= */ true,
+                    decisions);
         }
     }
 
@@ -85,14 +125,20 @@ public class DataPermissionEnforcer {
      */
     public boolean enforceReadAccessAndGetEnforceSelfRead(
             int recordTypeId, AttributionSource attributionSource) {
+        return enforceReadAccessAndGetEnforceSelfRead(
+                recordTypeId, attributionSource, new ArrayMap<>());
+    }
+
+    private boolean enforceReadAccessAndGetEnforceSelfRead(
+            int recordTypeId, AttributionSource attributionSource, Map<String, Boolean> decisions) {
         boolean enforceSelfRead = false;
         try {
-            enforceRecordIdsReadPermissions(
-                    Collections.singletonList(recordTypeId), attributionSource);
+            enforceRecordIdReadPermissionInternal(
+                    Collections.singletonList(recordTypeId), attributionSource, decisions);
         } catch (SecurityException readSecurityException) {
             try {
-                enforceRecordIdsWritePermissions(
-                        Collections.singletonList(recordTypeId), attributionSource);
+                enforceRecordIdWritePermissionInternal(
+                        Collections.singletonList(recordTypeId), attributionSource, decisions);
                 // Apps are always allowed to read self data if they have insert
                 // permission.
                 enforceSelfRead = true;
@@ -115,10 +161,12 @@ public class DataPermissionEnforcer {
      */
     public boolean enforceReadAccessAndGetEnforceSelfRead(
             List<Integer> recordTypes, AttributionSource attributionSource) {
+        Map<String, Boolean> decisions = new ArrayMap<>();
         boolean enforceSelfRead = false;
         for (int recordTypeId : recordTypes) {
             enforceSelfRead |=
-                    enforceReadAccessAndGetEnforceSelfRead(recordTypeId, attributionSource);
+                    enforceReadAccessAndGetEnforceSelfRead(
+                            recordTypeId, attributionSource, decisions);
         }
         return enforceSelfRead;
     }
@@ -147,8 +195,9 @@ public class DataPermissionEnforcer {
         }
 
         // Check main write permissions for given recordIds
+        Map<String, Boolean> decisions = new ArrayMap<>();
         enforceRecordIdWritePermissionInternal(
-                recordTypeIdToExtraPerms.keySet().stream().toList(), attributionSource);
+                recordTypeIdToExtraPerms.keySet().stream().toList(), attributionSource, decisions);
 
         // Check extra write permissions for given records
         for (Integer recordTypeId : recordTypeIdToExtraPerms.keySet()) {
@@ -157,7 +206,8 @@ public class DataPermissionEnforcer {
                         permissionName,
                         attributionSource,
                         recordTypeId,
-                        /* isReadPermission= */ false);
+                        /* isReadPermission= */ false,
+                        decisions);
             }
         }
     }
@@ -195,38 +245,48 @@ public class DataPermissionEnforcer {
     public Set<String> collectGrantedExtraReadPermissions(
             Set<Integer> recordTypeIds, AttributionSource attributionSource) {
         RecordHelperProvider recordHelperProvider = RecordHelperProvider.getInstance();
+        Map<String, Boolean> decisions = new ArrayMap<>();
         return recordTypeIds.stream()
                 .map(recordHelperProvider::getRecordHelper)
                 .flatMap(recordHelper -> recordHelper.getExtraReadPermissions().stream())
-                .distinct()
-                .filter(permission -> isPermissionGranted(permission, attributionSource))
+                .filter(permission -> isPermissionGranted(permission, attributionSource, decisions))
                 .collect(toSet());
     }
 
     public Map<String, Boolean> collectExtraWritePermissionStateMapping(
             List<RecordInternal<?>> recordInternals, AttributionSource attributionSource) {
         Map<String, Boolean> mapping = new ArrayMap<>();
+        Set<Integer> recordTypeIds = new ArraySet<>();
         for (RecordInternal<?> recordInternal : recordInternals) {
             int recordTypeId = recordInternal.getRecordType();
+            if (!recordTypeIds.add(recordTypeId)) {
+                continue;
+            }
             RecordHelper<?> recordHelper =
                     RecordHelperProvider.getInstance().getRecordHelper(recordTypeId);
 
             for (String permName : recordHelper.getExtraWritePermissions()) {
-                mapping.put(permName, isPermissionGranted(permName, attributionSource));
+                isPermissionGranted(permName, attributionSource, mapping);
             }
         }
         return mapping;
     }
 
     private void enforceRecordIdWritePermissionInternal(
-            List<Integer> recordTypeIds, AttributionSource attributionSource) {
+            List<Integer> recordTypeIds,
+            AttributionSource attributionSource,
+            Map<String, Boolean> decisions) {
         for (Integer recordTypeId : recordTypeIds) {
             String permissionName =
                     HealthPermissions.getHealthWritePermission(
                             RecordTypePermissionCategoryMapper
                                     .getHealthPermissionCategoryForRecordType(recordTypeId));
             enforceRecordPermission(
-                    permissionName, attributionSource, recordTypeId, /* isReadPermission= */ false);
+                    permissionName,
+                    attributionSource,
+                    recordTypeId,
+                    /* isReadPermission= */ false,
+                    decisions);
         }
     }
 
@@ -234,8 +294,9 @@ public class DataPermissionEnforcer {
             String permissionName,
             AttributionSource attributionSource,
             int recordTypeId,
-            boolean isReadPermission) {
-        if (!isPermissionGranted(permissionName, attributionSource)) {
+            boolean isReadPermission,
+            Map<String, Boolean> decisions) {
+        if (!isPermissionGranted(permissionName, attributionSource, decisions)) {
             String prohibitedAction =
                     isReadPermission ? "to read to record type" : " to write to record type ";
             throw new SecurityException(
@@ -248,10 +309,100 @@ public class DataPermissionEnforcer {
         }
     }
 
+    /**
+     * Returns whether {@code permissionName} is granted, checking it only if it isn't in {@code
+     * decisions}, the decisions taken so far for the current call, or in the cache.
+     */
+    private boolean isPermissionGranted(
+            String permissionName,
+            AttributionSource attributionSource,
+            Map<String, Boolean> decisions) {
+        Boolean granted = decisions.get(permissionName);
+        if (granted == null) {
+            granted = isPermissionGranted(permissionName, attributionSource);
+            decisions.put(permissionName, granted);
+        }
+        return granted;
+    }
+
     private boolean isPermissionGranted(
             String permissionName, AttributionSource attributionSource) {
-        return mPermissionManager.checkPermissionForDataDelivery(
-                        permissionName, attributionSource, null)
-                == PERMISSION_GRANTED;
+        // Decisions for attribution chains also depend on the other apps in the chain.
+        boolean cacheable = attributionSource.getNext() == null;
+        PermissionCacheKey key =
+                new PermissionCacheKey(
+                        attributionSource.getUid(),
+                        attributionSource.getPackageName(),
+                        permissionName);
+        long now = SystemClock.elapsedRealtime();
+        long generation = 0;
+        if (cacheable) {
+            synchronized (mPermissionCache) {
+                generation = mPermissionCacheGeneration;
+                PermissionDecision decision = mPermissionCache.get(key);
+                if (decision != null && now < decision.mExpiryTimeMillis) {
+                    return decision.mGranted;
+                }
+            }
+        }
+
+        boolean granted =
+                mPermissionManager.checkPermissionForDataDelivery(
+                                permissionName, attributionSource, null)
+                        == PERMISSION_GRANTED;
+        if (cacheable) {
+            synchronized (mPermissionCache) {
+                if (generation != mPermissionCacheGeneration) {
+                    return granted;
+                }
+                if (mPermissionCache.size() >= PERMISSION_CACHE_MAX_SIZE) {
+                    mPermissionCache
+                            .values()
+                            .removeIf(decision -> now >= decision.mExpiryTimeMillis);
+                }
+                if (mPermissionCache.size() < PERMISSION_CACHE_MAX_SIZE) {
+                    mPermissionCache.put(
+                            key,
+                            new PermissionDecision(granted, now + PERMISSION_CACHE_TTL_MILLIS));
+                }
+            }
+        }
+        return granted;
+    }
+
+    private static final class PermissionCacheKey {
+        private final int mUid;
+        private final String mPackageName;
+        private final String mPermissionName;
+
+        PermissionCacheKey(int uid, String packageName, String permissionName) {
+            mUid = uid;
+            mPackageName = packageName;
+            mPermissionName = permissionName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PermissionCacheKey that)) return false;
+            return mUid == that.mUid
+                    && Objects.equals(mPackageName, that.mPackageName)
+                    && mPermissionName.equals(that.mPermissionName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mUid, mPackageName, mPermissionName);
+        }
+    }
+
+    private static final class PermissionDecision {
+        private final boolean mGranted;
+        private final long mExpiryTimeMillis;
+
+        PermissionDecision(boolean granted, long expiryTimeMillis) {
+            mGranted = granted;
+            mExpiryTimeMillis = expiryTimeMillis;
+        }
     }
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_ACTIVE_CALORIES_BURNED;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_BASAL_METABOLIC_RATE;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEIGHT;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_LEAN_BODY_MASS;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_TOTAL_CALORIES_BURNED;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_WEIGHT;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.health.connect.aidl.AggregateDataRequestParcel;
+import android.health.connect.aidl.AggregateDataResponseParcel;
+import android.health.connect.internal.datatypes.utils.AggregationTypeIdMapper;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.healthconnect.logging.HealthConnectServiceLogger;
+import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
+import com.android.server.healthconnect.storage.request.AggregateTransactionRequest;
+import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+
+import java.time.Duration;
+import java.time.Period;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of aggregation responses, as clients such as the controller UI repeat the same
+ * aggregation requests many times a minute.
+ *
+ * <p>Each record type has a data generation, bumped after its records are written, and each entry
+ * keeps the generation of the record types it was aggregated from. Entries looked up after any of
+ * these generations changed are dropped. Changes which may affect all results, such as priority
+ * changes, bump the generation of all record types.
+ *
+ * <p>Entries are keyed by the calling package and the start date access, which are all that
+ * aggregations depend on from the caller. Permissions are enforced before looking up the cache.
+ *
+ * @hide
+ */
+public final class AggregationResultCache {
+    private static final int MAX_ENTRIES = 64;
+
+    // Aggregations of these record types derive values from the records of other types.
+    private static final Map<Integer, List<Integer>> DERIVED_FROM_RECORD_TYPES =
+            Map.of(
+                    RECORD_TYPE_BASAL_METABOLIC_RATE,
+                    List.of(RECORD_TYPE_HEIGHT, RECORD_TYPE_WEIGHT, RECORD_TYPE_LEAN_BODY_MASS),
+                    RECORD_TYPE_TOTAL_CALORIES_BURNED,
+                    List.of(
+                            RECORD_TYPE_ACTIVE_CALORIES_BURNED,
+                            RECORD_TYPE_BASAL_METABOLIC_RATE,
+                            RECORD_TYPE_HEIGHT,
+                            RECORD_TYPE_WEIGHT,
+                            RECORD_TYPE_LEAN_BODY_MASS));
+
+    @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
+    private static volatile AggregationResultCache sAggregationResultCache;
+
+    @GuardedBy("mEntries")
+    private final LinkedHashMap<Key, Entry> mEntries =
+            new LinkedHashMap<>(MAX_ENTRIES, 0.75f, /* accessOrder= */ true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                    if (size() <= MAX_ENTRIES) {
+                        return false;
+                    }
+                    HealthConnectServiceLogger.logAggregationCacheEviction();
+                    return true;
+                }
+            };
+
+    private final AtomicLong mGenerationCounter = new AtomicLong();
+    private final ConcurrentHashMap<Integer, Long> mRecordTypeGenerations =
+            new ConcurrentHashMap<>();
+    private volatile long mAllRecordTypesGeneration;
+    @Nullable private volatile Map<String, Integer> mTableNameToRecordType;
+
+    @VisibleForTesting
+    AggregationResultCache() {}
+
+    /**
+     * Returns the response to {@code request}, from the cache if the records it was aggregated from
+     * haven't changed since.
+     */
+    @NonNull
+    public AggregateDataResponseParcel getAggregateDataResponseParcel(
+            @NonNull String packageName,
+            @NonNull AggregateDataRequestParcel request,
+            long startDateAccess,
+            boolean aggregationSourceControlsEnabled) {
+        return getOrAggregate(
+                new Key(packageName, request, startDateAccess, aggregationSourceControlsEnabled),
+                () ->
+                        new AggregateTransactionRequest(
+                                        packageName,
+                                        request,
+                                        startDateAccess,
+                                        aggregationSourceControlsEnabled)
+                                .getAggregateDataResponseParcel());
+    }
+
+    @VisibleForTesting
+    @NonNull
+    AggregateDataResponseParcel getOrAggregate(
+            @NonNull Key key, @NonNull Supplier<AggregateDataResponseParcel> aggregate) {
+        // Read the generation first, so that writes made while aggregating invalidate the entry
+        long generation = getGeneration(key.mRecordTypes);
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                if (entry.mGeneration == generation) {
+                    HealthConnectServiceLogger.logAggregationCacheHit();
+                    return entry.mResponse;
+                }
+                mEntries.remove(key);
+            }
+        }
+        HealthConnectServiceLogger.logAggregationCacheMiss();
+
+        AggregateDataResponseParcel response = aggregate.get();
+        synchronized (mEntries) {
+            mEntries.put(key, new Entry(response, generation));
+        }
+        return response;
+    }
+
+    /**
+     * Bumps the generation of the record types stored in {@code tableNames}, if any. Must be called
+     * once the changes are committed.
+     */
+    public void onTablesChanged(@NonNull Collection<String> tableNames) {
+        Map<String, Integer> tableNameToRecordType = getTableNameToRecordType();
+        for (String tableName : tableNames) {
+            Integer recordType = tableNameToRecordType.get(tableName);
+            if (recordType != null) {
+                onRecordTypeChanged(recordType);
+            }
+        }
+    }
+
+    /**
+     * Bumps the generation of {@code recordType}. Must be called once the changes are committed.
+     */
+    public void onRecordTypeChanged(int recordType) {
+        mRecordTypeGenerations.merge(recordType, mGenerationCounter.incrementAndGet(), Math::max);
+    }
+
+    /**
+     * Bumps the generation of all record types, for changes which may affect any aggregation such
+     * as priority changes. Must be called once the changes are committed.
+     */
+    public void invalidateAll() {
+        mAllRecordTypesGeneration = mGenerationCounter.incrementAndGet();
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+
+    private long getGeneration(Set<Integer> recordTypes) {
+        long generation = mAllRecordTypesGeneration;
+        for (int recordType : recordTypes) {
+            generation = Math.max(generation, mRecordTypeGenerations.getOrDefault(recordType, 0L));
+        }
+        return generation;
+    }
+
+    private Map<String, Integer> getTableNameToRecordType() {
+        Map<String, Integer> tableNameToRecordType = mTableNameToRecordType;
+        if (tableNameToRecordType == null) {
+            tableNameToRecordType = new ArrayMap<>();
+            for (Map.Entry<Integer, RecordHelper<?>> entry :
+                    RecordHelperProvider.getInstance().getRecordHelpers().entrySet()) {
+                tableNameToRecordType.put(
+                        entry.getValue().getCreateTableRequest().getTableName(), entry.getKey());
+            }
+            mTableNameToRecordType = tableNameToRecordType;
+        }
+        return tableNameToRecordType;
+    }
+
+    @NonNull
+    public static AggregationResultCache getInstance() {
+        if (sAggregationResultCache == null) {
+            synchronized (AggregationResultCache.class) {
+                if (sAggregationResultCache == null) {
+                    sAggregationResultCache = new AggregationResultCache();
+                }
+            }
+        }
+
+        return sAggregationResultCache;
+    }
+
+    /** Normalized aggregation request, along with what the response depends on from the caller. */
+    @VisibleForTesting
+    static final class Key {
+        private final String mPackageName;
+        private final long mStartDateAccess;
+        private final boolean mAggregationSourceControlsEnabled;
+        private final int[] mAggregateIds;
+        private final List<String> mPackageFilters;
+        private final long mStartTime;
+        private final long mEndTime;
+        private final boolean mLocalTimeFilter;
+        @Nullable private final Duration mDuration;
+        @Nullable private final Period mPeriod;
+        private final Set<Integer> mRecordTypes;
+
+        Key(
+                @NonNull String packageName,
+                @NonNull AggregateDataRequestParcel request,
+                long startDateAccess,
+                boolean aggregationSourceControlsEnabled) {
+            mPackageName = packageName;
+            mStartDateAccess = startDateAccess;
+            mAggregationSourceControlsEnabled = aggregationSourceControlsEnabled;
+            // Responses map results by aggregation id and by package, order doesn't matter
+            mAggregateIds = Arrays.stream(request.getAggregateIds()).distinct().sorted().toArray();
+            mPackageFilters = request.getPackageFilters().stream().distinct().sorted().toList();
+            mStartTime = request.getStartTime();
+            mEndTime = request.getEndTime();
+            mLocalTimeFilter = request.useLocalTimeFilter();
+            mDuration = request.getDuration();
+            mPeriod = request.getPeriod();
+
+            mRecordTypes = new ArraySet<>();
+            for (int aggregateId : mAggregateIds) {
+                for (int recordType :
+                        AggregationTypeIdMapper.getInstance()
+                                .getAggregationTypeFor(aggregateId)
+                                .getApplicableRecordTypeIds()) {
+                    mRecordTypes.add(recordType);
+                    mRecordTypes.addAll(
+                            DERIVED_FROM_RECORD_TYPES.getOrDefault(recordType, List.of()));
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key that)) return false;
+            return mStartDateAccess == that.mStartDateAccess
+                    && mAggregationSourceControlsEnabled == that.mAggregationSourceControlsEnabled
+                    && mStartTime == that.mStartTime
+                    && mEndTime == that.mEndTime
+                    && mLocalTimeFilter == that.mLocalTimeFilter
+                    && mPackageName.equals(that.mPackageName)
+                    && Arrays.equals(mAggregateIds, that.mAggregateIds)
+                    && mPackageFilters.equals(that.mPackageFilters)
+                    && Objects.equals(mDuration, that.mDuration)
+                    && Objects.equals(mPeriod, that.mPeriod);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    mPackageName,
+                    mStartDateAccess,
+                    mAggregationSourceControlsEnabled,
+                    Arrays.hashCode(mAggregateIds),
+                    mPackageFilters,
+                    mStartTime,
+                    mEndTime,
+                    mLocalTimeFilter,
+                    mDuration,
+                    mPeriod);
+        }
+    }
+
+    private static final class Entry {
+        private final AggregateDataResponseParcel mResponse;
+        private final long mGeneration;
+
+        Entry(AggregateDataResponseParcel response, long generation) {
+            mResponse = response;
+            mGeneration = generation;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteStatement;
+import android.util.ArrayMap;
+
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts rows using compiled statements that are reused for the lifetime of the writer.
+ *
+ * <p>{@link SQLiteDatabase#insertWithOnConflict} builds and compiles the insert SQL for every row.
+ * This writer keeps one {@link SQLiteStatement} per table, column set and conflict algorithm, and
+ * binds each row's values positionally, which makes a difference when a transaction inserts
+ * thousands of rows into the same few tables.
+ *
+ * <p>Meant to be used within a single transaction on the thread that owns it, and closed before the
+ * transaction ends. Not thread safe.
+ *
+ * @hide
+ */
+public final class BatchInsertWriter implements AutoCloseable {
+    private final SQLiteDatabase mDb;
+    private final Map<String, List<CompiledInsert>> mStatementsByTable = new ArrayMap<>();
+    // Largest row id per table known to exist, used to tell inserted rows from updated ones.
+    private final Map<String, Long> mMaxRowIds = new ArrayMap<>();
+
+    // Scratch space holding the current row, reused across rows.
+    private String[] mColumns = new String[16];
+    private Object[] mValues = new Object[16];
+
+    public BatchInsertWriter(@NonNull SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Inserts {@code request} and all its child table requests, throwing on conflict. Same as
+     * {@link TransactionManager#insertRecord}.
+     *
+     * @return the row ID of the inserted row.
+     */
+    long insert(@NonNull UpsertTableRequest request) {
+        long rowId = insert(request, SQLiteDatabase.CONFLICT_ABORT);
+        insertChildren(request, rowId);
+        return rowId;
+    }
+
+    /**
+     * Inserts {@code request}, and all its child table requests if its row was inserted. Same as
+     * {@link TransactionManager#insertOrIgnore}.
+     *
+     * @return the row ID of the inserted row, or -1 if a conflicting row already exists.
+     */
+    public long insertOrIgnore(@NonNull UpsertTableRequest request) {
+        long rowId = insert(request, SQLiteDatabase.CONFLICT_IGNORE);
+        if (rowId != -1) {
+            insertChildren(request, rowId);
+        }
+        return rowId;
+    }
+
+    /**
+     * Inserts the row of {@code request} using {@code conflictAlgorithm}, without its child table
+     * requests.
+     *
+     * @return the row ID of the inserted row, or -1 if no row was inserted.
+     */
+    long insert(@NonNull UpsertTableRequest request, int conflictAlgorithm) {
+        ContentValues contentValues = request.getContentValues();
+        int size = readRow(contentValues);
+        SQLiteStatement statement = getStatement(request.getTable(), size, conflictAlgorithm);
+        for (int i = 0; i < size; i++) {
+            bind(statement, i + 1, mValues[i]);
+            mValues[i] = null;
+        }
+        try {
+            return statement.executeInsert();
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    /**
+     * Inserts the row of {@code request}, or updates the row it conflicts with if {@code
+     * updateCondition} holds, in a single statement.
+     *
+     * <p>Columns in {@code columnsToKeep} are not overwritten when updating. Child table requests
+     * are not inserted.
+     *
+     * @return a cursor positioned on the inserted or updated row, holding {@code rowIdColumn} and
+     *     {@code columnsToKeep}, or {@code null} if the conflicting row was left unchanged. The
+     *     caller must close it.
+     */
+    @Nullable
+    Cursor upsert(
+            @NonNull UpsertTableRequest request,
+            @NonNull String updateCondition,
+            @NonNull List<String> columnsToKeep,
+            @NonNull String rowIdColumn) {
+        String table = request.getTable();
+        if (!mMaxRowIds.containsKey(table)) {
+            mMaxRowIds.put(
+                    table,
+                    DatabaseUtils.longForQuery(
+                            mDb, "SELECT MAX(" + rowIdColumn + ") FROM " + table, null));
+        }
+
+        int size = readRow(request.getContentValues());
+        Object[] values = new Object[size];
+        System.arraycopy(mValues, 0, values, 0, size);
+        for (int i = 0; i < size; i++) {
+            mValues[i] = null;
+        }
+        String sql = getUpsertCommand(table, size, updateCondition, columnsToKeep, rowIdColumn);
+        // SQLiteDatabase#rawQuery only binds strings, bind the values with their own types.
+        Cursor cursor =
+                mDb.rawQueryWithFactory(
+                        (db, driver, editTable, query) -> {
+                            for (int i = 0; i < values.length; i++) {
+                                bind(query, i + 1, values[i]);
+                            }
+                            return new SQLiteCursor(driver, editTable, query);
+                        },
+                        sql,
+                        /* selectionArgs= */ null,
+                        /* editTable= */ null);
+        if (!cursor.moveToFirst()) {
+            cursor.close();
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns whether {@code rowId}, just returned by {@link #upsert} for {@code table}, is a newly
+     * inserted row rather than an updated one. Must be called once per upserted row.
+     *
+     * <p>New rows get a row id larger than any existing one, so this holds as long as all rows
+     * inserted into {@code table} while the writer is open are inserted by the writer.
+     */
+    boolean isNewRow(@NonNull String table, long rowId) {
+        Long maxRowId = mMaxRowIds.get(table);
+        if (maxRowId == null || rowId <= maxRowId) {
+            return false;
+        }
+        mMaxRowIds.put(table, rowId);
+        return true;
+    }
+
+    /** Inserts all child table requests of {@code request} under the parent {@code rowId}. */
+    void insertChildren(@NonNull UpsertTableRequest request, long rowId) {
+        for (UpsertTableRequest childRequest : request.getChildTableRequests()) {
+            insert(childRequest.withParentKey(rowId));
+        }
+    }
+
+    @Override
+    public void close() {
+        for (List<CompiledInsert> statements : mStatementsByTable.values()) {
+            for (CompiledInsert compiledInsert : statements) {
+                compiledInsert.mStatement.close();
+            }
+        }
+        mStatementsByTable.clear();
+    }
+
+    private int readRow(ContentValues contentValues) {
+        int size = contentValues.size();
+        if (size > mColumns.length) {
+            mColumns = new String[size];
+            mValues = new Object[size];
+        }
+        int i = 0;
+        for (Map.Entry<String, Object> entry : contentValues.valueSet()) {
+            mColumns[i] = entry.getKey();
+            mValues[i] = entry.getValue();
+            i++;
+        }
+        return size;
+    }
+
+    private SQLiteStatement getStatement(String table, int size, int conflictAlgorithm) {
+        List<CompiledInsert> statements = mStatementsByTable.get(table);
+        if (statements == null) {
+            statements = new ArrayList<>();
+            mStatementsByTable.put(table, statements);
+        }
+        for (int i = 0; i < statements.size(); i++) {
+            CompiledInsert compiledInsert = statements.get(i);
+            if (compiledInsert.matches(mColumns, size, conflictAlgorithm)) {
+                return compiledInsert.mStatement;
+            }
+        }
+
+        String[] columns = new String[size];
+        System.arraycopy(mColumns, 0, columns, 0, size);
+        SQLiteStatement statement =
+                mDb.compileStatement(getInsertCommand(table, columns, conflictAlgorithm));
+        statements.add(new CompiledInsert(columns, conflictAlgorithm, statement));
+        return statement;
+    }
+
+    private String getUpsertCommand(
+            String table,
+            int size,
+            String updateCondition,
+            List<String> columnsToKeep,
+            String rowIdColumn) {
+        StringBuilder builder = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < size; i++) {
+            builder.append(i == 0 ? "" : ",").append(mColumns[i]);
+        }
+        builder.append(") VALUES (");
+        for (int i = 0; i < size; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        builder.append(") ON CONFLICT DO UPDATE SET ");
+        boolean first = true;
+        for (int i = 0; i < size; i++) {
+            if (columnsToKeep.contains(mColumns[i])) {
+                continue;
+            }
+            builder.append(first ? "" : ",")
+                    .append(mColumns[i])
+                    .append(" = excluded.")
+                    .append(mColumns[i]);
+            first = false;
+        }
+        builder.append(" WHERE ").append(updateCondition);
+        builder.append(" RETURNING ").append(rowIdColumn);
+        for (String column : columnsToKeep) {
+            builder.append(",").append(column);
+        }
+        return builder.toString();
+    }
+
+    private static String getInsertCommand(String table, String[] columns, int conflictAlgorithm) {
+        StringBuilder builder = new StringBuilder("INSERT");
+        switch (conflictAlgorithm) {
+            case SQLiteDatabase.CONFLICT_FAIL -> builder.append(" OR FAIL");
+            case SQLiteDatabase.CONFLICT_IGNORE -> builder.append(" OR IGNORE");
+            case SQLiteDatabase.CONFLICT_REPLACE -> builder.append(" OR REPLACE");
+            case SQLiteDatabase.CONFLICT_ROLLBACK -> builder.append(" OR ROLLBACK");
+            case SQLiteDatabase.CONFLICT_ABORT, SQLiteDatabase.CONFLICT_NONE -> {}
+            default ->
+                    throw new IllegalArgumentException(
+                            "Unknown conflict algorithm: " + conflictAlgorithm);
+        }
+        builder.append(" INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            builder.append(i == 0 ? "" : ",").append(columns[i]);
+        }
+        builder.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        return builder.append(")").toString();
+    }
+
+    /** Binds {@code value} the same way {@link SQLiteDatabase#insert} binds its arguments. */
+    private static void bind(SQLiteProgram statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof byte[] blob) {
+            statement.bindBlob(index, blob);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Long
+                || value instanceof Integer
+                || value instanceof Short
+                || value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean bool) {
+            statement.bindLong(index, bool ? 1 : 0);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    private static final class CompiledInsert {
+        private final String[] mColumns;
+        private final int mConflictAlgorithm;
+        private final SQLiteStatement mStatement;
+
+        CompiledInsert(String[] columns, int conflictAlgorithm, SQLiteStatement statement) {
+            mColumns = columns;
+            mConflictAlgorithm = conflictAlgorithm;
+            mStatement = statement;
+        }
+
+        boolean matches(String[] columns, int size, int conflictAlgorithm) {
+            if (mConflictAlgorithm != conflictAlgorithm || mColumns.length != size) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (!mColumns[i].equals(columns[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -21,7 +21,11 @@ import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_
 import android.annotation.NonNull;
 import android.database.sqlite.SQLiteDatabase;
 
+import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsRequestHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.HourlyRollupHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.SeriesRecordHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.SkinTemperatureRecordHelper;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 
@@ -32,6 +36,10 @@ final class DatabaseUpgradeHelper {
     public static final int DB_VERSION_UUID_BLOB = 9;
     public static final int DB_VERSION_GENERATED_LOCAL_TIME = 10;
     public static final int DB_VERSION_SKIN_TEMPERATURE = 11;
+    public static final int DB_VERSION_CHANGE_LOG_UUID_OFFSET = 12;
+    public static final int DB_VERSION_PACKED_SERIES_SAMPLES = 13;
+    public static final int DB_VERSION_HOURLY_ROLLUP = 14;
+    public static final int DB_VERSION_ACTIVITY_DATE_RECORD_COUNT = 15;
 
     static void onUpgrade(
             @NonNull SQLiteDatabase db,
@@ -51,6 +59,23 @@ final class DatabaseUpgradeHelper {
                             RECORD_TYPE_SKIN_TEMPERATURE)
                     .applySkinTemperatureUpgrade(db);
         }
+        if (oldVersion < DB_VERSION_CHANGE_LOG_UUID_OFFSET) {
+            ChangeLogsRequestHelper.getInstance().applyUuidOffsetUpgrade(db);
+        }
+        if (oldVersion < DB_VERSION_PACKED_SERIES_SAMPLES) {
+            forEachRecordHelper(
+                    it -> {
+                        if (it instanceof SeriesRecordHelper<?, ?> seriesRecordHelper) {
+                            seriesRecordHelper.applyPackedSamplesUpgrade(db);
+                        }
+                    });
+        }
+        if (oldVersion < DB_VERSION_HOURLY_ROLLUP) {
+            HourlyRollupHelper.getInstance().applyHourlyRollupUpgrade(db);
+        }
+        if (oldVersion < DB_VERSION_ACTIVITY_DATE_RECORD_COUNT) {
+            ActivityDateHelper.getInstance().applyRecordCountUpgrade(db);
+        }
     }
 
     private static void forEachRecordHelper(Consumer<RecordHelper<?>> action) {
@@ -30,6 +30,7 @@ import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper
 import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsRequestHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.DeviceInfoHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.HealthDataCategoryPriorityHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.HourlyRollupHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.MigrationEntityHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.PreferenceHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
@@ -50,7 +51,7 @@ import java.util.List;
  */
 public class HealthConnectDatabase extends SQLiteOpenHelper {
     private static final String TAG = "HealthConnectDatabase";
-    private static final int DATABASE_VERSION = 11;
+    private static final int DATABASE_VERSION = 15;
     private static final String DEFAULT_DATABASE_NAME = "healthconnect.db";
     @NonNull private final Collection<RecordHelper<?>> mRecordHelpers;
     private final Context mContext;
@@ -61,6 +62,9 @@ public class HealthConnectDatabase extends SQLiteOpenHelper {
 
     public HealthConnectDatabase(@NonNull Context context, String databaseName) {
         super(context, databaseName, null, DATABASE_VERSION);
+        // Reads are run on multiple threads, let them use their own connections in parallel with
+        // each other and with the writer.
+        setWriteAheadLoggingEnabled(true);
         mRecordHelpers = RecordHelperProvider.getInstance().getRecordHelpers().values();
         mContext = context;
     }
@@ -70,6 +74,8 @@ public class HealthConnectDatabase extends SQLiteOpenHelper {
         for (CreateTableRequest createTableRequest : getCreateTableRequests()) {
             createTable(db, createTableRequest);
         }
+        HourlyRollupHelper.getInstance().createTriggers(db);
+        ActivityDateHelper.getInstance().createTriggers(db);
     }
 
     @Override
@@ -115,6 +121,7 @@ public class HealthConnectDatabase extends SQLiteOpenHelper {
         requests.add(AccessLogsHelper.getInstance().getCreateTableRequest());
         requests.add(MigrationEntityHelper.getInstance().getCreateTableRequest());
         requests.add(PriorityMigrationHelper.getInstance().getCreateTableRequest());
+        requests.addAll(HourlyRollupHelper.getInstance().getCreateTableRequests());
 
         return requests;
     }
@@ -24,12 +24,15 @@ import static android.health.connect.PageTokenWrapper.EMPTY_PAGE_TOKEN;
 import static com.android.internal.util.Preconditions.checkArgument;
 import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.APP_INFO_ID_COLUMN_NAME;
 import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.utils.WhereClauses.LogicalOperator.AND;
 
 import static com.google.common.collect.Iterables.getOnlyElement;
 
 import static java.util.Objects.requireNonNull;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
@@ -41,11 +44,17 @@ import android.health.connect.HealthConnectException;
 import android.health.connect.PageTokenWrapper;
 import android.health.connect.internal.datatypes.RecordInternal;
 import android.os.UserHandle;
+import android.util.ArrayMap;
 import android.util.Pair;
 import android.util.Slog;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.server.healthconnect.HealthConnectThreadScheduler;
 import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.DatabaseHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.HourlyRollupHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
 import com.android.server.healthconnect.storage.request.AggregateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
@@ -56,17 +65,21 @@ import com.android.server.healthconnect.storage.request.UpsertTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
+import com.android.server.healthconnect.storage.utils.WhereClauses;
 
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
  * A class to handle all the DB transaction request from the clients. {@link TransactionManager}
@@ -77,8 +90,26 @@ import java.util.function.BiConsumer;
  */
 public final class TransactionManager {
     private static final String TAG = "HealthConnectTransactionMan";
-    private static final ConcurrentHashMap<UserHandle, HealthConnectDatabase>
-            mUserHandleToDatabaseMap = new ConcurrentHashMap<>();
+
+    // Estimated memory used by an open database, bounded by the default SQLite page cache size.
+    private static final long ESTIMATED_OPEN_DATABASE_SIZE_BYTES = 2L * 1024 * 1024;
+
+    // Estimated memory that databases and caches of background users may use, see
+    // mUserHandleToDatabaseMap. Enough to keep two users with typical caches.
+    private static final long BACKGROUND_USERS_MEMORY_BUDGET_BYTES =
+            2 * ESTIMATED_OPEN_DATABASE_SIZE_BYTES + 1024 * 1024;
+
+    // Databases of the most recently active users, least recently active first. They stay open
+    // when switching users, so that switching back to a recent user doesn't reopen its database.
+    @GuardedBy("mUserHandleToDatabaseMap")
+    private static final LinkedHashMap<UserHandle, HealthConnectDatabase> mUserHandleToDatabaseMap =
+            new LinkedHashMap<>(/* initialCapacity= */ 4, 0.75f, /* accessOrder= */ true);
+
+    // Caches of the helpers of background users whose database is open, restored when switching
+    // back to them.
+    @GuardedBy("mUserHandleToDatabaseMap")
+    private static final Map<UserHandle, DatabaseHelper.UserCaches> mUserHandleToCachesMap =
+            new ArrayMap<>();
 
     @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
     private static volatile TransactionManager sTransactionManager;
@@ -88,21 +119,57 @@ public final class TransactionManager {
 
     private TransactionManager(@NonNull HealthConnectUserContext context) {
         mHealthConnectDatabase = new HealthConnectDatabase(context);
-        mUserHandleToDatabaseMap.put(context.getCurrentUserHandle(), mHealthConnectDatabase);
+        synchronized (mUserHandleToDatabaseMap) {
+            mUserHandleToDatabaseMap.put(context.getCurrentUserHandle(), mHealthConnectDatabase);
+        }
         mUserHandle = context.getCurrentUserHandle();
     }
 
     public void onUserUnlocked(@NonNull HealthConnectUserContext healthConnectUserContext) {
-        if (!mUserHandleToDatabaseMap.containsKey(
-                healthConnectUserContext.getCurrentUserHandle())) {
-            mUserHandleToDatabaseMap.put(
-                    healthConnectUserContext.getCurrentUserHandle(),
-                    new HealthConnectDatabase(healthConnectUserContext));
+        final UserHandle userHandle = healthConnectUserContext.getCurrentUserHandle();
+        final List<HealthConnectDatabase> databasesToClose = new ArrayList<>();
+        HealthConnectDatabase database;
+        DatabaseHelper.UserCaches caches;
+        synchronized (mUserHandleToDatabaseMap) {
+            database = mUserHandleToDatabaseMap.get(userHandle);
+            if (database == null) {
+                database = new HealthConnectDatabase(healthConnectUserContext);
+                mUserHandleToDatabaseMap.put(userHandle, database);
+            }
+            caches = mUserHandleToCachesMap.remove(userHandle);
+            closeLeastRecentlyActiveOverBudget(userHandle, databasesToClose);
+        }
+
+        mHealthConnectDatabase = database;
+        if (!userHandle.equals(mUserHandle)) {
+            // Caches filled since switching users belong to the previous user.
+            DatabaseHelper.clearAllCache();
+        }
+        if (caches != null) {
+            DatabaseHelper.restoreAllCaches(caches);
         }
+        mUserHandle = userHandle;
+        AggregationResultCache.getInstance().invalidateAll();
+        databasesToClose.forEach(HealthConnectDatabase::close);
+    }
 
-        mHealthConnectDatabase =
-                mUserHandleToDatabaseMap.get(healthConnectUserContext.getCurrentUserHandle());
-        mUserHandle = healthConnectUserContext.getCurrentUserHandle();
+    /**
+     * Closes the database of {@code userHandle} if it's kept open in the background, as its
+     * credential encrypted storage may be locked once the user is stopped.
+     */
+    public void onUserStopping(@NonNull UserHandle userHandle) {
+        if (userHandle.equals(mUserHandle)) {
+            return;
+        }
+
+        HealthConnectDatabase database;
+        synchronized (mUserHandleToDatabaseMap) {
+            database = mUserHandleToDatabaseMap.remove(userHandle);
+            mUserHandleToCachesMap.remove(userHandle);
+        }
+        if (database != null) {
+            database.close();
+        }
     }
 
     /**
@@ -120,23 +187,25 @@ public final class TransactionManager {
 
         final SQLiteDatabase db = getWritableDb();
         db.beginTransaction();
-        try {
+        try (BatchInsertWriter writer = new BatchInsertWriter(db)) {
             for (UpsertTableRequest upsertRequest : request.getUpsertRequests()) {
-                insertOrReplaceRecord(db, upsertRequest);
+                insertOrReplaceRecord(db, writer, upsertRequest);
             }
             for (UpsertTableRequest insertRequestsForChangeLog :
                     request.getInsertRequestsForChangeLogs()) {
-                insertRecord(db, insertRequestsForChangeLog);
+                writer.insert(insertRequestsForChangeLog);
             }
 
             for (UpsertTableRequest insertRequestsForAccessLogs : request.getAccessLogs()) {
-                insertRecord(db, insertRequestsForAccessLogs);
+                writer.insert(insertRequestsForAccessLogs);
             }
 
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
+        onTablesUpserted(request.getUpsertRequests());
+        HourlyRollupHelper.getInstance().scheduleRefresh();
 
         return request.getUUIdsInOrder();
     }
@@ -153,6 +222,7 @@ public final class TransactionManager {
         } finally {
             db.endTransaction();
         }
+        onTablesUpserted(requests);
     }
 
     /**
@@ -162,7 +232,16 @@ public final class TransactionManager {
      */
     public void insertOrReplaceAll(@NonNull List<UpsertTableRequest> upsertTableRequests)
             throws SQLiteException {
-        insertAll(upsertTableRequests, this::insertOrReplaceRecord);
+        final SQLiteDatabase db = getWritableDb();
+        db.beginTransaction();
+        try (BatchInsertWriter writer = new BatchInsertWriter(db)) {
+            for (UpsertTableRequest upsertTableRequest : upsertTableRequests) {
+                insertOrReplaceRecord(db, writer, upsertTableRequest);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     /**
@@ -235,6 +314,8 @@ public final class TransactionManager {
         } finally {
             db.endTransaction();
         }
+        onTablesDeleted(request.getDeleteTableRequests());
+        HourlyRollupHelper.getInstance().scheduleRefresh();
         return numberOfRecordsDeleted;
     }
 
@@ -245,16 +326,66 @@ public final class TransactionManager {
      */
     @NonNull
     public void populateWithAggregation(AggregateTableRequest aggregateTableRequest) {
+        populateWithAggregation(List.of(aggregateTableRequest));
+    }
+
+    /**
+     * Handles the aggregation requests for {@code aggregateTableRequests}.
+     *
+     * <p>Requests that aggregate the same rows are computed with a single query, and requests with
+     * the same data origins query share the result of that query. Requests with priorities are
+     * answered from hourly rollups when possible, see {@link HourlyRollupHelper}.
+     *
+     * @param aggregateTableRequests aggregate requests.
+     */
+    public void populateWithAggregation(List<AggregateTableRequest> aggregateTableRequests) {
         final SQLiteDatabase db = getReadableDb();
-        if (!aggregateTableRequest.getRecordHelper().isRecordOperationsEnabled()) {
-            return;
+        Map<String, List<String>> dataOriginsByCommand = new ArrayMap<>();
+        for (List<AggregateTableRequest> requests :
+                AggregateTableRequest.groupBySharedQuery(aggregateTableRequests)) {
+            requests.removeIf(request -> !request.getRecordHelper().isRecordOperationsEnabled());
+            if (requests.isEmpty()) {
+                continue;
+            }
+
+            if (requests.size() == 1) {
+                AggregateTableRequest request = requests.get(0);
+                if (HourlyRollupHelper.getInstance().populateWithRollup(db, request)) {
+                    continue;
+                }
+                try (Cursor cursor = db.rawQuery(request.getAggregationCommand(), null)) {
+                    request.onResultsFetched(
+                            cursor, getDataOriginPackageNames(db, request, dataOriginsByCommand));
+                }
+                continue;
+            }
+
+            try (Cursor cursor =
+                    db.rawQuery(AggregateTableRequest.getAggregationCommand(requests), null)) {
+                for (int i = 0; i < requests.size(); i++) {
+                    AggregateTableRequest request = requests.get(i);
+                    request.onSharedResultsFetched(
+                            cursor,
+                            i,
+                            getDataOriginPackageNames(db, request, dataOriginsByCommand));
+                }
+            }
         }
-        try (Cursor cursor = db.rawQuery(aggregateTableRequest.getAggregationCommand(), null);
-                Cursor metaDataCursor =
-                        db.rawQuery(
-                                aggregateTableRequest.getCommandToFetchAggregateMetadata(), null)) {
-            aggregateTableRequest.onResultsFetched(cursor, metaDataCursor);
+    }
+
+    private static List<String> getDataOriginPackageNames(
+            SQLiteDatabase db,
+            AggregateTableRequest request,
+            Map<String, List<String>> dataOriginsByCommand) {
+        String command = request.getCommandToFetchAggregateMetadata();
+        List<String> packageNames = dataOriginsByCommand.get(command);
+        if (packageNames == null) {
+            try (Cursor metaDataCursor = db.rawQuery(command, null)) {
+                packageNames = AggregateTableRequest.getDataOriginPackageNames(metaDataCursor);
+            }
+            dataOriginsByCommand.put(command, packageNames);
         }
+        return packageNames;
     }
 
     /**
@@ -272,18 +403,29 @@ public final class TransactionManager {
         checkArgument(
                 request.getPageToken() == null && request.getPageSize().isEmpty(),
                 "Expect read by id request, but request contains pagination info.");
-        List<RecordInternal<?>> recordInternals = new ArrayList<>();
+        // Read each record type on its own connection, up to the read parallelism
+        List<Supplier<List<RecordInternal<?>>>> reads = new ArrayList<>();
         for (ReadTableRequest readTableRequest : request.getReadRequests()) {
             RecordHelper<?> helper = readTableRequest.getRecordHelper();
             requireNonNull(helper);
             if (helper.isRecordOperationsEnabled()) {
-                try (Cursor cursor = read(readTableRequest)) {
-                    List<RecordInternal<?>> internalRecords = helper.getInternalRecords(cursor);
-                    populateInternalRecordsWithExtraData(internalRecords, readTableRequest);
-                    recordInternals.addAll(internalRecords);
-                }
+                reads.add(
+                        () -> {
+                            try (Cursor cursor = read(readTableRequest)) {
+                                List<RecordInternal<?>> internalRecords =
+                                        helper.getInternalRecords(cursor);
+                                populateInternalRecordsWithExtraData(
+                                        internalRecords, readTableRequest);
+                                return internalRecords;
+                            }
+                        });
             }
         }
+        List<RecordInternal<?>> recordInternals = new ArrayList<>();
+        for (List<RecordInternal<?>> internalRecords :
+                HealthConnectThreadScheduler.runParallelReads(reads)) {
+            recordInternals.addAll(internalRecords);
+        }
         return recordInternals;
     }
 
@@ -381,7 +523,9 @@ public final class TransactionManager {
      */
     public long insertOrReplace(@NonNull UpsertTableRequest request) {
         final SQLiteDatabase db = getWritableDb();
-        return insertOrReplaceRecord(db, request);
+        try (BatchInsertWriter writer = new BatchInsertWriter(db)) {
+            return insertOrReplaceRecord(db, writer, request);
+        }
     }
 
     /** Note: It is the responsibility of the caller to close the returned cursor */
@@ -413,19 +557,24 @@ public final class TransactionManager {
     }
 
     /**
-     * Size of Health Connect database in bytes.
+     * Size of Health Connect database in bytes, including its write-ahead log and shared memory
+     * files, as recent writes may not be checkpointed into the main file yet.
      *
      * @param context Context
      * @return Size of the database
      */
     public long getDatabaseSize(@NonNull Context context) {
         requireNonNull(context);
-        return context.getDatabasePath(getReadableDb().getPath()).length();
+        String path = getReadableDb().getPath();
+        return context.getDatabasePath(path).length()
+                + context.getDatabasePath(path + "-wal").length()
+                + context.getDatabasePath(path + "-shm").length();
     }
 
     public void delete(DeleteTableRequest request) {
         final SQLiteDatabase db = getWritableDb();
         db.execSQL(request.getDeleteCommand());
+        onTablesDeleted(List.of(request));
     }
 
     /**
@@ -436,21 +585,23 @@ public final class TransactionManager {
     public void updateAll(@NonNull UpsertTransactionRequest request) {
         final SQLiteDatabase db = getWritableDb();
         db.beginTransaction();
-        try {
+        try (BatchInsertWriter writer = new BatchInsertWriter(db)) {
             for (UpsertTableRequest upsertRequest : request.getUpsertRequests()) {
                 updateRecord(db, upsertRequest);
             }
             for (UpsertTableRequest insertRequestsForChangeLog :
                     request.getInsertRequestsForChangeLogs()) {
-                insertRecord(db, insertRequestsForChangeLog);
+                writer.insert(insertRequestsForChangeLog);
             }
             for (UpsertTableRequest insertRequestsForAccessLogs : request.getAccessLogs()) {
-                insertRecord(db, insertRequestsForAccessLogs);
+                writer.insert(insertRequestsForAccessLogs);
             }
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
+        onTablesUpserted(request.getUpsertRequests());
+        HourlyRollupHelper.getInstance().scheduleRefresh();
     }
 
     /**
@@ -509,24 +660,23 @@ public final class TransactionManager {
         } finally {
             db.endTransaction();
         }
+        onTablesDeleted(deleteTableRequests);
     }
 
+    /**
+     * Keeps the database and the helper caches of the previous user, they are dropped when the user
+     * is stopped or the background users use more memory than the budget.
+     */
     public void onUserSwitching() {
-        mHealthConnectDatabase.close();
-    }
-
-    private void insertAll(
-            @NonNull List<UpsertTableRequest> upsertTableRequests,
-            @NonNull BiConsumer<SQLiteDatabase, UpsertTableRequest> insert) {
-        final SQLiteDatabase db = getWritableDb();
-        db.beginTransaction();
-        try {
-            upsertTableRequests.forEach(
-                    (upsertTableRequest) -> insert.accept(db, upsertTableRequest));
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
+        DatabaseHelper.UserCaches caches = DatabaseHelper.detachAllCaches();
+        synchronized (mUserHandleToDatabaseMap) {
+            // Caches are empty if the user was switched away from before, keep the earlier ones.
+            // containsKey doesn't make the user the most recently active one.
+            if (!caches.isEmpty() && mUserHandleToDatabaseMap.containsKey(mUserHandle)) {
+                mUserHandleToCachesMap.put(mUserHandle, caches);
+            }
         }
+        AggregationResultCache.getInstance().invalidateAll();
     }
 
     public <E extends Throwable> void runAsTransaction(TransactionRunnable<E> task) throws E {
@@ -598,6 +748,20 @@ public final class TransactionManager {
         return mHealthConnectDatabase.getDatabasePath();
     }
 
+    /**
+     * Moves the commits in the write-ahead log into the database file, so that a copy of the file
+     * at {@link #getDatabasePath()} contains all committed data. Must be called before copying the
+     * file.
+     */
+    public void checkpoint() {
+        try (Cursor cursor = getWritableDb().rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null)) {
+            // The first column is 1 if the checkpoint couldn't complete, as the database was busy.
+            if (cursor.moveToFirst() && cursor.getInt(0) != 0) {
+                Slog.w(TAG, "Database checkpoint didn't complete");
+            }
+        }
+    }
+
     public void updateTable(UpsertTableRequest upsertTableRequest) {
         getWritableDb()
                 .update(
@@ -679,20 +843,20 @@ public final class TransactionManager {
      * <p>Note: This function updates rather than the traditional delete + insert in SQLite
      */
     private long insertOrReplaceRecord(
-            @NonNull SQLiteDatabase db, @NonNull UpsertTableRequest request) {
+            @NonNull SQLiteDatabase db,
+            @NonNull BatchInsertWriter writer,
+            @NonNull UpsertTableRequest request) {
         try {
             if (request.getUniqueColumnsCount() == 0) {
                 throw new RuntimeException(
                         "insertOrReplaceRecord should only be called with unique columns set");
             }
+            if (request.getNativeUpsert() != null) {
+                return upsertRecord(db, writer, request);
+            }
 
-            long rowId =
-                    db.insertWithOnConflict(
-                            request.getTable(),
-                            null,
-                            request.getContentValues(),
-                            SQLiteDatabase.CONFLICT_FAIL);
-            insertChildTableRequest(request, rowId, db);
+            long rowId = writer.insert(request, SQLiteDatabase.CONFLICT_FAIL);
+            writer.insertChildren(request, rowId);
             return rowId;
         } catch (SQLiteConstraintException e) {
             try (Cursor cursor = db.rawQuery(request.getReadRequest().getReadCommand(), null)) {
@@ -701,13 +865,132 @@ public final class TransactionManager {
                             ERROR_INTERNAL, "Conflict found, but couldn't read the entry.");
                 }
 
-                return updateEntriesIfRequired(db, request, cursor);
+                return updateEntriesIfRequired(db, writer, request, cursor);
+            }
+        }
+    }
+
+    private long upsertRecord(
+            SQLiteDatabase db, BatchInsertWriter writer, UpsertTableRequest request) {
+        UpsertTableRequest.INativeUpsert nativeUpsert = request.getNativeUpsert();
+        try (Cursor cursor =
+                writer.upsert(
+                        request,
+                        nativeUpsert.getUpdateCondition(),
+                        nativeUpsert.getColumnsToKeep(),
+                        request.getRowIdColName())) {
+            if (cursor == null) {
+                // The conflicting entry was left as is.
+                return -1;
+            }
+
+            final long rowId = StorageUtils.getCursorLong(cursor, request.getRowIdColName());
+            nativeUpsert.onUpserted(cursor, request);
+            if (writer.isNewRow(request.getTable(), rowId)) {
+                writer.insertChildren(request, rowId);
+            } else if (!request.shouldUpdateChildTablesOnlyIfChanged()
+                    || !childTablesMatch(db, request, rowId)) {
+                deleteChildTableRequest(request, rowId, db);
+                writer.insertChildren(request, rowId);
             }
+            return rowId;
+        }
+    }
+
+    /**
+     * Returns whether the child table entries of {@code rowId} are the ones {@code request} would
+     * insert, in any order.
+     */
+    private boolean childTablesMatch(SQLiteDatabase db, UpsertTableRequest request, long rowId) {
+        for (String childTable : request.getAllChildTablesToDelete()) {
+            Map<List<Object>, Integer> expectedRows = new HashMap<>();
+            int numExpectedRows = 0;
+            List<String> columns = null;
+            for (UpsertTableRequest childRequest : request.getChildTableRequests()) {
+                if (!childRequest.getTable().equals(childTable)) {
+                    continue;
+                }
+                ContentValues contentValues = childRequest.withParentKey(rowId).getContentValues();
+                if (columns == null) {
+                    columns = new ArrayList<>(contentValues.keySet());
+                } else if (contentValues.size() != columns.size()) {
+                    return false;
+                }
+                List<Object> row = new ArrayList<>(columns.size());
+                for (String column : columns) {
+                    if (!contentValues.containsKey(column)) {
+                        return false;
+                    }
+                    row.add(normalizeColumnValue(contentValues.get(column)));
+                }
+                expectedRows.merge(row, 1, Integer::sum);
+                numExpectedRows++;
+            }
+
+            ReadTableRequest readRequest =
+                    new ReadTableRequest(childTable)
+                            .setWhereClause(
+                                    new WhereClauses(AND)
+                                            .addWhereEqualsClause(
+                                                    PARENT_KEY, String.valueOf(rowId)));
+            if (columns != null) {
+                readRequest.setColumnNames(columns);
+            }
+            try (Cursor cursor = db.rawQuery(readRequest.getReadCommand(), null)) {
+                if (cursor.getCount() != numExpectedRows) {
+                    return false;
+                }
+                while (cursor.moveToNext()) {
+                    List<Object> row = new ArrayList<>(cursor.getColumnCount());
+                    for (int i = 0; i < cursor.getColumnCount(); i++) {
+                        row.add(getColumnValue(cursor, i));
+                    }
+                    Integer count = expectedRows.get(row);
+                    if (count == null) {
+                        return false;
+                    }
+                    if (count == 1) {
+                        expectedRows.remove(row);
+                    } else {
+                        expectedRows.put(row, count - 1);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Converts a {@link ContentValues} value to what reading it back from a cursor returns. */
+    @Nullable
+    private static Object normalizeColumnValue(@Nullable Object value) {
+        if (value instanceof byte[] blob) {
+            return ByteBuffer.wrap(blob);
+        } else if (value instanceof Float || value instanceof Double) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Number number) {
+            return number.longValue();
+        } else if (value instanceof Boolean bool) {
+            return bool ? 1L : 0L;
         }
+        return value;
+    }
+
+    @Nullable
+    private static Object getColumnValue(Cursor cursor, int index) {
+        return switch (cursor.getType(index)) {
+            case Cursor.FIELD_TYPE_INTEGER -> cursor.getLong(index);
+            case Cursor.FIELD_TYPE_FLOAT -> cursor.getDouble(index);
+            case Cursor.FIELD_TYPE_STRING -> cursor.getString(index);
+            case Cursor.FIELD_TYPE_BLOB -> ByteBuffer.wrap(cursor.getBlob(index));
+            default -> null;
+        };
     }
 
     private long updateEntriesIfRequired(
-            SQLiteDatabase db, UpsertTableRequest request, Cursor cursor) {
+            SQLiteDatabase db,
+            BatchInsertWriter writer,
+            UpsertTableRequest request,
+            Cursor cursor) {
         if (!request.requiresUpdate(cursor, request)) {
             return -1;
         }
@@ -726,7 +1009,7 @@ public final class TransactionManager {
         }
         final long rowId = StorageUtils.getCursorLong(cursor, request.getRowIdColName());
         deleteChildTableRequest(request, rowId, db);
-        insertChildTableRequest(request, rowId, db);
+        writer.insertChildren(request, rowId);
 
         return rowId;
     }
@@ -750,6 +1033,35 @@ public final class TransactionManager {
         }
     }
 
+    /**
+     * Invalidates cached aggregations and activity dates of the records written by committed {@code
+     * requests}.
+     */
+    private static void onTablesUpserted(List<UpsertTableRequest> requests) {
+        List<String> tableNames = new ArrayList<>(requests.size());
+        for (UpsertTableRequest request : requests) {
+            tableNames.add(request.getTable());
+        }
+        onTablesChanged(tableNames);
+    }
+
+    /**
+     * Invalidates cached aggregations and activity dates of the records deleted by committed {@code
+     * requests}.
+     */
+    private static void onTablesDeleted(List<DeleteTableRequest> requests) {
+        List<String> tableNames = new ArrayList<>(requests.size());
+        for (DeleteTableRequest request : requests) {
+            tableNames.add(request.getTableName());
+        }
+        onTablesChanged(tableNames);
+    }
+
+    private static void onTablesChanged(List<String> tableNames) {
+        AggregationResultCache.getInstance().onTablesChanged(tableNames);
+        ActivityDateHelper.getInstance().onTablesChanged(tableNames);
+    }
+
     public interface TransactionRunnable<E extends Throwable> {
         void run(SQLiteDatabase db) throws E;
     }
@@ -776,6 +1088,66 @@ public final class TransactionManager {
     @VisibleForTesting
     public static void clearInstance() {
         sTransactionManager = null;
+        synchronized (mUserHandleToDatabaseMap) {
+            mUserHandleToDatabaseMap.clear();
+            mUserHandleToCachesMap.clear();
+        }
+    }
+
+    /**
+     * Returns the database of {@code userHandle} if it's open, or null otherwise. Unlike {@link
+     * LinkedHashMap#get}, this doesn't make it the most recently active database.
+     */
+    @VisibleForTesting
+    @Nullable
+    static HealthConnectDatabase getOpenDatabase(@NonNull UserHandle userHandle) {
+        synchronized (mUserHandleToDatabaseMap) {
+            for (Map.Entry<UserHandle, HealthConnectDatabase> entry :
+                    mUserHandleToDatabaseMap.entrySet()) {
+                if (entry.getKey().equals(userHandle)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Removes the least recently active background users from {@link #mUserHandleToDatabaseMap}
+     * until their estimated memory fits the budget, and adds their databases to {@code
+     * databasesToClose}.
+     */
+    @GuardedBy("mUserHandleToDatabaseMap")
+    private static void closeLeastRecentlyActiveOverBudget(
+            @NonNull UserHandle currentUserHandle,
+            @NonNull List<HealthConnectDatabase> databasesToClose) {
+        long backgroundUsersSizeBytes = 0;
+        for (UserHandle userHandle : mUserHandleToDatabaseMap.keySet()) {
+            if (!userHandle.equals(currentUserHandle)) {
+                backgroundUsersSizeBytes += estimateBackgroundUserSizeBytes(userHandle);
+            }
+        }
+
+        Iterator<Map.Entry<UserHandle, HealthConnectDatabase>> leastRecentlyActive =
+                mUserHandleToDatabaseMap.entrySet().iterator();
+        while (backgroundUsersSizeBytes > BACKGROUND_USERS_MEMORY_BUDGET_BYTES
+                && leastRecentlyActive.hasNext()) {
+            Map.Entry<UserHandle, HealthConnectDatabase> entry = leastRecentlyActive.next();
+            if (entry.getKey().equals(currentUserHandle)) {
+                continue;
+            }
+            backgroundUsersSizeBytes -= estimateBackgroundUserSizeBytes(entry.getKey());
+            mUserHandleToCachesMap.remove(entry.getKey());
+            databasesToClose.add(entry.getValue());
+            leastRecentlyActive.remove();
+        }
+    }
+
+    @GuardedBy("mUserHandleToDatabaseMap")
+    private static long estimateBackgroundUserSizeBytes(@NonNull UserHandle userHandle) {
+        DatabaseHelper.UserCaches caches = mUserHandleToCachesMap.get(userHandle);
+        return ESTIMATED_OPEN_DATABASE_SIZE_BYTES
+                + (caches == null ? 0 : caches.getEstimatedSizeBytes());
     }
 
     @NonNull
@@ -28,11 +28,16 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.getCur
 import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
 import android.health.connect.accesslog.AccessLog;
 import android.health.connect.accesslog.AccessLog.OperationType;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.util.Pair;
+import android.util.Slog;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.healthconnect.HealthConnectThreadScheduler;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
@@ -42,13 +47,19 @@ import com.android.server.healthconnect.storage.utils.OrderByClause;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
  * A helper class to fetch and store the access logs.
  *
+ * <p>Access logs added with {@link #enqueueAccessLog} are kept in memory and written in batches
+ * from the internal executor, so that reads don't wait for a database write. Queries include the
+ * entries not written yet.
+ *
  * @hide
  */
 public final class AccessLogsHelper extends DatabaseHelper {
@@ -59,10 +70,27 @@ public final class AccessLogsHelper extends DatabaseHelper {
     private static final String OPERATION_TYPE_COLUMN_NAME = "operation_type";
     private static final int NUM_COLS = 5;
     private static final int DEFAULT_ACCESS_LOG_TIME_PERIOD_IN_DAYS = 7;
+    private static final String TAG = "HealthConnectAccessLogs";
+
+    // Pending access logs are written once there are this many of them, or after the delay below.
+    private static final int PENDING_ACCESS_LOGS_FLUSH_THRESHOLD = 32;
+    private static final long PENDING_ACCESS_LOGS_FLUSH_DELAY_MILLIS = 2000;
+    // If writes keep failing, the oldest pending access logs are dropped beyond this many.
+    private static final int MAX_PENDING_ACCESS_LOGS = 512;
 
     @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
     private static volatile AccessLogsHelper sAccessLogsHelper;
 
+    // Held while pending access logs are written, so that queries see each of them exactly once.
+    private final Object mFlushLock = new Object();
+    private final Object mPendingAccessLogsLock = new Object();
+
+    @GuardedBy("mPendingAccessLogsLock")
+    private final ArrayDeque<PendingAccessLog> mPendingAccessLogs = new ArrayDeque<>();
+
+    // Set while a delayed flush is scheduled and hasn't started yet.
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean();
+
     private AccessLogsHelper() {}
 
     @NonNull
@@ -79,6 +107,21 @@ public final class AccessLogsHelper extends DatabaseHelper {
         List<AccessLog> accessLogsList = new ArrayList<>();
         final AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
         final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
+        synchronized (mFlushLock) {
+            readAccessLogs(transactionManager, appInfoHelper, readTableRequest, accessLogsList);
+            for (PendingAccessLog pendingAccessLog : getPendingAccessLogs()) {
+                accessLogsList.add(pendingAccessLog.toAccessLog());
+            }
+        }
+
+        return accessLogsList;
+    }
+
+    private static void readAccessLogs(
+            TransactionManager transactionManager,
+            AppInfoHelper appInfoHelper,
+            ReadTableRequest readTableRequest,
+            List<AccessLog> accessLogsList) {
         try (Cursor cursor = transactionManager.read(readTableRequest)) {
             while (cursor.moveToNext()) {
                 String packageName =
@@ -95,8 +138,6 @@ public final class AccessLogsHelper extends DatabaseHelper {
                         new AccessLog(packageName, recordTypes, accessTime, operationType));
             }
         }
-
-        return accessLogsList;
     }
 
     /**
@@ -104,6 +145,19 @@ public final class AccessLogsHelper extends DatabaseHelper {
      * access log.
      */
     public long getLatestAccessLogTimeStamp() {
+        return getLatestAccessLogTimeStamp(/* beforeTableRead= */ () -> {});
+    }
+
+    /**
+     * Returns the timestamp of the latest access log, running {@code beforeTableRead} between
+     * reading the pending access logs and reading the table.
+     */
+    @VisibleForTesting
+    long getLatestAccessLogTimeStamp(Runnable beforeTableRead) {
+        // Pending access logs are read first. A flush after that writes them to the table before
+        // removing them, so each of them is either in this list or found in the table.
+        List<PendingAccessLog> pendingAccessLogs = getPendingAccessLogs();
+        beforeTableRead.run();
 
         final ReadTableRequest readTableRequest =
                 new ReadTableRequest(TABLE_NAME)
@@ -120,6 +174,9 @@ public final class AccessLogsHelper extends DatabaseHelper {
                 mostRecentAccessTime = Math.max(mostRecentAccessTime, accessTime);
             }
         }
+        for (PendingAccessLog pendingAccessLog : pendingAccessLogs) {
+            mostRecentAccessTime = Math.max(mostRecentAccessTime, pendingAccessLog.mAccessTime);
+        }
         return mostRecentAccessTime;
     }
 
@@ -133,16 +190,136 @@ public final class AccessLogsHelper extends DatabaseHelper {
         TransactionManager.getInitialisedInstance().insert(request);
     }
 
+    /**
+     * Adds an entry to the access logs in memory, to be written to the access logs table later.
+     *
+     * <p>The access time is the time of this call.
+     */
+    public void enqueueAccessLog(
+            String packageName,
+            @RecordTypeIdentifier.RecordType List<Integer> recordTypeList,
+            @OperationType.OperationTypes int operationType) {
+        PendingAccessLog pendingAccessLog =
+                new PendingAccessLog(
+                        packageName,
+                        AppInfoHelper.getInstance().getAppInfoId(packageName),
+                        recordTypeList,
+                        Instant.now().toEpochMilli(),
+                        operationType);
+        int pendingCount;
+        synchronized (mPendingAccessLogsLock) {
+            mPendingAccessLogs.addLast(pendingAccessLog);
+            pendingCount = mPendingAccessLogs.size();
+        }
+
+        if (pendingCount == PENDING_ACCESS_LOGS_FLUSH_THRESHOLD) {
+            HealthConnectThreadScheduler.scheduleInternalTask(this::flushPendingAccessLogsSafely);
+        } else if (pendingCount > MAX_PENDING_ACCESS_LOGS) {
+            // Earlier flushes failed or haven't run, try writing in this thread instead.
+            flushPendingAccessLogsSafely();
+            synchronized (mPendingAccessLogsLock) {
+                while (mPendingAccessLogs.size() > MAX_PENDING_ACCESS_LOGS) {
+                    mPendingAccessLogs.pollFirst();
+                }
+            }
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Writes all access logs added with {@link #enqueueAccessLog} to the access logs table, in a
+     * single transaction.
+     */
+    public void flushPendingAccessLogs() {
+        try {
+            synchronized (mFlushLock) {
+                List<PendingAccessLog> pendingAccessLogs = getPendingAccessLogs();
+                if (pendingAccessLogs.isEmpty()) {
+                    return;
+                }
+
+                List<UpsertTableRequest> requests = new ArrayList<>(pendingAccessLogs.size());
+                for (PendingAccessLog pendingAccessLog : pendingAccessLogs) {
+                    requests.add(pendingAccessLog.toUpsertTableRequest());
+                }
+                TransactionManager.getInitialisedInstance().insertAll(requests);
+
+                // Access logs added meanwhile are after the written ones, so these are the first
+                // ones.
+                synchronized (mPendingAccessLogsLock) {
+                    for (int i = 0; i < pendingAccessLogs.size(); i++) {
+                        mPendingAccessLogs.pollFirst();
+                    }
+                }
+            }
+        } finally {
+            // Access logs added during the flush, or kept after a failed one, are written later.
+            if (hasPendingAccessLogs()) {
+                scheduleFlush();
+            }
+        }
+    }
+
+    /** Returns whether a delayed flush of the pending access logs is scheduled. */
+    @VisibleForTesting
+    boolean isFlushScheduled() {
+        return mFlushScheduled.get();
+    }
+
+    private void scheduleFlush() {
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            HealthConnectThreadScheduler.scheduleInternalTask(
+                    this::runScheduledFlush, PENDING_ACCESS_LOGS_FLUSH_DELAY_MILLIS);
+        }
+    }
+
+    private void runScheduledFlush() {
+        // Cleared first, so that access logs added from now on schedule another flush if needed.
+        mFlushScheduled.set(false);
+        flushPendingAccessLogsSafely();
+    }
+
+    private void flushPendingAccessLogsSafely() {
+        try {
+            flushPendingAccessLogs();
+        } catch (SQLiteException | IllegalStateException e) {
+            // Pending access logs are kept and written with the next flush.
+            Slog.e(TAG, "Failed to write access logs", e);
+        }
+    }
+
+    private boolean hasPendingAccessLogs() {
+        synchronized (mPendingAccessLogsLock) {
+            return !mPendingAccessLogs.isEmpty();
+        }
+    }
+
+    private List<PendingAccessLog> getPendingAccessLogs() {
+        synchronized (mPendingAccessLogsLock) {
+            return new ArrayList<>(mPendingAccessLogs);
+        }
+    }
+
     @NonNull
     public UpsertTableRequest getUpsertTableRequest(
             String packageName, List<Integer> recordTypeList, int operationType) {
+        return getUpsertTableRequest(
+                AppInfoHelper.getInstance().getAppInfoId(packageName),
+                recordTypeList,
+                Instant.now().toEpochMilli(),
+                operationType);
+    }
+
+    @NonNull
+    private static UpsertTableRequest getUpsertTableRequest(
+            long appInfoId, List<Integer> recordTypeList, long accessTime, int operationType) {
         ContentValues contentValues = new ContentValues();
         contentValues.put(
                 RECORD_TYPE_COLUMN_NAME,
                 recordTypeList.stream().map(String::valueOf).collect(Collectors.joining(",")));
-        contentValues.put(
-                APP_ID_COLUMN_NAME, AppInfoHelper.getInstance().getAppInfoId(packageName));
-        contentValues.put(ACCESS_TIME_COLUMN_NAME, Instant.now().toEpochMilli());
+        contentValues.put(APP_ID_COLUMN_NAME, appInfoId);
+        contentValues.put(ACCESS_TIME_COLUMN_NAME, accessTime);
         contentValues.put(OPERATION_TYPE_COLUMN_NAME, operationType);
 
         return new UpsertTableRequest(TABLE_NAME, contentValues);
@@ -180,6 +357,16 @@ public final class AccessLogsHelper extends DatabaseHelper {
         return TABLE_NAME;
     }
 
+    /** Drops the pending access logs, as they belong to the previous user or to deleted data. */
+    @Override
+    protected void clearCache() {
+        synchronized (mFlushLock) {
+            synchronized (mPendingAccessLogsLock) {
+                mPendingAccessLogs.clear();
+            }
+        }
+    }
+
     public static synchronized AccessLogsHelper getInstance() {
         if (sAccessLogsHelper == null) {
             sAccessLogsHelper = new AccessLogsHelper();
@@ -187,4 +374,33 @@ public final class AccessLogsHelper extends DatabaseHelper {
 
         return sAccessLogsHelper;
     }
+
+    private static final class PendingAccessLog {
+        private final String mPackageName;
+        private final long mAppInfoId;
+        private final List<Integer> mRecordTypes;
+        private final long mAccessTime;
+        private final int mOperationType;
+
+        PendingAccessLog(
+                String packageName,
+                long appInfoId,
+                List<Integer> recordTypes,
+                long accessTime,
+                int operationType) {
+            mPackageName = packageName;
+            mAppInfoId = appInfoId;
+            mRecordTypes = recordTypes;
+            mAccessTime = accessTime;
+            mOperationType = operationType;
+        }
+
+        AccessLog toAccessLog() {
+            return new AccessLog(mPackageName, mRecordTypes, mAccessTime, mOperationType);
+        }
+
+        UpsertTableRequest toUpsertTableRequest() {
+            return getUpsertTableRequest(mAppInfoId, mRecordTypes, mAccessTime, mOperationType);
+        }
+    }
 }
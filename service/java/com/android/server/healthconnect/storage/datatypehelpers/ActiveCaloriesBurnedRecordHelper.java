@@ -30,6 +30,7 @@ import android.health.connect.internal.datatypes.ActiveCaloriesBurnedRecordInter
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.time.ZoneOffset;
 import java.util.ArrayList;
@@ -89,8 +90,9 @@ public final class ActiveCaloriesBurnedRecordHelper
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
             @NonNull ActiveCaloriesBurnedRecordInternal activeCaloriesBurnedRecord) {
-        activeCaloriesBurnedRecord.setEnergy(getCursorDouble(cursor, ENERGY_COLUMN_NAME));
+        activeCaloriesBurnedRecord.setEnergy(getCursorDouble(cursor, columns, ENERGY_COLUMN_NAME));
     }
 
     @Override
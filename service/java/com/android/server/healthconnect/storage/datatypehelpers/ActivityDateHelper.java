@@ -16,39 +16,49 @@
 
 package com.android.server.healthconnect.storage.datatypehelpers;
 
+import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER_NOT_NULL;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.PRIMARY_AUTOINCREMENT;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorInt;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
 import static com.android.server.healthconnect.storage.utils.WhereClauses.LogicalOperator.AND;
 
 import android.annotation.NonNull;
-import android.content.ContentValues;
+import android.annotation.Nullable;
 import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
 import android.health.connect.datatypes.Record;
-import android.health.connect.internal.datatypes.RecordInternal;
 import android.health.connect.internal.datatypes.utils.RecordMapper;
+import android.util.ArrayMap;
 import android.util.Pair;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.AlterTableRequest;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
-import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
-import com.android.server.healthconnect.storage.request.UpsertTableRequest;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
- * Helper for Activity Date Table. The table maps a record to a date on which there was a db write
- * for that record
+ * Helper for Activity Date Table. The table maps a record type to the dates of its records, along
+ * with the number of records on each date.
+ *
+ * <p>Triggers on the record tables keep the record counts up to date within the transactions
+ * writing the records, whatever the write path, and remove dates once their last record is gone.
+ * Activity dates are served from an in-memory bitmap of dates per record type, loaded from the
+ * table on first use and dropped once records of that type are written.
  *
  * @hide
  */
@@ -56,10 +66,26 @@ public final class ActivityDateHelper extends DatabaseHelper {
     private static final String TABLE_NAME = "activity_date_table";
     private static final String EPOCH_DAYS_COLUMN_NAME = "epoch_days";
     private static final String RECORD_TYPE_ID_COLUMN_NAME = "record_type_id";
+    private static final String RECORD_COUNT_COLUMN_NAME = "record_count";
+
+    // Record types with dates spanning more days than this are read from the table every time,
+    // rather than kept in a bitmap.
+    private static final int MAX_BITMAP_DAYS = 100 * 366;
 
     @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
     private static volatile ActivityDateHelper sActivityDateHelper;
 
+    private final Object mCacheLock = new Object();
+
+    @GuardedBy("mCacheLock")
+    private final Map<Integer, EpochDays> mEpochDaysCache = new ArrayMap<>();
+
+    // Bumped whenever cached dates are dropped, so that dates read meanwhile aren't cached.
+    @GuardedBy("mCacheLock")
+    private long mCacheGeneration;
+
+    @Nullable private volatile Map<String, Integer> mTableNameToRecordType;
+
     private ActivityDateHelper() {}
 
     /**
@@ -77,73 +103,115 @@ public final class ActivityDateHelper extends DatabaseHelper {
         return TABLE_NAME;
     }
 
-    /** Insert a new activity dates for the given records */
-    @NonNull
-    public void insertRecordDate(@NonNull List<RecordInternal<?>> recordInternals) {
-        Objects.requireNonNull(recordInternals);
-
-        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
-
-        List<UpsertTableRequest> upsertTableRequests = new ArrayList<>();
-        recordInternals.forEach(
-                (recordInternal) -> upsertTableRequests.add(getUpsertTableRequest(recordInternal)));
+    /**
+     * Creates the triggers counting the records of each date as records are inserted, updated and
+     * deleted. Must be called once the record tables exist.
+     */
+    public void createTriggers(@NonNull SQLiteDatabase db) {
+        for (Map.Entry<Integer, RecordHelper<?>> entry :
+                RecordHelperProvider.getInstance().getRecordHelpers().entrySet()) {
+            int recordType = entry.getKey();
+            String tableName = entry.getValue().getMainTableName();
+            String dateColumn = entry.getValue().getPeriodGroupByColumnName();
+            String newDate = "NEW." + dateColumn;
+            String oldDate = "OLD." + dateColumn;
+
+            db.execSQL(
+                    getTriggerCommand(tableName, "insert", "INSERT", null)
+                            + getIncrementCommand(recordType, newDate)
+                            + "END");
+            db.execSQL(
+                    getTriggerCommand(
+                                    tableName,
+                                    "update",
+                                    "UPDATE OF " + dateColumn,
+                                    oldDate + " IS NOT " + newDate)
+                            + getDecrementCommands(recordType, oldDate)
+                            + getIncrementCommand(recordType, newDate)
+                            + "END");
+            db.execSQL(
+                    getTriggerCommand(tableName, "delete", "DELETE", null)
+                            + getDecrementCommands(recordType, oldDate)
+                            + "END");
+        }
+    }
 
-        transactionManager.insertOrIgnoreOnConflict(upsertTableRequests);
+    /** Database migration. Adds the record counts, counted from the record tables. */
+    public void applyRecordCountUpgrade(@NonNull SQLiteDatabase db) {
+        try {
+            db.execSQL(
+                    new AlterTableRequest(
+                                    TABLE_NAME,
+                                    List.of(new Pair<>(RECORD_COUNT_COLUMN_NAME, INTEGER)))
+                            .getAlterTableAddColumnsCommand());
+        } catch (SQLException sqlException) {
+            // Ignore this means the field exists. This is possible via module rollback followed by
+            // an upgrade
+        }
+        createTriggers(db);
+        recount(db);
     }
 
-    /** Returns a list of all dates with database writes for the given record types */
+    /** Returns a list of all dates with records of the given record types, in ascending order. */
     @NonNull
     public List<LocalDate> getActivityDates(@NonNull List<Class<? extends Record>> recordTypes) {
         RecordMapper recordMapper = RecordMapper.getInstance();
-        List<Integer> recordTypeIds =
-                recordTypes.stream().map(recordMapper::getRecordType).collect(Collectors.toList());
+        Set<Long> epochDays = new TreeSet<>();
+        List<Integer> uncachedRecordTypes = new ArrayList<>();
+        synchronized (mCacheLock) {
+            for (Class<? extends Record> recordClass : recordTypes) {
+                int recordType = recordMapper.getRecordType(recordClass);
+                EpochDays cachedEpochDays = mEpochDaysCache.get(recordType);
+                if (cachedEpochDays == null) {
+                    uncachedRecordTypes.add(recordType);
+                } else {
+                    cachedEpochDays.addTo(epochDays);
+                }
+            }
+        }
+        if (!uncachedRecordTypes.isEmpty()) {
+            readEpochDays(uncachedRecordTypes, epochDays);
+        }
 
-        return readDates(
-                new ReadTableRequest(TABLE_NAME)
-                        .setWhereClause(
-                                new WhereClauses(AND)
-                                        .addWhereInIntsClause(
-                                                RECORD_TYPE_ID_COLUMN_NAME, recordTypeIds))
-                        .setColumnNames(List.of(EPOCH_DAYS_COLUMN_NAME))
-                        .setDistinctClause(true));
+        List<LocalDate> dates = new ArrayList<>(epochDays.size());
+        for (long epochDay : epochDays) {
+            dates.add(LocalDate.ofEpochDay(epochDay));
+        }
+        return dates;
     }
 
-    public void reSyncForAllRecords() {
-        List<Integer> recordTypeIds =
-                RecordMapper.getInstance().getRecordIdToExternalRecordClassMap().keySet().stream()
-                        .toList();
-
-        reSyncByRecordTypeIds(recordTypeIds);
+    /**
+     * Drops the cached dates of the record types stored in {@code tableNames}, if any. Must be
+     * called once the changes are committed.
+     */
+    public void onTablesChanged(@NonNull Collection<String> tableNames) {
+        Map<String, Integer> tableNameToRecordType = getTableNameToRecordType();
+        synchronized (mCacheLock) {
+            for (String tableName : tableNames) {
+                Integer recordType = tableNameToRecordType.get(tableName);
+                if (recordType != null) {
+                    mCacheGeneration++;
+                    mEpochDaysCache.remove(recordType);
+                }
+            }
+        }
     }
 
-    public void reSyncByRecordTypeIds(List<Integer> recordTypeIds) {
-        List<UpsertTableRequest> upsertTableRequests = new ArrayList<>();
-        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
-
-        DeleteTableRequest deleteTableRequest =
-                new DeleteTableRequest(TABLE_NAME)
-                        .setIds(
-                                RECORD_TYPE_ID_COLUMN_NAME,
-                                recordTypeIds.stream().map(String::valueOf).toList());
-
-        // Fetch updated dates from respective record table and update the activity dates cache.
-        HashMap<Integer, List<Long>> recordTypeIdToEpochDays =
-                fetchUpdatedDates(recordTypeIds, transactionManager);
-
-        recordTypeIdToEpochDays.forEach(
-                (recordTypeId, epochDays) ->
-                        epochDays.forEach(
-                                (epochDay) ->
-                                        upsertTableRequests.add(
-                                                getUpsertTableRequest(recordTypeId, epochDay))));
+    /**
+     * Recounts the records of each date of all record types, in case the counts diverged from the
+     * record tables.
+     */
+    public void reSyncForAllRecords() {
+        TransactionManager.getInitialisedInstance().runAsTransaction(ActivityDateHelper::recount);
+        clearCache();
+    }
 
-        transactionManager.runAsTransaction(
-                db -> {
-                    db.execSQL(deleteTableRequest.getDeleteCommand());
-                    upsertTableRequests.forEach(
-                            upsertTableRequest ->
-                                    transactionManager.insertOrIgnore(db, upsertTableRequest));
-                });
+    @Override
+    public void clearCache() {
+        synchronized (mCacheLock) {
+            mCacheGeneration++;
+            mEpochDaysCache.clear();
+        }
     }
 
     @Override
@@ -152,59 +220,161 @@ public final class ActivityDateHelper extends DatabaseHelper {
         return Arrays.asList(
                 new Pair<>(RecordHelper.PRIMARY_COLUMN_NAME, PRIMARY_AUTOINCREMENT),
                 new Pair<>(EPOCH_DAYS_COLUMN_NAME, INTEGER_NOT_NULL),
-                new Pair<>(RECORD_TYPE_ID_COLUMN_NAME, INTEGER_NOT_NULL));
-    }
-
-    private HashMap<Integer, List<Long>> fetchUpdatedDates(
-            List<Integer> recordTypeIds, TransactionManager transactionManager) {
-
-        ReadTableRequest request;
-        RecordHelper<?> recordHelper;
-        HashMap<Integer, List<Long>> recordTypeIdToEpochDays = new HashMap<>();
-        for (int recordTypeId : recordTypeIds) {
-            recordHelper = RecordHelperProvider.getInstance().getRecordHelper(recordTypeId);
-            request =
-                    new ReadTableRequest(recordHelper.getMainTableName())
-                            .setColumnNames(List.of(recordHelper.getPeriodGroupByColumnName()))
-                            .setDistinctClause(true);
-            try (Cursor cursor = transactionManager.read(request)) {
-                List<Long> distinctDates = new ArrayList<>();
-                while (cursor.moveToNext()) {
-                    long epochDay =
-                            getCursorLong(cursor, recordHelper.getPeriodGroupByColumnName());
-                    distinctDates.add(epochDay);
-                }
-                recordTypeIdToEpochDays.put(recordTypeId, distinctDates);
-            }
-        }
-        return recordTypeIdToEpochDays;
-    }
-
-    @NonNull
-    private ContentValues getContentValues(int recordTypeId, long epochDays) {
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(EPOCH_DAYS_COLUMN_NAME, epochDays);
-        contentValues.put(RECORD_TYPE_ID_COLUMN_NAME, recordTypeId);
-
-        return contentValues;
+                new Pair<>(RECORD_TYPE_ID_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(RECORD_COUNT_COLUMN_NAME, INTEGER));
     }
 
     /**
-     * Reads the dates stored in the HealthConnect database.
-     *
-     * @param request a read request.
-     * @return Cursor from table based on ids.
+     * Reads the dates of {@code recordTypes} from the table into {@code epochDays}, and caches them
+     * unless they changed meanwhile.
      */
-    private List<LocalDate> readDates(@NonNull ReadTableRequest request) {
-        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
-        try (Cursor cursor = transactionManager.read(request)) {
-            List<LocalDate> dates = new ArrayList<>();
+    private void readEpochDays(List<Integer> recordTypes, Set<Long> epochDays) {
+        long generation;
+        synchronized (mCacheLock) {
+            generation = mCacheGeneration;
+        }
+
+        Map<Integer, List<Long>> recordTypeToEpochDays = new ArrayMap<>();
+        for (int recordType : recordTypes) {
+            recordTypeToEpochDays.put(recordType, new ArrayList<>());
+        }
+        ReadTableRequest request =
+                new ReadTableRequest(TABLE_NAME)
+                        .setWhereClause(
+                                new WhereClauses(AND)
+                                        .addWhereInIntsClause(
+                                                RECORD_TYPE_ID_COLUMN_NAME, recordTypes))
+                        .setColumnNames(
+                                List.of(RECORD_TYPE_ID_COLUMN_NAME, EPOCH_DAYS_COLUMN_NAME));
+        try (Cursor cursor = TransactionManager.getInitialisedInstance().read(request)) {
             while (cursor.moveToNext()) {
                 long epochDay = getCursorLong(cursor, EPOCH_DAYS_COLUMN_NAME);
-                dates.add(LocalDate.ofEpochDay(epochDay));
+                recordTypeToEpochDays
+                        .get(getCursorInt(cursor, RECORD_TYPE_ID_COLUMN_NAME))
+                        .add(epochDay);
+                epochDays.add(epochDay);
+            }
+        }
+
+        synchronized (mCacheLock) {
+            if (generation != mCacheGeneration) {
+                return;
+            }
+            for (Map.Entry<Integer, List<Long>> entry : recordTypeToEpochDays.entrySet()) {
+                EpochDays cachedEpochDays = EpochDays.from(entry.getValue());
+                if (cachedEpochDays != null) {
+                    mEpochDaysCache.put(entry.getKey(), cachedEpochDays);
+                }
+            }
+        }
+    }
+
+    private Map<String, Integer> getTableNameToRecordType() {
+        Map<String, Integer> tableNameToRecordType = mTableNameToRecordType;
+        if (tableNameToRecordType == null) {
+            tableNameToRecordType = new ArrayMap<>();
+            for (Map.Entry<Integer, RecordHelper<?>> entry :
+                    RecordHelperProvider.getInstance().getRecordHelpers().entrySet()) {
+                tableNameToRecordType.put(entry.getValue().getMainTableName(), entry.getKey());
             }
-            return dates;
+            mTableNameToRecordType = tableNameToRecordType;
         }
+        return tableNameToRecordType;
+    }
+
+    /** Rebuilds the table from the record tables. Must be called inside a DB transaction. */
+    private static void recount(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + TABLE_NAME);
+        for (Map.Entry<Integer, RecordHelper<?>> entry :
+                RecordHelperProvider.getInstance().getRecordHelpers().entrySet()) {
+            String dateColumn = entry.getValue().getPeriodGroupByColumnName();
+            db.execSQL(
+                    "INSERT INTO "
+                            + TABLE_NAME
+                            + " ("
+                            + EPOCH_DAYS_COLUMN_NAME
+                            + ", "
+                            + RECORD_TYPE_ID_COLUMN_NAME
+                            + ", "
+                            + RECORD_COUNT_COLUMN_NAME
+                            + ") SELECT "
+                            + dateColumn
+                            + ", "
+                            + entry.getKey()
+                            + ", COUNT(*) FROM "
+                            + entry.getValue().getMainTableName()
+                            + " WHERE "
+                            + dateColumn
+                            + " IS NOT NULL GROUP BY "
+                            + dateColumn);
+        }
+    }
+
+    private static String getTriggerCommand(
+            String tableName, String name, String event, @Nullable String condition) {
+        return "CREATE TRIGGER IF NOT EXISTS "
+                + tableName
+                + "_activity_date_"
+                + name
+                + " AFTER "
+                + event
+                + " ON "
+                + tableName
+                + (condition == null ? "" : " WHEN " + condition)
+                + " BEGIN ";
+    }
+
+    private static String getIncrementCommand(int recordType, String date) {
+        // The WHERE clause is also needed for the parser to tell ON CONFLICT from a join.
+        return "INSERT INTO "
+                + TABLE_NAME
+                + " ("
+                + EPOCH_DAYS_COLUMN_NAME
+                + ", "
+                + RECORD_TYPE_ID_COLUMN_NAME
+                + ", "
+                + RECORD_COUNT_COLUMN_NAME
+                + ") SELECT "
+                + date
+                + ", "
+                + recordType
+                + ", 1 WHERE "
+                + date
+                + " IS NOT NULL ON CONFLICT ("
+                + EPOCH_DAYS_COLUMN_NAME
+                + ", "
+                + RECORD_TYPE_ID_COLUMN_NAME
+                + ") DO UPDATE SET "
+                + RECORD_COUNT_COLUMN_NAME
+                + " = "
+                + RECORD_COUNT_COLUMN_NAME
+                + " + 1; ";
+    }
+
+    private static String getDecrementCommands(int recordType, String date) {
+        String whereDate =
+                " WHERE "
+                        + EPOCH_DAYS_COLUMN_NAME
+                        + " = "
+                        + date
+                        + " AND "
+                        + RECORD_TYPE_ID_COLUMN_NAME
+                        + " = "
+                        + recordType;
+        return "UPDATE "
+                + TABLE_NAME
+                + " SET "
+                + RECORD_COUNT_COLUMN_NAME
+                + " = "
+                + RECORD_COUNT_COLUMN_NAME
+                + " - 1"
+                + whereDate
+                + "; DELETE FROM "
+                + TABLE_NAME
+                + whereDate
+                + " AND "
+                + RECORD_COUNT_COLUMN_NAME
+                + " <= 0; ";
     }
 
     /** Returns an instance of this class */
@@ -216,15 +386,41 @@ public final class ActivityDateHelper extends DatabaseHelper {
         return sActivityDateHelper;
     }
 
-    /** Creates UpsertTableRequest to insert into activity_date_table table. */
-    public UpsertTableRequest getUpsertTableRequest(int recordTypeId, long epochDays) {
-        return new UpsertTableRequest(TABLE_NAME, getContentValues(recordTypeId, epochDays));
-    }
+    /** Bitmap of the dates of a record type, as days since the first of them. */
+    private static final class EpochDays {
+        private final long mFirstEpochDay;
+        private final BitSet mDays;
 
-    /** Creates UpsertTableRequest to insert into activity_date_table table from recordInternal. */
-    public UpsertTableRequest getUpsertTableRequest(RecordInternal<?> recordInternal) {
-        return getUpsertTableRequest(
-                recordInternal.getRecordType(),
-                ChronoUnit.DAYS.between(LocalDate.EPOCH, recordInternal.getLocalDate()));
+        private EpochDays(long firstEpochDay, BitSet days) {
+            mFirstEpochDay = firstEpochDay;
+            mDays = days;
+        }
+
+        /** Returns the bitmap of {@code epochDays}, or null if they span too many days. */
+        @Nullable
+        static EpochDays from(List<Long> epochDays) {
+            long firstEpochDay = 0;
+            long lastEpochDay = 0;
+            for (int i = 0; i < epochDays.size(); i++) {
+                long epochDay = epochDays.get(i);
+                firstEpochDay = i == 0 ? epochDay : Math.min(firstEpochDay, epochDay);
+                lastEpochDay = i == 0 ? epochDay : Math.max(lastEpochDay, epochDay);
+            }
+            if (lastEpochDay - firstEpochDay >= MAX_BITMAP_DAYS) {
+                return null;
+            }
+
+            BitSet days = new BitSet((int) (lastEpochDay - firstEpochDay + 1));
+            for (long epochDay : epochDays) {
+                days.set((int) (epochDay - firstEpochDay));
+            }
+            return new EpochDays(firstEpochDay, days);
+        }
+
+        void addTo(Set<Long> epochDays) {
+            for (int day = mDays.nextSetBit(0); day >= 0; day = mDays.nextSetBit(day + 1)) {
+                epochDays.add(mFirstEpochDay + day);
+            }
+        }
     }
 }
@@ -120,6 +120,24 @@ public final class AppInfoHelper extends DatabaseHelper {
         mIdPackageNameMap = null;
     }
 
+    @Nullable
+    @Override
+    protected synchronized DetachedCache detachCache() {
+        AppInfoCache cache =
+                mAppInfoMap == null || mIdPackageNameMap == null
+                        ? null
+                        : new AppInfoCache(mAppInfoMap, mIdPackageNameMap);
+        clearCache();
+        return cache;
+    }
+
+    @Override
+    protected synchronized void restoreCache(@NonNull DetachedCache cache) {
+        AppInfoCache appInfoCache = (AppInfoCache) cache;
+        mAppInfoMap = appInfoCache.mAppInfoMap;
+        mIdPackageNameMap = appInfoCache.mIdPackageNameMap;
+    }
+
     @Override
     protected String getMainTableName() {
         return TABLE_NAME;
@@ -582,6 +600,37 @@ public final class AppInfoHelper extends DatabaseHelper {
         return recordTypeContributingPackagesMap;
     }
 
+    private static final class AppInfoCache implements DetachedCache {
+        // Entries of both maps, the AppInfoInternal and the boxed id.
+        private static final long ENTRY_SIZE_BYTES = 200;
+
+        private final ConcurrentHashMap<String, AppInfoInternal> mAppInfoMap;
+        private final ConcurrentHashMap<Long, String> mIdPackageNameMap;
+
+        AppInfoCache(
+                ConcurrentHashMap<String, AppInfoInternal> appInfoMap,
+                ConcurrentHashMap<Long, String> idPackageNameMap) {
+            mAppInfoMap = appInfoMap;
+            mIdPackageNameMap = idPackageNameMap;
+        }
+
+        @Override
+        public long getEstimatedSizeBytes() {
+            long sizeBytes = 0;
+            for (AppInfoInternal appInfo : mAppInfoMap.values()) {
+                sizeBytes +=
+                        ENTRY_SIZE_BYTES
+                                + estimateSizeBytes(appInfo.getPackageName())
+                                + estimateSizeBytes(appInfo.getName());
+                Bitmap icon = appInfo.getIcon();
+                if (icon != null) {
+                    sizeBytes += icon.getAllocationByteCount();
+                }
+            }
+            return sizeBytes;
+        }
+    }
+
     private Map<String, AppInfoInternal> getAppInfoMap() {
         if (Objects.isNull(mAppInfoMap)) {
             populateAppInfoMap();
@@ -27,6 +27,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.BasalBodyTemperatureRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -55,10 +57,12 @@ public final class BasalBodyTemperatureRecordHelper
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
             @NonNull BasalBodyTemperatureRecordInternal basalBodyTemperatureRecord) {
         basalBodyTemperatureRecord.setMeasurementLocation(
-                getCursorInt(cursor, MEASUREMENT_LOCATION_COLUMN_NAME));
-        basalBodyTemperatureRecord.setTemperature(getCursorDouble(cursor, TEMPERATURE_COLUMN_NAME));
+                getCursorInt(cursor, columns, MEASUREMENT_LOCATION_COLUMN_NAME));
+        basalBodyTemperatureRecord.setTemperature(
+                getCursorDouble(cursor, columns, TEMPERATURE_COLUMN_NAME));
     }
 
     @Override
@@ -32,6 +32,7 @@ import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
 import com.android.server.healthconnect.storage.request.AggregateTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -104,9 +105,11 @@ public final class BasalMetabolicRateRecordHelper
 
     @Override
     protected void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull BasalMetabolicRateRecordInternal recordInternal) {
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull BasalMetabolicRateRecordInternal recordInternal) {
         recordInternal.setBasalMetabolicRate(
-                getCursorDouble(cursor, BASAL_METABOLIC_RATE_COLUMN_NAME));
+                getCursorDouble(cursor, columns, BASAL_METABOLIC_RATE_COLUMN_NAME));
     }
 
     @Override
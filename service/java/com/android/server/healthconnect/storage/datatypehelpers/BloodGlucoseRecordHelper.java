@@ -27,6 +27,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.BloodGlucoseRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -55,11 +57,15 @@ public final class BloodGlucoseRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull BloodGlucoseRecordInternal bloodGlucoseRecord) {
-        bloodGlucoseRecord.setSpecimenSource(getCursorInt(cursor, SPECIMEN_SOURCE_COLUMN_NAME));
-        bloodGlucoseRecord.setLevel(getCursorDouble(cursor, LEVEL_COLUMN_NAME));
-        bloodGlucoseRecord.setRelationToMeal(getCursorInt(cursor, RELATION_TO_MEAL_COLUMN_NAME));
-        bloodGlucoseRecord.setMealType(getCursorInt(cursor, MEAL_TYPE_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull BloodGlucoseRecordInternal bloodGlucoseRecord) {
+        bloodGlucoseRecord.setSpecimenSource(
+                getCursorInt(cursor, columns, SPECIMEN_SOURCE_COLUMN_NAME));
+        bloodGlucoseRecord.setLevel(getCursorDouble(cursor, columns, LEVEL_COLUMN_NAME));
+        bloodGlucoseRecord.setRelationToMeal(
+                getCursorInt(cursor, columns, RELATION_TO_MEAL_COLUMN_NAME));
+        bloodGlucoseRecord.setMealType(getCursorInt(cursor, columns, MEAL_TYPE_COLUMN_NAME));
     }
 
     @Override
@@ -38,6 +38,7 @@ import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -71,12 +72,15 @@ public final class BloodPressureRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull BloodPressureRecordInternal bloodPressureRecord) {
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull BloodPressureRecordInternal bloodPressureRecord) {
         bloodPressureRecord.setMeasurementLocation(
-                getCursorInt(cursor, MEASUREMENT_LOCATION_COLUMN_NAME));
-        bloodPressureRecord.setSystolic(getCursorDouble(cursor, SYSTOLIC_COLUMN_NAME));
-        bloodPressureRecord.setDiastolic(getCursorDouble(cursor, DIASTOLIC_COLUMN_NAME));
-        bloodPressureRecord.setBodyPosition(getCursorInt(cursor, BODY_POSITION_COLUMN_NAME));
+                getCursorInt(cursor, columns, MEASUREMENT_LOCATION_COLUMN_NAME));
+        bloodPressureRecord.setSystolic(getCursorDouble(cursor, columns, SYSTOLIC_COLUMN_NAME));
+        bloodPressureRecord.setDiastolic(getCursorDouble(cursor, columns, DIASTOLIC_COLUMN_NAME));
+        bloodPressureRecord.setBodyPosition(
+                getCursorInt(cursor, columns, BODY_POSITION_COLUMN_NAME));
     }
 
     @Override
@@ -25,6 +25,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.BodyFatRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -49,8 +51,10 @@ public final class BodyFatRecordHelper extends InstantRecordHelper<BodyFatRecord
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull BodyFatRecordInternal bodyFatRecord) {
-        bodyFatRecord.setPercentage(getCursorDouble(cursor, PERCENTAGE_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull BodyFatRecordInternal bodyFatRecord) {
+        bodyFatRecord.setPercentage(getCursorDouble(cursor, columns, PERCENTAGE_COLUMN_NAME));
     }
 
     @Override
@@ -27,6 +27,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.BodyTemperatureRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -54,10 +56,13 @@ public final class BodyTemperatureRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull BodyTemperatureRecordInternal bodyTemperatureRecord) {
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull BodyTemperatureRecordInternal bodyTemperatureRecord) {
         bodyTemperatureRecord.setMeasurementLocation(
-                getCursorInt(cursor, MEASUREMENT_LOCATION_COLUMN_NAME));
-        bodyTemperatureRecord.setTemperature(getCursorDouble(cursor, TEMPERATURE_COLUMN_NAME));
+                getCursorInt(cursor, columns, MEASUREMENT_LOCATION_COLUMN_NAME));
+        bodyTemperatureRecord.setTemperature(
+                getCursorDouble(cursor, columns, TEMPERATURE_COLUMN_NAME));
     }
 
     @Override
@@ -27,6 +27,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.BodyWaterMassRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -60,9 +62,11 @@ public final class BodyWaterMassRecordHelper
 
     @Override
     protected void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull BodyWaterMassRecordInternal recordInternal) {
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull BodyWaterMassRecordInternal recordInternal) {
         recordInternal.setBodyWaterMass(
-                getCursorDouble(cursor, BODY_WATER_MASS_RECORD_COLUMN_NAME));
+                getCursorDouble(cursor, columns, BODY_WATER_MASS_RECORD_COLUMN_NAME));
     }
 
     @Override
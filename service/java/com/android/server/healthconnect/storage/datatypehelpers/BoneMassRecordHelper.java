@@ -25,6 +25,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.BoneMassRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -49,8 +51,10 @@ public final class BoneMassRecordHelper extends InstantRecordHelper<BoneMassReco
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull BoneMassRecordInternal boneMassRecord) {
-        boneMassRecord.setMass(getCursorDouble(cursor, MASS_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull BoneMassRecordInternal boneMassRecord) {
+        boneMassRecord.setMass(getCursorDouble(cursor, columns, MASS_COLUMN_NAME));
     }
 
     @Override
@@ -25,6 +25,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.CervicalMucusRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -51,9 +53,11 @@ public final class CervicalMucusRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull CervicalMucusRecordInternal cervicalMucusRecord) {
-        cervicalMucusRecord.setSensation(getCursorInt(cursor, SENSATION_COLUMN_NAME));
-        cervicalMucusRecord.setAppearance(getCursorInt(cursor, APPEARANCE_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull CervicalMucusRecordInternal cervicalMucusRecord) {
+        cervicalMucusRecord.setSensation(getCursorInt(cursor, columns, SENSATION_COLUMN_NAME));
+        cervicalMucusRecord.setAppearance(getCursorInt(cursor, columns, APPEARANCE_COLUMN_NAME));
     }
 
     @Override
@@ -33,8 +33,8 @@ import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.health.connect.accesslog.AccessLog.OperationType;
+import android.health.connect.aidl.DeletedLogsParcel;
 import android.health.connect.changelog.ChangeLogsRequest;
-import android.health.connect.changelog.ChangeLogsResponse.DeletedLog;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.util.ArrayMap;
 import android.util.Pair;
@@ -44,18 +44,16 @@ import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
-import com.android.server.healthconnect.storage.utils.StorageUtils;
+import com.android.server.healthconnect.storage.utils.PackedUuidList;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 /**
  * A helper class to fetch and store the change logs.
@@ -103,9 +101,14 @@ public final class ChangeLogsHelper extends DatabaseHelper {
             ChangeLogsRequestHelper.TokenRequest changeLogTokenRequest,
             ChangeLogsRequest changeLogsRequest) {
         long token = changeLogTokenRequest.getRowIdChangeLogs();
-        WhereClauses whereClause =
-                new WhereClauses(AND)
-                        .addWhereGreaterThanClause(PRIMARY_COLUMN_NAME, String.valueOf(token));
+        int uuidOffset = changeLogTokenRequest.getUuidOffsetChangeLogs();
+        WhereClauses whereClause = new WhereClauses(AND);
+        if (uuidOffset > 0) {
+            // The previous page ended within row token, continue with its remaining UUIDs.
+            whereClause.addWhereGreaterThanOrEqualClause(PRIMARY_COLUMN_NAME, token);
+        } else {
+            whereClause.addWhereGreaterThanClause(PRIMARY_COLUMN_NAME, String.valueOf(token));
+        }
         if (!changeLogTokenRequest.getRecordTypes().isEmpty()) {
             whereClause.addWhereInIntsClause(
                     RECORD_TYPE_COLUMN_NAME, changeLogTokenRequest.getRecordTypes());
@@ -118,9 +121,9 @@ public final class ChangeLogsHelper extends DatabaseHelper {
                             .getAppInfoIds(changeLogTokenRequest.getPackageNamesToFilter()));
         }
 
-        // We set limit size to requested pageSize plus extra 1 record so that if number of records
-        // queried is more than pageSize we know there are more records available to return for the
-        // next read.
+        // Every row holds at least one UUID, so we set limit size to requested pageSize plus extra
+        // 1 record so that if number of UUIDs queried is more than pageSize we know there are more
+        // records available to return for the next read.
         int pageSize = changeLogsRequest.getPageSize();
         final ReadTableRequest readTableRequest =
                 new ReadTableRequest(TABLE_NAME).setWhereClause(whereClause).setLimit(pageSize + 1);
@@ -128,23 +131,37 @@ public final class ChangeLogsHelper extends DatabaseHelper {
         Map<Integer, ChangeLogs> operationToChangeLogMap = new ArrayMap<>();
         TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
         long nextChangesToken = DEFAULT_LONG;
+        int nextUuidOffset = 0;
         boolean hasMoreRecords = false;
         try (Cursor cursor = transactionManager.read(readTableRequest)) {
-            int count = 0;
+            int remaining = pageSize;
             while (cursor.moveToNext()) {
-                if (count >= pageSize) {
+                if (remaining == 0) {
+                    hasMoreRecords = true;
+                    break;
+                }
+                long rowId = getCursorLong(cursor, PRIMARY_COLUMN_NAME);
+                byte[] uuids = cursor.getBlob(cursor.getColumnIndex(UUIDS_COLUMN_NAME));
+                int uuidCount = PackedUuidList.getUuidCount(uuids);
+                int fromIndex = rowId == token ? Math.min(uuidOffset, uuidCount) : 0;
+                int count = Math.min(uuidCount - fromIndex, remaining);
+                addChangeLogs(cursor, uuids, fromIndex, count, operationToChangeLogMap);
+                remaining -= count;
+                nextChangesToken = rowId;
+                if (fromIndex + count < uuidCount) {
+                    // The page is full before the end of this row, the next one starts with the
+                    // rest of it.
+                    nextUuidOffset = fromIndex + count;
                     hasMoreRecords = true;
                     break;
                 }
-                count += addChangeLogs(cursor, operationToChangeLogMap);
-                nextChangesToken = getCursorInt(cursor, PRIMARY_COLUMN_NAME);
             }
         }
 
         String nextToken =
                 nextChangesToken != DEFAULT_LONG
                         ? ChangeLogsRequestHelper.getNextPageToken(
-                                changeLogTokenRequest, nextChangesToken)
+                                changeLogTokenRequest, nextChangesToken, nextUuidOffset)
                         : String.valueOf(changeLogsRequest.getToken());
 
         return new ChangeLogsResponse(operationToChangeLogMap, nextToken, hasMoreRecords);
@@ -154,19 +171,24 @@ public final class ChangeLogsHelper extends DatabaseHelper {
         return TransactionManager.getInitialisedInstance().getLastRowIdFor(TABLE_NAME);
     }
 
-    @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
-    private int addChangeLogs(Cursor cursor, Map<Integer, ChangeLogs> changeLogs) {
+    private static void addChangeLogs(
+            Cursor cursor,
+            byte[] uuids,
+            int fromIndex,
+            int count,
+            Map<Integer, ChangeLogs> changeLogs) {
         @RecordTypeIdentifier.RecordType
         int recordType = getCursorInt(cursor, RECORD_TYPE_COLUMN_NAME);
         @OperationType.OperationTypes
         int operationType = getCursorInt(cursor, OPERATION_TYPE_COLUMN_NAME);
-        List<UUID> uuidList = StorageUtils.getCursorUUIDList(cursor, UUIDS_COLUMN_NAME);
         long appId = getCursorLong(cursor, APP_ID_COLUMN_NAME);
-        changeLogs.putIfAbsent(
-                operationType,
-                new ChangeLogs(operationType, getCursorLong(cursor, TIME_COLUMN_NAME)));
-        changeLogs.get(operationType).addUUIDs(recordType, appId, uuidList);
-        return uuidList.size();
+        ChangeLogs operationChangeLogs = changeLogs.get(operationType);
+        if (operationChangeLogs == null) {
+            operationChangeLogs =
+                    new ChangeLogs(operationType, getCursorLong(cursor, TIME_COLUMN_NAME));
+            changeLogs.put(operationType, operationChangeLogs);
+        }
+        operationChangeLogs.addUUIDs(recordType, appId, uuids, fromIndex, count);
     }
 
     @NonNull
@@ -190,21 +212,16 @@ public final class ChangeLogsHelper extends DatabaseHelper {
         return sChangeLogsHelper;
     }
 
+    /** Returns the deleted logs, with their UUIDs kept packed until the client reads them. */
     @NonNull
-    public static List<DeletedLog> getDeletedLogs(Map<Integer, ChangeLogs> operationToChangeLogs) {
+    public static DeletedLogsParcel getDeletedLogs(Map<Integer, ChangeLogs> operationToChangeLogs) {
         ChangeLogs logs = operationToChangeLogs.get(DELETE);
 
         if (!Objects.isNull(logs)) {
-            List<UUID> ids = logs.getUUIds();
-            long timeStamp = logs.getChangeLogTimeStamp();
-            List<DeletedLog> deletedLogs = new ArrayList<>(ids.size());
-            for (UUID id : ids) {
-                deletedLogs.add(new DeletedLog(id.toString(), timeStamp));
-            }
-
-            return deletedLogs;
+            return new DeletedLogsParcel(
+                    logs.getUUIds().toLongArray(), logs.getChangeLogTimeStamp());
         }
-        return new ArrayList<>();
+        return new DeletedLogsParcel(new ArrayList<>());
     }
 
     @NonNull
@@ -220,7 +237,7 @@ public final class ChangeLogsHelper extends DatabaseHelper {
     }
 
     public static final class ChangeLogs {
-        private final Map<RecordTypeAndAppIdPair, List<UUID>> mRecordTypeAndAppIdToUUIDMap =
+        private final Map<RecordTypeAndAppIdPair, PackedUuidList> mRecordTypeAndAppIdToUUIDMap =
                 new ArrayMap<>();
         @OperationType.OperationTypes private final int mOperationType;
         private final String mPackageName;
@@ -263,20 +280,31 @@ public final class ChangeLogsHelper extends DatabaseHelper {
             Map<Integer, List<UUID>> recordTypeToUUIDMap = new ArrayMap<>();
             mRecordTypeAndAppIdToUUIDMap.forEach(
                     (recordTypeAndAppIdPair, uuids) -> {
-                        recordTypeToUUIDMap.putIfAbsent(
-                                recordTypeAndAppIdPair.getRecordType(), new ArrayList<>());
-                        Objects.requireNonNull(
-                                        recordTypeToUUIDMap.get(
-                                                recordTypeAndAppIdPair.getRecordType()))
-                                .addAll(uuids);
+                        List<UUID> recordTypeUuids =
+                                recordTypeToUUIDMap.get(recordTypeAndAppIdPair.getRecordType());
+                        if (recordTypeUuids == null) {
+                            recordTypeUuids = new ArrayList<>(uuids.size());
+                            recordTypeToUUIDMap.put(
+                                    recordTypeAndAppIdPair.getRecordType(), recordTypeUuids);
+                        }
+                        for (int i = 0; i < uuids.size(); i++) {
+                            recordTypeUuids.add(uuids.get(i));
+                        }
                     });
             return recordTypeToUUIDMap;
         }
 
-        public List<UUID> getUUIds() {
-            return mRecordTypeAndAppIdToUUIDMap.values().stream()
-                    .flatMap(Collection::stream)
-                    .collect(Collectors.toList());
+        /** Returns the UUIDs of all record types and apps. */
+        public PackedUuidList getUUIds() {
+            int size = 0;
+            for (PackedUuidList uuids : mRecordTypeAndAppIdToUUIDMap.values()) {
+                size += uuids.size();
+            }
+            PackedUuidList allUuids = new PackedUuidList(size);
+            for (PackedUuidList uuids : mRecordTypeAndAppIdToUUIDMap.values()) {
+                allUuids.addAll(uuids);
+            }
+            return allUuids;
         }
 
         public long getChangeLogTimeStamp() {
@@ -284,17 +312,13 @@ public final class ChangeLogsHelper extends DatabaseHelper {
         }
 
         /** Function to add an uuid corresponding to given pair of @recordType and @appId */
-        @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
         public void addUUID(
                 @RecordTypeIdentifier.RecordType int recordType,
                 @NonNull long appId,
                 @NonNull UUID uuid) {
             Objects.requireNonNull(uuid);
 
-            RecordTypeAndAppIdPair recordTypeAndAppIdPair =
-                    new RecordTypeAndAppIdPair(recordType, appId);
-            mRecordTypeAndAppIdToUUIDMap.putIfAbsent(recordTypeAndAppIdPair, new ArrayList<>());
-            mRecordTypeAndAppIdToUUIDMap.get(recordTypeAndAppIdPair).add(uuid);
+            getUuids(recordType, appId).add(uuid);
         }
 
         /**
@@ -314,23 +338,23 @@ public final class ChangeLogsHelper extends DatabaseHelper {
                         contentValues.put(APP_ID_COLUMN_NAME, recordTypeAndAppIdPair.getAppId());
                         contentValues.put(OPERATION_TYPE_COLUMN_NAME, mOperationType);
                         contentValues.put(TIME_COLUMN_NAME, mChangeLogTimeStamp);
-                        contentValues.put(
-                                UUIDS_COLUMN_NAME, StorageUtils.getSingleByteArray(uuids));
+                        contentValues.put(UUIDS_COLUMN_NAME, uuids.toByteArray());
                         requests.add(new UpsertTableRequest(TABLE_NAME, contentValues));
                     });
             return requests;
         }
 
-        /** Adds {@code uuids} to {@link ChangeLogs}. */
-        @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
+        /**
+         * Adds {@code count} UUIDs of {@code uuids}, a blob as stored in the change logs table,
+         * starting with the one at {@code fromIndex}, to {@link ChangeLogs}.
+         */
         public ChangeLogs addUUIDs(
                 @RecordTypeIdentifier.RecordType int recordType,
                 @NonNull long appId,
-                @NonNull List<UUID> uuids) {
-            RecordTypeAndAppIdPair recordTypeAndAppIdPair =
-                    new RecordTypeAndAppIdPair(recordType, appId);
-            mRecordTypeAndAppIdToUUIDMap.putIfAbsent(recordTypeAndAppIdPair, new ArrayList<>());
-            mRecordTypeAndAppIdToUUIDMap.get(recordTypeAndAppIdPair).addAll(uuids);
+                @NonNull byte[] uuids,
+                int fromIndex,
+                int count) {
+            getUuids(recordType, appId).addFromBlob(uuids, fromIndex, count);
             return this;
         }
 
@@ -338,6 +362,18 @@ public final class ChangeLogsHelper extends DatabaseHelper {
             mRecordTypeAndAppIdToUUIDMap.clear();
         }
 
+        private PackedUuidList getUuids(
+                @RecordTypeIdentifier.RecordType int recordType, long appId) {
+            RecordTypeAndAppIdPair recordTypeAndAppIdPair =
+                    new RecordTypeAndAppIdPair(recordType, appId);
+            PackedUuidList uuids = mRecordTypeAndAppIdToUUIDMap.get(recordTypeAndAppIdPair);
+            if (uuids == null) {
+                uuids = new PackedUuidList();
+                mRecordTypeAndAppIdToUUIDMap.put(recordTypeAndAppIdPair, uuids);
+            }
+            return uuids;
+        }
+
         /** A helper class to create a pair of recordType and appId */
         private static final class RecordTypeAndAppIdPair {
             private final int mRecordType;
@@ -24,6 +24,7 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_N
 import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_NULL;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorInt;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorIntegerList;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorString;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorStringList;
 import static com.android.server.healthconnect.storage.utils.WhereClauses.LogicalOperator.AND;
@@ -31,10 +32,12 @@ import static com.android.server.healthconnect.storage.utils.WhereClauses.Logica
 import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.health.connect.changelog.ChangeLogTokenRequest;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.AlterTableRequest;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
@@ -63,6 +66,9 @@ public final class ChangeLogsRequestHelper extends DatabaseHelper {
     private static final String RECORD_TYPES_COLUMN_NAME = "record_types";
     private static final String PACKAGE_NAME_COLUMN_NAME = "package_name";
     private static final String ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME = "row_id_change_logs_table";
+    // Number of UUIDs of the change log row ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME already returned,
+    // if a page ended in the middle of that row. Rows after it are to be returned otherwise.
+    private static final String UUID_OFFSET_COLUMN_NAME = "uuid_offset";
     private static final String TIME_COLUMN_NAME = "time";
 
     @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
@@ -106,6 +112,14 @@ public final class ChangeLogsRequestHelper extends DatabaseHelper {
                         .insert(new UpsertTableRequest(TABLE_NAME, contentValues)));
     }
 
+    /** Adds the UUID offset column to existing tokens, which don't have one. */
+    public void applyUuidOffsetUpgrade(@NonNull SQLiteDatabase db) {
+        db.execSQL(
+                new AlterTableRequest(
+                                TABLE_NAME, List.of(new Pair<>(UUID_OFFSET_COLUMN_NAME, INTEGER)))
+                        .getAlterTableAddColumnsCommand());
+    }
+
     public DeleteTableRequest getDeleteRequestForAutoDelete() {
         return new DeleteTableRequest(TABLE_NAME)
                 .setTimeFilter(
@@ -126,6 +140,7 @@ public final class ChangeLogsRequestHelper extends DatabaseHelper {
         columnInfo.add(new Pair<>(RECORD_TYPES_COLUMN_NAME, TEXT_NULL));
         columnInfo.add(new Pair<>(ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME, INTEGER));
         columnInfo.add(new Pair<>(TIME_COLUMN_NAME, INTEGER));
+        columnInfo.add(new Pair<>(UUID_OFFSET_COLUMN_NAME, INTEGER));
 
         return columnInfo;
     }
@@ -158,12 +173,18 @@ public final class ChangeLogsRequestHelper extends DatabaseHelper {
                     getCursorStringList(cursor, PACKAGES_TO_FILTERS_COLUMN_NAME, DELIMITER),
                     getCursorIntegerList(cursor, RECORD_TYPES_COLUMN_NAME, DELIMITER),
                     getCursorString(cursor, PACKAGE_NAME_COLUMN_NAME),
-                    getCursorInt(cursor, ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME));
+                    getCursorLong(cursor, ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME),
+                    getCursorInt(cursor, UUID_OFFSET_COLUMN_NAME));
         }
     }
 
+    /**
+     * Returns a token for the change logs after those of row {@code nextRowId}, or after the first
+     * {@code nextUuidOffset} UUIDs of that row if it's greater than 0.
+     */
     @NonNull
-    public static String getNextPageToken(TokenRequest changeLogTokenRequest, long nextRowId) {
+    public static String getNextPageToken(
+            TokenRequest changeLogTokenRequest, long nextRowId, int nextUuidOffset) {
         ContentValues contentValues = new ContentValues();
         contentValues.put(
                 PACKAGES_TO_FILTERS_COLUMN_NAME,
@@ -174,6 +195,7 @@ public final class ChangeLogsRequestHelper extends DatabaseHelper {
         contentValues.put(
                 PACKAGE_NAME_COLUMN_NAME, changeLogTokenRequest.getRequestingPackageName());
         contentValues.put(ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME, nextRowId);
+        contentValues.put(UUID_OFFSET_COLUMN_NAME, nextUuidOffset);
 
         return String.valueOf(
                 TransactionManager.getInitialisedInstance()
@@ -186,28 +208,37 @@ public final class ChangeLogsRequestHelper extends DatabaseHelper {
         private final List<Integer> mRecordTypes;
         private final String mRequestingPackageName;
         private final long mRowIdChangeLogs;
+        private final int mUuidOffsetChangeLogs;
 
         /**
          * @param requestingPackageName contributing package name
          * @param packageNamesToFilter package names to filter
          * @param recordTypes records to filter
          * @param rowIdChangeLogs row id of change log table after which the logs are to be fetched
+         * @param uuidOffsetChangeLogs if greater than 0, the number of UUIDs of row {@code
+         *     rowIdChangeLogs} already fetched, the rest of which are to be fetched first
          */
         public TokenRequest(
                 @NonNull List<String> packageNamesToFilter,
                 @NonNull List<Integer> recordTypes,
                 @NonNull String requestingPackageName,
-                long rowIdChangeLogs) {
+                long rowIdChangeLogs,
+                int uuidOffsetChangeLogs) {
             mPackageNamesToFilter = packageNamesToFilter;
             mRecordTypes = recordTypes;
             mRequestingPackageName = requestingPackageName;
             mRowIdChangeLogs = rowIdChangeLogs;
+            mUuidOffsetChangeLogs = uuidOffsetChangeLogs;
         }
 
         public long getRowIdChangeLogs() {
             return mRowIdChangeLogs;
         }
 
+        public int getUuidOffsetChangeLogs() {
+            return mUuidOffsetChangeLogs;
+        }
+
         @NonNull
         public String getRequestingPackageName() {
             return mRequestingPackageName;
@@ -22,9 +22,6 @@ import static android.health.connect.datatypes.AggregationType.AggregationTypeId
 
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.REAL;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorDouble;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 
 import android.content.ContentValues;
 import android.database.Cursor;
@@ -34,16 +31,10 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.CyclingPedalingCadenceRecordInternal;
 import android.util.Pair;
 
-import androidx.annotation.NonNull;
-
 import com.android.server.healthconnect.storage.request.AggregateParams;
-import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * Helper class for CyclingPedalingCadenceRecord.
@@ -58,7 +49,6 @@ public class CyclingPedalingCadenceRecordHelper
     private static final String TABLE_NAME = "CyclingPedalingCadenceRecordTable";
     private static final String SERIES_TABLE_NAME = "cycling_pedaling_cadence_record_table";
     private static final String REVOLUTIONS_PER_MINUTE_COLUMN_NAME = "revolutions_per_minute";
-    private static final String EPOCH_MILLIS_COLUMN_NAME = "epoch_millis";
 
     public CyclingPedalingCadenceRecordHelper() {
         super(RecordTypeIdentifier.RECORD_TYPE_CYCLING_PEDALING_CADENCE);
@@ -82,26 +72,6 @@ public class CyclingPedalingCadenceRecordHelper
         return SERIES_TABLE_NAME;
     }
 
-    /** Populates the {@code record} with values specific to datatype */
-    @Override
-    void populateSpecificValues(
-            @NonNull Cursor seriesTableCursor, CyclingPedalingCadenceRecordInternal record) {
-        HashSet<CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample>
-                cyclingPedalingCadenceRecordSampleSet = new HashSet<>();
-        UUID uuid = getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME);
-        do {
-            cyclingPedalingCadenceRecordSampleSet.add(
-                    new CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample(
-                            getCursorDouble(seriesTableCursor, REVOLUTIONS_PER_MINUTE_COLUMN_NAME),
-                            getCursorLong(seriesTableCursor, EPOCH_MILLIS_COLUMN_NAME)));
-        } while (seriesTableCursor.moveToNext()
-                && uuid.equals(getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME)));
-        // In case we hit another record, move the cursor back to read next record in outer
-        // RecordHelper#getInternalRecords loop.
-        seriesTableCursor.moveToPrevious();
-        record.setSamples(cyclingPedalingCadenceRecordSampleSet);
-    }
-
     @Override
     void populateSampleTo(
             ContentValues contentValues,
@@ -137,17 +107,26 @@ public class CyclingPedalingCadenceRecordHelper
             case CYCLING_PEDALING_CADENCE_RECORD_RPM_MIN:
             case CYCLING_PEDALING_CADENCE_RECORD_RPM_MAX:
             case CYCLING_PEDALING_CADENCE_RECORD_RPM_AVG:
-                return new AggregateParams(
-                                SERIES_TABLE_NAME,
-                                Collections.singletonList(REVOLUTIONS_PER_MINUTE_COLUMN_NAME))
-                        .setJoin(
-                                new SqlJoin(
-                                        SERIES_TABLE_NAME,
-                                        TABLE_NAME,
-                                        PARENT_KEY_COLUMN_NAME,
-                                        PRIMARY_COLUMN_NAME));
+                return getSampleAggregateParams(aggregateRequest);
             default:
                 return null;
         }
     }
+
+    @Override
+    String getSampleValueColumnName() {
+        return REVOLUTIONS_PER_MINUTE_COLUMN_NAME;
+    }
+
+    @Override
+    long getSampleEpochMillis(
+            CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample sample) {
+        return sample.getEpochMillis();
+    }
+
+    @Override
+    double getSampleValue(
+            CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample sample) {
+        return sample.getRevolutionsPerMinute();
+    }
 }
@@ -17,6 +17,8 @@
 package com.android.server.healthconnect.storage.datatypehelpers;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.ArrayMap;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.TransactionManager;
@@ -24,6 +26,7 @@ import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -53,13 +56,83 @@ public abstract class DatabaseHelper {
         }
     }
 
+    /**
+     * Detaches the caches of all helpers, so that they can be restored with {@link
+     * #restoreAllCaches} when switching back to the user they were filled for. Caches that can't be
+     * detached are cleared.
+     */
+    @NonNull
+    public static UserCaches detachAllCaches() {
+        UserCaches userCaches = new UserCaches();
+        for (DatabaseHelper databaseHelper : sDatabaseHelpers) {
+            DetachedCache cache = databaseHelper.detachCache();
+            if (cache != null) {
+                userCaches.mCaches.put(databaseHelper, cache);
+            }
+        }
+        return userCaches;
+    }
+
+    /** Restores caches detached by {@link #detachAllCaches}, replacing the current ones. */
+    public static void restoreAllCaches(@NonNull UserCaches userCaches) {
+        for (Map.Entry<DatabaseHelper, DetachedCache> entry : userCaches.mCaches.entrySet()) {
+            entry.getKey().restoreCache(entry.getValue());
+        }
+    }
+
     protected void clearData(@NonNull TransactionManager transactionManager) {
         transactionManager.delete(new DeleteTableRequest(getMainTableName()));
     }
 
     protected void clearCache() {}
 
+    /**
+     * Returns the cache of this helper and leaves it empty, or returns null if the cache is not
+     * kept for background users.
+     */
+    @Nullable
+    protected DetachedCache detachCache() {
+        clearCache();
+        return null;
+    }
+
+    /** Replaces the cache of this helper with one returned by {@link #detachCache}. */
+    protected void restoreCache(@NonNull DetachedCache cache) {}
+
+    /** Returns the estimated memory used by {@code value}, in bytes. */
+    static long estimateSizeBytes(@Nullable String value) {
+        // Object and array headers, and two bytes per char at most.
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
     protected abstract String getMainTableName();
 
     protected abstract List<Pair<String, String>> getColumnInfo();
+
+    /** Cache of a helper, detached to be kept with the database of a background user. */
+    protected interface DetachedCache {
+        /** Returns the estimated memory used by the cache, in bytes. */
+        long getEstimatedSizeBytes();
+    }
+
+    /** Caches of all helpers detached for a user, see {@link #detachAllCaches}. */
+    public static final class UserCaches {
+        private final Map<DatabaseHelper, DetachedCache> mCaches = new ArrayMap<>();
+
+        private UserCaches() {}
+
+        /** Returns whether no cache was filled when the caches were detached. */
+        public boolean isEmpty() {
+            return mCaches.isEmpty();
+        }
+
+        /** Returns the estimated memory used by the caches, in bytes. */
+        public long getEstimatedSizeBytes() {
+            long sizeBytes = 0;
+            for (DetachedCache cache : mCaches.values()) {
+                sizeBytes += cache.getEstimatedSizeBytes();
+            }
+            return sizeBytes;
+        }
+    }
 }
@@ -40,7 +40,10 @@ import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -62,6 +65,13 @@ public final class DeriveBasalCaloriesBurnedHelper {
     private double mRateOfEnergyBurntInWatts = 0;
     private String mTimeColumnName;
 
+    // Rows of the tables used as fallback, keyed by table name. Each table is read once for the
+    // whole range of the request, and intervals within the range look up their rows in memory.
+    private final Map<String, InputSeries> mInputSeries = new HashMap<>();
+    private boolean mHasRange;
+    private long mRangeStartTime;
+    private long mRangeEndTime;
+
     @SuppressWarnings("GoodTime") // constant age represented by primitive
     private static final int DEFAULT_AGE = 30;
 
@@ -75,6 +85,20 @@ public final class DeriveBasalCaloriesBurnedHelper {
         mTimeColumnName = timeColumnName;
     }
 
+    /**
+     * Creates a helper for intervals between {@code rangeStartTime} and {@code rangeEndTime}, which
+     * reads the rows needed for any of these intervals at most once.
+     */
+    public DeriveBasalCaloriesBurnedHelper(
+            @NonNull Cursor cursor,
+            @NonNull String columnName,
+            @NonNull String timeColumnName,
+            long rangeStartTime,
+            long rangeEndTime) {
+        this(cursor, columnName, timeColumnName);
+        setRange(rangeStartTime, rangeEndTime);
+    }
+
     /**
      * Calculates and returns aggregate of total basal calories burned from table {@link
      * BasalMetabolicRateRecord} for the interval.
@@ -143,69 +167,57 @@ public final class DeriveBasalCaloriesBurnedHelper {
                     mRateOfEnergyBurntInWatts, intervalStartTime, intervalEndTime);
         }
 
-        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
-        try (Cursor cursor =
-                transactionManager.read(
-                        new ReadTableRequest(BASAL_METABOLIC_RATE_RECORD_TABLE_NAME)
-                                .setColumnNames(List.of(BASAL_METABOLIC_RATE_COLUMN_NAME))
-                                .setWhereClause(
-                                        new WhereClauses(AND)
-                                                .addWhereLessThanOrEqualClause(
-                                                        mTimeColumnName, intervalStartTime))
-                                .setLimit(1)
-                                .setOrderBy(
-                                        new OrderByClause()
-                                                .addOrderByClause(mTimeColumnName, false)))) {
-            if (cursor.getCount() == 0) {
-                // No data found, fallback to LBM
-                return derivedBasalCaloriesBurnedFromLeanBodyMass(
-                        intervalStartTime, intervalEndTime);
-            }
-            cursor.moveToNext();
-            mRateOfEnergyBurntInWatts =
-                    StorageUtils.getCursorDouble(cursor, BASAL_METABOLIC_RATE_COLUMN_NAME);
-            return getCurrentIntervalEnergy(
-                    mRateOfEnergyBurntInWatts, intervalStartTime, intervalEndTime);
+        SeriesView bmrView =
+                getInputSeries(
+                                BASAL_METABOLIC_RATE_RECORD_TABLE_NAME,
+                                BASAL_METABOLIC_RATE_COLUMN_NAME,
+                                intervalStartTime,
+                                intervalStartTime)
+                        .getLatestAtOrBefore(intervalStartTime);
+        if (bmrView.getCount() == 0) {
+            // No data found, fallback to LBM
+            return derivedBasalCaloriesBurnedFromLeanBodyMass(intervalStartTime, intervalEndTime);
         }
+        bmrView.moveToNext();
+        mRateOfEnergyBurntInWatts = bmrView.getValue();
+        return getCurrentIntervalEnergy(
+                mRateOfEnergyBurntInWatts, intervalStartTime, intervalEndTime);
     }
 
     private double derivedBasalCaloriesBurnedFromLeanBodyMass(
             long intervalStartTime, long intervalEndTime) {
         double totalCalories = 0;
-        try (Cursor lbmCursor = getLeanBodyMassCursor(intervalStartTime, intervalEndTime)) {
-            if (lbmCursor.getCount() == 0) {
-                // No data found, fallback to profile data
-                return derivedBasalCaloriesBurnedFromProfile(intervalStartTime, intervalEndTime);
-            }
+        SeriesView lbmView = getLeanBodyMassView(intervalStartTime, intervalEndTime);
+        if (lbmView.getCount() == 0) {
+            // No data found, fallback to profile data
+            return derivedBasalCaloriesBurnedFromProfile(intervalStartTime, intervalEndTime);
+        }
 
-            long lastReadTime = -1;
-            double bmrFromLbmInCaloriesPerDay = 0;
-            while (lbmCursor.moveToNext()) {
-                double mass = StorageUtils.getCursorDouble(lbmCursor, MASS_COLUMN_NAME);
-                long time = StorageUtils.getCursorLong(lbmCursor, mTimeColumnName);
-                if (lastReadTime == -1) {
-                    // Derive calories from profile for start time to first entry time, if required
-                    if (time > intervalStartTime) {
-                        totalCalories +=
-                                derivedBasalCaloriesBurnedFromProfile(intervalStartTime, time);
-                        lastReadTime = time;
-                    } else {
-                        lastReadTime = intervalStartTime;
-                    }
-                    bmrFromLbmInCaloriesPerDay = getBmrFromLbmInCaloriesPerDay(mass);
-                    continue;
+        long lastReadTime = -1;
+        double bmrFromLbmInCaloriesPerDay = 0;
+        while (lbmView.moveToNext()) {
+            double mass = lbmView.getValue();
+            long time = lbmView.getTime();
+            if (lastReadTime == -1) {
+                // Derive calories from profile for start time to first entry time, if required
+                if (time > intervalStartTime) {
+                    totalCalories += derivedBasalCaloriesBurnedFromProfile(intervalStartTime, time);
+                    lastReadTime = time;
+                } else {
+                    lastReadTime = intervalStartTime;
                 }
-
-                totalCalories += getCalories(bmrFromLbmInCaloriesPerDay, lastReadTime, time);
-
                 bmrFromLbmInCaloriesPerDay = getBmrFromLbmInCaloriesPerDay(mass);
-                lastReadTime = time;
+                continue;
             }
 
-            if (lastReadTime < intervalEndTime) {
-                totalCalories +=
-                        getCalories(bmrFromLbmInCaloriesPerDay, lastReadTime, intervalEndTime);
-            }
+            totalCalories += getCalories(bmrFromLbmInCaloriesPerDay, lastReadTime, time);
+
+            bmrFromLbmInCaloriesPerDay = getBmrFromLbmInCaloriesPerDay(mass);
+            lastReadTime = time;
+        }
+
+        if (lastReadTime < intervalEndTime) {
+            totalCalories += getCalories(bmrFromLbmInCaloriesPerDay, lastReadTime, intervalEndTime);
         }
 
         return totalCalories;
@@ -219,127 +231,173 @@ public final class DeriveBasalCaloriesBurnedHelper {
     private double derivedBasalCaloriesBurnedFromProfile(
             long intervalStartTime, long intervalEndTime) {
         double caloriesFromProfile = 0;
-        try (Cursor heightCursor = getHeightCursor(intervalStartTime, intervalEndTime);
-                Cursor weightCursor = getWeightCursor(intervalStartTime, intervalEndTime)) {
-            if (heightCursor.getCount() == 0 && weightCursor.getCount() == 0) {
-                return getCaloriesFromHeightAndWeight(
-                        DEFAULT_HEIGHT_IN_METERS,
-                        DEFAULT_WEIGHT_IN_GMS,
-                        intervalStartTime,
-                        intervalEndTime);
+        SeriesView heightView = getHeightView(intervalStartTime, intervalEndTime);
+        SeriesView weightView = getWeightView(intervalStartTime, intervalEndTime);
+        if (heightView.getCount() == 0 && weightView.getCount() == 0) {
+            return getCaloriesFromHeightAndWeight(
+                    DEFAULT_HEIGHT_IN_METERS,
+                    DEFAULT_WEIGHT_IN_GMS,
+                    intervalStartTime,
+                    intervalEndTime);
+        }
+
+        boolean hasHeight = heightView.moveToNext();
+        boolean hasWeight = weightView.moveToNext();
+        long lastTimeUsed = -1;
+        double height = DEFAULT_HEIGHT_IN_METERS;
+        double weight = DEFAULT_WEIGHT_IN_GMS;
+
+        long heightTime = Long.MAX_VALUE;
+        long weightTime = Long.MAX_VALUE;
+        while (hasHeight || hasWeight) {
+            if (hasHeight) {
+                heightTime = heightView.getTime();
             }
 
-            boolean hasHeight = heightCursor.moveToNext();
-            boolean hasWeight = weightCursor.moveToNext();
-            long lastTimeUsed = -1;
-            double height = DEFAULT_HEIGHT_IN_METERS;
-            double weight = DEFAULT_WEIGHT_IN_GMS;
+            if (hasWeight) {
+                weightTime = weightView.getTime();
+            }
 
-            long heightTime = Long.MAX_VALUE;
-            long weightTime = Long.MAX_VALUE;
-            while (hasHeight || hasWeight) {
-                if (hasHeight) {
-                    heightTime = StorageUtils.getCursorLong(heightCursor, mTimeColumnName);
+            if (lastTimeUsed < intervalStartTime) {
+                lastTimeUsed = Math.min(heightTime, weightTime);
+                if (lastTimeUsed > intervalStartTime) {
+                    caloriesFromProfile +=
+                            getCaloriesFromHeightAndWeight(
+                                    height, weight, intervalStartTime, lastTimeUsed);
                 }
+            } else {
+                long time = Math.min(heightTime, weightTime);
+                caloriesFromProfile +=
+                        getCaloriesFromHeightAndWeight(height, weight, lastTimeUsed, time);
+                lastTimeUsed = time;
+            }
 
+            // Move the cursor one by one to calculate BMR as accurately as possible.
+            if ((heightTime < weightTime) && hasHeight) {
+                height = heightView.getValue();
+                hasHeight = heightView.moveToNext();
+            } else if ((weightTime < heightTime) && hasWeight) {
+                weight = weightView.getValue();
+                hasWeight = weightView.moveToNext();
+            } else {
                 if (hasWeight) {
-                    weightTime = StorageUtils.getCursorLong(weightCursor, mTimeColumnName);
-                }
-
-                if (lastTimeUsed < intervalStartTime) {
-                    lastTimeUsed = Math.min(heightTime, weightTime);
-                    if (lastTimeUsed > intervalStartTime) {
-                        caloriesFromProfile +=
-                                getCaloriesFromHeightAndWeight(
-                                        height, weight, intervalStartTime, lastTimeUsed);
-                    }
-                } else {
-                    long time = Math.min(heightTime, weightTime);
-                    caloriesFromProfile +=
-                            getCaloriesFromHeightAndWeight(height, weight, lastTimeUsed, time);
-                    lastTimeUsed = time;
+                    weight = weightView.getValue();
+                    hasWeight = weightView.moveToNext();
                 }
 
-                // Move the cursor one by one to calculate BMR as accurately as possible.
-                if ((heightTime < weightTime) && hasHeight) {
-                    height = StorageUtils.getCursorDouble(heightCursor, HEIGHT_COLUMN_NAME);
-                    hasHeight = heightCursor.moveToNext();
-                } else if ((weightTime < heightTime) && hasWeight) {
-                    weight = StorageUtils.getCursorDouble(weightCursor, WEIGHT_COLUMN_NAME);
-                    hasWeight = weightCursor.moveToNext();
-                } else {
-                    if (hasWeight) {
-                        weight = StorageUtils.getCursorDouble(weightCursor, WEIGHT_COLUMN_NAME);
-                        hasWeight = weightCursor.moveToNext();
-                    }
-
-                    if (hasHeight) {
-                        height = StorageUtils.getCursorDouble(heightCursor, HEIGHT_COLUMN_NAME);
-                        hasHeight = heightCursor.moveToNext();
-                    }
+                if (hasHeight) {
+                    height = heightView.getValue();
+                    hasHeight = heightView.moveToNext();
                 }
             }
+        }
 
-            if (lastTimeUsed < intervalEndTime) {
-                caloriesFromProfile +=
-                        getCaloriesFromHeightAndWeight(
-                                height,
-                                weight,
-                                // Snap to startTime in case the last-used record is still before
-                                // the startTime of the interval
-                                Math.max(intervalStartTime, lastTimeUsed),
-                                intervalEndTime);
-            }
+        if (lastTimeUsed < intervalEndTime) {
+            caloriesFromProfile +=
+                    getCaloriesFromHeightAndWeight(
+                            height,
+                            weight,
+                            // Snap to startTime in case the last-used record is still before
+                            // the startTime of the interval
+                            Math.max(intervalStartTime, lastTimeUsed),
+                            intervalEndTime);
         }
 
         return caloriesFromProfile;
     }
 
-    private Cursor getLeanBodyMassCursor(long intervalStartTime, long intervalEndTime) {
-        return getReadCursorForDerivingBMR(
-                intervalStartTime,
-                intervalEndTime,
-                LEAN_BODY_MASS_RECORD_TABLE_NAME,
-                MASS_COLUMN_NAME);
+    private SeriesView getLeanBodyMassView(long intervalStartTime, long intervalEndTime) {
+        return getInputSeries(
+                        LEAN_BODY_MASS_RECORD_TABLE_NAME,
+                        MASS_COLUMN_NAME,
+                        intervalStartTime,
+                        intervalEndTime)
+                .getView(intervalStartTime, intervalEndTime);
+    }
+
+    private SeriesView getHeightView(long intervalStartTime, long intervalEndTime) {
+        return getInputSeries(
+                        HEIGHT_RECORD_TABLE_NAME,
+                        HEIGHT_COLUMN_NAME,
+                        intervalStartTime,
+                        intervalEndTime)
+                .getView(intervalStartTime, intervalEndTime);
     }
 
-    private Cursor getHeightCursor(long intervalStartTime, long intervalEndTime) {
-        return getReadCursorForDerivingBMR(
-                intervalStartTime, intervalEndTime, HEIGHT_RECORD_TABLE_NAME, HEIGHT_COLUMN_NAME);
+    private SeriesView getWeightView(long intervalStartTime, long intervalEndTime) {
+        return getInputSeries(
+                        WEIGHT_RECORD_TABLE_NAME,
+                        WEIGHT_COLUMN_NAME,
+                        intervalStartTime,
+                        intervalEndTime)
+                .getView(intervalStartTime, intervalEndTime);
     }
 
-    private Cursor getWeightCursor(long intervalStartTime, long intervalEndTime) {
-        return getReadCursorForDerivingBMR(
-                intervalStartTime, intervalEndTime, WEIGHT_RECORD_TABLE_NAME, WEIGHT_COLUMN_NAME);
+    /**
+     * Returns the rows of {@code tableName} needed for the interval, read for the whole range of
+     * the request if the interval is within it.
+     */
+    private InputSeries getInputSeries(
+            String tableName, String colName, long intervalStartTime, long intervalEndTime) {
+        if (mHasRange && intervalStartTime >= mRangeStartTime && intervalEndTime <= mRangeEndTime) {
+            InputSeries inputSeries = mInputSeries.get(tableName);
+            if (inputSeries == null) {
+                inputSeries = readInputSeries(tableName, colName, mRangeStartTime, mRangeEndTime);
+                mInputSeries.put(tableName, inputSeries);
+            }
+            return inputSeries;
+        }
+        return readInputSeries(tableName, colName, intervalStartTime, intervalEndTime);
     }
 
-    private Cursor getReadCursorForDerivingBMR(
-            long intervalStartTime, long intervalEndTime, String tableName, String colName) {
+    /**
+     * Reads the rows of {@code tableName} between {@code startTime} and {@code endTime}, preceded
+     * by the latest row before {@code startTime}, if any.
+     */
+    private InputSeries readInputSeries(
+            String tableName, String colName, long startTime, long endTime) {
         final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
-        return transactionManager.read(
-                new ReadTableRequest(tableName)
-                        .setColumnNames(List.of(colName, mTimeColumnName))
-                        .setWhereClause(
-                                new WhereClauses(AND)
-                                        .addWhereBetweenTimeClause(
-                                                mTimeColumnName,
-                                                intervalStartTime,
-                                                intervalEndTime))
-                        .setOrderBy(new OrderByClause().addOrderByClause(mTimeColumnName, true))
-                        .setUnionReadRequests(
-                                List.of(
-                                        new ReadTableRequest(tableName)
-                                                .setColumnNames(List.of(colName, mTimeColumnName))
-                                                .setWhereClause(
-                                                        new WhereClauses(AND)
-                                                                .addWhereLessThanOrEqualClause(
-                                                                        mTimeColumnName,
-                                                                        intervalStartTime))
-                                                .setLimit(1)
-                                                .setOrderBy(
-                                                        new OrderByClause()
-                                                                .addOrderByClause(
-                                                                        mTimeColumnName, false)))));
+        try (Cursor cursor =
+                transactionManager.read(
+                        new ReadTableRequest(tableName)
+                                .setColumnNames(List.of(colName, mTimeColumnName))
+                                .setWhereClause(
+                                        new WhereClauses(AND)
+                                                .addWhereBetweenTimeClause(
+                                                        mTimeColumnName, startTime, endTime))
+                                .setOrderBy(
+                                        new OrderByClause().addOrderByClause(mTimeColumnName, true))
+                                .setUnionReadRequests(
+                                        List.of(
+                                                new ReadTableRequest(tableName)
+                                                        .setColumnNames(
+                                                                List.of(colName, mTimeColumnName))
+                                                        .setWhereClause(
+                                                                new WhereClauses(AND)
+                                                                        .addWhereLessThanClause(
+                                                                                mTimeColumnName,
+                                                                                startTime))
+                                                        .setLimit(1)
+                                                        .setOrderBy(
+                                                                new OrderByClause()
+                                                                        .addOrderByClause(
+                                                                                mTimeColumnName,
+                                                                                false)))))) {
+            InputSeries inputSeries = new InputSeries(cursor.getCount());
+            while (cursor.moveToNext()) {
+                inputSeries.add(
+                        StorageUtils.getCursorLong(cursor, mTimeColumnName),
+                        StorageUtils.getCursorDouble(cursor, colName));
+            }
+            return inputSeries;
+        }
+    }
+
+    private void setRange(long rangeStartTime, long rangeEndTime) {
+        mHasRange = true;
+        mRangeStartTime = rangeStartTime;
+        mRangeEndTime = rangeEndTime;
+        mInputSeries.clear();
     }
 
     /**
@@ -347,6 +405,15 @@ public final class DeriveBasalCaloriesBurnedHelper {
      * BasalMetabolicRateRecord} for group of intervals.
      */
     public double[] getBasalCaloriesBurned(@NonNull List<Pair<Long, Long>> groupIntervalList) {
+        if (!mHasRange && !groupIntervalList.isEmpty()) {
+            long rangeStartTime = Long.MAX_VALUE;
+            long rangeEndTime = Long.MIN_VALUE;
+            for (Pair<Long, Long> groupInterval : groupIntervalList) {
+                rangeStartTime = Math.min(rangeStartTime, groupInterval.first);
+                rangeEndTime = Math.max(rangeEndTime, groupInterval.second);
+            }
+            setRange(rangeStartTime, rangeEndTime);
+        }
         double[] basalCaloriesBurned = new double[groupIntervalList.size()];
         for (int group = 0; group < groupIntervalList.size(); group++) {
             basalCaloriesBurned[group] =
@@ -417,4 +484,107 @@ public final class DeriveBasalCaloriesBurnedHelper {
     private double getCalPerDay(double rateOfEnergyBurntInWatt) {
         return rateOfEnergyBurntInWatt * HOURS_PER_DAY * WATT_TO_CAL_PER_HR;
     }
+
+    /** Times and values of rows of a table, in increasing order of time. */
+    private static final class InputSeries {
+        private long[] mTimes;
+        private double[] mValues;
+        private int mSize;
+
+        InputSeries(int initialCapacity) {
+            mTimes = new long[Math.max(initialCapacity, 1)];
+            mValues = new double[mTimes.length];
+        }
+
+        void add(long time, double value) {
+            if (mSize == mTimes.length) {
+                mTimes = Arrays.copyOf(mTimes, 2 * mSize);
+                mValues = Arrays.copyOf(mValues, 2 * mSize);
+            }
+            mTimes[mSize] = time;
+            mValues[mSize] = value;
+            mSize++;
+        }
+
+        /**
+         * Returns the rows a query for the latest row at or before {@code startTime}, followed by
+         * the rows between {@code startTime} and {@code endTime}, would return.
+         */
+        SeriesView getView(long startTime, long endTime) {
+            int latestIndex = indexAfter(startTime) - 1;
+            return new SeriesView(this, latestIndex, indexFrom(startTime), indexAfter(endTime));
+        }
+
+        /** Returns the latest row at or before {@code time}, if any. */
+        SeriesView getLatestAtOrBefore(long time) {
+            int latestIndex = indexAfter(time) - 1;
+            return new SeriesView(this, latestIndex, latestIndex + 1, latestIndex + 1);
+        }
+
+        /** Returns the index of the first row with time at or after {@code time}. */
+        private int indexFrom(long time) {
+            int low = 0;
+            int high = mSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mTimes[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /** Returns the index of the first row with time after {@code time}. */
+        private int indexAfter(long time) {
+            return time == Long.MAX_VALUE ? mSize : indexFrom(time + 1);
+        }
+    }
+
+    /**
+     * Iterates over the row at {@code latestIndex}, if not negative, followed by the rows from
+     * {@code fromIndex} until {@code toIndex}, in the same way as a cursor.
+     */
+    private static final class SeriesView {
+        private final InputSeries mSeries;
+        private final int mLatestIndex;
+        private final int mFromIndex;
+        private final int mCount;
+        private int mPosition = -1;
+        private int mIndex = -1;
+
+        SeriesView(InputSeries series, int latestIndex, int fromIndex, int toIndex) {
+            mSeries = series;
+            mLatestIndex = latestIndex;
+            mFromIndex = fromIndex;
+            mCount = (latestIndex >= 0 ? 1 : 0) + toIndex - fromIndex;
+        }
+
+        int getCount() {
+            return mCount;
+        }
+
+        boolean moveToNext() {
+            if (mPosition >= mCount - 1) {
+                mPosition = mCount;
+                return false;
+            }
+            mPosition++;
+            if (mLatestIndex < 0) {
+                mIndex = mFromIndex + mPosition;
+            } else {
+                mIndex = mPosition == 0 ? mLatestIndex : mFromIndex + mPosition - 1;
+            }
+            return true;
+        }
+
+        long getTime() {
+            return mSeries.mTimes[mIndex];
+        }
+
+        double getValue() {
+            return mSeries.mValues[mIndex];
+        }
+    }
 }
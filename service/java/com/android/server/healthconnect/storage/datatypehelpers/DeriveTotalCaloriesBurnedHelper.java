@@ -28,14 +28,12 @@ import static com.android.server.healthconnect.storage.utils.WhereClauses.Logica
 
 import android.annotation.NonNull;
 import android.database.Cursor;
-import android.util.Pair;
 
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.utils.OrderByClause;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
-import java.time.Instant;
 import java.util.List;
 import java.util.Objects;
 
@@ -61,13 +59,20 @@ public final class DeriveTotalCaloriesBurnedHelper {
 
     private boolean mUseLocalTime;
 
+    private boolean mAggregationSourceControlsEnabled;
+
     public DeriveTotalCaloriesBurnedHelper(
-            long startTime, long endTime, @NonNull List<Long> priorityList, boolean useLocaleTime) {
+            long startTime,
+            long endTime,
+            @NonNull List<Long> priorityList,
+            boolean useLocaleTime,
+            boolean aggregationSourceControlsEnabled) {
         Objects.requireNonNull(priorityList);
         mStartTime = startTime;
         mEndTime = endTime;
         mPriority = priorityList;
         mUseLocalTime = useLocaleTime;
+        mAggregationSourceControlsEnabled = aggregationSourceControlsEnabled;
         if (useLocaleTime) {
             mInstantRecordTimeColumnName = LOCAL_DATE_TIME_COLUMN_NAME;
             mIntervalStartTimeColumnName = LOCAL_DATE_TIME_START_TIME_COLUMN_NAME;
@@ -112,12 +117,15 @@ public final class DeriveTotalCaloriesBurnedHelper {
                         mPriority,
                         ENERGY_COLUMN_NAME,
                         Double.class,
-                        mUseLocalTime);
+                        mUseLocalTime,
+                        mAggregationSourceControlsEnabled);
         mBasalCaloriesBurnedHelper =
                 new DeriveBasalCaloriesBurnedHelper(
                         mBasalCaloriesBurnedCursor,
                         BASAL_METABOLIC_RATE_COLUMN_NAME,
-                        mInstantRecordTimeColumnName);
+                        mInstantRecordTimeColumnName,
+                        mStartTime,
+                        mEndTime);
     }
 
     /** Close the cursors created */
@@ -133,12 +141,14 @@ public final class DeriveTotalCaloriesBurnedHelper {
     /**
      * Calculates and returns total derived calories for the empty interval time gaps where there is
      * no entry in {@link android.health.connect.datatypes.TotalCaloriesBurnedRecord}
+     *
+     * @param emptyIntervals start and end times of the intervals, one after another
      */
-    public double getDerivedCalories(List<Pair<Instant, Instant>> emptyIntervalList) {
+    public double getDerivedCalories(@NonNull long[] emptyIntervals) {
         double totalDerivedCalories = 0.0;
-        for (Pair<Instant, Instant> instantInstantPair : emptyIntervalList) {
-            long intervalStartTime = instantInstantPair.first.toEpochMilli();
-            long intervalEndTime = instantInstantPair.second.toEpochMilli();
+        for (int i = 0; i + 1 < emptyIntervals.length; i += 2) {
+            long intervalStartTime = emptyIntervals[i];
+            long intervalEndTime = emptyIntervals[i + 1];
             totalDerivedCalories +=
                     mMergeDataHelper.readCursor(intervalStartTime, intervalEndTime)
                             + mBasalCaloriesBurnedHelper.getBasalCaloriesBurned(
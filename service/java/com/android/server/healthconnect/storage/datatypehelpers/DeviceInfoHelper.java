@@ -26,6 +26,7 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.getCur
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorString;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.health.connect.datatypes.Device.DeviceType;
@@ -115,6 +116,24 @@ public class DeviceInfoHelper extends DatabaseHelper {
         mIdDeviceInfoMap = null;
     }
 
+    @Nullable
+    @Override
+    protected synchronized DetachedCache detachCache() {
+        DeviceInfoCache cache =
+                mDeviceInfoMap == null || mIdDeviceInfoMap == null
+                        ? null
+                        : new DeviceInfoCache(mDeviceInfoMap, mIdDeviceInfoMap);
+        clearCache();
+        return cache;
+    }
+
+    @Override
+    protected synchronized void restoreCache(@NonNull DetachedCache cache) {
+        DeviceInfoCache deviceInfoCache = (DeviceInfoCache) cache;
+        mDeviceInfoMap = deviceInfoCache.mDeviceInfoMap;
+        mIdDeviceInfoMap = deviceInfoCache.mIdDeviceInfoMap;
+    }
+
     @Override
     protected String getMainTableName() {
         return TABLE_NAME;
@@ -216,6 +235,33 @@ public class DeviceInfoHelper extends DatabaseHelper {
         return sDeviceInfoHelper;
     }
 
+    private static final class DeviceInfoCache implements DetachedCache {
+        // Entries of both maps, the DeviceInfo and the boxed id.
+        private static final long ENTRY_SIZE_BYTES = 150;
+
+        private final ConcurrentHashMap<DeviceInfo, Long> mDeviceInfoMap;
+        private final ConcurrentHashMap<Long, DeviceInfo> mIdDeviceInfoMap;
+
+        DeviceInfoCache(
+                ConcurrentHashMap<DeviceInfo, Long> deviceInfoMap,
+                ConcurrentHashMap<Long, DeviceInfo> idDeviceInfoMap) {
+            mDeviceInfoMap = deviceInfoMap;
+            mIdDeviceInfoMap = idDeviceInfoMap;
+        }
+
+        @Override
+        public long getEstimatedSizeBytes() {
+            long sizeBytes = 0;
+            for (DeviceInfo deviceInfo : mDeviceInfoMap.keySet()) {
+                sizeBytes +=
+                        ENTRY_SIZE_BYTES
+                                + estimateSizeBytes(deviceInfo.mManufacturer)
+                                + estimateSizeBytes(deviceInfo.mModel);
+            }
+            return sizeBytes;
+        }
+    }
+
     private static final class DeviceInfo {
         private final String mManufacturer;
         private final String mModel;
@@ -29,6 +29,7 @@ import android.health.connect.internal.datatypes.DistanceRecordInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -69,8 +70,10 @@ public final class DistanceRecordHelper extends IntervalRecordHelper<DistanceRec
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull DistanceRecordInternal distanceRecord) {
-        distanceRecord.setDistance(getCursorDouble(cursor, DISTANCE_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull DistanceRecordInternal distanceRecord) {
+        distanceRecord.setDistance(getCursorDouble(cursor, columns, DISTANCE_COLUMN_NAME));
     }
 
     @Override
@@ -29,6 +29,7 @@ import android.health.connect.internal.datatypes.ElevationGainedRecordInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -72,8 +73,10 @@ public final class ElevationGainedRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull ElevationGainedRecordInternal elevationGainedRecord) {
-        elevationGainedRecord.setElevation(getCursorDouble(cursor, ELEVATION_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull ElevationGainedRecordInternal elevationGainedRecord) {
+        elevationGainedRecord.setElevation(getCursorDouble(cursor, columns, ELEVATION_COLUMN_NAME));
     }
 
     @Override
@@ -33,6 +33,7 @@ import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
@@ -73,16 +74,18 @@ public class ExerciseLapRecordHelper {
     }
 
     static void populateLapIfRecorded(
-            @NonNull Cursor cursor, ArraySet<ExerciseLapInternal> lapsSet) {
-        if (isNullValue(cursor, EXERCISE_LAPS_START_TIME)) {
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            ArraySet<ExerciseLapInternal> lapsSet) {
+        if (isNullValue(cursor, columns, EXERCISE_LAPS_START_TIME)) {
             return;
         }
 
         lapsSet.add(
                 new ExerciseLapInternal()
-                        .setStarTime(getCursorLong(cursor, EXERCISE_LAPS_START_TIME))
-                        .setEndTime(getCursorLong(cursor, EXERCISE_LAPS_END_TIME))
-                        .setLength(getCursorDouble(cursor, EXERCISE_LAPS_LENGTH)));
+                        .setStarTime(getCursorLong(cursor, columns, EXERCISE_LAPS_START_TIME))
+                        .setEndTime(getCursorLong(cursor, columns, EXERCISE_LAPS_END_TIME))
+                        .setLength(getCursorDouble(cursor, columns, EXERCISE_LAPS_LENGTH)));
     }
 
     static void populateLapTo(ContentValues contentValues, ExerciseLapInternal lap) {
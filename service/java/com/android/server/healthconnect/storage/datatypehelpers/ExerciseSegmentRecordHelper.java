@@ -35,6 +35,7 @@ import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
@@ -79,18 +80,20 @@ public class ExerciseSegmentRecordHelper {
     }
 
     static void updateSetWithRecordedSegment(
-            @NonNull Cursor cursor, ArraySet<ExerciseSegmentInternal> segmentsSet) {
-        if (isNullValue(cursor, EXERCISE_SEGMENT_START_TIME)) {
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            ArraySet<ExerciseSegmentInternal> segmentsSet) {
+        if (isNullValue(cursor, columns, EXERCISE_SEGMENT_START_TIME)) {
             return;
         }
 
         segmentsSet.add(
                 new ExerciseSegmentInternal()
-                        .setStarTime(getCursorLong(cursor, EXERCISE_SEGMENT_START_TIME))
-                        .setEndTime(getCursorLong(cursor, EXERCISE_SEGMENT_END_TIME))
-                        .setSegmentType(getCursorInt(cursor, EXERCISE_SEGMENT_TYPE))
+                        .setStarTime(getCursorLong(cursor, columns, EXERCISE_SEGMENT_START_TIME))
+                        .setEndTime(getCursorLong(cursor, columns, EXERCISE_SEGMENT_END_TIME))
+                        .setSegmentType(getCursorInt(cursor, columns, EXERCISE_SEGMENT_TYPE))
                         .setRepetitionsCount(
-                                getCursorInt(cursor, EXERCISE_SEGMENT_REPETITIONS_COUNT)));
+                                getCursorInt(cursor, columns, EXERCISE_SEGMENT_REPETITIONS_COUNT)));
     }
 
     static void populateSegmentTo(ContentValues contentValues, ExerciseSegmentInternal segment) {
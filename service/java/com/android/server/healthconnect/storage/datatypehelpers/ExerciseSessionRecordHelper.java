@@ -61,6 +61,7 @@ import com.android.server.healthconnect.storage.request.AggregateParams;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
@@ -109,23 +110,27 @@ public final class ExerciseSessionRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull ExerciseSessionRecordInternal exerciseSessionRecord) {
-        UUID uuid = getCursorUUID(cursor, UUID_COLUMN_NAME);
-        exerciseSessionRecord.setNotes(getCursorString(cursor, NOTES_COLUMN_NAME));
-        exerciseSessionRecord.setExerciseType(getCursorInt(cursor, EXERCISE_TYPE_COLUMN_NAME));
-        exerciseSessionRecord.setTitle(getCursorString(cursor, TITLE_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull ExerciseSessionRecordInternal exerciseSessionRecord) {
+        UUID uuid = getCursorUUID(cursor, columns, UUID_COLUMN_NAME);
+        exerciseSessionRecord.setNotes(getCursorString(cursor, columns, NOTES_COLUMN_NAME));
+        exerciseSessionRecord.setExerciseType(
+                getCursorInt(cursor, columns, EXERCISE_TYPE_COLUMN_NAME));
+        exerciseSessionRecord.setTitle(getCursorString(cursor, columns, TITLE_COLUMN_NAME));
         exerciseSessionRecord.setHasRoute(
                 isExerciseRouteFeatureEnabled()
-                        && getIntegerAndConvertToBoolean(cursor, HAS_ROUTE_COLUMN_NAME));
+                        && getIntegerAndConvertToBoolean(cursor, columns, HAS_ROUTE_COLUMN_NAME));
 
         // The table might contain duplicates because of 2 left joins, use sets to remove them.
         ArraySet<ExerciseLapInternal> lapsSet = new ArraySet<>();
         ArraySet<ExerciseSegmentInternal> segmentsSet = new ArraySet<>();
         do {
             // Populate lap and segments from each row.
-            ExerciseLapRecordHelper.populateLapIfRecorded(cursor, lapsSet);
-            ExerciseSegmentRecordHelper.updateSetWithRecordedSegment(cursor, segmentsSet);
-        } while (cursor.moveToNext() && uuid.equals(getCursorUUID(cursor, UUID_COLUMN_NAME)));
+            ExerciseLapRecordHelper.populateLapIfRecorded(cursor, columns, lapsSet);
+            ExerciseSegmentRecordHelper.updateSetWithRecordedSegment(cursor, columns, segmentsSet);
+        } while (cursor.moveToNext()
+                && uuid.equals(getCursorUUID(cursor, columns, UUID_COLUMN_NAME)));
         // In case we hit another record, move the cursor back to read next record in outer
         // RecordHelper#getInternalRecords loop.
         cursor.moveToPrevious();
@@ -369,15 +374,21 @@ public final class ExerciseSessionRecordHelper
     }
 
     private boolean isExerciseRouteFeatureEnabled() {
-        return isRecordOperationsEnabled()
-                && HealthConnectDeviceConfigManager.getInitialisedInstance()
-                        .isExerciseRouteFeatureEnabled();
+        return isExerciseRouteFeatureEnabled(
+                HealthConnectDeviceConfigManager.getInitialisedInstance().getSnapshot());
     }
 
     private boolean isReadExerciseRouteAllFeatureEnabled() {
-        return isExerciseRouteFeatureEnabled()
-                && HealthConnectDeviceConfigManager.getInitialisedInstance()
-                        .isExerciseRoutesReadAllFeatureEnabled();
+        // Read all flags from one snapshot, so that they are consistent with each other
+        HealthConnectDeviceConfigManager.Snapshot flags =
+                HealthConnectDeviceConfigManager.getInitialisedInstance().getSnapshot();
+        return isExerciseRouteFeatureEnabled(flags)
+                && flags.isExerciseRoutesReadAllFeatureEnabled();
+    }
+
+    private static boolean isExerciseRouteFeatureEnabled(
+            HealthConnectDeviceConfigManager.Snapshot flags) {
+        return flags.isSessionDatatypeFeatureEnabled() && flags.isExerciseRouteFeatureEnabled();
     }
 
     @Override
@@ -29,6 +29,7 @@ import android.health.connect.internal.datatypes.FloorsClimbedRecordInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -71,8 +72,10 @@ public final class FloorsClimbedRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull FloorsClimbedRecordInternal floorsClimbedRecord) {
-        floorsClimbedRecord.setFloors(getCursorDouble(cursor, FLOORS_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull FloorsClimbedRecordInternal floorsClimbedRecord) {
+        floorsClimbedRecord.setFloors(getCursorDouble(cursor, columns, FLOORS_COLUMN_NAME));
     }
 
     @Override
@@ -27,6 +27,7 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.PRIMAR
 import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_NOT_NULL;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.pm.PackageInfo;
@@ -42,6 +43,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
 import com.android.server.healthconnect.permission.HealthConnectPermissionHelper;
 import com.android.server.healthconnect.permission.PackageInfoUtils;
+import com.android.server.healthconnect.storage.AggregationResultCache;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
@@ -164,7 +166,8 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
             }
         }
 
-        maybeRemoveAppFromPriorityListInternal(dataCategory, packageName);
+        maybeRemoveAppFromPriorityListInternal(
+                dataCategory, packageName, isAggregationSourceControlsEnabled());
     }
 
     /**
@@ -180,6 +183,7 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
         Objects.requireNonNull(packageNames);
         Objects.requireNonNull(user);
         Objects.requireNonNull(context);
+        boolean newAggregationSourceControl = isAggregationSourceControlsEnabled();
         PackageInfoUtils packageInfoUtils = PackageInfoUtils.getInstance();
         for (String packageName : packageNames) {
             PackageInfo packageInfo =
@@ -191,7 +195,8 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
 
             for (int category : getHealthDataCategoryToAppIdPriorityMap().keySet()) {
                 if (!dataCategoriesWithWritePermission.contains(category)) {
-                    maybeRemoveAppFromPriorityListInternal(category, packageInfo.packageName);
+                    maybeRemoveAppFromPriorityListInternal(
+                            category, packageInfo.packageName, newAggregationSourceControl);
                 }
             }
         }
@@ -205,8 +210,10 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
     public synchronized void maybeRemoveAppWithoutWritePermissionsFromPriorityList(
             @NonNull String packageName) {
         Objects.requireNonNull(packageName);
+        boolean newAggregationSourceControl = isAggregationSourceControlsEnabled();
         for (Integer dataCategory : getHealthDataCategoryToAppIdPriorityMap().keySet()) {
-            maybeRemoveAppFromPriorityListInternal(dataCategory, packageName);
+            maybeRemoveAppFromPriorityListInternal(
+                    dataCategory, packageName, newAggregationSourceControl);
         }
     }
 
@@ -214,11 +221,9 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
     @NonNull
     public List<String> getPriorityOrder(
             @HealthDataCategory.Type int type, @NonNull Context context) {
-        boolean newAggregationSourceControl =
-                HealthConnectDeviceConfigManager.getInitialisedInstance()
-                        .isAggregationSourceControlsEnabled();
+        boolean newAggregationSourceControl = isAggregationSourceControlsEnabled();
         if (newAggregationSourceControl) {
-            reSyncHealthDataPriorityTable(context);
+            reSyncHealthDataPriorityTable(context, newAggregationSourceControl);
         }
         return AppInfoHelper.getInstance().getPackageNames(getAppIdPriorityOrder(type));
     }
@@ -242,9 +247,7 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
      * needs to be sanitised before applying the operation.
      */
     public void setPriorityOrder(int dataCategory, @NonNull List<String> packagePriorityOrder) {
-        boolean newAggregationSourceControl =
-                HealthConnectDeviceConfigManager.getInitialisedInstance()
-                        .isAggregationSourceControlsEnabled();
+        boolean newAggregationSourceControl = isAggregationSourceControlsEnabled();
 
         List<Long> newPriorityOrder =
                 AppInfoHelper.getInstance().getAppInfoIds(packagePriorityOrder);
@@ -297,6 +300,23 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
         mHealthDataCategoryToAppIdPriorityMap = null;
     }
 
+    @Nullable
+    @Override
+    protected synchronized DetachedCache detachCache() {
+        PriorityCache cache =
+                mHealthDataCategoryToAppIdPriorityMap == null
+                        ? null
+                        : new PriorityCache(mHealthDataCategoryToAppIdPriorityMap);
+        clearCache();
+        return cache;
+    }
+
+    @Override
+    protected synchronized void restoreCache(@NonNull DetachedCache cache) {
+        mHealthDataCategoryToAppIdPriorityMap =
+                ((PriorityCache) cache).mHealthDataCategoryToAppIdPriorityMap;
+    }
+
     @Override
     protected String getMainTableName() {
         return TABLE_NAME;
@@ -345,6 +365,7 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
         try {
             TransactionManager.getInitialisedInstance().insertOrReplace(request);
             getHealthDataCategoryToAppIdPriorityMap().put(dataCategory, newList);
+            AggregationResultCache.getInstance().invalidateAll();
         } catch (Exception e) {
             Slog.e(TAG, "Priority update failed", e);
             throw e;
@@ -356,6 +377,7 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
         try {
             TransactionManager.getInitialisedInstance().delete(request);
             getHealthDataCategoryToAppIdPriorityMap().remove(dataCategory);
+            AggregationResultCache.getInstance().invalidateAll();
         } catch (Exception e) {
             Slog.e(TAG, "Delete from priority DB failed: ", e);
             throw e;
@@ -401,10 +423,13 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
 
     /** Syncs priority table with the permissions and data. */
     public synchronized void reSyncHealthDataPriorityTable(@NonNull Context context) {
+        reSyncHealthDataPriorityTable(context, isAggregationSourceControlsEnabled());
+    }
+
+    @VisibleForTesting
+    synchronized void reSyncHealthDataPriorityTable(
+            @NonNull Context context, boolean newAggregationSourceControl) {
         Objects.requireNonNull(context);
-        boolean newAggregationSourceControl =
-                HealthConnectDeviceConfigManager.getInitialisedInstance()
-                        .isAggregationSourceControlsEnabled();
         // Candidates to be added to the priority list
         Map<Integer, List<Long>> dataCategoryToAppIdMapHavingPermission =
                 getHealthDataCategoryToAppIdPriorityMap().entrySet().stream()
@@ -450,7 +475,8 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
         if (!newAggregationSourceControl) {
             updateTableWithNewPriorityList(dataCategoryToAppIdMapHavingPermission);
         }
-        maybeRemoveAppsFromPriorityList(dataCategoryToAppIdMapWithoutPermission);
+        maybeRemoveAppsFromPriorityList(
+                dataCategoryToAppIdMapWithoutPermission, newAggregationSourceControl);
     }
 
     /** Returns a list of PackageInfos holding health permissions for this user. */
@@ -466,10 +492,9 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
      * control, the package name is not removed if it has data in that category.
      */
     private synchronized void maybeRemoveAppFromPriorityListInternal(
-            @HealthDataCategory.Type int dataCategory, @NonNull String packageName) {
-        boolean newAggregationSourceControl =
-                HealthConnectDeviceConfigManager.getInitialisedInstance()
-                        .isAggregationSourceControlsEnabled();
+            @HealthDataCategory.Type int dataCategory,
+            @NonNull String packageName,
+            boolean newAggregationSourceControl) {
         boolean dataExistsForPackageName = appHasDataInCategory(packageName, dataCategory);
         if (newAggregationSourceControl && dataExistsForPackageName) {
             // Do not remove if data exists for packageName in the new aggregation
@@ -509,11 +534,14 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
      */
     @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
     private synchronized void maybeRemoveAppsFromPriorityList(
-            Map<Integer, Set<Long>> dataCategoryToAppIdsWithoutPermissions) {
+            Map<Integer, Set<Long>> dataCategoryToAppIdsWithoutPermissions,
+            boolean newAggregationSourceControl) {
         for (int dataCategory : dataCategoryToAppIdsWithoutPermissions.keySet()) {
             for (Long appInfoId : dataCategoryToAppIdsWithoutPermissions.get(dataCategory)) {
                 maybeRemoveAppFromPriorityListInternal(
-                        dataCategory, AppInfoHelper.getInstance().getPackageName(appInfoId));
+                        dataCategory,
+                        AppInfoHelper.getInstance().getPackageName(appInfoId),
+                        newAggregationSourceControl);
             }
         }
     }
@@ -567,11 +595,7 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
     }
 
     private boolean shouldAddInactiveApps() {
-        boolean newAggregationSourceControl =
-                HealthConnectDeviceConfigManager.getInitialisedInstance()
-                        .isAggregationSourceControlsEnabled();
-
-        if (!newAggregationSourceControl) {
+        if (!isAggregationSourceControlsEnabled()) {
             return false;
         }
 
@@ -587,6 +611,15 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
         return true;
     }
 
+    /**
+     * Returns whether the new aggregation source controls are enabled. Public methods read it once
+     * and pass it down, so that one call behaves consistently if the flag changes meanwhile.
+     */
+    private static boolean isAggregationSourceControlsEnabled() {
+        return HealthConnectDeviceConfigManager.getInitialisedInstance()
+                .isAggregationSourceControlsEnabled();
+    }
+
     @VisibleForTesting
     boolean appHasDataInCategory(String packageName, int category) {
         return getDataCategoriesWithDataForPackage(packageName).contains(category);
@@ -685,4 +718,25 @@ public class HealthDataCategoryPriorityHelper extends DatabaseHelper {
 
         return false;
     }
+
+    private static final class PriorityCache implements DetachedCache {
+        // Entry of the map and the boxed category, and the list of ids and its boxed values.
+        private static final long ENTRY_SIZE_BYTES = 100;
+        private static final long APP_ID_SIZE_BYTES = 24;
+
+        private final ConcurrentHashMap<Integer, List<Long>> mHealthDataCategoryToAppIdPriorityMap;
+
+        PriorityCache(ConcurrentHashMap<Integer, List<Long>> healthDataCategoryToAppIdPriorityMap) {
+            mHealthDataCategoryToAppIdPriorityMap = healthDataCategoryToAppIdPriorityMap;
+        }
+
+        @Override
+        public long getEstimatedSizeBytes() {
+            long sizeBytes = 0;
+            for (List<Long> appIds : mHealthDataCategoryToAppIdPriorityMap.values()) {
+                sizeBytes += ENTRY_SIZE_BYTES + APP_ID_SIZE_BYTES * appIds.size();
+            }
+            return sizeBytes;
+        }
+    }
 }
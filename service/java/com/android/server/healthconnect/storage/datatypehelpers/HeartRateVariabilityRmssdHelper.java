@@ -27,6 +27,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.HeartRateVariabilityRmssdRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -66,9 +68,10 @@ public final class HeartRateVariabilityRmssdHelper
     @Override
     protected void populateSpecificRecordValue(
             @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
             @NonNull HeartRateVariabilityRmssdRecordInternal recordInternal) {
         recordInternal.setHeartRateVariabilityMillis(
-                getCursorDouble(cursor, HEART_RATE_VARIABILITY_RMSSD_RECORD_COLUMN_NAME));
+                getCursorDouble(cursor, columns, HEART_RATE_VARIABILITY_RMSSD_RECORD_COLUMN_NAME));
     }
 
     @Override
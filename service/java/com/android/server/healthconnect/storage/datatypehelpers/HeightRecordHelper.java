@@ -32,6 +32,7 @@ import android.health.connect.internal.datatypes.HeightRecordInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -92,8 +93,10 @@ public final class HeightRecordHelper extends InstantRecordHelper<HeightRecordIn
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull HeightRecordInternal heightRecord) {
-        heightRecord.setHeight(getCursorDouble(cursor, HEIGHT_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull HeightRecordInternal heightRecord) {
+        heightRecord.setHeight(getCursorDouble(cursor, columns, HEIGHT_COLUMN_NAME));
     }
 
     @Override
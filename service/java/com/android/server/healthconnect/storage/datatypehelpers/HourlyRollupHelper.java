@@ -0,0 +1,714 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_ACTIVE_CALORIES_BURNED;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_DISTANCE;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_ELEVATION_GAINED;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_FLOORS_CLIMBED;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_WHEELCHAIR_PUSHES;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.END_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.LOCAL_DATE_TIME_END_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.LOCAL_DATE_TIME_START_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.START_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.START_ZONE_OFFSET_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.APP_INFO_ID_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.request.AggregateParams.PriorityAggregationExtraParams.VALUE_TYPE_LONG;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER_NOT_NULL;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.PRIMARY;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.REAL_NOT_NULL;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorDouble;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorInt;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
+import static com.android.server.healthconnect.storage.utils.WhereClauses.LogicalOperator.AND;
+
+import android.annotation.NonNull;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.health.connect.datatypes.ActiveCaloriesBurnedRecord;
+import android.health.connect.datatypes.AggregationType;
+import android.health.connect.datatypes.DistanceRecord;
+import android.health.connect.datatypes.ElevationGainedRecord;
+import android.health.connect.datatypes.FloorsClimbedRecord;
+import android.health.connect.datatypes.StepsRecord;
+import android.health.connect.datatypes.WheelchairPushesRecord;
+import android.util.ArrayMap;
+import android.util.Pair;
+import android.util.Slog;
+
+import com.android.server.healthconnect.HealthConnectThreadScheduler;
+import com.android.server.healthconnect.storage.HealthConnectDatabase;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.request.AggregateTableRequest;
+import com.android.server.healthconnect.storage.request.CreateTableRequest;
+import com.android.server.healthconnect.storage.request.DeleteTableRequest;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.OrderByClause;
+import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+import com.android.server.healthconnect.storage.utils.WhereClauses;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Helper for the hourly rollups of the records summed with priorities, such as steps and distance,
+ * which answer aggregations grouped by whole hours without scanning the record tables.
+ *
+ * <p>For each record type, app and hour, the rollup table stores the total value of the records
+ * starting in that hour, in physical and in local time. Aggregating with priorities only differs
+ * from summing these totals when records overlap or cross group borders, so rollups also keep
+ * what's needed to detect those cases, in which the records are aggregated as before.
+ *
+ * <p>Triggers on the record tables store the time range of each written record in the dirty ranges
+ * table, whatever the write path. Rollups are not used for dirty ranges until they are refreshed in
+ * the background.
+ *
+ * @hide
+ */
+public final class HourlyRollupHelper extends DatabaseHelper {
+    private static final String TAG = "HealthConnectHourlyRollup";
+    private static final String TABLE_NAME = "hourly_rollup_table";
+    private static final String DIRTY_RANGES_TABLE_NAME = "hourly_rollup_dirty_ranges_table";
+    private static final String RECORD_TYPE_COLUMN_NAME = "record_type";
+    private static final String LOCAL_TIME_COLUMN_NAME = "local_time";
+    private static final String HOUR_START_TIME_COLUMN_NAME = "hour_start_time";
+    private static final String VALUE_COLUMN_NAME = "value";
+    private static final String FIRST_START_TIME_COLUMN_NAME = "first_start_time";
+    private static final String FIRST_ZONE_OFFSET_COLUMN_NAME = "first_zone_offset";
+    private static final String MIN_PHYSICAL_START_TIME_COLUMN_NAME = "min_physical_start_time";
+    private static final String MAX_END_TIME_COLUMN_NAME = "max_end_time";
+    private static final String OVERLAPPING_COLUMN_NAME = "overlapping";
+
+    private static final long HOUR_MILLIS = Duration.ofHours(1).toMillis();
+    // Local times are physical times shifted by the zone offset, which is at most 18 hours.
+    private static final long MAX_ZONE_OFFSET_MILLIS =
+            Duration.ofSeconds(ZoneOffset.MAX.getTotalSeconds()).toMillis();
+    // Writes often come in bursts, refresh rollups once they are over.
+    private static final long REFRESH_DELAY_MILLIS = 5000;
+
+    private static final Map<Integer, AggregationType<?>> AGGREGATION_TYPES =
+            Map.of(
+                    RECORD_TYPE_STEPS, StepsRecord.STEPS_COUNT_TOTAL,
+                    RECORD_TYPE_ACTIVE_CALORIES_BURNED,
+                            ActiveCaloriesBurnedRecord.ACTIVE_CALORIES_TOTAL,
+                    RECORD_TYPE_DISTANCE, DistanceRecord.DISTANCE_TOTAL,
+                    RECORD_TYPE_ELEVATION_GAINED, ElevationGainedRecord.ELEVATION_GAINED_TOTAL,
+                    RECORD_TYPE_FLOORS_CLIMBED, FloorsClimbedRecord.FLOORS_CLIMBED_TOTAL,
+                    RECORD_TYPE_WHEELCHAIR_PUSHES,
+                            WheelchairPushesRecord.WHEEL_CHAIR_PUSHES_COUNT_TOTAL);
+
+    @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
+    private static volatile HourlyRollupHelper sHourlyRollupHelper;
+
+    private final Object mRefreshLock = new Object();
+    private final AtomicBoolean mRefreshScheduled = new AtomicBoolean();
+
+    private HourlyRollupHelper() {}
+
+    /** Returns requests for the rollup table and the dirty ranges table. */
+    @NonNull
+    public List<CreateTableRequest> getCreateTableRequests() {
+        return List.of(
+                new CreateTableRequest(TABLE_NAME, getColumnInfo())
+                        .addUniqueConstraints(
+                                List.of(
+                                        RECORD_TYPE_COLUMN_NAME,
+                                        LOCAL_TIME_COLUMN_NAME,
+                                        HOUR_START_TIME_COLUMN_NAME,
+                                        APP_INFO_ID_COLUMN_NAME)),
+                new CreateTableRequest(DIRTY_RANGES_TABLE_NAME, getDirtyRangesColumnInfo())
+                        .createIndexOn(RECORD_TYPE_COLUMN_NAME));
+    }
+
+    /**
+     * Creates the triggers storing the time ranges of inserted, updated and deleted records. Must
+     * be called once the record tables exist.
+     */
+    public void createTriggers(@NonNull SQLiteDatabase db) {
+        for (int recordType : AGGREGATION_TYPES.keySet()) {
+            String tableName = getAggregateParams(recordType).getTableName();
+            db.execSQL(getTriggerCommand(recordType, tableName, "INSERT", List.of("NEW")));
+            db.execSQL(getTriggerCommand(recordType, tableName, "UPDATE", List.of("OLD", "NEW")));
+            db.execSQL(getTriggerCommand(recordType, tableName, "DELETE", List.of("OLD")));
+        }
+    }
+
+    /** Database migration. Adds the rollup tables, which are built on the next refresh. */
+    public void applyHourlyRollupUpgrade(@NonNull SQLiteDatabase db) {
+        for (CreateTableRequest createTableRequest : getCreateTableRequests()) {
+            HealthConnectDatabase.createTable(db, createTableRequest);
+        }
+        createTriggers(db);
+        markAllDirty(db);
+    }
+
+    /** Refreshes the rollups in the background, once writes have settled. */
+    public void scheduleRefresh() {
+        if (mRefreshScheduled.compareAndSet(false, true)) {
+            HealthConnectThreadScheduler.scheduleInternalTask(
+                    this::refreshSafely, REFRESH_DELAY_MILLIS);
+        }
+    }
+
+    /** Recomputes the rollups of the dirty ranges, in a single transaction. */
+    public void refresh() {
+        synchronized (mRefreshLock) {
+            TransactionManager.getInitialisedInstance()
+                    .runAsTransaction(
+                            db -> {
+                                for (int recordType : AGGREGATION_TYPES.keySet()) {
+                                    refresh(db, recordType);
+                                }
+                            });
+        }
+    }
+
+    /** Recomputes all rollups, in case they diverged from the record tables. */
+    public void rebuild() {
+        synchronized (mRefreshLock) {
+            TransactionManager.getInitialisedInstance()
+                    .runAsTransaction(
+                            db -> {
+                                markAllDirty(db);
+                                for (int recordType : AGGREGATION_TYPES.keySet()) {
+                                    refresh(db, recordType);
+                                }
+                            });
+        }
+    }
+
+    /**
+     * Sets the results of {@code request} from the rollups.
+     *
+     * <p>Only hour aligned groups of the record types with rollups are supported. The results are
+     * the same as when aggregating the records, up to floating point rounding.
+     *
+     * @return whether the results were set, or if the records have to be aggregated instead.
+     */
+    public boolean populateWithRollup(
+            @NonNull SQLiteDatabase db, @NonNull AggregateTableRequest request) {
+        int recordType = request.getRecordHelper().getRecordIdentifier();
+        AggregationType<?> aggregationType = AGGREGATION_TYPES.get(recordType);
+        if (aggregationType == null
+                || aggregationType.getAggregationTypeIdentifier()
+                        != request.getAggregationType().getAggregationTypeIdentifier()
+                || !hasHourAlignedGroups(request)) {
+            return false;
+        }
+
+        List<Long> splits = request.getTimeSplits();
+        long startTime = splits.get(0);
+        long endTime = splits.get(splits.size() - 1);
+        long maxShift = request.getUseLocalTime() ? MAX_ZONE_OFFSET_MILLIS : 0;
+        if (hasDirtyRanges(db, recordType, startTime - maxShift, endTime + maxShift)) {
+            scheduleRefresh();
+            return false;
+        }
+
+        // Records crossing the start of the first group are only partly in it.
+        WhereClauses crossingWhereClauses =
+                getWhereClauses(recordType, request.getUseLocalTime())
+                        .addWhereInLongsClause(
+                                APP_INFO_ID_COLUMN_NAME, request.getAppInfoIdFilters())
+                        .addWhereLessThanClause(HOUR_START_TIME_COLUMN_NAME, startTime)
+                        .addWhereGreaterThanOrEqualClause(MAX_END_TIME_COLUMN_NAME, startTime);
+        if (exists(db, TABLE_NAME, crossingWhereClauses)) {
+            return false;
+        }
+
+        ReadTableRequest readTableRequest =
+                new ReadTableRequest(TABLE_NAME)
+                        .setWhereClause(
+                                getWhereClauses(recordType, request.getUseLocalTime())
+                                        .addWhereInLongsClause(
+                                                APP_INFO_ID_COLUMN_NAME,
+                                                request.getAppInfoIdFilters())
+                                        .addWhereGreaterThanOrEqualClause(
+                                                HOUR_START_TIME_COLUMN_NAME, startTime)
+                                        .addWhereLessThanClause(
+                                                HOUR_START_TIME_COLUMN_NAME, endTime))
+                        .setOrderBy(
+                                new OrderByClause()
+                                        .addOrderByClause(HOUR_START_TIME_COLUMN_NAME, true)
+                                        .addOrderByClause(FIRST_START_TIME_COLUMN_NAME, true));
+        try (Cursor cursor = db.rawQuery(readTableRequest.getReadCommand(), null)) {
+            return populateWithRollup(cursor, request);
+        }
+    }
+
+    @Override
+    protected void clearData(@NonNull TransactionManager transactionManager) {
+        transactionManager.delete(new DeleteTableRequest(TABLE_NAME));
+        transactionManager.delete(new DeleteTableRequest(DIRTY_RANGES_TABLE_NAME));
+    }
+
+    @Override
+    protected String getMainTableName() {
+        return TABLE_NAME;
+    }
+
+    @Override
+    @NonNull
+    protected List<Pair<String, String>> getColumnInfo() {
+        return Arrays.asList(
+                new Pair<>(PRIMARY_COLUMN_NAME, PRIMARY),
+                new Pair<>(RECORD_TYPE_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(LOCAL_TIME_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(HOUR_START_TIME_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(APP_INFO_ID_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(VALUE_COLUMN_NAME, REAL_NOT_NULL),
+                new Pair<>(FIRST_START_TIME_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(FIRST_ZONE_OFFSET_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(MIN_PHYSICAL_START_TIME_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(MAX_END_TIME_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(OVERLAPPING_COLUMN_NAME, INTEGER_NOT_NULL));
+    }
+
+    private static List<Pair<String, String>> getDirtyRangesColumnInfo() {
+        return Arrays.asList(
+                new Pair<>(PRIMARY_COLUMN_NAME, PRIMARY),
+                new Pair<>(RECORD_TYPE_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(START_TIME_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(END_TIME_COLUMN_NAME, INTEGER_NOT_NULL));
+    }
+
+    private void refreshSafely() {
+        mRefreshScheduled.set(false);
+        try {
+            refresh();
+        } catch (SQLiteException | IllegalStateException e) {
+            // Dirty ranges are kept, and refreshed with the next refresh.
+            Slog.e(TAG, "Failed to refresh hourly rollups", e);
+        }
+    }
+
+    private static String getTriggerCommand(
+            int recordType, String tableName, String operation, List<String> rows) {
+        StringBuilder builder =
+                new StringBuilder("CREATE TRIGGER IF NOT EXISTS ")
+                        .append(tableName)
+                        .append("_hourly_rollup_")
+                        .append(operation.toLowerCase())
+                        .append(" AFTER ")
+                        .append(operation)
+                        .append(" ON ")
+                        .append(tableName)
+                        .append(" BEGIN ");
+        for (String row : rows) {
+            String startTime = row + "." + START_TIME_COLUMN_NAME;
+            String endTime = row + "." + END_TIME_COLUMN_NAME;
+            builder.append("INSERT INTO ")
+                    .append(DIRTY_RANGES_TABLE_NAME)
+                    .append(" (")
+                    .append(RECORD_TYPE_COLUMN_NAME)
+                    .append(", ")
+                    .append(START_TIME_COLUMN_NAME)
+                    .append(", ")
+                    .append(END_TIME_COLUMN_NAME)
+                    .append(") VALUES (")
+                    .append(recordType)
+                    .append(", MIN(")
+                    .append(startTime)
+                    .append(", ")
+                    .append(endTime)
+                    .append("), MAX(")
+                    .append(startTime)
+                    .append(", ")
+                    .append(endTime)
+                    .append(")); ");
+        }
+        return builder.append("END").toString();
+    }
+
+    private static void markAllDirty(SQLiteDatabase db) {
+        for (int recordType : AGGREGATION_TYPES.keySet()) {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(RECORD_TYPE_COLUMN_NAME, recordType);
+            contentValues.put(START_TIME_COLUMN_NAME, Long.MIN_VALUE);
+            contentValues.put(END_TIME_COLUMN_NAME, Long.MAX_VALUE);
+            db.insertOrThrow(DIRTY_RANGES_TABLE_NAME, null, contentValues);
+        }
+    }
+
+    private static AggregateParams getAggregateParams(int recordType) {
+        return RecordHelperProvider.getInstance()
+                .getRecordHelper(recordType)
+                .getAggregateParams(AGGREGATION_TYPES.get(recordType));
+    }
+
+    private static WhereClauses getWhereClauses(int recordType, boolean useLocalTime) {
+        return new WhereClauses(AND)
+                .addWhereEqualsClause(RECORD_TYPE_COLUMN_NAME, String.valueOf(recordType))
+                .addWhereEqualsClause(LOCAL_TIME_COLUMN_NAME, useLocalTime ? "1" : "0");
+    }
+
+    private static boolean exists(SQLiteDatabase db, String tableName, WhereClauses whereClauses) {
+        ReadTableRequest request =
+                new ReadTableRequest(tableName)
+                        .setColumnNames(List.of(PRIMARY_COLUMN_NAME))
+                        .setWhereClause(whereClauses)
+                        .setLimit(1);
+        try (Cursor cursor = db.rawQuery(request.getReadCommand(), null)) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    private static boolean hasDirtyRanges(
+            SQLiteDatabase db, int recordType, long startTime, long endTime) {
+        return exists(
+                db,
+                DIRTY_RANGES_TABLE_NAME,
+                new WhereClauses(AND)
+                        .addWhereEqualsClause(RECORD_TYPE_COLUMN_NAME, String.valueOf(recordType))
+                        .addWhereGreaterThanOrEqualClause(END_TIME_COLUMN_NAME, startTime)
+                        .addWhereLessThanClause(START_TIME_COLUMN_NAME, endTime));
+    }
+
+    private static boolean hasHourAlignedGroups(AggregateTableRequest request) {
+        List<Long> splits = request.getTimeSplits();
+        if (splits == null
+                || splits.size() < 2
+                || splits.get(0) != request.getFilterStartTime()
+                || splits.get(splits.size() - 1) != request.getFilterEndTime()) {
+            return false;
+        }
+        for (long split : splits) {
+            if (Math.floorMod(split, HOUR_MILLIS) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean populateWithRollup(Cursor cursor, AggregateTableRequest request) {
+        List<Long> splits = request.getTimeSplits();
+        int numberOfGroups = splits.size() - 1;
+        double[] results = new double[numberOfGroups];
+        boolean[] hasResult = new boolean[numberOfGroups];
+        ZoneOffset[] zoneOffsets = new ZoneOffset[numberOfGroups];
+        Set<Long> dataOriginAppInfoIds = new LinkedHashSet<>();
+
+        boolean skipAppsWithoutPriority = request.isAggregationSourceControlsEnabled();
+        List<Long> priorityList =
+                StorageUtils.getAppIdPriorityList(request.getRecordHelper().getRecordIdentifier());
+
+        int group = 0;
+        while (cursor.moveToNext()) {
+            long hourStartTime = getCursorLong(cursor, HOUR_START_TIME_COLUMN_NAME);
+            long appInfoId = getCursorLong(cursor, APP_INFO_ID_COLUMN_NAME);
+            long maxEndTime = getCursorLong(cursor, MAX_END_TIME_COLUMN_NAME);
+            while (hourStartTime >= splits.get(group + 1)) {
+                group++;
+            }
+            long groupEndTime = splits.get(group + 1);
+
+            // Records overlapping, crossing into the next group or ending where it starts are
+            // aggregated with priorities. Records that can't be read are filtered out.
+            if (getCursorInt(cursor, OVERLAPPING_COLUMN_NAME) != 0
+                    || maxEndTime > groupEndTime
+                    || (maxEndTime == groupEndTime && group < numberOfGroups - 1)
+                    || (appInfoId != request.getCallingAppInfoId()
+                            && getCursorLong(cursor, MIN_PHYSICAL_START_TIME_COLUMN_NAME)
+                                    < request.getStartDateAccess())) {
+                return false;
+            }
+
+            dataOriginAppInfoIds.add(appInfoId);
+            if (skipAppsWithoutPriority && !priorityList.contains(appInfoId)) {
+                continue;
+            }
+            results[group] += getCursorDouble(cursor, VALUE_COLUMN_NAME);
+            if (!hasResult[group]) {
+                // Rows are sorted by start time, so this is the earliest record of the group.
+                hasResult[group] = true;
+                zoneOffsets[group] =
+                        ZoneOffset.ofTotalSeconds(
+                                getCursorInt(cursor, FIRST_ZONE_OFFSET_COLUMN_NAME));
+            }
+        }
+
+        request.onRollupResultsFetched(
+                results,
+                hasResult,
+                zoneOffsets,
+                AppInfoHelper.getInstance().getPackageNames(new ArrayList<>(dataOriginAppInfoIds)));
+        return true;
+    }
+
+    private static void refresh(SQLiteDatabase db, int recordType) {
+        ReadTableRequest readTableRequest =
+                new ReadTableRequest(DIRTY_RANGES_TABLE_NAME)
+                        .setWhereClause(
+                                new WhereClauses(AND)
+                                        .addWhereEqualsClause(
+                                                RECORD_TYPE_COLUMN_NAME,
+                                                String.valueOf(recordType)))
+                        .setOrderBy(
+                                new OrderByClause().addOrderByClause(START_TIME_COLUMN_NAME, true));
+        List<Pair<Long, Long>> dirtyRanges = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery(readTableRequest.getReadCommand(), null)) {
+            while (cursor.moveToNext()) {
+                dirtyRanges.add(
+                        new Pair<>(
+                                getCursorLong(cursor, START_TIME_COLUMN_NAME),
+                                getCursorLong(cursor, END_TIME_COLUMN_NAME)));
+            }
+        }
+        if (dirtyRanges.isEmpty()) {
+            return;
+        }
+
+        AggregateParams params = getAggregateParams(recordType);
+        for (Pair<Long, Long> hours : getDirtyHours(dirtyRanges, /* maxShift= */ 0)) {
+            refreshHours(db, recordType, params, /* useLocalTime= */ false, hours);
+        }
+        for (Pair<Long, Long> hours : getDirtyHours(dirtyRanges, MAX_ZONE_OFFSET_MILLIS)) {
+            refreshHours(db, recordType, params, /* useLocalTime= */ true, hours);
+        }
+
+        // Writes wait for this transaction, so all dirty ranges have been refreshed.
+        db.execSQL(
+                new DeleteTableRequest(DIRTY_RANGES_TABLE_NAME)
+                        .setId(RECORD_TYPE_COLUMN_NAME, String.valueOf(recordType))
+                        .getDeleteCommand());
+    }
+
+    /**
+     * Returns the hours containing {@code dirtyRanges} widened by {@code maxShift}, as disjoint
+     * ranges sorted by start time. {@code dirtyRanges} must be sorted by start time.
+     */
+    private static List<Pair<Long, Long>> getDirtyHours(
+            List<Pair<Long, Long>> dirtyRanges, long maxShift) {
+        List<Pair<Long, Long>> dirtyHours = new ArrayList<>();
+        boolean hasRange = false;
+        long rangeStart = 0;
+        long rangeEnd = 0;
+        for (Pair<Long, Long> dirtyRange : dirtyRanges) {
+            long start =
+                    dirtyRange.first < Long.MIN_VALUE + maxShift + HOUR_MILLIS
+                            ? Long.MIN_VALUE
+                            : floorToHour(dirtyRange.first - maxShift);
+            long end =
+                    dirtyRange.second > Long.MAX_VALUE - maxShift - 2 * HOUR_MILLIS
+                            ? Long.MAX_VALUE
+                            : floorToHour(dirtyRange.second + maxShift) + HOUR_MILLIS;
+            if (hasRange && start <= rangeEnd) {
+                rangeEnd = Math.max(rangeEnd, end);
+                continue;
+            }
+            if (hasRange) {
+                dirtyHours.add(new Pair<>(rangeStart, rangeEnd));
+            }
+            hasRange = true;
+            rangeStart = start;
+            rangeEnd = end;
+        }
+        if (hasRange) {
+            dirtyHours.add(new Pair<>(rangeStart, rangeEnd));
+        }
+        return dirtyHours;
+    }
+
+    private static long floorToHour(long time) {
+        return time - Math.floorMod(time, HOUR_MILLIS);
+    }
+
+    /** Recomputes the rollups of the records starting in {@code hours}. */
+    private static void refreshHours(
+            SQLiteDatabase db,
+            int recordType,
+            AggregateParams params,
+            boolean useLocalTime,
+            Pair<Long, Long> hours) {
+        WhereClauses hoursWhereClauses =
+                getWhereClauses(recordType, useLocalTime)
+                        .addWhereGreaterThanOrEqualClause(HOUR_START_TIME_COLUMN_NAME, hours.first)
+                        .addWhereLessThanClause(HOUR_START_TIME_COLUMN_NAME, hours.second);
+        db.execSQL(
+                "DELETE FROM " + TABLE_NAME + hoursWhereClauses.get(/* withWhereKeyword= */ true));
+
+        // Records starting in earlier hours may overlap the ones starting in these hours.
+        long maxEndTime = Long.MIN_VALUE;
+        String maxEndTimeCommand =
+                "SELECT MAX("
+                        + MAX_END_TIME_COLUMN_NAME
+                        + ") FROM "
+                        + TABLE_NAME
+                        + getWhereClauses(recordType, useLocalTime)
+                                .addWhereLessThanClause(HOUR_START_TIME_COLUMN_NAME, hours.first)
+                                .get(/* withWhereKeyword= */ true);
+        try (Cursor cursor = db.rawQuery(maxEndTimeCommand, null)) {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                maxEndTime = cursor.getLong(0);
+            }
+        }
+
+        String startTimeColumnName =
+                useLocalTime ? LOCAL_DATE_TIME_START_TIME_COLUMN_NAME : START_TIME_COLUMN_NAME;
+        String endTimeColumnName =
+                useLocalTime ? LOCAL_DATE_TIME_END_TIME_COLUMN_NAME : END_TIME_COLUMN_NAME;
+        String valueColumnName =
+                params.getPriorityAggregationExtraParams().getColumnToAggregateName();
+        boolean isLongValue =
+                params.getPriorityAggregationExtraParams().getColumnToAggregateType()
+                        == VALUE_TYPE_LONG;
+        List<String> columnNames = new ArrayList<>();
+        columnNames.add(APP_INFO_ID_COLUMN_NAME);
+        columnNames.add(START_TIME_COLUMN_NAME);
+        columnNames.add(END_TIME_COLUMN_NAME);
+        columnNames.add(START_ZONE_OFFSET_COLUMN_NAME);
+        columnNames.add(valueColumnName);
+        if (useLocalTime) {
+            columnNames.add(startTimeColumnName);
+            columnNames.add(endTimeColumnName);
+        }
+        ReadTableRequest readTableRequest =
+                new ReadTableRequest(params.getTableName())
+                        .setColumnNames(columnNames)
+                        .setWhereClause(
+                                new WhereClauses(AND)
+                                        .addWhereGreaterThanOrEqualClause(
+                                                startTimeColumnName, hours.first)
+                                        .addWhereLessThanClause(startTimeColumnName, hours.second))
+                        .setOrderBy(
+                                new OrderByClause().addOrderByClause(startTimeColumnName, true));
+
+        TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
+        Map<Long, AppHourRollup> appHourRollups = new ArrayMap<>();
+        long currentHour = 0;
+        boolean overlapping = false;
+        try (Cursor cursor = db.rawQuery(readTableRequest.getReadCommand(), null)) {
+            while (cursor.moveToNext()) {
+                long startTime = getCursorLong(cursor, startTimeColumnName);
+                long endTime = getCursorLong(cursor, endTimeColumnName);
+                long hour = floorToHour(startTime);
+                if (hour != currentHour && !appHourRollups.isEmpty()) {
+                    insertHour(
+                            db,
+                            transactionManager,
+                            recordType,
+                            useLocalTime,
+                            currentHour,
+                            overlapping,
+                            appHourRollups);
+                    appHourRollups.clear();
+                    overlapping = false;
+                }
+                currentHour = hour;
+
+                // Empty records are counted differently when they are alone at their time, and
+                // inverted ones are skipped but still count as data origins, so they are flagged
+                // as well.
+                overlapping |= startTime < maxEndTime || startTime >= endTime;
+                maxEndTime = Math.max(maxEndTime, endTime);
+
+                long appInfoId = getCursorLong(cursor, APP_INFO_ID_COLUMN_NAME);
+                AppHourRollup appHourRollup = appHourRollups.get(appInfoId);
+                if (appHourRollup == null) {
+                    appHourRollup =
+                            new AppHourRollup(
+                                    startTime, getCursorInt(cursor, START_ZONE_OFFSET_COLUMN_NAME));
+                    appHourRollups.put(appInfoId, appHourRollup);
+                }
+                if (startTime < endTime) {
+                    appHourRollup.mValue +=
+                            isLongValue
+                                    ? getCursorLong(cursor, valueColumnName)
+                                    : getCursorDouble(cursor, valueColumnName);
+                }
+                appHourRollup.mMinPhysicalStartTime =
+                        Math.min(
+                                appHourRollup.mMinPhysicalStartTime,
+                                getCursorLong(cursor, START_TIME_COLUMN_NAME));
+                appHourRollup.mMaxEndTime = Math.max(appHourRollup.mMaxEndTime, endTime);
+            }
+        }
+        if (!appHourRollups.isEmpty()) {
+            insertHour(
+                    db,
+                    transactionManager,
+                    recordType,
+                    useLocalTime,
+                    currentHour,
+                    overlapping,
+                    appHourRollups);
+        }
+    }
+
+    private static void insertHour(
+            SQLiteDatabase db,
+            TransactionManager transactionManager,
+            int recordType,
+            boolean useLocalTime,
+            long hourStartTime,
+            boolean overlapping,
+            Map<Long, AppHourRollup> appHourRollups) {
+        for (Map.Entry<Long, AppHourRollup> entry : appHourRollups.entrySet()) {
+            AppHourRollup appHourRollup = entry.getValue();
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(RECORD_TYPE_COLUMN_NAME, recordType);
+            contentValues.put(LOCAL_TIME_COLUMN_NAME, useLocalTime ? 1 : 0);
+            contentValues.put(HOUR_START_TIME_COLUMN_NAME, hourStartTime);
+            contentValues.put(APP_INFO_ID_COLUMN_NAME, entry.getKey());
+            contentValues.put(VALUE_COLUMN_NAME, appHourRollup.mValue);
+            contentValues.put(FIRST_START_TIME_COLUMN_NAME, appHourRollup.mFirstStartTime);
+            contentValues.put(FIRST_ZONE_OFFSET_COLUMN_NAME, appHourRollup.mFirstZoneOffset);
+            contentValues.put(
+                    MIN_PHYSICAL_START_TIME_COLUMN_NAME, appHourRollup.mMinPhysicalStartTime);
+            contentValues.put(MAX_END_TIME_COLUMN_NAME, appHourRollup.mMaxEndTime);
+            contentValues.put(OVERLAPPING_COLUMN_NAME, overlapping ? 1 : 0);
+            transactionManager.insertRecord(db, new UpsertTableRequest(TABLE_NAME, contentValues));
+        }
+    }
+
+    public static synchronized HourlyRollupHelper getInstance() {
+        if (sHourlyRollupHelper == null) {
+            sHourlyRollupHelper = new HourlyRollupHelper();
+        }
+
+        return sHourlyRollupHelper;
+    }
+
+    /** Rollup of the records of an app starting in an hour. */
+    private static final class AppHourRollup {
+        private final long mFirstStartTime;
+        private final int mFirstZoneOffset;
+        private double mValue;
+        private long mMinPhysicalStartTime = Long.MAX_VALUE;
+        private long mMaxEndTime = Long.MIN_VALUE;
+
+        AppHourRollup(long firstStartTime, int firstZoneOffset) {
+            mFirstStartTime = firstStartTime;
+            mFirstZoneOffset = firstZoneOffset;
+        }
+    }
+}
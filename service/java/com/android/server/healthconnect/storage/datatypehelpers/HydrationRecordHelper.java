@@ -30,6 +30,7 @@ import android.health.connect.internal.datatypes.HydrationRecordInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.Collections;
 import java.util.List;
@@ -70,8 +71,10 @@ public final class HydrationRecordHelper extends IntervalRecordHelper<HydrationR
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull HydrationRecordInternal hydrationRecord) {
-        hydrationRecord.setVolume(getCursorDouble(cursor, VOLUME_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull HydrationRecordInternal hydrationRecord) {
+        hydrationRecord.setVolume(getCursorDouble(cursor, columns, VOLUME_COLUMN_NAME));
     }
 
     @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
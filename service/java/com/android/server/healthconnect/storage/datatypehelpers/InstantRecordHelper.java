@@ -31,6 +31,7 @@ import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AlterTableRequest;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 
 import java.time.Instant;
@@ -167,14 +168,18 @@ public abstract class InstantRecordHelper<T extends InstantRecordInternal<?>>
             @NonNull ContentValues contentValues, @NonNull T instantRecordInternal);
 
     @Override
-    final void populateRecordValue(@NonNull Cursor cursor, @NonNull T instantRecordInternal) {
-        instantRecordInternal.setZoneOffset(getCursorInt(cursor, ZONE_OFFSET_COLUMN_NAME));
-        instantRecordInternal.setTime(getCursorLong(cursor, TIME_COLUMN_NAME));
-
-        populateSpecificRecordValue(cursor, instantRecordInternal);
+    final void populateRecordValue(
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull T instantRecordInternal) {
+        instantRecordInternal.setZoneOffset(getCursorInt(cursor, columns, ZONE_OFFSET_COLUMN_NAME));
+        instantRecordInternal.setTime(getCursorLong(cursor, columns, TIME_COLUMN_NAME));
+
+        populateSpecificRecordValue(cursor, columns, instantRecordInternal);
     }
 
-    abstract void populateSpecificRecordValue(@NonNull Cursor cursor, @NonNull T recordInternal);
+    abstract void populateSpecificRecordValue(
+            @NonNull Cursor cursor, @NonNull ColumnIndexCache columns, @NonNull T recordInternal);
 
     /**
      * This implementation should return the column names with which the table should be created.
@@ -24,6 +24,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.IntermenstrualBleedingRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -54,7 +56,9 @@ public final class IntermenstrualBleedingRecordHelper
 
     @Override
     protected void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull IntermenstrualBleedingRecordInternal recordInternal) {}
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull IntermenstrualBleedingRecordInternal recordInternal) {}
 
     @Override
     @NonNull
@@ -31,6 +31,7 @@ import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AlterTableRequest;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 
 import java.time.Instant;
@@ -190,16 +191,19 @@ public abstract class IntervalRecordHelper<T extends IntervalRecordInternal<?>>
     }
 
     @Override
-    final void populateRecordValue(@NonNull Cursor cursor, @NonNull T recordInternal) {
-        recordInternal.setStartTime(getCursorLong(cursor, START_TIME_COLUMN_NAME));
-        recordInternal.setStartZoneOffset(getCursorInt(cursor, START_ZONE_OFFSET_COLUMN_NAME));
-        recordInternal.setEndTime(getCursorLong(cursor, END_TIME_COLUMN_NAME));
-        recordInternal.setEndZoneOffset(getCursorInt(cursor, END_ZONE_OFFSET_COLUMN_NAME));
-        populateSpecificRecordValue(cursor, recordInternal);
+    final void populateRecordValue(
+            @NonNull Cursor cursor, @NonNull ColumnIndexCache columns, @NonNull T recordInternal) {
+        recordInternal.setStartTime(getCursorLong(cursor, columns, START_TIME_COLUMN_NAME));
+        recordInternal.setStartZoneOffset(
+                getCursorInt(cursor, columns, START_ZONE_OFFSET_COLUMN_NAME));
+        recordInternal.setEndTime(getCursorLong(cursor, columns, END_TIME_COLUMN_NAME));
+        recordInternal.setEndZoneOffset(getCursorInt(cursor, columns, END_ZONE_OFFSET_COLUMN_NAME));
+        populateSpecificRecordValue(cursor, columns, recordInternal);
     }
 
     /** This implementation should populate record with datatype specific values from the table. */
-    abstract void populateSpecificRecordValue(@NonNull Cursor cursor, @NonNull T recordInternal);
+    abstract void populateSpecificRecordValue(
+            @NonNull Cursor cursor, @NonNull ColumnIndexCache columns, @NonNull T recordInternal);
 
     @Override
     final String getZoneOffsetColumnName() {
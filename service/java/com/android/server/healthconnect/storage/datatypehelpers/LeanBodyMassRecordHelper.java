@@ -25,6 +25,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.LeanBodyMassRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -50,8 +52,10 @@ public final class LeanBodyMassRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull LeanBodyMassRecordInternal leanBodyMassRecord) {
-        leanBodyMassRecord.setMass(getCursorDouble(cursor, MASS_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull LeanBodyMassRecordInternal leanBodyMassRecord) {
+        leanBodyMassRecord.setMass(getCursorDouble(cursor, columns, MASS_COLUMN_NAME));
     }
 
     @Override
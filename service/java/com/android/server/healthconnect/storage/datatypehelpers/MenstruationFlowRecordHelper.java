@@ -25,6 +25,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.MenstruationFlowRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -52,8 +54,9 @@ public final class MenstruationFlowRecordHelper
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
             @NonNull MenstruationFlowRecordInternal menstruationFlowRecord) {
-        menstruationFlowRecord.setFlow(getCursorInt(cursor, FLOW_COLUMN_NAME));
+        menstruationFlowRecord.setFlow(getCursorInt(cursor, columns, FLOW_COLUMN_NAME));
     }
 
     @Override
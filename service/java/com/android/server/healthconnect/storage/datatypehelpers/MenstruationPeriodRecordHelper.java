@@ -22,6 +22,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.MenstruationPeriodRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -48,6 +50,7 @@ public final class MenstruationPeriodRecordHelper
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
             @NonNull MenstruationPeriodRecordInternal menstruationPeriodRecord) {}
 
     @Override
@@ -27,19 +27,16 @@ import static com.android.server.healthconnect.storage.datatypehelpers.RecordHel
 
 import android.annotation.NonNull;
 import android.database.Cursor;
-import android.util.Pair;
 
-import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
-import com.android.server.healthconnect.storage.utils.StorageUtils;
-import com.android.server.healthconnect.storage.utils.TimeUtils;
 
-import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.TreeSet;
 
@@ -47,22 +44,29 @@ import java.util.TreeSet;
  * A helper class to merge records from multiple apps with overlapping time interval based on app
  * priority for the record type.
  *
+ * <p>The rows of the cursor are read once, into arrays, and reused for every interval. Rows are
+ * expected in increasing order of start time, in which case each interval only looks at the rows
+ * that can overlap it.
+ *
  * @hide
  */
 public final class MergeDataHelper {
+    private static final int NO_PRIORITY = -1;
+
     /** Class to hold cursor entry for the Tree buffer window */
     public static final class RecordData {
-        private final Instant mStartTime;
-        private final Instant mEndTime;
+        private final long mStartTime;
+        private final long mEndTime;
         private final long mAppId;
+        private final int mPriority;
         private final long mLastModifiedTime;
         private final double mValue;
 
-        public Instant getStartTime() {
+        public long getStartTime() {
             return mStartTime;
         }
 
-        public Instant getEndTime() {
+        public long getEndTime() {
             return mEndTime;
         }
 
@@ -79,14 +83,16 @@ public final class MergeDataHelper {
         }
 
         private RecordData(
-                Instant startTime,
-                Instant endTime,
+                long startTime,
+                long endTime,
                 long appId,
+                int priority,
                 long lastModifiedTime,
                 double value) {
             mStartTime = startTime;
             mEndTime = endTime;
             mAppId = appId;
+            mPriority = priority;
             mLastModifiedTime = lastModifiedTime;
             mValue = value;
         }
@@ -96,35 +102,53 @@ public final class MergeDataHelper {
     private TreeSet<RecordData> mBufferWindow;
     private final List<RecordData> mRecordDataList = new ArrayList<>();
     private final Cursor mCursor;
-    private final List<Long> mReversedPriorityList;
-    private Instant mStartTime;
-    private Instant mEndTime;
+    private final Map<Long, Integer> mAppIdToPriority = new HashMap<>();
+    private long mStartTime;
+    private long mEndTime;
     private final String mColumnNameToMerge;
     private final Class<?> mValueColumnType;
 
     private final boolean mUseLocalTime;
+    private final boolean mOnlyPrioritizedApps;
+
+    // Rows of the cursor, read on first use.
+    private boolean mRowsRead;
+    private int mRowCount;
+    private long[] mRowStartTimes;
+    private long[] mRowEndTimes;
+    // Largest end time of the rows up to each index, to skip rows ending before an interval.
+    private long[] mRowMaxEndTimes;
+    private long[] mRowAppIds;
+    private int[] mRowPriorities;
+    private long[] mRowLastModifiedTimes;
+    private double[] mRowValues;
+    private boolean mRowsSortedByStartTime;
+    private int mNextRow;
+    private int mEndRow;
 
-    @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
     public MergeDataHelper(
             @NonNull Cursor cursor,
             @NonNull List<Long> priorityList,
             @NonNull String columnNameToMerge,
             @NonNull Class<?> valueColumnType,
-            boolean useLocalTime) {
+            boolean useLocalTime,
+            boolean aggregationSourceControlsEnabled) {
         Objects.requireNonNull(cursor);
         Objects.requireNonNull(priorityList);
         Objects.requireNonNull(columnNameToMerge);
         Objects.requireNonNull(valueColumnType);
         mCursor = cursor;
         // In priority list, the first element has the highest priority. To make it easier to
-        // understand and code, reverse the list and use index as data points' priorities
-        mReversedPriorityList = new ArrayList<>(priorityList);
-        Collections.reverse(mReversedPriorityList);
+        // understand and code, use the reversed index as data points' priorities
+        for (int i = priorityList.size() - 1; i >= 0; i--) {
+            mAppIdToPriority.putIfAbsent(priorityList.get(i), priorityList.size() - 1 - i);
+        }
         mColumnNameToMerge = columnNameToMerge;
         mValueColumnType = valueColumnType;
         mUseLocalTime = useLocalTime;
+        mOnlyPrioritizedApps = aggregationSourceControlsEnabled;
         mRecordDataComparator =
-                Comparator.comparing(RecordData::getStartTime)
+                Comparator.comparingLong(RecordData::getStartTime)
                         .thenComparing((a, b) -> compare(b, a));
         mBufferWindow = new TreeSet<>(mRecordDataComparator);
     }
@@ -142,11 +166,15 @@ public final class MergeDataHelper {
      * value3*(T4-T3)/(T4-T2)
      */
     public double readCursor(long startTime, long endTime) {
-        mStartTime = Instant.ofEpochMilli(startTime);
-        mEndTime = Instant.ofEpochMilli(endTime);
+        mStartTime = startTime;
+        mEndTime = endTime;
         mRecordDataList.clear();
         mBufferWindow.clear();
-        mCursor.moveToPosition(-1);
+        readRowsIfNeeded();
+        // Rows before mNextRow end before the interval, and rows from mEndRow start after it, so
+        // none of them would be added to the window.
+        mNextRow = getFirstRowEndingAfter(startTime);
+        mEndRow = mRowsSortedByStartTime ? getFirstRowStartingAfter(endTime) : mRowCount;
         while (true) {
             if (!mBufferWindow.isEmpty()) {
                 mRecordDataList.add(mBufferWindow.pollFirst());
@@ -154,17 +182,16 @@ public final class MergeDataHelper {
             // Fill window with any raw data that overlaps with the first element of the
             // bufferWindow, in other words until window.first.end < window.last.start.
             while ((mBufferWindow.size() < 2
-                            || mBufferWindow
-                                    .last()
-                                    .getStartTime()
-                                    .isBefore(mBufferWindow.first().getEndTime()))
-                    && mCursor.moveToNext()) {
-                if (cursorOutOfRange()) {
+                            || mBufferWindow.last().getStartTime()
+                                    < mBufferWindow.first().getEndTime())
+                    && mNextRow < mEndRow) {
+                int row = mNextRow++;
+                if (rowOutOfRange(row)) {
                     continue;
                 }
-                RecordData recordData = getRecordData(mCursor);
+                RecordData recordData = getRecordData(row);
 
-                if (shouldAddDataPoint(recordData)) {
+                if (shouldAddDataPoint(recordData, mOnlyPrioritizedApps)) {
                     mBufferWindow.add(recordData);
                 }
             }
@@ -181,22 +208,81 @@ public final class MergeDataHelper {
 
     // Only add this datapoint to the TreeSet in the new behaviour
     // if its app has a priority assigned
-    private boolean shouldAddDataPoint(RecordData recordData) {
+    private static boolean shouldAddDataPoint(RecordData recordData, boolean onlyPrioritizedApps) {
         if (recordData == null) return false;
-        if (HealthConnectDeviceConfigManager.getInitialisedInstance()
-                .isAggregationSourceControlsEnabled()) {
-            return mReversedPriorityList.contains(recordData.mAppId);
+        if (onlyPrioritizedApps) {
+            return recordData.mPriority != NO_PRIORITY;
         }
         return true;
     }
 
-    private boolean cursorOutOfRange() {
-        long cursorStartTime = StorageUtils.getCursorLong(mCursor, getStartTimeColumnName());
-        long cursorEndTime = StorageUtils.getCursorLong(mCursor, getEndTimeColumnName());
-        return (cursorStartTime < mStartTime.toEpochMilli()
-                        && cursorEndTime <= mStartTime.toEpochMilli())
-                || (cursorStartTime > mEndTime.toEpochMilli()
-                        && cursorEndTime > mEndTime.toEpochMilli());
+    private boolean rowOutOfRange(int row) {
+        long rowStartTime = mRowStartTimes[row];
+        long rowEndTime = mRowEndTimes[row];
+        return (rowStartTime < mStartTime && rowEndTime <= mStartTime)
+                || (rowStartTime > mEndTime && rowEndTime > mEndTime);
+    }
+
+    private void readRowsIfNeeded() {
+        if (mRowsRead) {
+            return;
+        }
+        mRowsRead = true;
+        int capacity = Math.max(mCursor.getCount(), 0);
+        mRowStartTimes = new long[capacity];
+        mRowEndTimes = new long[capacity];
+        mRowMaxEndTimes = new long[capacity];
+        mRowAppIds = new long[capacity];
+        mRowPriorities = new int[capacity];
+        mRowLastModifiedTimes = new long[capacity];
+        mRowValues = new double[capacity];
+        mRowsSortedByStartTime = true;
+
+        int startTimeIndex = mCursor.getColumnIndex(getStartTimeColumnName());
+        int endTimeIndex = mCursor.getColumnIndex(getEndTimeColumnName());
+        int appIdIndex = mCursor.getColumnIndex(APP_INFO_ID_COLUMN_NAME);
+        int lastModifiedTimeIndex = mCursor.getColumnIndex(LAST_MODIFIED_TIME_COLUMN_NAME);
+        int valueIndex = mCursor.getColumnIndex(mColumnNameToMerge);
+        long maxEndTime = Long.MIN_VALUE;
+        mCursor.moveToPosition(-1);
+        while (mCursor.moveToNext() && mRowCount < capacity) {
+            int row = mRowCount++;
+            mRowStartTimes[row] = mCursor.getLong(startTimeIndex);
+            mRowEndTimes[row] = mCursor.getLong(endTimeIndex);
+            mRowAppIds[row] = mCursor.getLong(appIdIndex);
+            mRowPriorities[row] = mAppIdToPriority.getOrDefault(mRowAppIds[row], NO_PRIORITY);
+            mRowLastModifiedTimes[row] = mCursor.getLong(lastModifiedTimeIndex);
+            mRowValues[row] = getDataToAggregate(valueIndex);
+            maxEndTime = Math.max(maxEndTime, mRowEndTimes[row]);
+            mRowMaxEndTimes[row] = maxEndTime;
+            if (row > 0 && mRowStartTimes[row] < mRowStartTimes[row - 1]) {
+                mRowsSortedByStartTime = false;
+            }
+        }
+    }
+
+    /** Returns the first row such that this row or a row after it ends after {@code time}. */
+    private int getFirstRowEndingAfter(long time) {
+        return getFirstIndexAfter(mRowMaxEndTimes, time);
+    }
+
+    /** Returns the first row starting after {@code time}, if rows are sorted by start time. */
+    private int getFirstRowStartingAfter(long time) {
+        return getFirstIndexAfter(mRowStartTimes, time);
+    }
+
+    private int getFirstIndexAfter(long[] sortedTimes, long time) {
+        int low = 0;
+        int high = mRowCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedTimes[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     private String getStartTimeColumnName() {
@@ -217,37 +303,42 @@ public final class MergeDataHelper {
     }
 
     /**
-     * Returns list of empty intervals where there are gaps without any record data in the final
-     * merge used to calculate aggregate
+     * Returns the empty intervals where there are gaps without any record data in the final merge
+     * used to calculate aggregate, as pairs of start and end times one after another.
      */
-    public List<Pair<Instant, Instant>> getEmptyIntervals(Instant startTime, Instant endTime) {
-        List<Pair<Instant, Instant>> emptyIntervals = new ArrayList<>();
+    @NonNull
+    public long[] getEmptyIntervals(long startTime, long endTime) {
+        long[] emptyIntervals = new long[2 * (mRecordDataList.size() + 1)];
+        int size = 0;
         if (mRecordDataList.size() == 0) {
-            if (!startTime.equals(endTime)) {
-                emptyIntervals.add(new Pair<>(startTime, endTime));
+            if (startTime != endTime) {
+                emptyIntervals[size++] = startTime;
+                emptyIntervals[size++] = endTime;
             }
-            return emptyIntervals;
+            return Arrays.copyOf(emptyIntervals, size);
         }
 
-        if (startTime.isBefore(mRecordDataList.get(0).getStartTime())) {
-            emptyIntervals.add(new Pair<>(startTime, mRecordDataList.get(0).getStartTime()));
+        if (startTime < mRecordDataList.get(0).getStartTime()) {
+            emptyIntervals[size++] = startTime;
+            emptyIntervals[size++] = mRecordDataList.get(0).getStartTime();
         }
 
         for (int i = 0; i < mRecordDataList.size() - 1; i++) {
-            Instant currentEnd = mRecordDataList.get(i).getEndTime();
-            Instant nextStart = mRecordDataList.get(i + 1).getStartTime();
-            if (nextStart.isAfter(currentEnd)) {
-                emptyIntervals.add(new Pair<>(currentEnd, nextStart));
+            long currentEnd = mRecordDataList.get(i).getEndTime();
+            long nextStart = mRecordDataList.get(i + 1).getStartTime();
+            if (nextStart > currentEnd) {
+                emptyIntervals[size++] = currentEnd;
+                emptyIntervals[size++] = nextStart;
             }
         }
 
-        if (endTime.isAfter(mRecordDataList.get(mRecordDataList.size() - 1).getEndTime())) {
-            emptyIntervals.add(
-                    new Pair<>(
-                            mRecordDataList.get(mRecordDataList.size() - 1).getEndTime(), endTime));
+        long lastEnd = mRecordDataList.get(mRecordDataList.size() - 1).getEndTime();
+        if (endTime > lastEnd) {
+            emptyIntervals[size++] = lastEnd;
+            emptyIntervals[size++] = endTime;
         }
 
-        return emptyIntervals;
+        return Arrays.copyOf(emptyIntervals, size);
     }
 
     @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
@@ -263,11 +354,11 @@ public final class MergeDataHelper {
             RecordData bufferData = bufferIterator.next();
             // BufferData has lower priority.
             if (compare(firstBufferData, bufferData) > 0) {
-                if (bufferData.getEndTime().isAfter(firstBufferData.getEndTime())) {
+                if (bufferData.getEndTime() > firstBufferData.getEndTime()) {
                     RecordData trimmed =
                             trimRecordData(
                                     bufferData,
-                                    TimeUtils.latest(
+                                    Math.max(
                                             firstBufferData.getEndTime(),
                                             bufferData.getStartTime()),
                                     bufferData.getEndTime());
@@ -279,7 +370,7 @@ public final class MergeDataHelper {
                 // The comparator guarantees that firstBufferData is never fully trimmed by
                 // bufferData.
                 newBuffer.add(bufferData);
-                if (firstBufferData.getEndTime().isAfter(bufferData.getEndTime())) {
+                if (firstBufferData.getEndTime() > bufferData.getEndTime()) {
                     RecordData trimmed =
                             trimRecordData(
                                     firstBufferData,
@@ -293,8 +384,7 @@ public final class MergeDataHelper {
                         trimRecordData(
                                 firstBufferData,
                                 firstBufferData.getStartTime(),
-                                TimeUtils.earliest(
-                                        firstBufferData.getEndTime(), bufferData.getStartTime()));
+                                Math.min(firstBufferData.getEndTime(), bufferData.getStartTime()));
                 break;
             }
         }
@@ -322,40 +412,30 @@ public final class MergeDataHelper {
     }
 
     @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
-    private RecordData getRecordData(Cursor cursor) {
-        if (cursor != null) {
-            double factor = 1;
-
-            Instant startTime =
-                    Instant.ofEpochMilli(
-                            StorageUtils.getCursorLong(cursor, getStartTimeColumnName()));
-            Instant endTime =
-                    Instant.ofEpochMilli(
-                            StorageUtils.getCursorLong(cursor, getEndTimeColumnName()));
-            Instant currentStartTime = TimeUtils.latest(startTime, mStartTime);
-            Instant currentEndTime = TimeUtils.earliest(endTime, mEndTime);
-            double aggregateData = getDataToAggregate(cursor);
-            if (currentStartTime.equals(mStartTime) || currentEndTime.equals(mEndTime)) {
-                // If either startTime or endTime of current cursor was outside the range of
-                // current group, then calculate factor of value for the time range that is within
-                // the group.
-                factor =
-                        (double) TimeUtils.getDurationInMillis(currentStartTime, currentEndTime)
-                                / TimeUtils.getDurationInMillis(startTime, endTime);
-                aggregateData *= factor;
-            }
+    private RecordData getRecordData(int row) {
+        long startTime = mRowStartTimes[row];
+        long endTime = mRowEndTimes[row];
+        long currentStartTime = Math.max(startTime, mStartTime);
+        long currentEndTime = Math.min(endTime, mEndTime);
+        double aggregateData = mRowValues[row];
+        if (currentStartTime == mStartTime || currentEndTime == mEndTime) {
+            // If either startTime or endTime of current cursor was outside the range of
+            // current group, then calculate factor of value for the time range that is within
+            // the group.
+            double factor = (double) (currentEndTime - currentStartTime) / (endTime - startTime);
+            aggregateData *= factor;
+        }
 
-            if (!currentEndTime.isAfter(currentStartTime)) {
-                return null;
-            }
-            return new RecordData(
-                    currentStartTime,
-                    currentEndTime,
-                    StorageUtils.getCursorLong(cursor, APP_INFO_ID_COLUMN_NAME),
-                    StorageUtils.getCursorLong(cursor, LAST_MODIFIED_TIME_COLUMN_NAME),
-                    aggregateData);
+        if (currentEndTime <= currentStartTime) {
+            return null;
         }
-        return null;
+        return new RecordData(
+                currentStartTime,
+                currentEndTime,
+                mRowAppIds[row],
+                mRowPriorities[row],
+                mRowLastModifiedTimes[row],
+                aggregateData);
     }
 
     /**
@@ -365,26 +445,24 @@ public final class MergeDataHelper {
      * non-overlapping time interval. This data will be added to form a new buffer window.
      */
     @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
-    private RecordData trimRecordData(RecordData data, Instant startTime, Instant endTime) {
-        if (startTime.isAfter(data.getEndTime())) {
+    private RecordData trimRecordData(RecordData data, long startTime, long endTime) {
+        if (startTime > data.getEndTime()) {
             // throw new IllegalArgumentException("startTime must be before data.endTime to trim.");
             return null;
         }
-        if (!endTime.isAfter(startTime)) {
+        if (endTime <= startTime) {
             // throw new IllegalArgumentException("startTime must be before endTime to trim.");
             return null;
         }
-        if (endTime.isBefore(data.getStartTime())) {
+        if (endTime < data.getStartTime()) {
             // throw new IllegalArgumentException("endTime must be after data.startTime to trim.");
             return null;
         }
-        startTime = startTime.isBefore(data.getStartTime()) ? data.getStartTime() : startTime;
-        endTime = endTime.isAfter(data.getEndTime()) ? data.getEndTime() : endTime;
-        double factor =
-                (double) TimeUtils.getDurationInMillis(startTime, endTime)
-                        / getDurationInMillis(data);
+        startTime = Math.max(startTime, data.getStartTime());
+        endTime = Math.min(endTime, data.getEndTime());
+        double factor = (double) (endTime - startTime) / getDurationInMillis(data);
 
-        if (!endTime.isAfter(startTime)) {
+        if (endTime <= startTime) {
             return null;
         }
 
@@ -392,23 +470,23 @@ public final class MergeDataHelper {
                 startTime,
                 endTime,
                 data.getAppId(),
+                data.mPriority,
                 data.getLastModifiedTime(),
                 data.getValue() * factor);
     }
 
-    private double getDataToAggregate(Cursor cursor) {
+    private double getDataToAggregate(int valueIndex) {
         if (mValueColumnType == Double.class) {
-            return StorageUtils.getCursorDouble(cursor, mColumnNameToMerge);
+            return mCursor.getDouble(valueIndex);
         } else if (mValueColumnType == Long.class) {
-            return StorageUtils.getCursorLong(cursor, mColumnNameToMerge);
+            return mCursor.getLong(valueIndex);
         }
         return DEFAULT_DOUBLE;
     }
 
     private int compare(RecordData data1, RecordData data2) {
-
-        int priority1 = mReversedPriorityList.indexOf(data1.getAppId());
-        int priority2 = mReversedPriorityList.indexOf(data2.getAppId());
+        int priority1 = data1.mPriority;
+        int priority2 = data2.mPriority;
 
         return (priority1 != priority2) ? (priority1 - priority2) : getRecentUpdated(data1, data2);
     }
@@ -419,6 +497,6 @@ public final class MergeDataHelper {
     }
 
     private static long getDurationInMillis(RecordData data) {
-        return TimeUtils.getDurationInMillis(data.getStartTime(), data.getEndTime());
+        return data.getEndTime() - data.getStartTime();
     }
 }
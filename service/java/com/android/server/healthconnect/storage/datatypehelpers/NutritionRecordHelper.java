@@ -75,6 +75,7 @@ import android.health.connect.internal.datatypes.NutritionRecordInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -427,54 +428,61 @@ public final class NutritionRecordHelper extends IntervalRecordHelper<NutritionR
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull NutritionRecordInternal nutritionRecord) {
-        nutritionRecord.setUnsaturatedFat(getCursorDouble(cursor, UNSATURATED_FAT_COLUMN_NAME));
-        nutritionRecord.setPotassium(getCursorDouble(cursor, POTASSIUM_COLUMN_NAME));
-        nutritionRecord.setThiamin(getCursorDouble(cursor, THIAMIN_COLUMN_NAME));
-        nutritionRecord.setMealType(getCursorInt(cursor, MEAL_TYPE_COLUMN_NAME));
-        nutritionRecord.setTransFat(getCursorDouble(cursor, TRANS_FAT_COLUMN_NAME));
-        nutritionRecord.setManganese(getCursorDouble(cursor, MANGANESE_COLUMN_NAME));
-        nutritionRecord.setEnergyFromFat(getCursorDouble(cursor, ENERGY_FROM_FAT_COLUMN_NAME));
-        nutritionRecord.setCaffeine(getCursorDouble(cursor, CAFFEINE_COLUMN_NAME));
-        nutritionRecord.setDietaryFiber(getCursorDouble(cursor, DIETARY_FIBER_COLUMN_NAME));
-        nutritionRecord.setSelenium(getCursorDouble(cursor, SELENIUM_COLUMN_NAME));
-        nutritionRecord.setVitaminB6(getCursorDouble(cursor, VITAMIN_B6_COLUMN_NAME));
-        nutritionRecord.setProtein(getCursorDouble(cursor, PROTEIN_COLUMN_NAME));
-        nutritionRecord.setChloride(getCursorDouble(cursor, CHLORIDE_COLUMN_NAME));
-        nutritionRecord.setCholesterol(getCursorDouble(cursor, CHOLESTEROL_COLUMN_NAME));
-        nutritionRecord.setCopper(getCursorDouble(cursor, COPPER_COLUMN_NAME));
-        nutritionRecord.setIodine(getCursorDouble(cursor, IODINE_COLUMN_NAME));
-        nutritionRecord.setVitaminB12(getCursorDouble(cursor, VITAMIN_B12_COLUMN_NAME));
-        nutritionRecord.setZinc(getCursorDouble(cursor, ZINC_COLUMN_NAME));
-        nutritionRecord.setRiboflavin(getCursorDouble(cursor, RIBOFLAVIN_COLUMN_NAME));
-        nutritionRecord.setEnergy(getCursorDouble(cursor, ENERGY_COLUMN_NAME));
-        nutritionRecord.setMolybdenum(getCursorDouble(cursor, MOLYBDENUM_COLUMN_NAME));
-        nutritionRecord.setPhosphorus(getCursorDouble(cursor, PHOSPHORUS_COLUMN_NAME));
-        nutritionRecord.setChromium(getCursorDouble(cursor, CHROMIUM_COLUMN_NAME));
-        nutritionRecord.setTotalFat(getCursorDouble(cursor, TOTAL_FAT_COLUMN_NAME));
-        nutritionRecord.setCalcium(getCursorDouble(cursor, CALCIUM_COLUMN_NAME));
-        nutritionRecord.setVitaminC(getCursorDouble(cursor, VITAMIN_C_COLUMN_NAME));
-        nutritionRecord.setVitaminE(getCursorDouble(cursor, VITAMIN_E_COLUMN_NAME));
-        nutritionRecord.setBiotin(getCursorDouble(cursor, BIOTIN_COLUMN_NAME));
-        nutritionRecord.setVitaminD(getCursorDouble(cursor, VITAMIN_D_COLUMN_NAME));
-        nutritionRecord.setNiacin(getCursorDouble(cursor, NIACIN_COLUMN_NAME));
-        nutritionRecord.setMagnesium(getCursorDouble(cursor, MAGNESIUM_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull NutritionRecordInternal nutritionRecord) {
+        nutritionRecord.setUnsaturatedFat(
+                getCursorDouble(cursor, columns, UNSATURATED_FAT_COLUMN_NAME));
+        nutritionRecord.setPotassium(getCursorDouble(cursor, columns, POTASSIUM_COLUMN_NAME));
+        nutritionRecord.setThiamin(getCursorDouble(cursor, columns, THIAMIN_COLUMN_NAME));
+        nutritionRecord.setMealType(getCursorInt(cursor, columns, MEAL_TYPE_COLUMN_NAME));
+        nutritionRecord.setTransFat(getCursorDouble(cursor, columns, TRANS_FAT_COLUMN_NAME));
+        nutritionRecord.setManganese(getCursorDouble(cursor, columns, MANGANESE_COLUMN_NAME));
+        nutritionRecord.setEnergyFromFat(
+                getCursorDouble(cursor, columns, ENERGY_FROM_FAT_COLUMN_NAME));
+        nutritionRecord.setCaffeine(getCursorDouble(cursor, columns, CAFFEINE_COLUMN_NAME));
+        nutritionRecord.setDietaryFiber(
+                getCursorDouble(cursor, columns, DIETARY_FIBER_COLUMN_NAME));
+        nutritionRecord.setSelenium(getCursorDouble(cursor, columns, SELENIUM_COLUMN_NAME));
+        nutritionRecord.setVitaminB6(getCursorDouble(cursor, columns, VITAMIN_B6_COLUMN_NAME));
+        nutritionRecord.setProtein(getCursorDouble(cursor, columns, PROTEIN_COLUMN_NAME));
+        nutritionRecord.setChloride(getCursorDouble(cursor, columns, CHLORIDE_COLUMN_NAME));
+        nutritionRecord.setCholesterol(getCursorDouble(cursor, columns, CHOLESTEROL_COLUMN_NAME));
+        nutritionRecord.setCopper(getCursorDouble(cursor, columns, COPPER_COLUMN_NAME));
+        nutritionRecord.setIodine(getCursorDouble(cursor, columns, IODINE_COLUMN_NAME));
+        nutritionRecord.setVitaminB12(getCursorDouble(cursor, columns, VITAMIN_B12_COLUMN_NAME));
+        nutritionRecord.setZinc(getCursorDouble(cursor, columns, ZINC_COLUMN_NAME));
+        nutritionRecord.setRiboflavin(getCursorDouble(cursor, columns, RIBOFLAVIN_COLUMN_NAME));
+        nutritionRecord.setEnergy(getCursorDouble(cursor, columns, ENERGY_COLUMN_NAME));
+        nutritionRecord.setMolybdenum(getCursorDouble(cursor, columns, MOLYBDENUM_COLUMN_NAME));
+        nutritionRecord.setPhosphorus(getCursorDouble(cursor, columns, PHOSPHORUS_COLUMN_NAME));
+        nutritionRecord.setChromium(getCursorDouble(cursor, columns, CHROMIUM_COLUMN_NAME));
+        nutritionRecord.setTotalFat(getCursorDouble(cursor, columns, TOTAL_FAT_COLUMN_NAME));
+        nutritionRecord.setCalcium(getCursorDouble(cursor, columns, CALCIUM_COLUMN_NAME));
+        nutritionRecord.setVitaminC(getCursorDouble(cursor, columns, VITAMIN_C_COLUMN_NAME));
+        nutritionRecord.setVitaminE(getCursorDouble(cursor, columns, VITAMIN_E_COLUMN_NAME));
+        nutritionRecord.setBiotin(getCursorDouble(cursor, columns, BIOTIN_COLUMN_NAME));
+        nutritionRecord.setVitaminD(getCursorDouble(cursor, columns, VITAMIN_D_COLUMN_NAME));
+        nutritionRecord.setNiacin(getCursorDouble(cursor, columns, NIACIN_COLUMN_NAME));
+        nutritionRecord.setMagnesium(getCursorDouble(cursor, columns, MAGNESIUM_COLUMN_NAME));
         nutritionRecord.setTotalCarbohydrate(
-                getCursorDouble(cursor, TOTAL_CARBOHYDRATE_COLUMN_NAME));
-        nutritionRecord.setVitaminK(getCursorDouble(cursor, VITAMIN_K_COLUMN_NAME));
+                getCursorDouble(cursor, columns, TOTAL_CARBOHYDRATE_COLUMN_NAME));
+        nutritionRecord.setVitaminK(getCursorDouble(cursor, columns, VITAMIN_K_COLUMN_NAME));
         nutritionRecord.setPolyunsaturatedFat(
-                getCursorDouble(cursor, POLYUNSATURATED_FAT_COLUMN_NAME));
-        nutritionRecord.setSaturatedFat(getCursorDouble(cursor, SATURATED_FAT_COLUMN_NAME));
-        nutritionRecord.setSodium(getCursorDouble(cursor, SODIUM_COLUMN_NAME));
-        nutritionRecord.setFolate(getCursorDouble(cursor, FOLATE_COLUMN_NAME));
+                getCursorDouble(cursor, columns, POLYUNSATURATED_FAT_COLUMN_NAME));
+        nutritionRecord.setSaturatedFat(
+                getCursorDouble(cursor, columns, SATURATED_FAT_COLUMN_NAME));
+        nutritionRecord.setSodium(getCursorDouble(cursor, columns, SODIUM_COLUMN_NAME));
+        nutritionRecord.setFolate(getCursorDouble(cursor, columns, FOLATE_COLUMN_NAME));
         nutritionRecord.setMonounsaturatedFat(
-                getCursorDouble(cursor, MONOUNSATURATED_FAT_COLUMN_NAME));
-        nutritionRecord.setPantothenicAcid(getCursorDouble(cursor, PANTOTHENIC_ACID_COLUMN_NAME));
-        nutritionRecord.setMealName(getCursorString(cursor, MEAL_NAME_COLUMN_NAME));
-        nutritionRecord.setIron(getCursorDouble(cursor, IRON_COLUMN_NAME));
-        nutritionRecord.setVitaminA(getCursorDouble(cursor, VITAMIN_A_COLUMN_NAME));
-        nutritionRecord.setFolicAcid(getCursorDouble(cursor, FOLIC_ACID_COLUMN_NAME));
-        nutritionRecord.setSugar(getCursorDouble(cursor, SUGAR_COLUMN_NAME));
+                getCursorDouble(cursor, columns, MONOUNSATURATED_FAT_COLUMN_NAME));
+        nutritionRecord.setPantothenicAcid(
+                getCursorDouble(cursor, columns, PANTOTHENIC_ACID_COLUMN_NAME));
+        nutritionRecord.setMealName(getCursorString(cursor, columns, MEAL_NAME_COLUMN_NAME));
+        nutritionRecord.setIron(getCursorDouble(cursor, columns, IRON_COLUMN_NAME));
+        nutritionRecord.setVitaminA(getCursorDouble(cursor, columns, VITAMIN_A_COLUMN_NAME));
+        nutritionRecord.setFolicAcid(getCursorDouble(cursor, columns, FOLIC_ACID_COLUMN_NAME));
+        nutritionRecord.setSugar(getCursorDouble(cursor, columns, SUGAR_COLUMN_NAME));
     }
 
     @Override
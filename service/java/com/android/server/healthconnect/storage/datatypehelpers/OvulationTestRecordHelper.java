@@ -25,6 +25,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.OvulationTestRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -50,8 +52,10 @@ public final class OvulationTestRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull OvulationTestRecordInternal ovulationTestRecord) {
-        ovulationTestRecord.setResult(getCursorInt(cursor, RESULT_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull OvulationTestRecordInternal ovulationTestRecord) {
+        ovulationTestRecord.setResult(getCursorInt(cursor, columns, RESULT_COLUMN_NAME));
     }
 
     @Override
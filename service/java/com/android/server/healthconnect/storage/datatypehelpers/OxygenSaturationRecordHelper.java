@@ -25,6 +25,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.OxygenSaturationRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -52,8 +54,10 @@ public final class OxygenSaturationRecordHelper
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
             @NonNull OxygenSaturationRecordInternal oxygenSaturationRecord) {
-        oxygenSaturationRecord.setPercentage(getCursorDouble(cursor, PERCENTAGE_COLUMN_NAME));
+        oxygenSaturationRecord.setPercentage(
+                getCursorDouble(cursor, columns, PERCENTAGE_COLUMN_NAME));
     }
 
     @Override
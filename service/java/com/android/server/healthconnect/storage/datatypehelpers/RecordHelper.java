@@ -62,12 +62,12 @@ import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 import com.android.server.healthconnect.storage.utils.OrderByClause;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
-import java.lang.reflect.InvocationTargetException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -98,6 +98,18 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
             List.of(
                     new Pair<>(DEDUPE_HASH_COLUMN_NAME, UpsertTableRequest.TYPE_BLOB),
                     new Pair<>(UUID_COLUMN_NAME, UpsertTableRequest.TYPE_BLOB));
+    // A conflicting row is updated if it is a de-dupe conflict with a different record, or if the
+    // new client record version is not older. Versions are stored in a TEXT column.
+    private static final String UPSERT_UPDATE_CONDITION =
+            UUID_COLUMN_NAME
+                    + " != excluded."
+                    + UUID_COLUMN_NAME
+                    + " OR IFNULL(CAST(excluded."
+                    + CLIENT_RECORD_VERSION_COLUMN_NAME
+                    + " AS INTEGER), 0) >= IFNULL(CAST("
+                    + CLIENT_RECORD_VERSION_COLUMN_NAME
+                    + " AS INTEGER), 0)";
+    private static final List<String> UPSERT_COLUMNS_TO_KEEP = List.of(UUID_COLUMN_NAME);
     private static final String TAG_RECORD_HELPER = "HealthConnectRecordHelper";
     private static final int TRACE_TAG_RECORD_HELPER = TAG_RECORD_HELPER.hashCode();
     @RecordTypeIdentifier.RecordType private final int mRecordIdentifier;
@@ -134,7 +146,8 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
             long startTime,
             long endTime,
             long startDateAccess,
-            boolean useLocalTime) {
+            boolean useLocalTime,
+            boolean aggregationSourceControlsEnabled) {
         AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
         AggregateParams params = getAggregateParams(aggregationType);
         String physicalTimeColumnName = getStartTimeColumnName();
@@ -159,14 +172,14 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
             params.appendAdditionalColumns(Collections.singletonList(physicalTimeColumnName));
         }
 
+        List<Long> appInfoIdFilters = appInfoHelper.getAppInfoIds(packageFilters);
+        long callingAppInfoId = appInfoHelper.getAppInfoId(callingPackage);
         WhereClauses whereClauses = new WhereClauses(AND);
         // filters by package names
-        whereClauses.addWhereInLongsClause(
-                APP_INFO_ID_COLUMN_NAME, appInfoHelper.getAppInfoIds(packageFilters));
+        whereClauses.addWhereInLongsClause(APP_INFO_ID_COLUMN_NAME, appInfoIdFilters);
         // filter by start date access
         whereClauses.addNestedWhereClauses(
-                getFilterByStartAccessDateWhereClauses(
-                        appInfoHelper.getAppInfoId(callingPackage), startDateAccess));
+                getFilterByStartAccessDateWhereClauses(callingAppInfoId, startDateAccess));
         // start/end time filter
         whereClauses.addWhereLessThanClause(startTimeColumnName, endTime);
         if (endTimeColumnName != null) {
@@ -177,8 +190,15 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
             whereClauses.addWhereGreaterThanOrEqualClause(startTimeColumnName, startTime);
         }
 
-        return new AggregateTableRequest(params, aggregationType, this, whereClauses, useLocalTime)
-                .setTimeFilter(startTime, endTime);
+        return new AggregateTableRequest(
+                        params,
+                        aggregationType,
+                        this,
+                        whereClauses,
+                        useLocalTime,
+                        aggregationSourceControlsEnabled)
+                .setTimeFilter(startTime, endTime)
+                .setAppFilters(appInfoIdFilters, callingAppInfoId, startDateAccess);
     }
 
     /**
@@ -248,42 +268,41 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
         updateUpsertValuesIfRequired(upsertValues, extraWritePermissionToStateMap);
         UpsertTableRequest upsertTableRequest =
                 new UpsertTableRequest(getMainTableName(), upsertValues, UNIQUE_COLUMNS_INFO)
-                        .setRequiresUpdateClause(
-                                new UpsertTableRequest.IRequiresUpdate() {
+                        .setNativeUpsert(
+                                new UpsertTableRequest.INativeUpsert() {
+                                    @NonNull
                                     @Override
-                                    public boolean requiresUpdate(
-                                            Cursor cursor,
-                                            ContentValues contentValues,
-                                            UpsertTableRequest request) {
-                                        final UUID newUUID =
-                                                StorageUtils.convertBytesToUUID(
-                                                        contentValues.getAsByteArray(
-                                                                UUID_COLUMN_NAME));
-                                        final UUID oldUUID =
+                                    public String getUpdateCondition() {
+                                        return UPSERT_UPDATE_CONDITION;
+                                    }
+
+                                    @NonNull
+                                    @Override
+                                    public List<String> getColumnsToKeep() {
+                                        // On de-dupe conflicts the existing UUID is kept.
+                                        return UPSERT_COLUMNS_TO_KEEP;
+                                    }
+
+                                    @Override
+                                    public void onUpserted(
+                                            @NonNull Cursor cursor,
+                                            @NonNull UpsertTableRequest request) {
+                                        final UUID storedUUID =
                                                 StorageUtils.getCursorUUID(
                                                         cursor, UUID_COLUMN_NAME);
-
-                                        if (!Objects.equals(newUUID, oldUUID)) {
-                                            // Use old UUID in case of conflicts on de-dupe.
-                                            contentValues.put(
-                                                    UUID_COLUMN_NAME,
-                                                    StorageUtils.convertUUIDToBytes(oldUUID));
-                                            request.getRecordInternal().setUuid(oldUUID);
-                                            // This means there was a duplication conflict, we want
-                                            // to update in this case.
-                                            return true;
+                                        if (!Objects.equals(
+                                                storedUUID,
+                                                request.getRecordInternal().getUuid())) {
+                                            request.getContentValues()
+                                                    .put(
+                                                            UUID_COLUMN_NAME,
+                                                            StorageUtils.convertUUIDToBytes(
+                                                                    storedUUID));
+                                            request.getRecordInternal().setUuid(storedUUID);
                                         }
-
-                                        long clientRecordVersion =
-                                                StorageUtils.getCursorLong(
-                                                        cursor, CLIENT_RECORD_VERSION_COLUMN_NAME);
-                                        long newClientRecordVersion =
-                                                contentValues.getAsLong(
-                                                        CLIENT_RECORD_VERSION_COLUMN_NAME);
-
-                                        return newClientRecordVersion >= clientRecordVersion;
                                     }
                                 })
+                        .setUpdateChildTablesOnlyIfChanged(shouldUpdateChildTablesOnlyIfChanged())
                         .setChildTableRequests(getChildTableUpsertRequests((T) recordInternal))
                         .setHelper(this)
                         .setExtraWritePermissionsStateMapping(extraWritePermissionToStateMap);
@@ -291,6 +310,14 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
         return upsertTableRequest;
     }
 
+    /**
+     * Returns whether the child table entries of an updated record should only be replaced when
+     * they changed.
+     */
+    boolean shouldUpdateChildTablesOnlyIfChanged() {
+        return false;
+    }
+
     /* Updates upsert content values based on extra permissions state. */
     protected void updateUpsertValuesIfRequired(
             @NonNull ContentValues values,
@@ -448,8 +475,9 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
         Trace.traceBegin(TRACE_TAG_RECORD_HELPER, TAG_RECORD_HELPER.concat("GetInternalRecords"));
 
         List<RecordInternal<?>> recordInternalList = new ArrayList<>();
+        ColumnIndexCache columns = new ColumnIndexCache(cursor);
         while (cursor.moveToNext()) {
-            recordInternalList.add(getRecord(cursor, /* packageNamesByAppIds= */ null));
+            recordInternalList.add(getRecord(cursor, columns, /* packageNamesByAppIds= */ null));
         }
 
         Trace.traceEnd(TRACE_TAG_RECORD_HELPER);
@@ -499,6 +527,8 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
                 TRACE_TAG_RECORD_HELPER,
                 TAG_RECORD_HELPER.concat("getNextInternalRecordsPageAndToken"));
 
+        ColumnIndexCache columns = new ColumnIndexCache(cursor);
+
         // Ignore <offset> records of the same start time, because it was returned in previous
         // page(s).
         // If the offset is greater than number of records in the cursor, it'll move to the last
@@ -510,7 +540,7 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
                 break;
             }
             prevStartTime = currentStartTime;
-            currentStartTime = getCursorLong(cursor, getStartTimeColumnName());
+            currentStartTime = getCursorLong(cursor, columns, getStartTimeColumnName());
             if (prevStartTime != DEFAULT_LONG && prevStartTime != currentStartTime) {
                 // The current record should not be skipped
                 cursor.moveToPrevious();
@@ -524,7 +554,7 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
         PageTokenWrapper nextPageToken = EMPTY_PAGE_TOKEN;
         while (cursor.moveToNext()) {
             prevStartTime = currentStartTime;
-            currentStartTime = getCursorLong(cursor, getStartTimeColumnName());
+            currentStartTime = getCursorLong(cursor, columns, getStartTimeColumnName());
             if (currentStartTime != prevStartTime) {
                 offset = 0;
             }
@@ -534,7 +564,7 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
                         PageTokenWrapper.of(prevPageToken.isAscending(), currentStartTime, offset);
                 break;
             } else {
-                T record = getRecord(cursor, packageNamesByAppIds);
+                T record = getRecord(cursor, columns, packageNamesByAppIds);
                 recordInternalList.add(record);
                 offset++;
             }
@@ -545,39 +575,29 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
     }
 
     @SuppressWarnings("unchecked") // uncheck cast to T
-    private T getRecord(Cursor cursor, @Nullable Map<Long, String> packageNamesByAppIds) {
-        try {
-            @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
-            T record =
-                    (T)
-                            RecordMapper.getInstance()
-                                    .getRecordIdToInternalRecordClassMap()
-                                    .get(getRecordIdentifier())
-                                    .getConstructor()
-                                    .newInstance();
-            record.setUuid(getCursorUUID(cursor, UUID_COLUMN_NAME));
-            record.setLastModifiedTime(getCursorLong(cursor, LAST_MODIFIED_TIME_COLUMN_NAME));
-            record.setClientRecordId(getCursorString(cursor, CLIENT_RECORD_ID_COLUMN_NAME));
-            record.setClientRecordVersion(getCursorLong(cursor, CLIENT_RECORD_VERSION_COLUMN_NAME));
-            record.setRecordingMethod(getCursorInt(cursor, RECORDING_METHOD_COLUMN_NAME));
-            record.setRowId(getCursorInt(cursor, PRIMARY_COLUMN_NAME));
-            long deviceInfoId = getCursorLong(cursor, DEVICE_INFO_ID_COLUMN_NAME);
-            DeviceInfoHelper.getInstance().populateRecordWithValue(deviceInfoId, record);
-            long appInfoId = getCursorLong(cursor, APP_INFO_ID_COLUMN_NAME);
-            String packageName =
-                    packageNamesByAppIds != null
-                            ? packageNamesByAppIds.get(appInfoId)
-                            : AppInfoHelper.getInstance().getPackageName(appInfoId);
-            record.setPackageName(packageName);
-            populateRecordValue(cursor, record);
-
-            return record;
-        } catch (InstantiationException
-                | IllegalAccessException
-                | NoSuchMethodException
-                | InvocationTargetException exception) {
-            throw new IllegalArgumentException(exception);
-        }
+    private T getRecord(
+            Cursor cursor,
+            ColumnIndexCache columns,
+            @Nullable Map<Long, String> packageNamesByAppIds) {
+        T record = (T) RecordMapper.getInstance().newInternalRecord(getRecordIdentifier());
+        record.setUuid(getCursorUUID(cursor, columns, UUID_COLUMN_NAME));
+        record.setLastModifiedTime(getCursorLong(cursor, columns, LAST_MODIFIED_TIME_COLUMN_NAME));
+        record.setClientRecordId(getCursorString(cursor, columns, CLIENT_RECORD_ID_COLUMN_NAME));
+        record.setClientRecordVersion(
+                getCursorLong(cursor, columns, CLIENT_RECORD_VERSION_COLUMN_NAME));
+        record.setRecordingMethod(getCursorInt(cursor, columns, RECORDING_METHOD_COLUMN_NAME));
+        record.setRowId(getCursorInt(cursor, columns, PRIMARY_COLUMN_NAME));
+        long deviceInfoId = getCursorLong(cursor, columns, DEVICE_INFO_ID_COLUMN_NAME);
+        DeviceInfoHelper.getInstance().populateRecordWithValue(deviceInfoId, record);
+        long appInfoId = getCursorLong(cursor, columns, APP_INFO_ID_COLUMN_NAME);
+        String packageName =
+                packageNamesByAppIds != null
+                        ? packageNamesByAppIds.get(appInfoId)
+                        : AppInfoHelper.getInstance().getPackageName(appInfoId);
+        record.setPackageName(packageName);
+        populateRecordValue(cursor, columns, record);
+
+        return record;
     }
 
     /** Returns is the read of this record type is enabled */
@@ -674,9 +694,11 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
 
     /**
      * Child classes implementation should populate the values to the {@code record} using the
-     * cursor {@code cursor} queried from the DB .
+     * cursor {@code cursor} queried from the DB . Columns should be read through {@code columns},
+     * which caches column indexes of the cursor.
      */
-    abstract void populateRecordValue(@NonNull Cursor cursor, @NonNull T recordInternal);
+    abstract void populateRecordValue(
+            @NonNull Cursor cursor, @NonNull ColumnIndexCache columns, @NonNull T recordInternal);
 
     List<UpsertTableRequest> getChildTableUpsertRequests(T record) {
         return Collections.emptyList();
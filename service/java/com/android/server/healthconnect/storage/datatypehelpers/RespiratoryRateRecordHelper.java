@@ -25,6 +25,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.RespiratoryRateRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -51,8 +53,10 @@ public final class RespiratoryRateRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull RespiratoryRateRecordInternal respiratoryRateRecord) {
-        respiratoryRateRecord.setRate(getCursorDouble(cursor, RATE_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull RespiratoryRateRecordInternal respiratoryRateRecord) {
+        respiratoryRateRecord.setRate(getCursorDouble(cursor, columns, RATE_COLUMN_NAME));
     }
 
     @Override
@@ -32,6 +32,7 @@ import android.health.connect.internal.datatypes.RestingHeartRateRecordInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -95,9 +96,10 @@ public final class RestingHeartRateRecordHelper
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
             @NonNull RestingHeartRateRecordInternal restingHeartRateRecord) {
         restingHeartRateRecord.setBeatsPerMinute(
-                getCursorInt(cursor, BEATS_PER_MINUTE_COLUMN_NAME));
+                getCursorInt(cursor, columns, BEATS_PER_MINUTE_COLUMN_NAME));
     }
 
     @Override
@@ -17,29 +17,67 @@
 package com.android.server.healthconnect.storage.datatypehelpers;
 
 import static android.health.connect.Constants.PARENT_KEY;
+import static android.health.connect.datatypes.AggregationType.AVG;
+import static android.health.connect.datatypes.AggregationType.COUNT;
+import static android.health.connect.datatypes.AggregationType.MAX;
+import static android.health.connect.datatypes.AggregationType.MIN;
 
+import static com.android.server.healthconnect.storage.utils.StorageUtils.BLOB;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.REAL;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorBlob;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorDouble;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.isNullValue;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.health.connect.datatypes.AggregationType;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.SeriesRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.request.AlterTableRequest;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+import com.android.server.healthconnect.storage.utils.PackedSeriesSamples;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 
-/** @hide */
-abstract class SeriesRecordHelper<
+/**
+ * Parent class for the helpers of series records.
+ *
+ * <p>Samples are stored either as one row per sample in the series table, or, if packed samples are
+ * enabled, as a single {@link PackedSeriesSamples} blob in the main table. Both forms can be
+ * present at the same time, as records are only repacked when they are updated. The count, min, max
+ * and sum of the sample values of each record are kept in the main table in either case, so that
+ * aggregations don't need to read individual samples.
+ *
+ * @hide
+ */
+public abstract class SeriesRecordHelper<
                 T extends SeriesRecordInternal<?, ?>, U extends SeriesRecordInternal.Sample>
         extends IntervalRecordHelper<T> {
     protected static final String PARENT_KEY_COLUMN_NAME = PARENT_KEY;
+    protected static final String EPOCH_MILLIS_COLUMN_NAME = "epoch_millis";
+    private static final String PACKED_SAMPLES_COLUMN_NAME = "packed_samples";
+    private static final String SAMPLE_COUNT_COLUMN_NAME = "sample_count";
+    private static final String SAMPLE_MIN_COLUMN_NAME = "sample_min";
+    private static final String SAMPLE_MAX_COLUMN_NAME = "sample_max";
+    private static final String SAMPLE_SUM_COLUMN_NAME = "sample_sum";
+
+    private static volatile boolean sPackedSamplesEnabled;
 
     SeriesRecordHelper(@RecordTypeIdentifier.RecordType int recordIdentifier) {
         super(recordIdentifier);
@@ -58,6 +96,10 @@ abstract class SeriesRecordHelper<
     @Override
     @SuppressWarnings("unchecked")
     final List<UpsertTableRequest> getChildTableUpsertRequests(@NonNull T record) {
+        if (sPackedSamplesEnabled) {
+            // Samples are stored in the main table, see populateSpecificContentValues.
+            return Collections.emptyList();
+        }
         List<? extends SeriesRecordInternal.Sample> samples = record.getSamples().stream().toList();
         List<UpsertTableRequest> requests = new ArrayList<>(samples.size());
         samples.forEach(
@@ -72,37 +114,196 @@ abstract class SeriesRecordHelper<
         return requests;
     }
 
-    /** Returns the INNER JOIN clause for querying from the table for series datatype */
+    /** Re-syncs mostly send the same samples again, which don't need to be rewritten. */
+    @Override
+    final boolean shouldUpdateChildTablesOnlyIfChanged() {
+        return true;
+    }
+
+    /**
+     * Returns the LEFT JOIN clause for querying from the table for series datatype, as records with
+     * packed samples have no rows in the series table.
+     */
     @Override
     final SqlJoin getJoinForReadRequest() {
         return new SqlJoin(
-                getMainTableName(),
-                getSeriesDataTableName(),
-                PRIMARY_COLUMN_NAME,
-                PARENT_KEY_COLUMN_NAME);
+                        getMainTableName(),
+                        getSeriesDataTableName(),
+                        PRIMARY_COLUMN_NAME,
+                        PARENT_KEY_COLUMN_NAME)
+                .setJoinType(SqlJoin.SQL_JOIN_LEFT);
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     final void populateSpecificContentValues(
             @NonNull ContentValues contentValues, @NonNull T record) {
-        // Empty as we don't want to populate any additional in the main table.
+        List<U> samples = new ArrayList<>((Set<U>) record.getSamples());
+        samples.sort(Comparator.comparingLong(this::getSampleEpochMillis));
+        int count = samples.size();
+        long[] epochMillis = new long[count];
+        double[] values = new double[count];
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            epochMillis[i] = getSampleEpochMillis(samples.get(i));
+            values[i] = getSampleValue(samples.get(i));
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+            sum += values[i];
+        }
+
+        contentValues.put(SAMPLE_COUNT_COLUMN_NAME, count);
+        contentValues.put(SAMPLE_SUM_COLUMN_NAME, sum);
+        if (count > 0) {
+            contentValues.put(SAMPLE_MIN_COLUMN_NAME, min);
+            contentValues.put(SAMPLE_MAX_COLUMN_NAME, max);
+        } else {
+            contentValues.putNull(SAMPLE_MIN_COLUMN_NAME);
+            contentValues.putNull(SAMPLE_MAX_COLUMN_NAME);
+        }
+        if (sPackedSamplesEnabled) {
+            contentValues.put(
+                    PACKED_SAMPLES_COLUMN_NAME,
+                    PackedSeriesSamples.encode(epochMillis, values, count));
+        } else {
+            // Clears samples packed by a previous write, they are stored in the series table now.
+            contentValues.putNull(PACKED_SAMPLES_COLUMN_NAME);
+        }
     }
 
-    /** Populates record with datatype specific details */
+    /**
+     * Populates record with datatype specific details.
+     *
+     * <p>Samples are read into primitive arrays backing the record, rather than into sample
+     * objects, so reading a page of records allocates a few objects per record however many samples
+     * they have.
+     */
     @Override
-    final void populateSpecificRecordValue(@NonNull Cursor cursor, @NonNull T record) {
-        populateSpecificValues(cursor, record);
+    final void populateSpecificRecordValue(
+            @NonNull Cursor cursor, @NonNull ColumnIndexCache columns, @NonNull T record) {
+        byte[] packedSamples = getPackedSamples(cursor, columns);
+        if (packedSamples != null) {
+            int count = PackedSeriesSamples.getSampleCount(packedSamples);
+            long[] epochMillis = new long[count];
+            double[] values = new double[count];
+            PackedSeriesSamples.decode(packedSamples, epochMillis, values);
+            record.setSamples(epochMillis, values, count);
+            return;
+        }
+        if (isNullValue(cursor, columns, PARENT_KEY_COLUMN_NAME)) {
+            // The record has no samples, so the left join gave it a single row without a sample.
+            record.setSamples(new long[0], new double[0], 0);
+            return;
+        }
+
+        // The sample count stored with the record sizes the arrays right in most cases.
+        int sampleCountIndex = columns.get(SAMPLE_COUNT_COLUMN_NAME);
+        int capacity = sampleCountIndex == -1 ? 1 : Math.max(cursor.getInt(sampleCountIndex), 1);
+        long[] epochMillis = new long[capacity];
+        double[] values = new double[capacity];
+        int count = 0;
+        String valueColumnName = getSampleValueColumnName();
+        long parentKey = getCursorLong(cursor, columns, PARENT_KEY_COLUMN_NAME);
+        do {
+            if (count == epochMillis.length) {
+                epochMillis = Arrays.copyOf(epochMillis, 2 * count);
+                values = Arrays.copyOf(values, 2 * count);
+            }
+            epochMillis[count] = getCursorLong(cursor, columns, EPOCH_MILLIS_COLUMN_NAME);
+            values[count] = getCursorDouble(cursor, columns, valueColumnName);
+            count++;
+        } while (cursor.moveToNext()
+                && getCursorLong(cursor, columns, PARENT_KEY_COLUMN_NAME) == parentKey);
+        // In case we hit another record, move the cursor back to read next record in outer
+        // RecordHelper#getInternalRecords loop.
+        cursor.moveToPrevious();
+        record.setSamples(epochMillis, values, count);
     }
 
     /**
-     * A typical series data type should not use the main table to store any of its data, and should
-     * instead implement get addition table related functions. Hence, an empty final function
+     * Series data is stored in the series table, or packed into the main table. The main table also
+     * keeps a summary of the sample values used by aggregations.
      */
     @NonNull
     final List<Pair<String, String>> getIntervalRecordColumnInfo() {
-        // We don't want to populate anything additional in the main table. Series data types use
-        // additional table to store all the data.
-        return Collections.emptyList();
+        return getPackedSamplesColumnInfo();
+    }
+
+    /**
+     * Adds the packed samples and summary columns to the main table, and computes the summaries of
+     * the existing records from their samples in the series table.
+     */
+    public final void applyPackedSamplesUpgrade(@NonNull SQLiteDatabase db) {
+        // SQLite can only add one column per statement.
+        for (Pair<String, String> columnInfo : getPackedSamplesColumnInfo()) {
+            db.execSQL(
+                    new AlterTableRequest(getMainTableName(), List.of(columnInfo))
+                            .getAlterTableAddColumnsCommand());
+        }
+
+        // Records without samples have no rows in the series table, and are not updated below.
+        db.execSQL(
+                "UPDATE "
+                        + getMainTableName()
+                        + " SET "
+                        + SAMPLE_COUNT_COLUMN_NAME
+                        + " = 0, "
+                        + SAMPLE_SUM_COLUMN_NAME
+                        + " = 0");
+        // Summarises the series table in a single pass, rather than a lookup per record.
+        db.execSQL(
+                "UPDATE "
+                        + getMainTableName()
+                        + " SET "
+                        + SAMPLE_COUNT_COLUMN_NAME
+                        + " = summary.sample_count, "
+                        + SAMPLE_MIN_COLUMN_NAME
+                        + " = summary.sample_min, "
+                        + SAMPLE_MAX_COLUMN_NAME
+                        + " = summary.sample_max, "
+                        + SAMPLE_SUM_COLUMN_NAME
+                        + " = summary.sample_sum FROM "
+                        + getSeriesTableSummaryQuery()
+                        + " AS summary WHERE "
+                        + getMainTableName()
+                        + "."
+                        + PRIMARY_COLUMN_NAME
+                        + " = summary."
+                        + PARENT_KEY_COLUMN_NAME);
+    }
+
+    /** Sets whether samples of new or updated records are packed into the main table. */
+    public static void setPackedSamplesEnabled(boolean enabled) {
+        sPackedSamplesEnabled = enabled;
+    }
+
+    /**
+     * Returns the params to aggregate sample values with the operation of {@code aggregationType},
+     * computed from the per record summaries in the main table. The result is returned under the
+     * name of the sample value column.
+     */
+    @NonNull
+    final AggregateParams getSampleAggregateParams(@NonNull AggregationType<?> aggregationType) {
+        String aggregateExpression =
+                switch (aggregationType.getAggregateOperationType()) {
+                    case MIN -> "MIN(" + SAMPLE_MIN_COLUMN_NAME + ")";
+                    case MAX -> "MAX(" + SAMPLE_MAX_COLUMN_NAME + ")";
+                    case AVG ->
+                            "SUM("
+                                    + SAMPLE_SUM_COLUMN_NAME
+                                    + ") / SUM("
+                                    + SAMPLE_COUNT_COLUMN_NAME
+                                    + ")";
+                    case COUNT -> "SUM(" + SAMPLE_COUNT_COLUMN_NAME + ")";
+                    default ->
+                            throw new IllegalArgumentException(
+                                    "Unsupported aggregation: " + aggregationType);
+                };
+        return new AggregateParams(
+                        getMainTableName(), Collections.singletonList(getSampleValueColumnName()))
+                .setAggregateExpression(aggregateExpression);
     }
 
     /**
@@ -115,12 +316,17 @@ abstract class SeriesRecordHelper<
     @NonNull
     abstract String getSeriesDataTableName();
 
-    /** Populates the {@code record} with values specific to dataytpe */
-    abstract void populateSpecificValues(@NonNull Cursor cursor, T record);
-
     /** Puts the {@code sample} to the {@code contentValues} */
     abstract void populateSampleTo(@NonNull ContentValues contentValues, @NonNull U sample);
 
+    /** Returns the name of the column of the series table storing the sample values. */
+    @NonNull
+    abstract String getSampleValueColumnName();
+
+    abstract long getSampleEpochMillis(@NonNull U sample);
+
+    abstract double getSampleValue(@NonNull U sample);
+
     @NonNull
     private List<Pair<String, String>> getSeriesTableColumnInfo() {
         ArrayList<Pair<String, String>> columnInfo = new ArrayList<>();
@@ -129,4 +335,43 @@ abstract class SeriesRecordHelper<
 
         return columnInfo;
     }
+
+    @NonNull
+    private static List<Pair<String, String>> getPackedSamplesColumnInfo() {
+        return List.of(
+                new Pair<>(PACKED_SAMPLES_COLUMN_NAME, BLOB),
+                new Pair<>(SAMPLE_COUNT_COLUMN_NAME, INTEGER),
+                new Pair<>(SAMPLE_MIN_COLUMN_NAME, REAL),
+                new Pair<>(SAMPLE_MAX_COLUMN_NAME, REAL),
+                new Pair<>(SAMPLE_SUM_COLUMN_NAME, REAL));
+    }
+
+    /** Returns the query computing the sample summary of each record in the series table. */
+    @NonNull
+    private String getSeriesTableSummaryQuery() {
+        String valueColumnName = getSampleValueColumnName();
+        return "(SELECT "
+                + PARENT_KEY_COLUMN_NAME
+                + ", COUNT(*) AS sample_count, MIN("
+                + valueColumnName
+                + ") AS sample_min, MAX("
+                + valueColumnName
+                + ") AS sample_max, TOTAL("
+                + valueColumnName
+                + ") AS sample_sum FROM "
+                + getSeriesDataTableName()
+                + " GROUP BY "
+                + PARENT_KEY_COLUMN_NAME
+                + ")";
+    }
+
+    @Nullable
+    private static byte[] getPackedSamples(
+            @NonNull Cursor cursor, @NonNull ColumnIndexCache columns) {
+        int index = columns.get(PACKED_SAMPLES_COLUMN_NAME);
+        if (index == -1 || cursor.isNull(index)) {
+            return null;
+        }
+        return getCursorBlob(cursor, columns, PACKED_SAMPLES_COLUMN_NAME);
+    }
 }
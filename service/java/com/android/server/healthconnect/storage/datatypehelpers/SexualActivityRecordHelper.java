@@ -25,6 +25,8 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.SexualActivityRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -50,8 +52,11 @@ public final class SexualActivityRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull SexualActivityRecordInternal sexualActivityRecord) {
-        sexualActivityRecord.setProtectionUsed(getCursorInt(cursor, PROTECTION_USED_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull SexualActivityRecordInternal sexualActivityRecord) {
+        sexualActivityRecord.setProtectionUsed(
+                getCursorInt(cursor, columns, PROTECTION_USED_COLUMN_NAME));
     }
 
     @Override
@@ -46,6 +46,7 @@ import androidx.annotation.NonNull;
 import com.android.server.healthconnect.storage.request.AggregateParams;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.HashSet;
@@ -125,23 +126,26 @@ public final class SkinTemperatureRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull SkinTemperatureRecordInternal recordInternal) {
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull SkinTemperatureRecordInternal recordInternal) {
         int measurementLocation =
-                getCursorInt(cursor, SKIN_TEMPERATURE_MEASUREMENT_LOCATION_COLUMN_NAME);
-        double baseline = getCursorDouble(cursor, SKIN_TEMPERATURE_BASELINE_COLUMN_NAME);
+                getCursorInt(cursor, columns, SKIN_TEMPERATURE_MEASUREMENT_LOCATION_COLUMN_NAME);
+        double baseline = getCursorDouble(cursor, columns, SKIN_TEMPERATURE_BASELINE_COLUMN_NAME);
 
         recordInternal.setMeasurementLocation(measurementLocation);
         recordInternal.setBaseline(Temperature.fromCelsius(baseline));
 
         HashSet<SkinTemperatureRecordInternal.SkinTemperatureDeltaSample>
                 skinTemperatureDeltaSamples = new HashSet<>();
-        UUID uuid = getCursorUUID(cursor, UUID_COLUMN_NAME);
+        UUID uuid = getCursorUUID(cursor, columns, UUID_COLUMN_NAME);
         do {
             skinTemperatureDeltaSamples.add(
                     new SkinTemperatureRecordInternal.SkinTemperatureDeltaSample(
-                            getCursorDouble(cursor, SKIN_TEMPERATURE_DELTA_COLUMN_NAME),
-                            getCursorLong(cursor, EPOCH_MILLIS_COLUMN_NAME)));
-        } while (cursor.moveToNext() && uuid.equals(getCursorUUID(cursor, UUID_COLUMN_NAME)));
+                            getCursorDouble(cursor, columns, SKIN_TEMPERATURE_DELTA_COLUMN_NAME),
+                            getCursorLong(cursor, columns, EPOCH_MILLIS_COLUMN_NAME)));
+        } while (cursor.moveToNext()
+                && uuid.equals(getCursorUUID(cursor, columns, UUID_COLUMN_NAME)));
         // In case we hit another record, move the cursor back to read next record in outer
         // RecordHelper#getInternalRecords loop.
         cursor.moveToPrevious();
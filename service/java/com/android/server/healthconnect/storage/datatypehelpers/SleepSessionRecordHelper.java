@@ -36,6 +36,7 @@ import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
 import com.android.server.healthconnect.storage.request.AggregateParams;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
@@ -91,16 +92,19 @@ public final class SleepSessionRecordHelper
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull SleepSessionRecordInternal sleepSessionRecord) {
-        UUID uuid = getCursorUUID(cursor, UUID_COLUMN_NAME);
-        sleepSessionRecord.setNotes(getCursorString(cursor, NOTES_COLUMN_NAME));
-        sleepSessionRecord.setTitle(getCursorString(cursor, TITLE_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull SleepSessionRecordInternal sleepSessionRecord) {
+        UUID uuid = getCursorUUID(cursor, columns, UUID_COLUMN_NAME);
+        sleepSessionRecord.setNotes(getCursorString(cursor, columns, NOTES_COLUMN_NAME));
+        sleepSessionRecord.setTitle(getCursorString(cursor, columns, TITLE_COLUMN_NAME));
 
         do {
             // Populate stages from each row.
             sleepSessionRecord.addSleepStage(
-                    SleepStageRecordHelper.populateStageIfRecorded(cursor));
-        } while (cursor.moveToNext() && uuid.equals(getCursorUUID(cursor, UUID_COLUMN_NAME)));
+                    SleepStageRecordHelper.populateStageIfRecorded(cursor, columns));
+        } while (cursor.moveToNext()
+                && uuid.equals(getCursorUUID(cursor, columns, UUID_COLUMN_NAME)));
         // In case we hit another record, move the cursor back to read next record in outer
         // RecordHelper#getInternalRecords loop.
         cursor.moveToPrevious();
@@ -36,6 +36,7 @@ import androidx.annotation.Nullable;
 
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
@@ -93,15 +94,16 @@ public final class SleepStageRecordHelper {
     }
 
     @Nullable
-    static SleepStageInternal populateStageIfRecorded(@NonNull Cursor cursor) {
-        if (isNullValue(cursor, SLEEP_STAGE_START_TIME)) {
+    static SleepStageInternal populateStageIfRecorded(
+            @NonNull Cursor cursor, @NonNull ColumnIndexCache columns) {
+        if (isNullValue(cursor, columns, SLEEP_STAGE_START_TIME)) {
             return null;
         }
 
         return new SleepStageInternal()
-                .setStartTime(getCursorLong(cursor, SLEEP_STAGE_START_TIME))
-                .setEndTime(getCursorLong(cursor, SLEEP_STAGE_END_TIME))
-                .setStageType(getCursorInt(cursor, SLEEP_STAGE_TYPE));
+                .setStartTime(getCursorLong(cursor, columns, SLEEP_STAGE_START_TIME))
+                .setEndTime(getCursorLong(cursor, columns, SLEEP_STAGE_END_TIME))
+                .setStageType(getCursorInt(cursor, columns, SLEEP_STAGE_TYPE));
     }
 
     static void populateStageTo(ContentValues contentValues, SleepStageInternal stage) {
@@ -22,11 +22,7 @@ import static android.health.connect.datatypes.AggregationType.AggregationTypeId
 
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.REAL;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorDouble;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 
-import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.health.connect.AggregateResult;
@@ -37,13 +33,9 @@ import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.healthconnect.storage.request.AggregateParams;
-import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * Helper class for SpeedRecord.
@@ -57,7 +49,6 @@ public class SpeedRecordHelper
     public static final int NUM_LOCAL_COLUMNS = 1;
     private static final String SERIES_TABLE_NAME = "speed_record_table";
     private static final String SPEED_COLUMN_NAME = "speed";
-    private static final String EPOCH_MILLIS_COLUMN_NAME = "epoch_millis";
 
     public SpeedRecordHelper() {
         super(RecordTypeIdentifier.RECORD_TYPE_SPEED);
@@ -81,24 +72,6 @@ public class SpeedRecordHelper
         return SERIES_TABLE_NAME;
     }
 
-    /** Populates the {@code record} with values specific to datatype */
-    @Override
-    void populateSpecificValues(@NonNull Cursor seriesTableCursor, SpeedRecordInternal record) {
-        HashSet<SpeedRecordInternal.SpeedRecordSample> speedRecordSampleSet = new HashSet<>();
-        UUID uuid = getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME);
-        do {
-            speedRecordSampleSet.add(
-                    new SpeedRecordInternal.SpeedRecordSample(
-                            getCursorDouble(seriesTableCursor, SPEED_COLUMN_NAME),
-                            getCursorLong(seriesTableCursor, EPOCH_MILLIS_COLUMN_NAME)));
-        } while (seriesTableCursor.moveToNext()
-                && uuid.equals(getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME)));
-        // In case we hit another record, move the cursor back to read next record in outer
-        // RecordHelper#getInternalRecords loop.
-        seriesTableCursor.moveToPrevious();
-        record.setSamples(speedRecordSampleSet);
-    }
-
     @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
     @Override
     public AggregateResult<?> getAggregateResult(
@@ -122,14 +95,7 @@ public class SpeedRecordHelper
             case SPEED_RECORD_SPEED_MAX:
             case SPEED_RECORD_SPEED_MIN:
             case SPEED_RECORD_SPEED_AVG:
-                return new AggregateParams(
-                                SERIES_TABLE_NAME, Collections.singletonList(SPEED_COLUMN_NAME))
-                        .setJoin(
-                                new SqlJoin(
-                                        SERIES_TABLE_NAME,
-                                        TABLE_NAME,
-                                        PARENT_KEY_COLUMN_NAME,
-                                        PRIMARY_COLUMN_NAME));
+                return getSampleAggregateParams(aggregateRequest);
             default:
                 return null;
         }
@@ -141,4 +107,19 @@ public class SpeedRecordHelper
         contentValues.put(SPEED_COLUMN_NAME, speedRecord.getSpeed());
         contentValues.put(EPOCH_MILLIS_COLUMN_NAME, speedRecord.getEpochMillis());
     }
+
+    @Override
+    String getSampleValueColumnName() {
+        return SPEED_COLUMN_NAME;
+    }
+
+    @Override
+    long getSampleEpochMillis(SpeedRecordInternal.SpeedRecordSample sample) {
+        return sample.getEpochMillis();
+    }
+
+    @Override
+    double getSampleValue(SpeedRecordInternal.SpeedRecordSample sample) {
+        return sample.getSpeed();
+    }
 }
@@ -30,6 +30,7 @@ import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -72,8 +73,10 @@ public final class StepsRecordHelper extends IntervalRecordHelper<StepsRecordInt
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull StepsRecordInternal recordInternal) {
-        recordInternal.setCount(getCursorInt(cursor, COUNT_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull StepsRecordInternal recordInternal) {
+        recordInternal.setCount(getCursorInt(cursor, columns, COUNT_COLUMN_NAME));
     }
 
     @Override
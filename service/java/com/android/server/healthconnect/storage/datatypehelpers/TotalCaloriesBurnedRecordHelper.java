@@ -33,9 +33,9 @@ import android.util.Pair;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.healthconnect.storage.request.AggregateParams;
 import com.android.server.healthconnect.storage.request.AggregateTableRequest;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 
-import java.time.Instant;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -96,8 +96,9 @@ public final class TotalCaloriesBurnedRecordHelper
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
             @NonNull TotalCaloriesBurnedRecordInternal totalCaloriesBurnedRecord) {
-        totalCaloriesBurnedRecord.setEnergy(getCursorDouble(cursor, ENERGY_COLUMN_NAME));
+        totalCaloriesBurnedRecord.setEnergy(getCursorDouble(cursor, columns, ENERGY_COLUMN_NAME));
     }
 
     @Override
@@ -113,13 +114,15 @@ public final class TotalCaloriesBurnedRecordHelper
                         priorityList,
                         ENERGY_COLUMN_NAME,
                         Double.class,
-                        request.getUseLocalTime());
+                        request.getUseLocalTime(),
+                        request.isAggregationSourceControlsEnabled());
         DeriveTotalCaloriesBurnedHelper deriveTotalCaloriesBurnedHelper =
                 new DeriveTotalCaloriesBurnedHelper(
                         groupIntervals.get(0).first,
                         groupIntervals.get(groupIntervals.size() - 1).second,
                         priorityList,
-                        request.getUseLocalTime());
+                        request.getUseLocalTime(),
+                        request.isAggregationSourceControlsEnabled());
         double[] totalCaloriesBurnedArray = new double[groupIntervals.size()];
         for (Pair<Long, Long> groupInterval : groupIntervals) {
             long groupStartTime = groupInterval.first;
@@ -129,12 +132,9 @@ public final class TotalCaloriesBurnedRecordHelper
             double total = mergeDataHelper.readCursor(groupStartTime, groupEndTime);
             // For only TotalCaloriesBurned aggregate request we derive data from
             // ActiveCaloriesRecord and BasalMetabolicRateRecord for empty intervals
-            List<Pair<Instant, Instant>> emptyIntervalList =
-                    mergeDataHelper.getEmptyIntervals(
-                            Instant.ofEpochMilli(groupStartTime),
-                            Instant.ofEpochMilli(groupEndTime));
-            if (emptyIntervalList.size() > 0) {
-                total += deriveTotalCaloriesBurnedHelper.getDerivedCalories(emptyIntervalList);
+            long[] emptyIntervals = mergeDataHelper.getEmptyIntervals(groupStartTime, groupEndTime);
+            if (emptyIntervals.length > 0) {
+                total += deriveTotalCaloriesBurnedHelper.getDerivedCalories(emptyIntervals);
             }
 
             totalCaloriesBurnedArray[index++] = total;
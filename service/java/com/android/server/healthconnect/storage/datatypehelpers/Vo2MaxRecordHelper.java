@@ -28,6 +28,7 @@ import android.health.connect.internal.datatypes.Vo2MaxRecordInternal;
 import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.Arrays;
 import java.util.List;
@@ -58,10 +59,13 @@ public final class Vo2MaxRecordHelper extends InstantRecordHelper<Vo2MaxRecordIn
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull Vo2MaxRecordInternal vo2MaxRecord) {
-        vo2MaxRecord.setMeasurementMethod(getCursorInt(cursor, MEASUREMENT_METHOD_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull Vo2MaxRecordInternal vo2MaxRecord) {
+        vo2MaxRecord.setMeasurementMethod(
+                getCursorInt(cursor, columns, MEASUREMENT_METHOD_COLUMN_NAME));
         vo2MaxRecord.setVo2MillilitersPerMinuteKilogram(
-                getCursorDouble(cursor, VO2_MILLILITERS_PER_MINUTE_KILOGRAM_COLUMN_NAME));
+                getCursorDouble(cursor, columns, VO2_MILLILITERS_PER_MINUTE_KILOGRAM_COLUMN_NAME));
     }
 
     @Override
@@ -32,6 +32,7 @@ import android.health.connect.internal.datatypes.WeightRecordInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -91,8 +92,10 @@ public final class WeightRecordHelper extends InstantRecordHelper<WeightRecordIn
 
     @Override
     void populateSpecificRecordValue(
-            @NonNull Cursor cursor, @NonNull WeightRecordInternal weightRecord) {
-        weightRecord.setWeight(getCursorDouble(cursor, WEIGHT_COLUMN_NAME));
+            @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
+            @NonNull WeightRecordInternal weightRecord) {
+        weightRecord.setWeight(getCursorDouble(cursor, columns, WEIGHT_COLUMN_NAME));
     }
 
     @Override
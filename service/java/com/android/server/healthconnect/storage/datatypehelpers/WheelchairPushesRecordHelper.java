@@ -29,6 +29,7 @@ import android.health.connect.internal.datatypes.WheelchairPushesRecordInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.ColumnIndexCache;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -73,8 +74,9 @@ public final class WheelchairPushesRecordHelper
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor,
+            @NonNull ColumnIndexCache columns,
             @NonNull WheelchairPushesRecordInternal wheelchairPushesRecord) {
-        wheelchairPushesRecord.setCount(getCursorInt(cursor, COUNT_COLUMN_NAME));
+        wheelchairPushesRecord.setCount(getCursorInt(cursor, columns, COUNT_COLUMN_NAME));
     }
 
     @Override
@@ -0,0 +1,677 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers.aggregation;
+
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.ACTIVE_CALORIES_BURNED_RECORD_ACTIVE_CALORIES_TOTAL;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.DISTANCE_RECORD_DISTANCE_TOTAL;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.ELEVATION_RECORD_ELEVATION_GAINED_TOTAL;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.EXERCISE_SESSION_DURATION_TOTAL;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.FLOORS_CLIMBED_RECORD_FLOORS_CLIMBED_TOTAL;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.SLEEP_SESSION_DURATION_TOTAL;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.STEPS_RECORD_COUNT_TOTAL;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.WHEEL_CHAIR_PUSHES_RECORD_COUNT_TOTAL;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.END_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.LOCAL_DATE_TIME_END_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.LOCAL_DATE_TIME_START_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.START_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.START_ZONE_OFFSET_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.APP_INFO_ID_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.LAST_MODIFIED_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.UUID_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.aggregation.AggregationTimestamp.GROUP_BORDER;
+import static com.android.server.healthconnect.storage.datatypehelpers.aggregation.AggregationTimestamp.INTERVAL_END;
+import static com.android.server.healthconnect.storage.datatypehelpers.aggregation.AggregationTimestamp.INTERVAL_START;
+import static com.android.server.healthconnect.storage.request.AggregateParams.PriorityAggregationExtraParams.VALUE_TYPE_DOUBLE;
+import static com.android.server.healthconnect.storage.request.AggregateParams.PriorityAggregationExtraParams.VALUE_TYPE_LONG;
+
+import android.annotation.Nullable;
+import android.database.Cursor;
+import android.health.connect.Constants;
+import android.health.connect.datatypes.AggregationType;
+import android.util.Slog;
+
+import com.android.server.healthconnect.storage.request.AggregateParams;
+
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aggregates records with priorities using a sweep line over primitive arrays.
+ *
+ * <p>Produces exactly the same results as PriorityRecordsAggregator, the reference implementation
+ * kept in the unit tests. Record data is read once into parallel arrays, interval borders are
+ * sorted as encoded ints, open intervals are kept in an indexed max-heap and results are stored in
+ * dense per-group arrays, so no objects are allocated per record.
+ *
+ * @hide
+ */
+public final class ArraySweepLineAggregator {
+    private static final String TAG = "HealthArraySweepLineAggregator";
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long MILLIS_IN_SECOND = 1000L;
+
+    // Events are encoded as (index << EVENT_TYPE_BITS) | type. Index points into the group splits
+    // for group borders and into the record arrays for interval starts and ends.
+    private static final int EVENT_TYPE_BITS = 2;
+    private static final int EVENT_TYPE_MASK = (1 << EVENT_TYPE_BITS) - 1;
+
+    private final long[] mGroupSplits;
+    private final long[] mAppIdPriorityList;
+    private final int mNumberOfGroups;
+    private final boolean mIsSessionAggregation;
+    private final AggregateParams.PriorityAggregationExtraParams mExtraParams;
+    private final boolean mUseLocalTime;
+    private final boolean mSkipRecordsWithoutPriority;
+
+    private final double[] mGroupResults;
+    private final boolean[] mGroupHasResult;
+    private final ZoneOffset[] mGroupZoneOffsets;
+    private final boolean[] mGroupHasZoneOffset;
+
+    private int mRecordCount;
+    private long[] mStartTimes = new long[INITIAL_CAPACITY];
+    private long[] mEndTimes = new long[INITIAL_CAPACITY];
+    private long[] mLastModifiedTimes = new long[INITIAL_CAPACITY];
+    private int[] mPriorities = new int[INITIAL_CAPACITY];
+    private int[] mZoneOffsetSeconds = new int[INITIAL_CAPACITY];
+    private double[] mValues = new double[INITIAL_CAPACITY];
+    private double[] mFullIntervalResults = new double[INITIAL_CAPACITY];
+    private boolean mHasZoneOffsets;
+
+    // Intervals to exclude for session records, flattened. Starts and ends of each record are
+    // sorted independently, same as in SessionDurationAggregationData.
+    private int[] mExcludeOffsets = new int[INITIAL_CAPACITY];
+    private int[] mExcludeCounts = new int[INITIAL_CAPACITY];
+    private long[] mExcludeStarts = new long[INITIAL_CAPACITY];
+    private long[] mExcludeEnds = new long[INITIAL_CAPACITY];
+    private int mExcludeSize;
+
+    // Indexed max-heap of open intervals ordered by record priority.
+    private int[] mHeap;
+    private int[] mHeapPositions;
+    private int mHeapSize;
+
+    public ArraySweepLineAggregator(
+            List<Long> groupSplits,
+            List<Long> appIdPriorityList,
+            @AggregationType.AggregationTypeIdentifier int aggregationType,
+            AggregateParams.PriorityAggregationExtraParams extraParams,
+            boolean useLocalTime,
+            boolean aggregationSourceControlsEnabled) {
+        mGroupSplits = toLongArray(groupSplits);
+        mAppIdPriorityList = toLongArray(appIdPriorityList);
+        mIsSessionAggregation = isSessionAggregation(aggregationType);
+        mExtraParams = extraParams;
+        mUseLocalTime = useLocalTime;
+        mSkipRecordsWithoutPriority = aggregationSourceControlsEnabled;
+        mNumberOfGroups = mGroupSplits.length - 1;
+        mGroupResults = new double[Math.max(mNumberOfGroups, 0)];
+        mGroupHasResult = new boolean[mGroupResults.length];
+        mGroupZoneOffsets = new ZoneOffset[mGroupResults.length];
+        mGroupHasZoneOffset = new boolean[mGroupResults.length];
+
+        if (Constants.DEBUG) {
+            Slog.d(
+                    TAG,
+                    "Aggregation request for splits: "
+                            + groupSplits
+                            + " with priorities: "
+                            + appIdPriorityList);
+        }
+    }
+
+    /** Calculates aggregation result for each group. */
+    public void calculateAggregation(Cursor cursor) {
+        readRecords(cursor);
+
+        int[] events = createSortedEvents();
+        mHeap = new int[mRecordCount];
+        mHeapPositions = new int[mRecordCount];
+        mHeapSize = 0;
+
+        int currentGroup = -1;
+        for (int i = 0; i < events.length - 1; i++) {
+            int scanEvent = events[i];
+            int recordIndex = getEventIndex(scanEvent);
+            switch (getEventType(scanEvent)) {
+                case GROUP_BORDER -> currentGroup += 1;
+                case INTERVAL_START -> heapAdd(recordIndex);
+                case INTERVAL_END -> heapRemove(recordIndex);
+                default -> throw new UnsupportedOperationException(
+                        "Unknown aggregation timestamp type: " + getEventType(scanEvent));
+            }
+            updateAggregationResult(currentGroup, scanEvent, events[i + 1]);
+        }
+
+        if (Constants.DEBUG) {
+            Slog.d(TAG, "Aggregation result: " + Arrays.toString(mGroupResults));
+        }
+    }
+
+    /** Returns result for the given group, or null if no data contributed to the group. */
+    @Nullable
+    public Double getResultForGroup(int groupNumber) {
+        if (groupNumber < 0 || groupNumber >= mNumberOfGroups || !mGroupHasResult[groupNumber]) {
+            return null;
+        }
+        return mGroupResults[groupNumber];
+    }
+
+    /** Returns start time zone offset for the given group. */
+    @Nullable
+    public ZoneOffset getZoneOffsetForGroup(int groupNumber) {
+        if (groupNumber < 0 || groupNumber >= mNumberOfGroups) {
+            return null;
+        }
+        return mGroupZoneOffsets[groupNumber];
+    }
+
+    private void readRecords(Cursor cursor) {
+        int startTimeIndex =
+                cursor.getColumnIndex(
+                        mUseLocalTime
+                                ? LOCAL_DATE_TIME_START_TIME_COLUMN_NAME
+                                : START_TIME_COLUMN_NAME);
+        int endTimeIndex =
+                cursor.getColumnIndex(
+                        mUseLocalTime
+                                ? LOCAL_DATE_TIME_END_TIME_COLUMN_NAME
+                                : END_TIME_COLUMN_NAME);
+        int lastModifiedTimeIndex = cursor.getColumnIndex(LAST_MODIFIED_TIME_COLUMN_NAME);
+        int appInfoIdIndex = cursor.getColumnIndex(APP_INFO_ID_COLUMN_NAME);
+        int zoneOffsetIndex = cursor.getColumnIndex(START_ZONE_OFFSET_COLUMN_NAME);
+        mHasZoneOffsets = zoneOffsetIndex != -1;
+
+        int valueIndex = -1;
+        int uuidIndex = -1;
+        int excludeStartIndex = -1;
+        int excludeEndIndex = -1;
+        if (mIsSessionAggregation) {
+            uuidIndex = cursor.getColumnIndex(UUID_COLUMN_NAME);
+            excludeStartIndex =
+                    cursor.getColumnIndex(mExtraParams.getExcludeIntervalStartColumnName());
+            excludeEndIndex = cursor.getColumnIndex(mExtraParams.getExcludeIntervalEndColumnName());
+        } else {
+            valueIndex = cursor.getColumnIndex(mExtraParams.getColumnToAggregateName());
+        }
+
+        while (cursor.moveToNext()) {
+            int record = mRecordCount;
+            ensureRecordCapacity(record + 1);
+            mStartTimes[record] = cursor.getLong(startTimeIndex);
+            mEndTimes[record] = cursor.getLong(endTimeIndex);
+            mLastModifiedTimes[record] = cursor.getLong(lastModifiedTimeIndex);
+            mZoneOffsetSeconds[record] = mHasZoneOffsets ? cursor.getInt(zoneOffsetIndex) : 0;
+            mPriorities[record] = getPriority(cursor.getLong(appInfoIdIndex));
+
+            if (mIsSessionAggregation) {
+                readExcludeIntervals(cursor, record, uuidIndex, excludeStartIndex, excludeEndIndex);
+            } else {
+                mValues[record] = readValue(cursor, valueIndex);
+            }
+
+            if ((mSkipRecordsWithoutPriority && mPriorities[record] == Integer.MIN_VALUE)
+                    // TODO(b/313924267): workaround for b/308467442, should be remove once we have
+                    // a long term solution
+                    || mStartTimes[record] > mEndTimes[record]) {
+                mExcludeSize = mExcludeOffsets[record];
+                continue;
+            }
+
+            mFullIntervalResults[record] =
+                    getResultOnInterval(
+                            record,
+                            mStartTimes[record],
+                            INTERVAL_START,
+                            mEndTimes[record],
+                            INTERVAL_END);
+            mRecordCount++;
+        }
+    }
+
+    private double readValue(Cursor cursor, int valueIndex) {
+        if (mExtraParams.getColumnToAggregateType() == VALUE_TYPE_DOUBLE) {
+            return cursor.getDouble(valueIndex);
+        } else if (mExtraParams.getColumnToAggregateType() == VALUE_TYPE_LONG) {
+            return cursor.getLong(valueIndex);
+        }
+        throw new IllegalArgumentException("Unknown aggregation column type.");
+    }
+
+    private void readExcludeIntervals(
+            Cursor cursor, int record, int uuidIndex, int excludeStartIndex, int excludeEndIndex) {
+        int offset = mExcludeSize;
+        long localTimeShift = MILLIS_IN_SECOND * mZoneOffsetSeconds[record];
+        byte[] sessionUuid = cursor.getBlob(uuidIndex);
+        do {
+            // Each row of the session joined with its stages or segments.
+            if (cursor.isNull(excludeStartIndex)) {
+                continue;
+            }
+            ensureExcludeCapacity(mExcludeSize + 1);
+            long excludeStart = cursor.getLong(excludeStartIndex);
+            long excludeEnd = cursor.getLong(excludeEndIndex);
+            if (mUseLocalTime) {
+                excludeStart += localTimeShift;
+                excludeEnd += localTimeShift;
+            }
+            mExcludeStarts[mExcludeSize] = excludeStart;
+            mExcludeEnds[mExcludeSize] = excludeEnd;
+            mExcludeSize++;
+        } while (cursor.moveToNext() && Arrays.equals(sessionUuid, cursor.getBlob(uuidIndex)));
+        // In case we hit another record, move the cursor back to read it in the outer loop.
+        cursor.moveToPrevious();
+
+        Arrays.sort(mExcludeStarts, offset, mExcludeSize);
+        Arrays.sort(mExcludeEnds, offset, mExcludeSize);
+        mExcludeOffsets[record] = offset;
+        mExcludeCounts[record] = mExcludeSize - offset;
+    }
+
+    private int getPriority(long appInfoId) {
+        // Later occurrences win, same as when the priority list is put into a map.
+        for (int i = mAppIdPriorityList.length - 1; i >= 0; i--) {
+            if (mAppIdPriorityList[i] == appInfoId) {
+                return mAppIdPriorityList.length - i;
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns all group borders and interval borders in sweep order. Duplicated records, which
+     * PriorityRecordsAggregator collapses in its sorted sets, are dropped here as well.
+     */
+    private int[] createSortedEvents() {
+        int eventCount = mGroupSplits.length + 2 * mRecordCount;
+        int[] events = new int[eventCount];
+        int position = 0;
+        for (int i = 0; i < mGroupSplits.length; i++) {
+            events[position++] = encodeEvent(i, GROUP_BORDER);
+        }
+        for (int i = 0; i < mRecordCount; i++) {
+            events[position++] = encodeEvent(i, INTERVAL_START);
+            events[position++] = encodeEvent(i, INTERVAL_END);
+        }
+        sortEvents(events);
+
+        // Records comparing equal have equal starts, so they are adjacent after sorting and the
+        // one read first comes first thanks to the index tie-break.
+        boolean[] isDuplicate = new boolean[mRecordCount];
+        int duplicateCount = 0;
+        for (int i = 1; i < eventCount; i++) {
+            if (getEventType(events[i]) == INTERVAL_START
+                    && getEventType(events[i - 1]) == INTERVAL_START
+                    && compareRecords(getEventIndex(events[i]), getEventIndex(events[i - 1]))
+                            == 0) {
+                isDuplicate[getEventIndex(events[i])] = true;
+                duplicateCount++;
+            }
+        }
+        if (duplicateCount == 0) {
+            return events;
+        }
+
+        int[] uniqueEvents = new int[eventCount - 2 * duplicateCount];
+        position = 0;
+        for (int event : events) {
+            if (getEventType(event) == GROUP_BORDER || !isDuplicate[getEventIndex(event)]) {
+                uniqueEvents[position++] = event;
+            }
+        }
+        return uniqueEvents;
+    }
+
+    /** Bottom-up merge sort, avoids boxing the events to use a comparator. */
+    private void sortEvents(int[] events) {
+        int[] source = events;
+        int[] target = new int[events.length];
+        for (int width = 1; width < events.length; width *= 2) {
+            for (int left = 0; left < events.length; left += 2 * width) {
+                int middle = Math.min(left + width, events.length);
+                int right = Math.min(left + 2 * width, events.length);
+                int i = left;
+                int j = middle;
+                int k = left;
+                while (i < middle && j < right) {
+                    target[k++] =
+                            compareEvents(source[i], source[j]) <= 0 ? source[i++] : source[j++];
+                }
+                while (i < middle) {
+                    target[k++] = source[i++];
+                }
+                while (j < right) {
+                    target[k++] = source[j++];
+                }
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != events) {
+            System.arraycopy(source, 0, events, 0, events.length);
+        }
+    }
+
+    private int compareEvents(int first, int second) {
+        long firstTime = getEventTime(first);
+        long secondTime = getEventTime(second);
+        if (firstTime != secondTime) {
+            return Long.compare(firstTime, secondTime);
+        }
+
+        // Group borders first as group intervals are inclusive for start, exclusive for end. Then
+        // all intervals starts, then all intervals ends.
+        int firstType = getEventType(first);
+        int secondType = getEventType(second);
+        if (firstType != secondType) {
+            return firstType - secondType;
+        }
+
+        int firstIndex = getEventIndex(first);
+        int secondIndex = getEventIndex(second);
+        if (firstType != GROUP_BORDER) {
+            int recordsComparison = compareRecords(firstIndex, secondIndex);
+            if (recordsComparison != 0) {
+                return recordsComparison;
+            }
+        }
+        return Integer.compare(firstIndex, secondIndex);
+    }
+
+    /** Same ordering as {@link AggregationRecordData#compareTo}. */
+    private int compareRecords(int first, int second) {
+        if (first == second) {
+            return 0;
+        }
+
+        if (mPriorities[first] != mPriorities[second]) {
+            return Integer.compare(mPriorities[first], mPriorities[second]);
+        }
+
+        // The later the last modified time, the higher priority this record has.
+        if (mLastModifiedTimes[first] != mLastModifiedTimes[second]) {
+            return Long.compare(mLastModifiedTimes[first], mLastModifiedTimes[second]);
+        }
+
+        if (mStartTimes[first] != mStartTimes[second]) {
+            return Long.compare(mStartTimes[first], mStartTimes[second]);
+        }
+
+        if (mEndTimes[first] != mEndTimes[second]) {
+            return Long.compare(mEndTimes[first], mEndTimes[second]);
+        }
+
+        return Double.compare(mFullIntervalResults[first], mFullIntervalResults[second]);
+    }
+
+    private void updateAggregationResult(int currentGroup, int startEvent, int endEvent) {
+        if (mHeapSize == 0 || currentGroup < 0 || currentGroup >= mNumberOfGroups) {
+            return;
+        }
+
+        long startTime = getEventTime(startEvent);
+        long endTime = getEventTime(endEvent);
+        int startType = getEventType(startEvent);
+        int endType = getEventType(endEvent);
+        if (startTime == endTime && startType == GROUP_BORDER && endType == INTERVAL_END) {
+            // Don't create new aggregation result as no open intervals in this group so far.
+            return;
+        }
+
+        mGroupHasResult[currentGroup] = true;
+        mGroupResults[currentGroup] +=
+                getResultOnInterval(mHeap[0], startTime, startType, endTime, endType);
+
+        if (!mGroupHasZoneOffset[currentGroup]) {
+            mGroupHasZoneOffset[currentGroup] = true;
+            mGroupZoneOffsets[currentGroup] = getZoneOffsetOfEarliestOpenInterval();
+        }
+    }
+
+    @Nullable
+    private ZoneOffset getZoneOffsetOfEarliestOpenInterval() {
+        if (!mHasZoneOffsets) {
+            return null;
+        }
+
+        int earliest = mHeap[0];
+        for (int i = 1; i < mHeapSize; i++) {
+            int record = mHeap[i];
+            if (mStartTimes[record] < mStartTimes[earliest]
+                    || (mStartTimes[record] == mStartTimes[earliest]
+                            && compareRecords(record, earliest) < 0)) {
+                earliest = record;
+            }
+        }
+        return ZoneOffset.ofTotalSeconds(mZoneOffsetSeconds[earliest]);
+    }
+
+    /** Same as {@link AggregationRecordData#getResultOnInterval} of the matching subclass. */
+    private double getResultOnInterval(
+            int record, long startTime, int startType, long endTime, int endType) {
+        long recordStart = mStartTimes[record];
+        long recordEnd = mEndTimes[record];
+        if (mIsSessionAggregation) {
+            return AggregationRecordData.calculateIntervalOverlapDuration(
+                            recordStart, startTime, recordEnd, endTime)
+                    - calculateDurationToExclude(record, startTime, endTime);
+        }
+
+        double intervalDuration = recordEnd - recordStart;
+        double overlapDuration = Math.min(recordEnd, endTime) - Math.max(recordStart, startTime);
+
+        // Multiple instant records with the same time are accounted only once, see
+        // ValueColumnAggregationData.
+        if (intervalDuration == 0 && startType == INTERVAL_START && endType == INTERVAL_END) {
+            return mValues[record];
+        }
+
+        if (intervalDuration < 0 || overlapDuration <= 0) {
+            return 0;
+        }
+
+        return mValues[record] * overlapDuration / intervalDuration;
+    }
+
+    /** Same as {@link SessionDurationAggregationData}, on the flattened exclude intervals. */
+    private long calculateDurationToExclude(int record, long startTime, long endTime) {
+        int count = mExcludeCounts[record];
+        if (count == 0) {
+            return 0;
+        }
+        int offset = mExcludeOffsets[record];
+
+        // Find the latest start timestamp index such that intervalStart <= startTime
+        int lowerBoundStartIndex = binarySearch(mExcludeStarts, offset, count, startTime);
+        if (lowerBoundStartIndex < 0) {
+            int insertionIndex = -lowerBoundStartIndex - 1;
+            lowerBoundStartIndex = Math.max(insertionIndex - 1, 0);
+        }
+
+        // Find the earliest end timestamp index such that intervalEnd >= endTime
+        int upperBoundEndIndex = binarySearch(mExcludeEnds, offset, count, endTime);
+        if (upperBoundEndIndex < 0) {
+            upperBoundEndIndex = -upperBoundEndIndex;
+        }
+
+        long durationToExclude = 0;
+        for (int index = lowerBoundStartIndex;
+                index < Math.min(upperBoundEndIndex + 1, count);
+                index++) {
+            durationToExclude +=
+                    AggregationRecordData.calculateIntervalOverlapDuration(
+                            mExcludeStarts[offset + index], startTime,
+                            mExcludeEnds[offset + index], endTime);
+        }
+        return durationToExclude;
+    }
+
+    /**
+     * Binary search over {@code values[offset, offset + count)} returning indexes relative to
+     * {@code offset}, probing in the same order as {@link java.util.Collections#binarySearch}.
+     */
+    private static int binarySearch(long[] values, int offset, int count, long key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midValue = values[offset + mid];
+            if (midValue < key) {
+                low = mid + 1;
+            } else if (midValue > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void heapAdd(int record) {
+        mHeap[mHeapSize] = record;
+        mHeapPositions[record] = mHeapSize;
+        mHeapSize++;
+        heapSiftUp(mHeapSize - 1);
+    }
+
+    private void heapRemove(int record) {
+        int position = mHeapPositions[record];
+        mHeapSize--;
+        if (position == mHeapSize) {
+            return;
+        }
+        int last = mHeap[mHeapSize];
+        mHeap[position] = last;
+        mHeapPositions[last] = position;
+        if (position > 0 && compareRecords(last, mHeap[(position - 1) / 2]) > 0) {
+            heapSiftUp(position);
+        } else {
+            heapSiftDown(position);
+        }
+    }
+
+    private void heapSiftUp(int position) {
+        int record = mHeap[position];
+        while (position > 0) {
+            int parentPosition = (position - 1) / 2;
+            int parent = mHeap[parentPosition];
+            if (compareRecords(record, parent) <= 0) {
+                break;
+            }
+            mHeap[position] = parent;
+            mHeapPositions[parent] = position;
+            position = parentPosition;
+        }
+        mHeap[position] = record;
+        mHeapPositions[record] = position;
+    }
+
+    private void heapSiftDown(int position) {
+        int record = mHeap[position];
+        while (true) {
+            int childPosition = 2 * position + 1;
+            if (childPosition >= mHeapSize) {
+                break;
+            }
+            if (childPosition + 1 < mHeapSize
+                    && compareRecords(mHeap[childPosition + 1], mHeap[childPosition]) > 0) {
+                childPosition++;
+            }
+            int child = mHeap[childPosition];
+            if (compareRecords(child, record) <= 0) {
+                break;
+            }
+            mHeap[position] = child;
+            mHeapPositions[child] = position;
+            position = childPosition;
+        }
+        mHeap[position] = record;
+        mHeapPositions[record] = position;
+    }
+
+    private long getEventTime(int event) {
+        int index = getEventIndex(event);
+        return switch (getEventType(event)) {
+            case GROUP_BORDER -> mGroupSplits[index];
+            case INTERVAL_START -> mStartTimes[index];
+            default -> mEndTimes[index];
+        };
+    }
+
+    private static int encodeEvent(int index, int type) {
+        return (index << EVENT_TYPE_BITS) | type;
+    }
+
+    private static int getEventType(int event) {
+        return event & EVENT_TYPE_MASK;
+    }
+
+    private static int getEventIndex(int event) {
+        return event >>> EVENT_TYPE_BITS;
+    }
+
+    private void ensureRecordCapacity(int capacity) {
+        if (capacity <= mStartTimes.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mStartTimes.length * 2);
+        mStartTimes = Arrays.copyOf(mStartTimes, newCapacity);
+        mEndTimes = Arrays.copyOf(mEndTimes, newCapacity);
+        mLastModifiedTimes = Arrays.copyOf(mLastModifiedTimes, newCapacity);
+        mPriorities = Arrays.copyOf(mPriorities, newCapacity);
+        mZoneOffsetSeconds = Arrays.copyOf(mZoneOffsetSeconds, newCapacity);
+        mValues = Arrays.copyOf(mValues, newCapacity);
+        mFullIntervalResults = Arrays.copyOf(mFullIntervalResults, newCapacity);
+        mExcludeOffsets = Arrays.copyOf(mExcludeOffsets, newCapacity);
+        mExcludeCounts = Arrays.copyOf(mExcludeCounts, newCapacity);
+    }
+
+    private void ensureExcludeCapacity(int capacity) {
+        if (capacity <= mExcludeStarts.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mExcludeStarts.length * 2);
+        mExcludeStarts = Arrays.copyOf(mExcludeStarts, newCapacity);
+        mExcludeEnds = Arrays.copyOf(mExcludeEnds, newCapacity);
+    }
+
+    private static long[] toLongArray(List<Long> values) {
+        long[] result = new long[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    private static boolean isSessionAggregation(
+            @AggregationType.AggregationTypeIdentifier int aggregationType) {
+        return switch (aggregationType) {
+            case STEPS_RECORD_COUNT_TOTAL,
+                    ACTIVE_CALORIES_BURNED_RECORD_ACTIVE_CALORIES_TOTAL,
+                    DISTANCE_RECORD_DISTANCE_TOTAL,
+                    ELEVATION_RECORD_ELEVATION_GAINED_TOTAL,
+                    FLOORS_CLIMBED_RECORD_FLOORS_CLIMBED_TOTAL,
+                    WHEEL_CHAIR_PUSHES_RECORD_COUNT_TOTAL -> false;
+            case SLEEP_SESSION_DURATION_TOTAL, EXERCISE_SESSION_DURATION_TOTAL -> true;
+            default -> throw new UnsupportedOperationException(
+                    "Priority aggregation do not support type: " + aggregationType);
+        };
+    }
+}
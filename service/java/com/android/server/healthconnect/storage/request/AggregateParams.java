@@ -18,6 +18,7 @@ package com.android.server.healthconnect.storage.request;
 
 import android.annotation.IntDef;
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 
@@ -50,6 +51,8 @@ public final class AggregateParams {
 
     private PriorityAggregationExtraParams mPriorityAggregationExtraParams;
 
+    @Nullable private String mAggregateExpression;
+
     @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
     public AggregateParams(String tableName, List<String> columnsToFetch) {
         this(tableName, columnsToFetch, null);
@@ -91,6 +94,15 @@ public final class AggregateParams {
         return mTimeOffsetColumnName;
     }
 
+    /**
+     * Returns the SQL expression computing the aggregate of the column to fetch, or null if the
+     * aggregation function is applied to the column itself.
+     */
+    @Nullable
+    public String getAggregateExpression() {
+        return mAggregateExpression;
+    }
+
     /** Sets join type. */
     public AggregateParams setJoin(SqlJoin join) {
         mJoin = join;
@@ -102,6 +114,17 @@ public final class AggregateParams {
         return this;
     }
 
+    /**
+     * Sets the SQL expression computing the aggregate, which is returned under the name of the
+     * column to fetch. Used when the aggregate is derived from other columns, rather than computed
+     * by applying the aggregation function to that column.
+     */
+    public AggregateParams setAggregateExpression(@NonNull String aggregateExpression) {
+        Objects.requireNonNull(aggregateExpression);
+        mAggregateExpression = aggregateExpression;
+        return this;
+    }
+
     /** Appends additional columns to fetch. */
     public AggregateParams appendAdditionalColumns(List<String> additionColumns) {
         mColumnsToFetch.addAll(additionColumns);
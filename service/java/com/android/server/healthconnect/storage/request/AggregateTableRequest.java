@@ -25,7 +25,9 @@ import static android.health.connect.datatypes.AggregationType.SUM;
 import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.APP_INFO_ID_COLUMN_NAME;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.health.connect.AggregateResult;
 import android.health.connect.Constants;
 import android.health.connect.LocalTimeRangeFilter;
@@ -39,7 +41,7 @@ import android.util.Slog;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
-import com.android.server.healthconnect.storage.datatypehelpers.aggregation.PriorityRecordsAggregator;
+import com.android.server.healthconnect.storage.datatypehelpers.aggregation.ArraySweepLineAggregator;
 import com.android.server.healthconnect.storage.utils.OrderByClause;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
@@ -48,7 +50,9 @@ import com.android.server.healthconnect.storage.utils.WhereClauses;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.Period;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -80,12 +84,19 @@ public class AggregateTableRequest {
 
     private final WhereClauses mWhereClauses;
     private final SqlJoin mSqlJoin;
+    @Nullable private final String mAggregateExpression;
     private String mGroupByColumnName;
     private int mGroupBySize = 1;
     private final List<String> mAdditionalColumnsToFetch;
     private final AggregateParams.PriorityAggregationExtraParams mPriorityParams;
     private final boolean mUseLocalTime;
+    private final boolean mAggregationSourceControlsEnabled;
     private List<Long> mTimeSplits;
+    private long mFilterStartTime = Constants.DEFAULT_LONG;
+    private long mFilterEndTime = Constants.DEFAULT_LONG;
+    private List<Long> mAppInfoIdFilters = Collections.emptyList();
+    private long mCallingAppInfoId = Constants.DEFAULT_LONG;
+    private long mStartDateAccess;
 
     @SuppressWarnings("NullAway.Init") // TODO(b/317029272): fix this suppression
     public AggregateTableRequest(
@@ -93,13 +104,15 @@ public class AggregateTableRequest {
             AggregationType<?> aggregationType,
             RecordHelper<?> recordHelper,
             WhereClauses whereClauses,
-            boolean useLocalTime) {
+            boolean useLocalTime,
+            boolean aggregationSourceControlsEnabled) {
         mTableName = params.getTableName();
         mColumnNamesToAggregate = params.getColumnsToFetch();
         mTimeColumnName = params.getTimeColumnName();
         mAggregationType = aggregationType;
         mRecordHelper = recordHelper;
         mSqlJoin = params.getJoin();
+        mAggregateExpression = params.getAggregateExpression();
         mPriorityParams = params.getPriorityAggregationExtraParams();
         mWhereClauses = whereClauses;
         mAdditionalColumnsToFetch = new ArrayList<>();
@@ -110,6 +123,7 @@ public class AggregateTableRequest {
             mAdditionalColumnsToFetch.add(endTimeColumnName);
         }
         mUseLocalTime = useLocalTime;
+        mAggregationSourceControlsEnabled = aggregationSourceControlsEnabled;
     }
 
     /**
@@ -157,41 +171,100 @@ public class AggregateTableRequest {
         return mUseLocalTime;
     }
 
+    /**
+     * Returns whether the new aggregation source controls were enabled when the request was made,
+     * in which case records of apps missing from the priority list are skipped.
+     */
+    public boolean isAggregationSourceControlsEnabled() {
+        return mAggregationSourceControlsEnabled;
+    }
+
     /** Returns SQL statement to perform aggregation operation */
     @NonNull
     public String getAggregationCommand() {
         final StringBuilder builder = new StringBuilder("SELECT ");
-        String aggCommand;
-        boolean usingPriority =
-                StorageUtils.supportsPriority(
-                                mRecordHelper.getRecordIdentifier(),
-                                mAggregationType.getAggregateOperationType())
-                        || StorageUtils.isDerivedType(mRecordHelper.getRecordIdentifier());
+        boolean usingPriority = isUsingPriority();
         if (usingPriority) {
             for (String columnName : mColumnNamesToAggregate) {
                 builder.append(columnName).append(", ");
             }
         } else {
-            aggCommand = getSqlCommandFor(mAggregationType.getAggregateOperationType());
+            appendAggregateColumns(builder, /* aliasPrefix= */ "");
+        }
+        appendAdditionalColumns(builder);
 
-            for (String columnName : mColumnNamesToAggregate) {
-                builder.append(aggCommand)
-                        .append("(")
-                        .append(columnName)
-                        .append(")")
-                        .append(" as ")
-                        .append(columnName)
-                        .append(", ");
-            }
+        return appendAggregateCommand(builder, usingPriority);
+    }
+
+    /**
+     * Returns SQL statement to perform the aggregation operations of all {@code requests} in a
+     * single scan, for requests that have the same {@link #getSharedQueryKey}.
+     *
+     * <p>The aggregated columns of each request are renamed so that they don't clash, see {@link
+     * #onSharedResultsFetched}.
+     */
+    @NonNull
+    public static String getAggregationCommand(@NonNull List<AggregateTableRequest> requests) {
+        final StringBuilder builder = new StringBuilder("SELECT ");
+        for (int i = 0; i < requests.size(); i++) {
+            requests.get(i).appendAggregateColumns(builder, getColumnAliasPrefix(i));
         }
+        AggregateTableRequest firstRequest = requests.get(0);
+        firstRequest.appendAdditionalColumns(builder);
 
-        if (mAdditionalColumnsToFetch != null) {
-            for (String additionalColumnToFetch : mAdditionalColumnsToFetch) {
-                builder.append(additionalColumnToFetch).append(", ");
+        return firstRequest.appendAggregateCommand(builder, /* isMetadata= */ false);
+    }
+
+    /**
+     * Returns whether this request is aggregated by SQL, which lets it share its query with other
+     * requests over the same rows.
+     */
+    public boolean canShareQuery() {
+        return !isUsingPriority();
+    }
+
+    /**
+     * Returns a key that is the same for requests that aggregate the same rows into the same
+     * groups, and fetch the same additional columns.
+     */
+    @NonNull
+    public String getSharedQueryKey() {
+        final StringBuilder builder = new StringBuilder("SELECT ");
+        appendAdditionalColumns(builder);
+        return appendAggregateCommand(builder, /* isMetadata= */ false);
+    }
+
+    /**
+     * Splits {@code requests} into lists of requests that can be computed with a single query,
+     * keeping their order.
+     *
+     * <p>SQLite takes the additional columns, such as the zone offset, from the row holding the
+     * result when a query has a single MIN or MAX aggregate, so at most one request using MIN or
+     * MAX goes in each list when additional columns are fetched.
+     */
+    @NonNull
+    public static List<List<AggregateTableRequest>> groupBySharedQuery(
+            @NonNull List<AggregateTableRequest> requests) {
+        List<List<AggregateTableRequest>> groups = new ArrayList<>();
+        List<String> groupKeys = new ArrayList<>();
+        for (AggregateTableRequest request : requests) {
+            String key = request.canShareQuery() ? request.getSharedQueryKey() : null;
+            List<AggregateTableRequest> group = null;
+            for (int i = 0; key != null && i < groups.size(); i++) {
+                if (key.equals(groupKeys.get(i))
+                        && !(request.needsOwnMinOrMaxRow() && containsMinOrMax(groups.get(i)))) {
+                    group = groups.get(i);
+                    break;
+                }
+            }
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+                groupKeys.add(key);
             }
+            group.add(request);
         }
-
-        return appendAggregateCommand(builder, usingPriority);
+        return groups;
     }
 
     /** Sets time filter for table request. */
@@ -202,9 +275,55 @@ public class AggregateTableRequest {
         }
 
         mTimeSplits = List.of(startTime, endTime);
+        mFilterStartTime = startTime;
+        mFilterEndTime = endTime;
         return this;
     }
 
+    /**
+     * Sets the apps whose records are aggregated, matching the where clauses of this request: all
+     * apps if {@code appInfoIdFilters} is empty, and only records starting from {@code
+     * startDateAccess} for apps other than the calling one.
+     */
+    public AggregateTableRequest setAppFilters(
+            List<Long> appInfoIdFilters, long callingAppInfoId, long startDateAccess) {
+        mAppInfoIdFilters = appInfoIdFilters;
+        mCallingAppInfoId = callingAppInfoId;
+        mStartDateAccess = startDateAccess;
+        return this;
+    }
+
+    /** Returns the ids of the apps whose records are aggregated, or all apps if empty. */
+    public List<Long> getAppInfoIdFilters() {
+        return mAppInfoIdFilters;
+    }
+
+    /** Returns the id of the calling app, whose records aren't filtered by start date access. */
+    public long getCallingAppInfoId() {
+        return mCallingAppInfoId;
+    }
+
+    /** Returns the earliest start time of records of other apps than the calling one. */
+    public long getStartDateAccess() {
+        return mStartDateAccess;
+    }
+
+    /** Returns the start of the time filter, or {@link Constants#DEFAULT_LONG} if not set. */
+    public long getFilterStartTime() {
+        return mFilterStartTime;
+    }
+
+    /** Returns the end of the time filter, or {@link Constants#DEFAULT_LONG} if not set. */
+    public long getFilterEndTime() {
+        return mFilterEndTime;
+    }
+
+    /** Returns the borders of the groups, or null if there is no time filter. */
+    @Nullable
+    public List<Long> getTimeSplits() {
+        return mTimeSplits;
+    }
+
     /** Sets group by fields. */
     public void setGroupBy(
             String columnName, Period period, Duration duration, TimeRangeFilter timeRangeFilter) {
@@ -229,7 +348,11 @@ public class AggregateTableRequest {
         }
     }
 
-    public void onResultsFetched(Cursor cursor, Cursor metaDataCursor) {
+    /**
+     * Sets the results from the cursor of {@link #getAggregationCommand()}, and the data origins
+     * read with {@link #getDataOriginPackageNames}.
+     */
+    public void onResultsFetched(Cursor cursor, List<String> dataOriginPackageNames) {
         if (StorageUtils.isDerivedType(mRecordHelper.getRecordIdentifier())) {
             deriveAggregate(cursor);
         } else if (StorageUtils.supportsPriority(
@@ -240,36 +363,121 @@ public class AggregateTableRequest {
             processNoPrioritiesRequest(cursor);
         }
 
-        updateResultWithDataOriginPackageNames(metaDataCursor);
+        updateResultWithDataOriginPackageNames(dataOriginPackageNames);
+    }
+
+    /**
+     * Sets the results from the cursor of {@link #getAggregationCommand(List)}, where this request
+     * is at {@code index} of the list.
+     */
+    public void onSharedResultsFetched(
+            Cursor cursor, int index, List<String> dataOriginPackageNames) {
+        Map<String, String> columnAliases = new ArrayMap<>(mColumnNamesToAggregate.size());
+        for (String columnName : mColumnNamesToAggregate) {
+            columnAliases.put(columnName, getColumnAliasPrefix(index) + columnName);
+        }
+        cursor.moveToPosition(-1);
+        processNoPrioritiesRequest(new AliasedColumnsCursor(cursor, columnAliases));
+        updateResultWithDataOriginPackageNames(dataOriginPackageNames);
+    }
+
+    /**
+     * Sets the results computed for each group from rollups, for requests with priorities.
+     *
+     * @param results the result of each group, only set if {@code hasResult} for that group.
+     * @param zoneOffsets the start zone offset of the earliest record of each group.
+     */
+    public void onRollupResultsFetched(
+            double[] results,
+            boolean[] hasResult,
+            ZoneOffset[] zoneOffsets,
+            List<String> dataOriginPackageNames) {
+        for (int groupNumber = 0; groupNumber < mGroupBySize; groupNumber++) {
+            if (hasResult[groupNumber]) {
+                putPriorityResult(groupNumber, results[groupNumber], zoneOffsets[groupNumber]);
+            }
+        }
+        updateResultWithDataOriginPackageNames(dataOriginPackageNames);
+    }
+
+    /** Returns the package names of the apps read from the cursor of the metadata query. */
+    public static List<String> getDataOriginPackageNames(Cursor metaDataCursor) {
+        List<Long> packageIds = new ArrayList<>();
+        while (metaDataCursor.moveToNext()) {
+            packageIds.add(StorageUtils.getCursorLong(metaDataCursor, APP_INFO_ID_COLUMN_NAME));
+        }
+        return AppInfoHelper.getInstance().getPackageNames(packageIds);
+    }
+
+    private boolean isUsingPriority() {
+        return StorageUtils.supportsPriority(
+                        mRecordHelper.getRecordIdentifier(),
+                        mAggregationType.getAggregateOperationType())
+                || StorageUtils.isDerivedType(mRecordHelper.getRecordIdentifier());
+    }
+
+    private boolean isMinOrMax() {
+        int operationType = mAggregationType.getAggregateOperationType();
+        return operationType == MIN || operationType == MAX;
+    }
+
+    private boolean needsOwnMinOrMaxRow() {
+        return isMinOrMax()
+                && mAdditionalColumnsToFetch != null
+                && !mAdditionalColumnsToFetch.isEmpty();
+    }
+
+    private static boolean containsMinOrMax(List<AggregateTableRequest> requests) {
+        for (AggregateTableRequest request : requests) {
+            if (request.isMinOrMax()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getColumnAliasPrefix(int index) {
+        return "agg" + index + "_";
+    }
+
+    private void appendAggregateColumns(StringBuilder builder, String aliasPrefix) {
+        String aggCommand = getSqlCommandFor(mAggregationType.getAggregateOperationType());
+        for (String columnName : mColumnNamesToAggregate) {
+            if (mAggregateExpression != null) {
+                builder.append(mAggregateExpression);
+            } else {
+                builder.append(aggCommand).append("(").append(columnName).append(")");
+            }
+            builder.append(" as ").append(aliasPrefix).append(columnName).append(", ");
+        }
+    }
+
+    private void appendAdditionalColumns(StringBuilder builder) {
+        if (mAdditionalColumnsToFetch != null) {
+            for (String additionalColumnToFetch : mAdditionalColumnsToFetch) {
+                builder.append(additionalColumnToFetch).append(", ");
+            }
+        }
     }
 
     private void processPriorityRequest(Cursor cursor) {
         List<Long> priorityList =
                 StorageUtils.getAppIdPriorityList(mRecordHelper.getRecordIdentifier());
-        PriorityRecordsAggregator aggregator =
-                new PriorityRecordsAggregator(
+        ArraySweepLineAggregator aggregator =
+                new ArraySweepLineAggregator(
                         mTimeSplits,
                         priorityList,
                         mAggregationType.getAggregationTypeIdentifier(),
                         mPriorityParams,
-                        mUseLocalTime);
+                        mUseLocalTime,
+                        mAggregationSourceControlsEnabled);
         aggregator.calculateAggregation(cursor);
-        AggregateResult<?> result;
         for (int groupNumber = 0; groupNumber < mGroupBySize; groupNumber++) {
-            if (aggregator.getResultForGroup(groupNumber) == null) {
-                continue;
+            Double result = aggregator.getResultForGroup(groupNumber);
+            if (result != null) {
+                putPriorityResult(
+                        groupNumber, result, aggregator.getZoneOffsetForGroup(groupNumber));
             }
-
-            if (mAggregationType.getAggregateResultClass() == Long.class) {
-                result =
-                        new AggregateResult<>(
-                                aggregator.getResultForGroup(groupNumber).longValue());
-            } else {
-                result = new AggregateResult<>(aggregator.getResultForGroup(groupNumber));
-            }
-            mAggregateResults.put(
-                    groupNumber,
-                    result.setZoneOffset(aggregator.getZoneOffsetForGroup(groupNumber)));
         }
 
         if (Constants.DEBUG) {
@@ -277,6 +485,16 @@ public class AggregateTableRequest {
         }
     }
 
+    private void putPriorityResult(int groupNumber, double value, @Nullable ZoneOffset zoneOffset) {
+        AggregateResult<?> result;
+        if (mAggregationType.getAggregateResultClass() == Long.class) {
+            result = new AggregateResult<>((long) value);
+        } else {
+            result = new AggregateResult<>(value);
+        }
+        mAggregateResults.put(groupNumber, result.setZoneOffset(zoneOffset));
+    }
+
     private void processNoPrioritiesRequest(Cursor cursor) {
         while (cursor.moveToNext()) {
             mAggregateResults.put(
@@ -342,13 +560,7 @@ public class AggregateTableRequest {
     }
 
     @SuppressWarnings("NullAway") // TODO(b/317029272): fix this suppression
-    private void updateResultWithDataOriginPackageNames(Cursor metaDataCursor) {
-        List<Long> packageIds = new ArrayList<>();
-        while (metaDataCursor.moveToNext()) {
-            packageIds.add(StorageUtils.getCursorLong(metaDataCursor, APP_INFO_ID_COLUMN_NAME));
-        }
-        List<String> packageNames = AppInfoHelper.getInstance().getPackageNames(packageIds);
-
+    private void updateResultWithDataOriginPackageNames(List<String> packageNames) {
         mAggregateResults.replaceAll(
                 (n, v) -> mAggregateResults.get(n).setDataOrigins(packageNames));
     }
@@ -426,4 +638,24 @@ public class AggregateTableRequest {
             index++;
         }
     }
+
+    /** Reads renamed columns of a shared aggregation query under their original names. */
+    private static final class AliasedColumnsCursor extends CursorWrapper {
+        private final Map<String, String> mColumnAliases;
+
+        AliasedColumnsCursor(Cursor cursor, Map<String, String> columnAliases) {
+            super(cursor);
+            mColumnAliases = columnAliases;
+        }
+
+        @Override
+        public int getColumnIndex(String columnName) {
+            return super.getColumnIndex(mColumnAliases.getOrDefault(columnName, columnName));
+        }
+
+        @Override
+        public int getColumnIndexOrThrow(String columnName) {
+            return super.getColumnIndexOrThrow(mColumnAliases.getOrDefault(columnName, columnName));
+        }
+    }
 }
@@ -53,7 +53,8 @@ public final class AggregateTransactionRequest {
     public AggregateTransactionRequest(
             @NonNull String packageName,
             @NonNull AggregateDataRequestParcel request,
-            long startDateAccess) {
+            long startDateAccess,
+            boolean aggregationSourceControlsEnabled) {
         mPackageName = packageName;
         mAggregateTableRequests = new ArrayList<>(request.getAggregateIds().length);
         mPeriod = request.getPeriod();
@@ -77,7 +78,8 @@ public final class AggregateTransactionRequest {
                                 request.getStartTime(),
                                 request.getEndTime(),
                                 startDateAccess,
-                                request.useLocalTimeFilter());
+                                request.useLocalTimeFilter(),
+                                aggregationSourceControlsEnabled);
 
                 if (mDuration != null || mPeriod != null) {
                     aggregateTableRequest.setGroupBy(
@@ -102,11 +104,12 @@ public final class AggregateTransactionRequest {
      * @return Compute and return aggregations
      */
     public AggregateDataResponseParcel getAggregateDataResponseParcel() {
+        // Compute aggregations, sharing a query between the requests over the same rows
+        TransactionManager.getInitialisedInstance()
+                .populateWithAggregation(mAggregateTableRequests);
+
         Map<AggregationType<?>, List<AggregateResult<?>>> results = new ArrayMap<>();
         for (AggregateTableRequest aggregateTableRequest : mAggregateTableRequests) {
-            // Compute aggregations
-            TransactionManager.getInitialisedInstance()
-                    .populateWithAggregation(aggregateTableRequest);
             results.put(
                     aggregateTableRequest.getAggregationType(),
                     aggregateTableRequest.getAggregateResults());
@@ -54,6 +54,8 @@ public class UpsertTableRequest {
     private long mRowId = INVALID_ROW_ID;
     private WhereClauses mWhereClausesForUpdate;
     private IRequiresUpdate mRequiresUpdate = new IRequiresUpdate() {};
+    @Nullable private INativeUpsert mNativeUpsert;
+    private boolean mUpdateChildTablesOnlyIfChanged;
     private Integer mRecordType;
     private RecordInternal<?> mRecordInternal;
     private RecordHelper<?> mRecordHelper;
@@ -107,6 +109,39 @@ public class UpsertTableRequest {
         return this;
     }
 
+    /**
+     * Makes conflicts on the unique columns be resolved by a single {@code INSERT ... ON CONFLICT
+     * DO UPDATE} statement, instead of a failed insert followed by a read and an update. When set,
+     * {@link #setRequiresUpdateClause} is not used.
+     */
+    @NonNull
+    public UpsertTableRequest setNativeUpsert(@NonNull INativeUpsert nativeUpsert) {
+        Objects.requireNonNull(nativeUpsert);
+
+        mNativeUpsert = nativeUpsert;
+        return this;
+    }
+
+    @Nullable
+    public INativeUpsert getNativeUpsert() {
+        return mNativeUpsert;
+    }
+
+    /**
+     * Use this if the child table entries of an updated row should only be replaced when they
+     * differ from the ones in {@link #getChildTableRequests()}.
+     */
+    @NonNull
+    public UpsertTableRequest setUpdateChildTablesOnlyIfChanged(
+            boolean updateChildTablesOnlyIfChanged) {
+        mUpdateChildTablesOnlyIfChanged = updateChildTablesOnlyIfChanged;
+        return this;
+    }
+
+    public boolean shouldUpdateChildTablesOnlyIfChanged() {
+        return mUpdateChildTablesOnlyIfChanged;
+    }
+
     @NonNull
     public String getTable() {
         return mTable;
@@ -242,4 +277,26 @@ public class UpsertTableRequest {
             return true;
         }
     }
+
+    /** Describes how a conflicting row is updated by a native upsert. */
+    public interface INativeUpsert {
+        /**
+         * Returns the SQL condition for the conflicting row to be updated. Columns of the existing
+         * row are referred to by name, and the values being inserted as {@code excluded.<name>}.
+         */
+        @NonNull
+        String getUpdateCondition();
+
+        /**
+         * Returns the columns which keep their existing value when a conflicting row is updated.
+         */
+        @NonNull
+        List<String> getColumnsToKeep();
+
+        /**
+         * Called after a row was inserted or updated, with {@code cursor} positioned on a row
+         * holding the row id and the {@link #getColumnsToKeep()} columns of the stored row.
+         */
+        default void onUpserted(@NonNull Cursor cursor, @NonNull UpsertTableRequest request) {}
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import android.annotation.NonNull;
+import android.database.Cursor;
+
+/**
+ * Column index plan for a single cursor.
+ *
+ * <p>Column indexes are resolved through {@link Cursor#getColumnIndex} the first time a column is
+ * read and cached for the lifetime of the cursor. Lookups compare column names by reference first,
+ * which is cheap as most column names are compile time constants, so reading a field of a row
+ * doesn't hash or compare strings. Names built at runtime, such as prefixed or aliased ones, miss
+ * by reference and fall back to comparing the cached names by value, so they don't grow the cache.
+ *
+ * <p>Not thread safe, create one per cursor.
+ *
+ * @hide
+ */
+public final class ColumnIndexCache {
+    private static final int INITIAL_CAPACITY = 32;
+
+    private final Cursor mCursor;
+    private String[] mNames = new String[INITIAL_CAPACITY];
+    private int[] mIndexes = new int[INITIAL_CAPACITY];
+    private int mSize;
+
+    public ColumnIndexCache(@NonNull Cursor cursor) {
+        mCursor = cursor;
+    }
+
+    /** Returns the index of {@code columnName} in the cursor, or -1 if it doesn't exist. */
+    public int get(@NonNull String columnName) {
+        int mask = mNames.length - 1;
+        int slot = System.identityHashCode(columnName) & mask;
+        while (mNames[slot] != null) {
+            if (mNames[slot] == columnName) {
+                return mIndexes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int equalSlot = findEqual(columnName);
+        if (equalSlot != -1) {
+            return mIndexes[equalSlot];
+        }
+
+        int index = mCursor.getColumnIndex(columnName);
+        mNames[slot] = columnName;
+        mIndexes[slot] = index;
+        mSize++;
+        if (mSize * 2 > mNames.length) {
+            resize();
+        }
+        return index;
+    }
+
+    /** Returns the slot of a cached name equal to {@code columnName}, or -1 if there is none. */
+    private int findEqual(String columnName) {
+        for (int i = 0; i < mNames.length; i++) {
+            if (mNames[i] != null && mNames[i].equals(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void resize() {
+        String[] oldNames = mNames;
+        int[] oldIndexes = mIndexes;
+        mNames = new String[oldNames.length * 2];
+        mIndexes = new int[oldNames.length * 2];
+        int mask = mNames.length - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] == null) {
+                continue;
+            }
+            int slot = System.identityHashCode(oldNames[i]) & mask;
+            while (mNames[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            mNames[slot] = oldNames[i];
+            mIndexes[slot] = oldIndexes[i];
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import android.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Encodes the samples of a series record, i.e. pairs of epoch millis and value, into a single blob.
+ *
+ * <p>The blob starts with a format byte and the number of samples, followed by the epoch millis of
+ * all samples, each stored as a variable length delta to the previous one. Values follow, as
+ * variable length deltas too if all of them are integers, or as 8 byte doubles otherwise. Samples
+ * are usually taken at a steady rate and vary slowly, so most deltas fit in one or two bytes.
+ *
+ * @hide
+ */
+public final class PackedSeriesSamples {
+    private static final byte FORMAT_INTEGER_VALUES = 1;
+    private static final byte FORMAT_DOUBLE_VALUES = 2;
+    private static final int MAX_VARINT_SIZE = 10;
+
+    private PackedSeriesSamples() {}
+
+    /**
+     * Returns the blob storing the first {@code count} samples of {@code epochMillis} and {@code
+     * values}, in the same order.
+     */
+    @NonNull
+    public static byte[] encode(@NonNull long[] epochMillis, @NonNull double[] values, int count) {
+        if (count < 0 || count > epochMillis.length || count > values.length) {
+            throw new IndexOutOfBoundsException("Invalid sample count " + count);
+        }
+        boolean integerValues = true;
+        for (int i = 0; i < count && integerValues; i++) {
+            integerValues = isInteger(values[i]);
+        }
+
+        byte[] blob = new byte[1 + MAX_VARINT_SIZE * (1 + 2 * count)];
+        blob[0] = integerValues ? FORMAT_INTEGER_VALUES : FORMAT_DOUBLE_VALUES;
+        int offset = writeVarint(blob, 1, count);
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            offset = writeVarint(blob, offset, zigZagEncode(epochMillis[i] - previous));
+            previous = epochMillis[i];
+        }
+        previous = 0;
+        for (int i = 0; i < count; i++) {
+            if (integerValues) {
+                long value = (long) values[i];
+                offset = writeVarint(blob, offset, zigZagEncode(value - previous));
+                previous = value;
+            } else {
+                long bits = Double.doubleToRawLongBits(values[i]);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    blob[offset++] = (byte) (bits >>> shift);
+                }
+            }
+        }
+        return Arrays.copyOf(blob, offset);
+    }
+
+    /** Returns the number of samples stored in {@code blob}. */
+    public static int getSampleCount(@NonNull byte[] blob) {
+        checkFormat(blob);
+        return (int) readVarint(blob, 1);
+    }
+
+    /**
+     * Decodes the samples stored in {@code blob} into {@code epochMillis} and {@code values}, which
+     * must have room for at least {@link #getSampleCount} samples.
+     */
+    public static void decode(
+            @NonNull byte[] blob, @NonNull long[] epochMillis, @NonNull double[] values) {
+        int count = getSampleCount(blob);
+        if (epochMillis.length < count || values.length < count) {
+            throw new IndexOutOfBoundsException("Arrays too small for " + count + " samples");
+        }
+        int offset = skipVarint(blob, 1);
+        long current = 0;
+        for (int i = 0; i < count; i++) {
+            current += zigZagDecode(readVarint(blob, offset));
+            offset = skipVarint(blob, offset);
+            epochMillis[i] = current;
+        }
+        current = 0;
+        for (int i = 0; i < count; i++) {
+            if (blob[0] == FORMAT_INTEGER_VALUES) {
+                current += zigZagDecode(readVarint(blob, offset));
+                offset = skipVarint(blob, offset);
+                values[i] = current;
+            } else {
+                long bits = 0;
+                for (int j = 0; j < Long.BYTES; j++) {
+                    bits = (bits << 8) | (blob[offset++] & 0xFF);
+                }
+                values[i] = Double.longBitsToDouble(bits);
+            }
+        }
+    }
+
+    private static boolean isInteger(double value) {
+        // Compares the bits so that -0.0 and values out of the range of long don't count.
+        return Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits((long) value);
+    }
+
+    private static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int writeVarint(byte[] blob, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            blob[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        blob[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static long readVarint(byte[] blob, int offset) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = blob[offset++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in packed samples");
+    }
+
+    private static int skipVarint(byte[] blob, int offset) {
+        while (blob[offset] < 0) {
+            offset++;
+        }
+        return offset + 1;
+    }
+
+    private static void checkFormat(byte[] blob) {
+        if (blob.length == 0
+                || (blob[0] != FORMAT_INTEGER_VALUES && blob[0] != FORMAT_DOUBLE_VALUES)) {
+            throw new IllegalArgumentException("Unknown packed samples format");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import static com.android.server.healthconnect.storage.utils.StorageUtils.UUID_BYTE_SIZE;
+
+import android.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A growable list of UUIDs, stored as pairs of most and least significant bits in a single long
+ * array rather than as {@link UUID} objects.
+ *
+ * <p>Change logs hold up to hundreds of thousands of UUIDs per page, which this keeps to 16 bytes
+ * each. Not thread safe.
+ *
+ * @hide
+ */
+public final class PackedUuidList {
+    private static final int DEFAULT_CAPACITY = 8;
+
+    // Most significant bits of the i-th UUID at 2 * i, least significant ones at 2 * i + 1.
+    private long[] mBits;
+    private int mSize;
+
+    public PackedUuidList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PackedUuidList(int initialCapacity) {
+        mBits = new long[2 * Math.max(initialCapacity, 1)];
+    }
+
+    /** Returns the number of UUIDs in {@code blob}, as stored by {@link #toByteArray}. */
+    public static int getUuidCount(@NonNull byte[] blob) {
+        return blob.length / UUID_BYTE_SIZE;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /** Returns the most significant bits of the UUID at {@code index}. */
+    public long getMostSignificantBits(int index) {
+        checkIndex(index);
+        return mBits[2 * index];
+    }
+
+    /** Returns the least significant bits of the UUID at {@code index}. */
+    public long getLeastSignificantBits(int index) {
+        checkIndex(index);
+        return mBits[2 * index + 1];
+    }
+
+    /** Returns the UUID at {@code index}, creating a {@link UUID} object for it. */
+    @NonNull
+    public UUID get(int index) {
+        checkIndex(index);
+        return new UUID(mBits[2 * index], mBits[2 * index + 1]);
+    }
+
+    public void add(@NonNull UUID uuid) {
+        add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public void add(long mostSignificantBits, long leastSignificantBits) {
+        ensureCapacity(mSize + 1);
+        mBits[2 * mSize] = mostSignificantBits;
+        mBits[2 * mSize + 1] = leastSignificantBits;
+        mSize++;
+    }
+
+    public void addAll(@NonNull PackedUuidList uuids) {
+        ensureCapacity(mSize + uuids.mSize);
+        System.arraycopy(uuids.mBits, 0, mBits, 2 * mSize, 2 * uuids.mSize);
+        mSize += uuids.mSize;
+    }
+
+    /**
+     * Appends {@code count} UUIDs of {@code blob}, as stored by {@link #toByteArray}, starting with
+     * the one at {@code fromIndex}.
+     */
+    public void addFromBlob(@NonNull byte[] blob, int fromIndex, int count) {
+        if (fromIndex < 0 || count < 0 || fromIndex + count > getUuidCount(blob)) {
+            throw new IndexOutOfBoundsException(
+                    "Range [" + fromIndex + ", " + (fromIndex + count) + ") out of bounds");
+        }
+        ensureCapacity(mSize + count);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(blob);
+        int offset = fromIndex * UUID_BYTE_SIZE;
+        for (int i = 0; i < count; i++) {
+            mBits[2 * mSize] = byteBuffer.getLong(offset);
+            mBits[2 * mSize + 1] = byteBuffer.getLong(offset + Long.BYTES);
+            mSize++;
+            offset += UUID_BYTE_SIZE;
+        }
+    }
+
+    /** Returns the UUIDs as a blob of their big endian bytes, one after another. */
+    @NonNull
+    public byte[] toByteArray() {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(mSize * UUID_BYTE_SIZE);
+        for (int i = 0; i < 2 * mSize; i++) {
+            byteBuffer.putLong(mBits[i]);
+        }
+        return byteBuffer.array();
+    }
+
+    /**
+     * Returns a copy of the most and least significant bits of each UUID, interleaved in the same
+     * order as the UUIDs.
+     */
+    @NonNull
+    public long[] toLongArray() {
+        return Arrays.copyOf(mBits, 2 * mSize);
+    }
+
+    @NonNull
+    public List<UUID> toUuidList() {
+        List<UUID> uuids = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            uuids.add(new UUID(mBits[2 * i], mBits[2 * i + 1]));
+        }
+        return uuids;
+    }
+
+    private void ensureCapacity(int size) {
+        if (2 * size > mBits.length) {
+            mBits = Arrays.copyOf(mBits, Math.max(2 * size, 2 * mBits.length));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds " + mSize);
+        }
+    }
+}
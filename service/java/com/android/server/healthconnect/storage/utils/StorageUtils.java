@@ -204,6 +204,47 @@ public final class StorageUtils {
         return cursor.getBlob(cursor.getColumnIndex(columnName));
     }
 
+    /** Checks if the value of given column is null, using {@code columns} to find the column. */
+    public static boolean isNullValue(Cursor cursor, ColumnIndexCache columns, String columnName) {
+        return cursor.isNull(columns.get(columnName));
+    }
+
+    public static String getCursorString(
+            Cursor cursor, ColumnIndexCache columns, String columnName) {
+        return cursor.getString(columns.get(columnName));
+    }
+
+    public static UUID getCursorUUID(Cursor cursor, ColumnIndexCache columns, String columnName) {
+        return convertBytesToUUID(cursor.getBlob(columns.get(columnName)));
+    }
+
+    public static int getCursorInt(Cursor cursor, ColumnIndexCache columns, String columnName) {
+        return cursor.getInt(columns.get(columnName));
+    }
+
+    /** Reads integer and converts to false anything apart from 1. */
+    public static boolean getIntegerAndConvertToBoolean(
+            Cursor cursor, ColumnIndexCache columns, String columnName) {
+        String value = cursor.getString(columns.get(columnName));
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+        return Integer.parseInt(value) == BOOLEAN_TRUE_VALUE;
+    }
+
+    public static long getCursorLong(Cursor cursor, ColumnIndexCache columns, String columnName) {
+        return cursor.getLong(columns.get(columnName));
+    }
+
+    public static double getCursorDouble(
+            Cursor cursor, ColumnIndexCache columns, String columnName) {
+        return cursor.getDouble(columns.get(columnName));
+    }
+
+    public static byte[] getCursorBlob(Cursor cursor, ColumnIndexCache columns, String columnName) {
+        return cursor.getBlob(columns.get(columnName));
+    }
+
     public static List<String> getCursorStringList(
             Cursor cursor, String columnName, String delimiter) {
         final String values = cursor.getString(cursor.getColumnIndex(columnName));
@@ -404,31 +445,6 @@ public final class StorageUtils {
         return hexStrings;
     }
 
-    public static byte[] getSingleByteArray(List<UUID> uuids) {
-        byte[] allByteArray = new byte[UUID_BYTE_SIZE * uuids.size()];
-
-        ByteBuffer byteBuffer = ByteBuffer.wrap(allByteArray);
-        for (UUID uuid : uuids) {
-            byteBuffer.put(convertUUIDToBytes(uuid));
-        }
-
-        return byteBuffer.array();
-    }
-
-    public static List<UUID> getCursorUUIDList(Cursor cursor, String columnName) {
-        byte[] bytes = cursor.getBlob(cursor.getColumnIndex(columnName));
-        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-
-        List<UUID> uuidList = new ArrayList<>();
-        while (byteBuffer.hasRemaining()) {
-            long high = byteBuffer.getLong();
-            long low = byteBuffer.getLong();
-            uuidList.add(new UUID(high, low));
-        }
-
-        return uuidList;
-    }
-
     /**
      * Returns a quoted id if {@code id} is not quoted. Following examples show the expected return
      * values,
@@ -1,43 +0,0 @@
-/*
- * Copyright (C) 2023 The Android Open Source Project
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.android.server.healthconnect.storage.utils;
-
-import java.time.Duration;
-import java.time.Instant;
-
-/**
- * Time util class for HC storage
- *
- * @hide
- */
-public class TimeUtils {
-    /** Returns duration between start and end time */
-    public static long getDurationInMillis(Instant start, Instant end) {
-        long duration = Duration.between(start, end).toMillis();
-        return duration;
-    }
-
-    /** Returns the recent time among the time instants */
-    public static Instant latest(Instant first, Instant second) {
-        return first.isAfter(second) ? first : second;
-    }
-
-    /** Returns the earliest time among the time instants */
-    public static Instant earliest(Instant first, Instant second) {
-        return second.isAfter(first) ? first : second;
-    }
-}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.healthconnect;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.health.connect.aidl.DeletedLogsParcel;
+import android.health.connect.changelog.ChangeLogsResponse.DeletedLog;
+import android.os.Parcel;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.UUID;
+
+@RunWith(AndroidJUnit4.class)
+public class DeletedLogsParcelTest {
+    private static final long DELETED_TIME = 123456789L;
+
+    @Test
+    public void packedUuids_writeAndRead_returnsDeletedLogs() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        long[] packedUuids = {
+            first.getMostSignificantBits(),
+            first.getLeastSignificantBits(),
+            second.getMostSignificantBits(),
+            second.getLeastSignificantBits()
+        };
+
+        DeletedLogsParcel deserialized =
+                writeAndRead(new DeletedLogsParcel(packedUuids, DELETED_TIME));
+
+        assertThat(deserialized.size()).isEqualTo(2);
+        List<DeletedLog> deletedLogs = deserialized.getDeletedLogs();
+        assertThat(deletedLogs).hasSize(2);
+        assertThat(deletedLogs.get(0).getDeletedRecordId()).isEqualTo(first.toString());
+        assertThat(deletedLogs.get(1).getDeletedRecordId()).isEqualTo(second.toString());
+        assertThat(deletedLogs.get(1).getDeletedTime().toEpochMilli()).isEqualTo(DELETED_TIME);
+    }
+
+    @Test
+    public void deletedLogs_writeAndRead_returnsDeletedLogs() {
+        DeletedLogsParcel deserialized =
+                writeAndRead(
+                        new DeletedLogsParcel(
+                                List.of(
+                                        new DeletedLog("client.id", DELETED_TIME),
+                                        new DeletedLog("other.id", DELETED_TIME + 1))));
+
+        List<DeletedLog> deletedLogs = deserialized.getDeletedLogs();
+        assertThat(deletedLogs).hasSize(2);
+        assertThat(deletedLogs.get(0).getDeletedRecordId()).isEqualTo("client.id");
+        assertThat(deletedLogs.get(1).getDeletedRecordId()).isEqualTo("other.id");
+        assertThat(deletedLogs.get(1).getDeletedTime().toEpochMilli()).isEqualTo(DELETED_TIME + 1);
+    }
+
+    private static DeletedLogsParcel writeAndRead(DeletedLogsParcel deletedLogsParcel) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            deletedLogsParcel.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return DeletedLogsParcel.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.healthconnect;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.health.connect.internal.ParcelUtils;
+import android.os.Parcel;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class ParcelUtilsTest {
+
+    @Test
+    public void putToRequiredMemory_smallPayload_writesOnceAndReadsBack() {
+        assertRoundTrip(/* numValues= */ 10, ParcelUtils.USING_PARCEL);
+    }
+
+    @Test
+    public void putToRequiredMemory_largePayload_writesOnceAndReadsBack() {
+        int numValues = ParcelUtils.IPC_PARCEL_LIMIT / Long.BYTES + 1;
+        assertRoundTrip(numValues, ParcelUtils.USING_SHARED_MEMORY);
+    }
+
+    private static void assertRoundTrip(int numValues, int expectedParcelType) {
+        AtomicInteger writeCount = new AtomicInteger();
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeString("header");
+            ParcelUtils.putToRequiredMemory(
+                    parcel,
+                    /* flags= */ 0,
+                    dest -> {
+                        writeCount.incrementAndGet();
+                        dest.writeInt(numValues);
+                        for (int i = 0; i < numValues; i++) {
+                            dest.writeLong(i);
+                        }
+                    });
+            parcel.writeString("footer");
+            parcel.setDataPosition(0);
+
+            assertThat(writeCount.get()).isEqualTo(1);
+            assertThat(parcel.readString()).isEqualTo("header");
+            int parcelTypePosition = parcel.dataPosition();
+            assertThat(parcel.readInt()).isEqualTo(expectedParcelType);
+            parcel.setDataPosition(parcelTypePosition);
+
+            Parcel data = ParcelUtils.getParcelForSharedMemoryIfRequired(parcel);
+            assertThat(data.readInt()).isEqualTo(numValues);
+            for (int i = 0; i < numValues; i++) {
+                assertThat(data.readLong()).isEqualTo(i);
+            }
+            if (data != parcel) {
+                data.recycle();
+            }
+            assertThat(parcel.readString()).isEqualTo("footer");
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package android.healthconnect;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.hamcrest.CoreMatchers.containsString;
 
 import android.Manifest;
@@ -24,6 +26,7 @@ import android.content.Context;
 import android.health.connect.HealthConnectException;
 import android.health.connect.ratelimiter.RateLimiter;
 import android.health.connect.ratelimiter.RateLimiter.QuotaCategory;
+import android.health.connect.ratelimiter.RateLimiterException;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
@@ -41,6 +44,13 @@ import org.mockito.quality.Strictness;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RateLimiterTest {
     private static final int UID = 1;
@@ -50,6 +60,9 @@ public class RateLimiterTest {
     private static final int MAX_BACKGROUND_CALL_15M = 1000;
     private static final Duration WINDOW_15M = Duration.ofMinutes(15);
     private static final int MEMORY_COST = 20000;
+    // A tenth of the default across apps memory quota, and above a third of the per app one.
+    private static final long LARGE_MEMORY_COST = 10000000;
+    private static final int NUM_THREADS = 8;
 
     private static final UiAutomation UI_AUTOMATION =
             InstrumentationRegistry.getInstrumentation().getUiAutomation();
@@ -196,6 +209,58 @@ public class RateLimiterTest {
         RateLimiter.checkMaxRecordMemoryUsage(value);
     }
 
+    @Test
+    public void testTryAcquireApiCallQuota_concurrentWritesOfOneApp_exactPerAppAccounting()
+            throws Exception {
+        RateLimiter.clearCache();
+        int acquired =
+                tryAcquireMemoryQuotaConcurrently(/* numUids= */ 1, /* attemptsPerUid= */ 40);
+
+        // Default per app memory quota is 35,000,000.
+        assertThat(acquired).isEqualTo(3);
+    }
+
+    @Test
+    public void testTryAcquireApiCallQuota_concurrentWritesOfManyApps_exactAcrossAppsAccounting()
+            throws Exception {
+        RateLimiter.clearCache();
+        int acquired =
+                tryAcquireMemoryQuotaConcurrently(/* numUids= */ 64, /* attemptsPerUid= */ 2);
+
+        // Default across apps memory quota is 100,000,000.
+        assertThat(acquired).isEqualTo(10);
+    }
+
+    @Test
+    public void testTryAcquireApiCallQuota_concurrentReadsOfOneApp_exactCallAccounting()
+            throws Exception {
+        RateLimiter.clearCache();
+        AtomicInteger acquired = new AtomicInteger();
+        Instant startTime = Instant.now();
+        runConcurrently(
+                NUM_THREADS,
+                () -> {
+                    for (int i = 0; i < MAX_BACKGROUND_CALL_15M; i++) {
+                        try {
+                            RateLimiter.tryAcquireApiCallQuota(
+                                    UID, QuotaCategory.QUOTA_CATEGORY_READ, IS_IN_FOREGROUND_FALSE);
+                            acquired.incrementAndGet();
+                        } catch (RateLimiterException e) {
+                            // Expected once the quota is used up.
+                        }
+                    }
+                });
+        Instant endTime = Instant.now();
+
+        // Quota accumulated while the test ran may have been acquired on top of the max quota.
+        assertThat(acquired.get()).isAtLeast(MAX_BACKGROUND_CALL_15M);
+        assertThat(acquired.get())
+                .isAtMost(
+                        MAX_BACKGROUND_CALL_15M
+                                + getCeilQuotaAcquired(
+                                        startTime, endTime, WINDOW_15M, MAX_BACKGROUND_CALL_15M));
+    }
+
     private int getCeilQuotaAcquired(
             Instant startTime, Instant endTime, Duration window, int maxQuota) {
         Duration timeSpent = Duration.between(startTime, endTime);
@@ -228,4 +293,52 @@ public class RateLimiterTest {
             RateLimiter.tryAcquireApiCallQuota(UID, quotaCategory, isInForeground, memoryCost);
         }
     }
+
+    private int tryAcquireMemoryQuotaConcurrently(int numUids, int attemptsPerUid)
+            throws Exception {
+        AtomicInteger acquired = new AtomicInteger();
+        AtomicInteger nextUid = new AtomicInteger();
+        runConcurrently(
+                numUids,
+                () -> {
+                    int uid = UID + nextUid.getAndIncrement();
+                    for (int i = 0; i < attemptsPerUid; i++) {
+                        try {
+                            RateLimiter.tryAcquireApiCallQuota(
+                                    uid,
+                                    QuotaCategory.QUOTA_CATEGORY_WRITE,
+                                    IS_IN_FOREGROUND_FALSE,
+                                    LARGE_MEMORY_COST);
+                            acquired.incrementAndGet();
+                        } catch (RateLimiterException e) {
+                            // Expected once the quota is used up.
+                        }
+                    }
+                });
+        return acquired.get();
+    }
+
+    /** Runs {@code task} {@code times} times on {@link #NUM_THREADS} threads, all at once. */
+    private static void runConcurrently(int times, Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < times; i++) {
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    start.await();
+                                    task.run();
+                                    return null;
+                                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.healthconnect.internal.datatypes;
+
+import static android.healthconnect.internal.datatypes.TestUtils.END_TIME;
+import static android.healthconnect.internal.datatypes.TestUtils.START_TIME;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.health.connect.datatypes.HeartRateRecord;
+import android.health.connect.internal.datatypes.HeartRateRecordInternal;
+import android.os.Parcel;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.UUID;
+
+public class HeartRateRecordInternalTest {
+    // Arrays are larger than the sample count, as when read from the database.
+    private static final long[] EPOCH_MILLIS = {START_TIME, START_TIME + 1000, 0};
+    private static final double[] VALUES = {72, 80, 0};
+    private static final int SAMPLE_COUNT = 2;
+
+    @Test
+    public void setSamples_arrays_getSamplesReturnsSampleObjects() {
+        HeartRateRecordInternal record = buildHeartRateRecordInternal();
+
+        Set<HeartRateRecordInternal.HeartRateSample> samples = record.getSamples();
+
+        assertThat(samples).hasSize(SAMPLE_COUNT);
+        assertThat(samples.stream().map(HeartRateRecordInternal.HeartRateSample::getEpochMillis))
+                .containsExactly(EPOCH_MILLIS[0], EPOCH_MILLIS[1]);
+        assertThat(samples.stream().map(HeartRateRecordInternal.HeartRateSample::getBeatsPerMinute))
+                .containsExactly(72, 80);
+    }
+
+    @Test
+    public void setSamples_arrays_convertsToExternalSamples() {
+        HeartRateRecord record = buildHeartRateRecordInternal().toExternalRecord();
+
+        assertThat(record.getSamples()).hasSize(SAMPLE_COUNT);
+        assertThat(record.getSamples().get(1).getBeatsPerMinute()).isEqualTo(80);
+        assertThat(record.getSamples().get(1).getTime().toEpochMilli()).isEqualTo(EPOCH_MILLIS[1]);
+    }
+
+    @Test
+    public void setSamples_arrays_restoredFromParcelWithSameSamples() {
+        HeartRateRecordInternal record = buildHeartRateRecordInternal();
+
+        Parcel parcel = Parcel.obtain();
+        record.writeToParcel(parcel);
+        parcel.setDataPosition(0);
+        HeartRateRecordInternal restoredRecord = new HeartRateRecordInternal();
+        restoredRecord.populateUsing(parcel);
+        parcel.recycle();
+
+        assertThat(
+                        restoredRecord.getSamples().stream()
+                                .map(HeartRateRecordInternal.HeartRateSample::getBeatsPerMinute))
+                .containsExactly(72, 80);
+    }
+
+    @Test
+    public void setSamples_setAfterArrays_replacesSamples() {
+        HeartRateRecordInternal record = buildHeartRateRecordInternal();
+        HeartRateRecordInternal.HeartRateSample sample =
+                new HeartRateRecordInternal.HeartRateSample(60, START_TIME);
+
+        record.setSamples(Set.of(sample));
+
+        assertThat(record.getSamples()).containsExactly(sample);
+    }
+
+    private static HeartRateRecordInternal buildHeartRateRecordInternal() {
+        HeartRateRecordInternal record = new HeartRateRecordInternal();
+        record.setSamples(EPOCH_MILLIS, VALUES, SAMPLE_COUNT);
+        record.setStartTime(START_TIME)
+                .setEndTime(END_TIME)
+                .setStartZoneOffset(1)
+                .setEndZoneOffset(1)
+                .setAppInfoId(1)
+                .setUuid(UUID.randomUUID())
+                .setPackageName("android.healthconnect.unittests");
+        return record;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_CACHED;
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND_SERVICE;
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_GONE;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.ActivityManager;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(AndroidJUnit4.class)
+public class ForegroundUidTrackerTest {
+    private static final int UID = 10123;
+
+    @Mock private ActivityManager mActivityManager;
+    private ForegroundUidTracker mTracker;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mTracker = new ForegroundUidTracker(mActivityManager);
+    }
+
+    @Test
+    public void constructor_registersImportanceListener() {
+        verify(mActivityManager).addOnUidImportanceListener(mTracker, IMPORTANCE_FOREGROUND);
+    }
+
+    @Test
+    public void isUidInForeground_unknownUid_queriesImportanceOnce() {
+        when(mActivityManager.getUidImportance(UID)).thenReturn(IMPORTANCE_FOREGROUND);
+
+        assertThat(mTracker.isUidInForeground(UID)).isTrue();
+        assertThat(mTracker.isUidInForeground(UID)).isTrue();
+
+        verify(mActivityManager, times(1)).getUidImportance(UID);
+    }
+
+    @Test
+    public void isUidInForeground_importanceChanged_returnsReportedState() {
+        mTracker.onUidImportance(UID, IMPORTANCE_FOREGROUND);
+        assertThat(mTracker.isUidInForeground(UID)).isTrue();
+
+        mTracker.onUidImportance(UID, IMPORTANCE_FOREGROUND_SERVICE);
+        assertThat(mTracker.isUidInForeground(UID)).isFalse();
+
+        mTracker.onUidImportance(UID, IMPORTANCE_FOREGROUND);
+        assertThat(mTracker.isUidInForeground(UID)).isTrue();
+
+        verify(mActivityManager, never()).getUidImportance(UID);
+    }
+
+    @Test
+    public void isUidInForeground_uidGone_queriesImportanceAgain() {
+        mTracker.onUidImportance(UID, IMPORTANCE_FOREGROUND);
+        mTracker.onUidImportance(UID, IMPORTANCE_GONE);
+        when(mActivityManager.getUidImportance(UID)).thenReturn(IMPORTANCE_CACHED);
+
+        assertThat(mTracker.isUidInForeground(UID)).isFalse();
+        verify(mActivityManager).getUidImportance(UID);
+    }
+}
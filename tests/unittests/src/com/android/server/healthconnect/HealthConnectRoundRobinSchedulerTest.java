@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.os.IBinder;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+@RunWith(AndroidJUnit4.class)
+public class HealthConnectRoundRobinSchedulerTest {
+    private final HealthConnectRoundRobinScheduler mScheduler =
+            new HealthConnectRoundRobinScheduler();
+    private final Queue<Runnable> mDispatches = new ArrayDeque<>();
+    private final Executor mExecutor = mDispatches::add;
+    private final List<String> mExecuted = new ArrayList<>();
+    private final List<String> mShed = new ArrayList<>();
+
+    @Test
+    public void runNextTask_runsTasksOfDifferentUidsInRoundRobinOrder() {
+        addTask(1, "a1", false);
+        addTask(1, "a2", false);
+        addTask(2, "b1", false);
+        addTask(3, "c1", false);
+        addTask(2, "b2", false);
+        assertThat(mScheduler.getQueueDepth()).isEqualTo(5);
+
+        for (int i = 0; i < 5; i++) {
+            mScheduler.runNextTask(mExecutor);
+        }
+
+        assertThat(mExecuted).containsExactly("a1", "b1", "c1", "a2", "b2").inOrder();
+        assertThat(mScheduler.getQueueDepth()).isEqualTo(0);
+        assertThat(mScheduler.getMaxQueueDepth()).isEqualTo(5);
+    }
+
+    @Test
+    public void runNextTask_uidHasRunningTask_runsItsNextTaskAfterwards() {
+        mScheduler.addTask(
+                1,
+                () -> {
+                    // Another thread dispatching meanwhile must not run the second task of uid 1.
+                    mScheduler.runNextTask(mExecutor);
+                    mExecuted.add("a1");
+                },
+                false,
+                /* client= */ null,
+                () -> {});
+        addTask(1, "a2", false);
+
+        mScheduler.runNextTask(mExecutor);
+
+        assertThat(mExecuted).containsExactly("a1", "a2").inOrder();
+        assertThat(mDispatches).isEmpty();
+    }
+
+    @Test
+    public void runNextTask_writeRunning_runsReadsOfOtherUidsButNotWrites() {
+        mScheduler.addTask(
+                1,
+                () -> {
+                    mScheduler.runNextTask(mExecutor);
+                    mScheduler.runNextTask(mExecutor);
+                    mExecuted.add("write1");
+                },
+                true,
+                /* client= */ null,
+                () -> {});
+        addTask(2, "write2", true);
+        addTask(3, "read3", false);
+
+        mScheduler.runNextTask(mExecutor);
+
+        assertThat(mExecuted).containsExactly("read3", "write1", "write2").inOrder();
+    }
+
+    @Test
+    public void runNextTask_finishedTaskUnblocksTwoTasks_resumesBothDispatches() {
+        mScheduler.addTask(
+                1,
+                () -> {
+                    mScheduler.runNextTask(mExecutor);
+                    mScheduler.runNextTask(mExecutor);
+                    mExecuted.add("write1");
+                },
+                true,
+                /* client= */ null,
+                () -> {});
+        addTask(1, "read1", false);
+        addTask(2, "write2", true);
+
+        mScheduler.runNextTask(mExecutor);
+        // One of the unblocked tasks ran on the finishing dispatch, the other was dispatched.
+        assertThat(mExecuted).hasSize(2);
+        assertThat(mDispatches).hasSize(1);
+
+        runDispatches();
+        assertThat(mExecuted).containsExactly("write1", "read1", "write2");
+    }
+
+    @Test
+    public void killTasksAndPauseScheduler_dropsTasksUntilResumed() {
+        addTask(1, "a1", false);
+        mScheduler.killTasksAndPauseScheduler();
+        addTask(1, "a2", false);
+        mScheduler.runNextTask(mExecutor);
+
+        assertThat(mExecuted).isEmpty();
+        assertThat(mScheduler.getQueueDepth()).isEqualTo(0);
+
+        mScheduler.resume();
+        addTask(1, "a3", false);
+        mScheduler.runNextTask(mExecutor);
+
+        assertThat(mExecuted).containsExactly("a3");
+    }
+
+    @Test
+    public void addTask_uidHasTooManyTasksQueued_shedsTask() {
+        HealthConnectRoundRobinScheduler scheduler =
+                new HealthConnectRoundRobinScheduler(
+                        /* maxQueuedTasksPerUid= */ 2, /* taskDeadlineMillis= */ 60_000);
+
+        assertThat(addTask(scheduler, 1, "a1")).isTrue();
+        assertThat(addTask(scheduler, 1, "a2")).isTrue();
+        assertThat(addTask(scheduler, 1, "a3")).isFalse();
+        assertThat(addTask(scheduler, 2, "b1")).isTrue();
+        runTasks(scheduler, 3);
+
+        assertThat(mExecuted).containsExactly("a1", "b1", "a2").inOrder();
+        assertThat(mShed).containsExactly("a3");
+        assertThat(scheduler.getShedTaskCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void runNextTask_taskPastDeadline_shedsTask() {
+        HealthConnectRoundRobinScheduler scheduler =
+                new HealthConnectRoundRobinScheduler(
+                        /* maxQueuedTasksPerUid= */ 2, /* taskDeadlineMillis= */ 0);
+        addTask(scheduler, 1, "a1");
+        addTask(scheduler, 2, "b1");
+
+        runTasks(scheduler, 2);
+
+        assertThat(mExecuted).isEmpty();
+        assertThat(mShed).containsExactly("a1", "b1");
+        assertThat(scheduler.getQueueDepth()).isEqualTo(0);
+        assertThat(scheduler.getShedTaskCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void runNextTask_clientDied_dropsTaskWithoutShedding() {
+        IBinder client = mock(IBinder.class);
+        when(client.isBinderAlive()).thenReturn(false);
+        mScheduler.addTask(1, () -> mExecuted.add("a1"), false, client, () -> mShed.add("a1"));
+        addTask(1, "a2", false);
+
+        mScheduler.runNextTask(mExecutor);
+        mScheduler.runNextTask(mExecutor);
+
+        assertThat(mExecuted).containsExactly("a2");
+        assertThat(mShed).isEmpty();
+        assertThat(mScheduler.getQueueDepth()).isEqualTo(0);
+        assertThat(mScheduler.getDeadClientTaskCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void runNextTask_countsTasksInWaitTimeHistogram() {
+        addTask(1, "a1", false);
+        addTask(2, "b1", true);
+
+        runTasks(mScheduler, 2);
+
+        assertThat(Arrays.stream(mScheduler.getWaitTimeHistogram()).sum()).isEqualTo(2);
+        assertThat(mScheduler.getWaitTimeHistogram())
+                .hasLength(
+                        HealthConnectRoundRobinScheduler.getWaitTimeHistogramBucketMillis().length
+                                + 1);
+
+        mScheduler.killTasksAndPauseScheduler();
+        mScheduler.resume();
+        assertThat(Arrays.stream(mScheduler.getWaitTimeHistogram()).sum()).isEqualTo(0);
+    }
+
+    private boolean addTask(HealthConnectRoundRobinScheduler scheduler, int uid, String name) {
+        return scheduler.addTask(
+                uid, () -> mExecuted.add(name), false, /* client= */ null, () -> mShed.add(name));
+    }
+
+    private void runTasks(HealthConnectRoundRobinScheduler scheduler, int dispatches) {
+        for (int i = 0; i < dispatches; i++) {
+            scheduler.runNextTask(mExecutor);
+        }
+    }
+
+    private void addTask(int uid, String name, boolean isWrite) {
+        mScheduler.addTask(uid, () -> mExecuted.add(name), isWrite, /* client= */ null, () -> {});
+    }
+
+    private void runDispatches() {
+        Runnable dispatch;
+        while ((dispatch = mDispatches.poll()) != null) {
+            dispatch.run();
+        }
+    }
+}
@@ -16,6 +16,11 @@
 
 package com.android.server.healthconnect;
 
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_CACHED;
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.when;
 
 import android.app.ActivityManager;
@@ -33,8 +38,13 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 @RunWith(AndroidJUnit4.class)
 public class HealthConnectThreadSchedulerTest {
@@ -48,7 +58,8 @@ public class HealthConnectThreadSchedulerTest {
     private long mBackgroundTaskSchedulerCompletedJobs;
     private Context mContext;
 
-    @Mock private Context mMockContext;
+    private ForegroundUidTracker mForegroundUidTracker;
+
     @Mock private ActivityManager mActivityManager;
 
     @Before
@@ -56,6 +67,9 @@ public class HealthConnectThreadSchedulerTest {
         MockitoAnnotations.initMocks(this);
 
         HealthConnectThreadScheduler.resetThreadPools();
+        when(mActivityManager.getUidImportance(anyInt())).thenReturn(IMPORTANCE_CACHED);
+        mForegroundUidTracker = new ForegroundUidTracker(mActivityManager);
+        HealthConnectThreadScheduler.sForegroundUidTracker = mForegroundUidTracker;
 
         mInternalTaskScheduler = HealthConnectThreadScheduler.sInternalBackgroundExecutor;
         mInternalTaskSchedulerCompletedJobs = mInternalTaskScheduler.getCompletedTaskCount();
@@ -86,7 +100,8 @@ public class HealthConnectThreadSchedulerTest {
                         throw new RuntimeException();
                     }
                 });
-        HealthConnectThreadScheduler.schedule(mContext, () -> {}, Process.myUid(), false);
+        HealthConnectThreadScheduler.schedule(
+                mContext, () -> {}, Process.myUid(), false, false, null, e -> {});
         TestUtils.waitForTaskToFinishSuccessfully(
                 () -> {
                     if (mBackgroundTaskScheduler.getCompletedTaskCount()
@@ -95,15 +110,10 @@ public class HealthConnectThreadSchedulerTest {
                     }
                 });
 
-        when(mMockContext.getSystemService(ActivityManager.class)).thenReturn(mActivityManager);
-        ActivityManager.RunningAppProcessInfo runningAppProcessInfo =
-                new ActivityManager.RunningAppProcessInfo();
-        runningAppProcessInfo.uid = Process.myUid();
-        runningAppProcessInfo.importance =
-                ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
-        when(mActivityManager.getRunningAppProcesses()).thenReturn(List.of(runningAppProcessInfo));
+        mForegroundUidTracker.onUidImportance(Process.myUid(), IMPORTANCE_FOREGROUND);
 
-        HealthConnectThreadScheduler.schedule(mMockContext, () -> {}, Process.myUid(), false);
+        HealthConnectThreadScheduler.schedule(
+                mContext, () -> {}, Process.myUid(), false, false, null, e -> {});
         TestUtils.waitForTaskToFinishSuccessfully(
                 () -> {
                     if (mForegroundTaskScheduler.getCompletedTaskCount()
@@ -114,34 +124,130 @@ public class HealthConnectThreadSchedulerTest {
     }
 
     @Test
-    public void testHealthConnectScheduler_runningAppProcessNull() throws Exception {
-        when(mMockContext.getSystemService(ActivityManager.class)).thenReturn(mActivityManager);
-        when(mActivityManager.getRunningAppProcesses()).thenReturn(null);
+    public void testHealthConnectSchedulerClear() {
+        Truth.assertThat(mInternalTaskSchedulerCompletedJobs).isEqualTo(0);
+        Truth.assertThat(mControllerTaskSchedulerCompletedJobs).isEqualTo(0);
+        Truth.assertThat(mForegroundTaskSchedulerCompletedJobs).isEqualTo(0);
+        Truth.assertThat(mBackgroundTaskSchedulerCompletedJobs).isEqualTo(0);
+    }
 
-        HealthConnectThreadScheduler.scheduleInternalTask(() -> {});
-        TestUtils.waitForTaskToFinishSuccessfully(
+    @Test
+    public void testScheduleReadsOfDifferentUids_runInParallel() throws Exception {
+        HealthConnectThreadScheduler.setClientThreadCounts(2, 2);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch finished = new CountDownLatch(2);
+        Runnable task =
                 () -> {
-                    if (mInternalTaskScheduler.getCompletedTaskCount()
-                            != mInternalTaskSchedulerCompletedJobs + 1) {
-                        throw new RuntimeException();
+                    started.countDown();
+                    try {
+                        // Only completes if the other task runs at the same time.
+                        if (started.await(5, TimeUnit.SECONDS)) {
+                            finished.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
                     }
-                });
+                };
+
+        try {
+            HealthConnectThreadScheduler.schedule(
+                    mContext,
+                    task,
+                    Process.myUid(),
+                    false,
+                    /* isWrite= */ false,
+                    /* callback= */ null,
+                    e -> {});
+            HealthConnectThreadScheduler.schedule(
+                    mContext,
+                    task,
+                    Process.myUid() + 1,
+                    false,
+                    /* isWrite= */ false,
+                    /* callback= */ null,
+                    e -> {});
+
+            Truth.assertThat(finished.await(10, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            HealthConnectThreadScheduler.setClientThreadCounts(
+                    HealthConnectDeviceConfigManager.FOREGROUND_THREAD_COUNT_DEFAULT_FLAG_VALUE,
+                    HealthConnectDeviceConfigManager.BACKGROUND_THREAD_COUNT_DEFAULT_FLAG_VALUE);
+        }
     }
 
     @Test
-    public void testHealthConnectSchedulerClear() {
-        Truth.assertThat(mInternalTaskSchedulerCompletedJobs).isEqualTo(0);
-        Truth.assertThat(mControllerTaskSchedulerCompletedJobs).isEqualTo(0);
-        Truth.assertThat(mForegroundTaskSchedulerCompletedJobs).isEqualTo(0);
-        Truth.assertThat(mBackgroundTaskSchedulerCompletedJobs).isEqualTo(0);
+    public void testRunParallelReads_returnsResultsInOrder() {
+        List<Supplier<Integer>> reads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int result = i;
+            reads.add(() -> result);
+        }
+
+        Truth.assertThat(HealthConnectThreadScheduler.runParallelReads(reads))
+                .containsExactlyElementsIn(IntStream.range(0, 20).boxed().toList())
+                .inOrder();
+    }
+
+    @Test
+    public void testRunParallelReads_runInParallel() {
+        HealthConnectThreadScheduler.setReadParallelism(2);
+        CountDownLatch started = new CountDownLatch(2);
+        Supplier<Boolean> read =
+                () -> {
+                    started.countDown();
+                    try {
+                        // Only returns true if the other read runs at the same time.
+                        return started.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                };
+
+        try {
+            Truth.assertThat(HealthConnectThreadScheduler.runParallelReads(List.of(read, read)))
+                    .containsExactly(true, true);
+        } finally {
+            HealthConnectThreadScheduler.setReadParallelism(
+                    HealthConnectDeviceConfigManager.READ_PARALLELISM_DEFAULT_FLAG_VALUE);
+        }
+    }
+
+    @Test
+    public void testRunParallelReads_readFails_throwsItsException() {
+        IllegalStateException exception = new IllegalStateException();
+        List<Supplier<Integer>> reads =
+                List.of(
+                        () -> 1,
+                        () -> {
+                            throw exception;
+                        },
+                        () -> 3);
+
+        IllegalStateException thrown =
+                assertThrows(
+                        IllegalStateException.class,
+                        () -> HealthConnectThreadScheduler.runParallelReads(reads));
+        Truth.assertThat(thrown).isSameInstanceAs(exception);
+    }
+
+    @Test
+    public void testRunParallelReadsAfterTheSchedulersAreShutdown_runsOnCallingThread() {
+        HealthConnectThreadScheduler.shutdownThreadPools();
+
+        Truth.assertThat(HealthConnectThreadScheduler.runParallelReads(List.of(() -> 1, () -> 2)))
+                .containsExactly(1, 2)
+                .inOrder();
     }
 
     @Test
     public void testScheduleAfterTheSchedulersAreShutdown_expectNoException() {
         HealthConnectThreadScheduler.shutdownThreadPools();
 
-        HealthConnectThreadScheduler.schedule(mContext, () -> {}, Process.myUid(), false);
-        HealthConnectThreadScheduler.schedule(mContext, () -> {}, Process.myUid(), true);
+        HealthConnectThreadScheduler.schedule(
+                mContext, () -> {}, Process.myUid(), false, false, null, e -> {});
+        HealthConnectThreadScheduler.schedule(
+                mContext, () -> {}, Process.myUid(), true, false, null, e -> {});
         HealthConnectThreadScheduler.scheduleInternalTask(() -> {});
         HealthConnectThreadScheduler.scheduleControllerTask(() -> {});
     }
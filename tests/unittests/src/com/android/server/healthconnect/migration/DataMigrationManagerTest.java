@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.migration;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper.APPLICATION_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.StepsRecordHelper.STEPS_TABLE_NAME;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorString;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.database.Cursor;
+import android.health.connect.HealthDataCategory;
+import android.health.connect.datatypes.DataOrigin;
+import android.health.connect.datatypes.Metadata;
+import android.health.connect.datatypes.StepsRecord;
+import android.health.connect.migration.AppInfoMigrationPayload;
+import android.health.connect.migration.MigrationEntity;
+import android.health.connect.migration.PriorityMigrationPayload;
+import android.health.connect.migration.RecordMigrationPayload;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.permission.FirstGrantTimeManager;
+import com.android.server.healthconnect.permission.HealthConnectPermissionHelper;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.DatabaseHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.DeviceInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.HealthConnectDatabaseTestRule;
+import com.android.server.healthconnect.storage.datatypehelpers.HealthDataCategoryPriorityHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.MigrationEntityHelper;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class DataMigrationManagerTest {
+    private static final String APP_PACKAGE_NAME = "android.healthconnect.mocked.app";
+    private static final String RECORD_APP_NAME = "Record app name";
+    private static final String MIGRATED_APP_NAME = "Migrated app name";
+    private static final Instant START_TIME = Instant.ofEpochMilli(1_700_000_000_000L);
+
+    @Rule public final HealthConnectDatabaseTestRule testRule = new HealthConnectDatabaseTestRule();
+
+    @Mock HealthConnectPermissionHelper mHealthConnectPermissionHelper;
+    @Mock FirstGrantTimeManager mFirstGrantTimeManager;
+    @Mock HealthDataCategoryPriorityHelper mHealthDataCategoryPriorityHelper;
+    @Mock PriorityMigrationHelper mPriorityMigrationHelper;
+
+    private TransactionManager mTransactionManager;
+    private DataMigrationManager mDataMigrationManager;
+    private final List<Long> mStepsCountsOnPriorityMigration = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        HealthConnectUserContext context = testRule.getUserContext();
+        mTransactionManager = TransactionManager.getInstance(context);
+        DatabaseHelper.clearAllData(mTransactionManager);
+
+        doAnswer(
+                        invocation -> {
+                            mStepsCountsOnPriorityMigration.add(
+                                    mTransactionManager.getNumberOfEntriesInTheTable(
+                                            STEPS_TABLE_NAME));
+                            return null;
+                        })
+                .when(mHealthDataCategoryPriorityHelper)
+                .setPriorityOrder(anyInt(), any());
+
+        mDataMigrationManager =
+                new DataMigrationManager(
+                        context,
+                        mTransactionManager,
+                        mHealthConnectPermissionHelper,
+                        mFirstGrantTimeManager,
+                        DeviceInfoHelper.getInstance(),
+                        AppInfoHelper.getInstance(),
+                        MigrationEntityHelper.getInstance(),
+                        RecordHelperProvider.getInstance(),
+                        mHealthDataCategoryPriorityHelper,
+                        mPriorityMigrationHelper,
+                        ActivityDateHelper.getInstance());
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseHelper.clearAllData(mTransactionManager);
+        TransactionManager.clearInstance();
+    }
+
+    @Test
+    public void apply_recordsMixedWithAppInfoAndPriority_migratesPrecedingRecordsFirst()
+            throws DataMigrationManager.EntityWriteException {
+        mDataMigrationManager.apply(getMixedEntities());
+
+        // The app info only replaces an existing row, which the first record inserted.
+        assertThat(getAppNames()).containsExactly(MIGRATED_APP_NAME);
+        // Both records precede the priority, so both are written before it is migrated.
+        assertThat(mStepsCountsOnPriorityMigration).containsExactly(2L);
+        assertThat(mTransactionManager.getNumberOfEntriesInTheTable(STEPS_TABLE_NAME))
+                .isEqualTo(3L);
+        verify(mHealthDataCategoryPriorityHelper)
+                .setPriorityOrder(eq(HealthDataCategory.ACTIVITY), eq(List.of(APP_PACKAGE_NAME)));
+    }
+
+    @Test
+    public void apply_sameEntitiesTwice_migratesEachEntityOnce()
+            throws DataMigrationManager.EntityWriteException {
+        mDataMigrationManager.apply(getMixedEntities());
+        mDataMigrationManager.apply(getMixedEntities());
+
+        assertThat(mTransactionManager.getNumberOfEntriesInTheTable(STEPS_TABLE_NAME))
+                .isEqualTo(3L);
+        assertThat(getAppNames()).containsExactly(MIGRATED_APP_NAME);
+        verify(mHealthDataCategoryPriorityHelper, times(1)).setPriorityOrder(anyInt(), any());
+    }
+
+    /**
+     * Returns new entities each time, so that records get their UUIDs from their client record IDs
+     * again rather than reusing the ones set by a previous migration.
+     */
+    private static List<MigrationEntity> getMixedEntities() {
+        return List.of(
+                getStepsEntity("steps1", START_TIME),
+                new MigrationEntity(
+                        "appInfo",
+                        new AppInfoMigrationPayload.Builder(APP_PACKAGE_NAME, MIGRATED_APP_NAME)
+                                .build()),
+                getStepsEntity("steps2", START_TIME.plusSeconds(60)),
+                new MigrationEntity(
+                        "priority",
+                        new PriorityMigrationPayload.Builder()
+                                .setDataCategory(HealthDataCategory.ACTIVITY)
+                                .addDataOrigin(
+                                        new DataOrigin.Builder()
+                                                .setPackageName(APP_PACKAGE_NAME)
+                                                .build())
+                                .build()),
+                getStepsEntity("steps3", START_TIME.plusSeconds(120)));
+    }
+
+    private static MigrationEntity getStepsEntity(String clientRecordId, Instant startTime) {
+        StepsRecord record =
+                new StepsRecord.Builder(
+                                new Metadata.Builder()
+                                        .setDataOrigin(
+                                                new DataOrigin.Builder()
+                                                        .setPackageName(APP_PACKAGE_NAME)
+                                                        .build())
+                                        .setClientRecordId(clientRecordId)
+                                        .build(),
+                                startTime,
+                                startTime.plusSeconds(60),
+                                100)
+                        .build();
+        return new MigrationEntity(
+                clientRecordId,
+                new RecordMigrationPayload.Builder(APP_PACKAGE_NAME, RECORD_APP_NAME, record)
+                        .build());
+    }
+
+    private List<String> getAppNames() {
+        List<String> appNames = new ArrayList<>();
+        try (Cursor cursor =
+                mTransactionManager.read(new ReadTableRequest(AppInfoHelper.TABLE_NAME))) {
+            while (cursor.moveToNext()) {
+                appNames.add(getCursorString(cursor, APPLICATION_COLUMN_NAME));
+            }
+        }
+        return appNames;
+    }
+}
@@ -207,4 +207,38 @@ public class ServerSideMigrationConstantsTest {
         assertThat(sHealthConnectDeviceConfigManager.isPauseStateChangeJobEnabled())
                 .isEqualTo(false);
     }
+
+    @Test
+    public void testSnapshot_changeValueInDeviceConfig_keepsPreviousValue() {
+        sHealthConnectDeviceConfigManager.onPropertiesChanged(
+                createProperties(COUNT_MIGRATION_STATE_ALLOWED_FLAG, VALUE_TO_SET));
+        HealthConnectDeviceConfigManager.Snapshot snapshot =
+                sHealthConnectDeviceConfigManager.getSnapshot();
+
+        sHealthConnectDeviceConfigManager.onPropertiesChanged(
+                createProperties(COUNT_MIGRATION_STATE_ALLOWED_FLAG, VALUE_TO_SET + 1));
+
+        assertThat(snapshot.getMigrationStateAllowedCount()).isEqualTo(VALUE_TO_SET);
+        assertThat(sHealthConnectDeviceConfigManager.getSnapshot().getMigrationStateAllowedCount())
+                .isEqualTo(VALUE_TO_SET + 1);
+    }
+
+    @Test
+    public void testOtherValueChangedInDeviceConfig_keepsChangedValue() {
+        sHealthConnectDeviceConfigManager.onPropertiesChanged(
+                createProperties(MAX_START_MIGRATION_CALLS_ALLOWED_FLAG, VALUE_TO_SET));
+
+        sHealthConnectDeviceConfigManager.onPropertiesChanged(
+                createProperties(IDLE_STATE_TIMEOUT_DAYS_FLAG, VALUE_TO_SET));
+
+        assertThat(sHealthConnectDeviceConfigManager.getMaxStartMigrationCalls())
+                .isEqualTo(VALUE_TO_SET);
+        assertThat(sHealthConnectDeviceConfigManager.getIdleStateTimeoutPeriod())
+                .isEqualTo(Duration.ofDays(VALUE_TO_SET));
+    }
+
+    private static DeviceConfig.Properties createProperties(String flag, int value) {
+        return new DeviceConfig.Properties(
+                DeviceConfig.NAMESPACE_HEALTH_FITNESS, Map.of(flag, Integer.toString(value)));
+    }
 }
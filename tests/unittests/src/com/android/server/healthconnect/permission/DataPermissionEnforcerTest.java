@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.permission;
+
+import static android.content.pm.PackageManager.PERMISSION_GRANTED;
+import static android.health.connect.HealthPermissions.READ_STEPS;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+import static android.permission.PermissionManager.PERMISSION_HARD_DENIED;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.AttributionSource;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.permission.PermissionManager;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class DataPermissionEnforcerTest {
+    private static final AttributionSource ATTRIBUTION_SOURCE =
+            new AttributionSource.Builder(/* uid= */ 10001).setPackageName("package.name").build();
+
+    @Mock private PermissionManager mPermissionManager;
+    @Mock private Context mContext;
+    @Mock private PackageManager mPackageManager;
+    @Mock private HealthConnectDeviceConfigManager mDeviceConfigManager;
+
+    private DataPermissionEnforcer mDataPermissionEnforcer;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mPermissionManager.checkPermissionForDataDelivery(any(), any(), any()))
+                .thenReturn(PERMISSION_GRANTED);
+        mDataPermissionEnforcer =
+                new DataPermissionEnforcer(mPermissionManager, mContext, mDeviceConfigManager);
+    }
+
+    @Test
+    public void enforceRecordIdsReadPermissions_repeatedRequests_checksPermissionOnce() {
+        for (int i = 0; i < 3; i++) {
+            mDataPermissionEnforcer.enforceRecordIdsReadPermissions(
+                    List.of(RECORD_TYPE_STEPS), ATTRIBUTION_SOURCE);
+        }
+
+        verify(mPermissionManager, times(1))
+                .checkPermissionForDataDelivery(eq(READ_STEPS), eq(ATTRIBUTION_SOURCE), isNull());
+    }
+
+    @Test
+    public void enforceRecordIdsReadPermissions_denied_throwsAndChecksPermissionOnce() {
+        when(mPermissionManager.checkPermissionForDataDelivery(any(), any(), any()))
+                .thenReturn(PERMISSION_HARD_DENIED);
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(
+                    SecurityException.class,
+                    () ->
+                            mDataPermissionEnforcer.enforceRecordIdsReadPermissions(
+                                    List.of(RECORD_TYPE_STEPS), ATTRIBUTION_SOURCE));
+        }
+
+        verify(mPermissionManager, times(1))
+                .checkPermissionForDataDelivery(eq(READ_STEPS), eq(ATTRIBUTION_SOURCE), isNull());
+    }
+
+    @Test
+    public void enforceRecordIdsReadPermissions_permissionsChanged_checksPermissionAgain() {
+        mDataPermissionEnforcer.enforceRecordIdsReadPermissions(
+                List.of(RECORD_TYPE_STEPS), ATTRIBUTION_SOURCE);
+        when(mPermissionManager.checkPermissionForDataDelivery(any(), any(), any()))
+                .thenReturn(PERMISSION_HARD_DENIED);
+
+        mDataPermissionEnforcer.onPermissionsChanged(ATTRIBUTION_SOURCE.getUid());
+
+        assertThrows(
+                SecurityException.class,
+                () ->
+                        mDataPermissionEnforcer.enforceRecordIdsReadPermissions(
+                                List.of(RECORD_TYPE_STEPS), ATTRIBUTION_SOURCE));
+        verify(mPermissionManager, times(2))
+                .checkPermissionForDataDelivery(eq(READ_STEPS), eq(ATTRIBUTION_SOURCE), isNull());
+    }
+
+    @Test
+    public void enforceRecordIdsReadPermissions_otherUid_checksPermissionAgain() {
+        AttributionSource otherAttributionSource =
+                new AttributionSource.Builder(/* uid= */ 10002)
+                        .setPackageName("other.package.name")
+                        .build();
+
+        mDataPermissionEnforcer.enforceRecordIdsReadPermissions(
+                List.of(RECORD_TYPE_STEPS), ATTRIBUTION_SOURCE);
+        mDataPermissionEnforcer.enforceRecordIdsReadPermissions(
+                List.of(RECORD_TYPE_STEPS), otherAttributionSource);
+
+        verify(mPermissionManager)
+                .checkPermissionForDataDelivery(eq(READ_STEPS), eq(ATTRIBUTION_SOURCE), isNull());
+        verify(mPermissionManager)
+                .checkPermissionForDataDelivery(
+                        eq(READ_STEPS), eq(otherAttributionSource), isNull());
+    }
+}
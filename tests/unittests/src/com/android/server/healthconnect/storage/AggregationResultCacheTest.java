@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_WEIGHT;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.StepsRecordHelper.STEPS_TABLE_NAME;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.health.connect.AggregateRecordsRequest;
+import android.health.connect.TimeInstantRangeFilter;
+import android.health.connect.aidl.AggregateDataRequestParcel;
+import android.health.connect.aidl.AggregateDataResponseParcel;
+import android.health.connect.datatypes.AggregationType;
+import android.health.connect.datatypes.StepsRecord;
+import android.health.connect.datatypes.TotalCaloriesBurnedRecord;
+import android.health.connect.datatypes.WheelchairPushesRecord;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class AggregationResultCacheTest {
+    private static final String TEST_PACKAGE_NAME = "package.name";
+    private static final long START_TIME_MILLIS = 1_700_000_000_000L;
+    private static final long END_TIME_MILLIS = START_TIME_MILLIS + 86_400_000L;
+
+    private AggregationResultCache mAggregationResultCache;
+    private int mNumberOfAggregations;
+
+    @Before
+    public void setup() {
+        mAggregationResultCache = new AggregationResultCache();
+    }
+
+    @Test
+    public void getOrAggregate_sameRequest_aggregatesOnce() {
+        AggregateDataResponseParcel response = getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        assertThat(getOrAggregate(createKey(TEST_PACKAGE_NAME))).isSameInstanceAs(response);
+        assertThat(mNumberOfAggregations).isEqualTo(1);
+    }
+
+    @Test
+    public void getOrAggregate_aggregationTypesInOtherOrder_aggregatesOnce() {
+        getOrAggregate(
+                createKey(
+                        StepsRecord.STEPS_COUNT_TOTAL,
+                        WheelchairPushesRecord.WHEEL_CHAIR_PUSHES_COUNT_TOTAL));
+
+        getOrAggregate(
+                createKey(
+                        WheelchairPushesRecord.WHEEL_CHAIR_PUSHES_COUNT_TOTAL,
+                        StepsRecord.STEPS_COUNT_TOTAL));
+
+        assertThat(mNumberOfAggregations).isEqualTo(1);
+    }
+
+    @Test
+    public void getOrAggregate_otherPackage_aggregatesAgain() {
+        getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        getOrAggregate(createKey("other.package.name"));
+
+        assertThat(mNumberOfAggregations).isEqualTo(2);
+    }
+
+    @Test
+    public void getOrAggregate_aggregatedRecordTypeChanged_aggregatesAgain() {
+        getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        mAggregationResultCache.onRecordTypeChanged(RECORD_TYPE_STEPS);
+        getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        assertThat(mNumberOfAggregations).isEqualTo(2);
+    }
+
+    @Test
+    public void getOrAggregate_otherRecordTypeChanged_aggregatesOnce() {
+        getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        mAggregationResultCache.onRecordTypeChanged(RECORD_TYPE_HEART_RATE);
+        getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        assertThat(mNumberOfAggregations).isEqualTo(1);
+    }
+
+    @Test
+    public void getOrAggregate_aggregatedTableChanged_aggregatesAgain() {
+        getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        mAggregationResultCache.onTablesChanged(List.of(STEPS_TABLE_NAME));
+        getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        assertThat(mNumberOfAggregations).isEqualTo(2);
+    }
+
+    @Test
+    public void getOrAggregate_derivedFromRecordTypeChanged_aggregatesAgain() {
+        getOrAggregate(createKey(TotalCaloriesBurnedRecord.ENERGY_TOTAL));
+
+        mAggregationResultCache.onRecordTypeChanged(RECORD_TYPE_WEIGHT);
+        getOrAggregate(createKey(TotalCaloriesBurnedRecord.ENERGY_TOTAL));
+
+        assertThat(mNumberOfAggregations).isEqualTo(2);
+    }
+
+    @Test
+    public void getOrAggregate_invalidateAll_aggregatesAgain() {
+        getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        mAggregationResultCache.invalidateAll();
+        getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        assertThat(mNumberOfAggregations).isEqualTo(2);
+    }
+
+    @Test
+    public void getOrAggregate_changedWhileAggregating_aggregatesAgain() {
+        mAggregationResultCache.getOrAggregate(
+                createKey(TEST_PACKAGE_NAME),
+                () -> {
+                    mAggregationResultCache.onRecordTypeChanged(RECORD_TYPE_STEPS);
+                    return aggregate();
+                });
+
+        getOrAggregate(createKey(TEST_PACKAGE_NAME));
+
+        assertThat(mNumberOfAggregations).isEqualTo(2);
+    }
+
+    private AggregateDataResponseParcel getOrAggregate(AggregationResultCache.Key key) {
+        return mAggregationResultCache.getOrAggregate(key, this::aggregate);
+    }
+
+    private AggregateDataResponseParcel aggregate() {
+        mNumberOfAggregations++;
+        return new AggregateDataResponseParcel(List.of());
+    }
+
+    private static AggregationResultCache.Key createKey(String packageName) {
+        return createKey(packageName, List.of(StepsRecord.STEPS_COUNT_TOTAL));
+    }
+
+    @SafeVarargs
+    private static <T> AggregationResultCache.Key createKey(AggregationType<T>... types) {
+        return createKey(TEST_PACKAGE_NAME, List.of(types));
+    }
+
+    private static <T> AggregationResultCache.Key createKey(
+            String packageName, List<AggregationType<T>> aggregationTypes) {
+        AggregateRecordsRequest.Builder<T> builder =
+                new AggregateRecordsRequest.Builder<>(
+                        new TimeInstantRangeFilter.Builder()
+                                .setStartTime(Instant.ofEpochMilli(START_TIME_MILLIS))
+                                .setEndTime(Instant.ofEpochMilli(END_TIME_MILLIS))
+                                .build());
+        for (AggregationType<T> aggregationType : aggregationTypes) {
+            builder.addAggregationType(aggregationType);
+        }
+        return new AggregationResultCache.Key(
+                packageName,
+                new AggregateDataRequestParcel(builder.build()),
+                START_TIME_MILLIS,
+                /* aggregationSourceControlsEnabled= */ false);
+    }
+}
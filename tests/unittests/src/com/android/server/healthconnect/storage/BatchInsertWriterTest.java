@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class BatchInsertWriterTest {
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL(
+                "CREATE TABLE parent (row_id INTEGER PRIMARY KEY AUTOINCREMENT, uuid TEXT UNIQUE,"
+                        + " value REAL, data BLOB)");
+        mDb.execSQL("CREATE TABLE child (parent_key INTEGER, sample INTEGER)");
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void insert_insertsRowsAndChildren() {
+        try (BatchInsertWriter writer = new BatchInsertWriter(mDb)) {
+            for (int i = 0; i < 3; i++) {
+                UpsertTableRequest request = parentRequest("uuid" + i, i * 1.5);
+                request.setChildTableRequests(List.of(childRequest(i), childRequest(i + 10)));
+
+                assertThat(writer.insert(request)).isEqualTo(i + 1);
+            }
+        }
+
+        try (Cursor cursor = mDb.rawQuery("SELECT uuid, value, data FROM parent", null)) {
+            assertThat(cursor.getCount()).isEqualTo(3);
+            cursor.moveToLast();
+            assertThat(cursor.getString(0)).isEqualTo("uuid2");
+            assertThat(cursor.getDouble(1)).isEqualTo(3.0);
+            assertThat(cursor.getBlob(2)).isEqualTo(new byte[] {3});
+        }
+        try (Cursor cursor =
+                mDb.rawQuery(
+                        "SELECT sample FROM child WHERE parent_key = 3 ORDER BY sample", null)) {
+            assertThat(cursor.getCount()).isEqualTo(2);
+            cursor.moveToFirst();
+            assertThat(cursor.getLong(0)).isEqualTo(2);
+            cursor.moveToNext();
+            assertThat(cursor.getLong(0)).isEqualTo(12);
+        }
+    }
+
+    @Test
+    public void insert_differentColumnSets_bindsEachCorrectly() {
+        try (BatchInsertWriter writer = new BatchInsertWriter(mDb)) {
+            writer.insert(parentRequest("a", 1));
+            ContentValues withoutValue = new ContentValues();
+            withoutValue.put("uuid", "b");
+            writer.insert(new UpsertTableRequest("parent", withoutValue));
+            writer.insert(parentRequest("c", 3));
+        }
+
+        try (Cursor cursor = mDb.rawQuery("SELECT uuid, value FROM parent ORDER BY uuid", null)) {
+            assertThat(cursor.getCount()).isEqualTo(3);
+            cursor.moveToPosition(1);
+            assertThat(cursor.getString(0)).isEqualTo("b");
+            assertThat(cursor.isNull(1)).isTrue();
+            cursor.moveToPosition(2);
+            assertThat(cursor.getDouble(1)).isEqualTo(3.0);
+        }
+    }
+
+    @Test
+    public void insert_conflict_throwsAndWriterStaysUsable() {
+        try (BatchInsertWriter writer = new BatchInsertWriter(mDb)) {
+            writer.insert(parentRequest("a", 1));
+
+            assertThrows(
+                    SQLiteConstraintException.class,
+                    () -> writer.insert(parentRequest("a", 2), SQLiteDatabase.CONFLICT_FAIL));
+            assertThat(writer.insert(parentRequest("a", 2), SQLiteDatabase.CONFLICT_IGNORE))
+                    .isEqualTo(-1);
+            writer.insert(parentRequest("b", 2));
+        }
+
+        try (Cursor cursor = mDb.rawQuery("SELECT uuid FROM parent", null)) {
+            assertThat(cursor.getCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void insertOrIgnore_conflict_skipsRowAndChildren() {
+        try (BatchInsertWriter writer = new BatchInsertWriter(mDb)) {
+            UpsertTableRequest request = parentRequest("a", 1);
+            request.setChildTableRequests(List.of(childRequest(1)));
+            assertThat(writer.insertOrIgnore(request)).isEqualTo(1);
+
+            UpsertTableRequest conflictingRequest = parentRequest("a", 2);
+            conflictingRequest.setChildTableRequests(List.of(childRequest(2)));
+            assertThat(writer.insertOrIgnore(conflictingRequest)).isEqualTo(-1);
+        }
+
+        try (Cursor cursor = mDb.rawQuery("SELECT value FROM parent", null)) {
+            assertThat(cursor.getCount()).isEqualTo(1);
+            cursor.moveToFirst();
+            assertThat(cursor.getDouble(0)).isEqualTo(1.0);
+        }
+        try (Cursor cursor = mDb.rawQuery("SELECT sample FROM child", null)) {
+            assertThat(cursor.getCount()).isEqualTo(1);
+            cursor.moveToFirst();
+            assertThat(cursor.getLong(0)).isEqualTo(1);
+        }
+    }
+
+    private static UpsertTableRequest parentRequest(String uuid, double value) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put("uuid", uuid);
+        contentValues.put("value", value);
+        contentValues.put("data", new byte[] {(byte) value});
+        return new UpsertTableRequest("parent", contentValues);
+    }
+
+    private static UpsertTableRequest childRequest(long sample) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put("sample", sample);
+        return new UpsertTableRequest("child", contentValues)
+                .setParentColumnForChildTables("parent_key");
+    }
+}
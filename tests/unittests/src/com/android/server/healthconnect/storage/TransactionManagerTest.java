@@ -16,29 +16,43 @@
 
 package com.android.server.healthconnect.storage;
 
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.UUID_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.StepsRecordHelper.STEPS_TABLE_NAME;
 import static com.android.server.healthconnect.storage.datatypehelpers.TransactionTestUtils.createBloodPressureRecord;
 import static com.android.server.healthconnect.storage.datatypehelpers.TransactionTestUtils.createStepsRecord;
 import static com.android.server.healthconnect.storage.datatypehelpers.TransactionTestUtils.getReadTransactionRequest;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.convertBytesToUUID;
 
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.junit.Assert.assertThrows;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.health.connect.PageTokenWrapper;
 import android.health.connect.ReadRecordsRequestUsingFilters;
 import android.health.connect.ReadRecordsRequestUsingIds;
 import android.health.connect.TimeInstantRangeFilter;
 import android.health.connect.datatypes.BloodPressureRecord;
 import android.health.connect.datatypes.RecordTypeIdentifier;
+import android.health.connect.datatypes.SpeedRecord;
 import android.health.connect.datatypes.StepsRecord;
+import android.health.connect.internal.datatypes.HeartRateRecordInternal;
 import android.health.connect.internal.datatypes.RecordInternal;
+import android.health.connect.internal.datatypes.SpeedRecordInternal;
+import android.health.connect.internal.datatypes.SpeedRecordInternal.SpeedRecordSample;
+import android.health.connect.internal.datatypes.StepsRecordInternal;
+import android.os.UserHandle;
 import android.util.Pair;
 
 import androidx.test.runner.AndroidJUnit4;
 
 import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.exportimport.ExportManager;
+import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.DatabaseHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.HealthConnectDatabaseTestRule;
+import com.android.server.healthconnect.storage.datatypehelpers.SeriesRecordHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.TransactionTestUtils;
 import com.android.server.healthconnect.storage.request.ReadTransactionRequest;
 
@@ -51,8 +65,12 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 @RunWith(AndroidJUnit4.class)
@@ -193,4 +211,317 @@ public class TransactionManagerTest {
                         () -> mTransactionManager.readRecordsAndPageToken(readTransactionRequest));
         assertThat(thrown).hasMessageThat().contains("Expect read by filter request");
     }
+
+    @Test
+    public void insertAll_sameClientRecordId_updatesOnlyIfVersionIsNotOlder() {
+        String uuid = insertStepsRecord(/* version= */ 2, /* count= */ 100);
+
+        assertThat(insertStepsRecord(/* version= */ 1, /* count= */ 200)).isEqualTo(uuid);
+        assertThat(readStepsCount(uuid)).isEqualTo(100);
+
+        // Versions are compared as numbers, not as text.
+        assertThat(insertStepsRecord(/* version= */ 10, /* count= */ 300)).isEqualTo(uuid);
+        assertThat(readStepsCount(uuid)).isEqualTo(300);
+    }
+
+    @Test
+    public void insertAll_dedupeConflict_keepsExistingUuid() {
+        String uuid =
+                mTransactionTestUtils
+                        .insertRecords(TEST_PACKAGE_NAME, createStepsRecord(100, 200, 10))
+                        .get(0);
+
+        String dedupedUuid =
+                mTransactionTestUtils
+                        .insertRecords(TEST_PACKAGE_NAME, createStepsRecord(100, 200, 20))
+                        .get(0);
+
+        assertThat(dedupedUuid).isEqualTo(uuid);
+        assertThat(readStepsCount(uuid)).isEqualTo(20);
+    }
+
+    @Test
+    public void insertAll_seriesRecordUpdated_replacesSamplesOnlyWhenChanged() {
+        Set<HeartRateRecordInternal.HeartRateSample> samples =
+                Set.of(
+                        new HeartRateRecordInternal.HeartRateSample(60, 1000),
+                        new HeartRateRecordInternal.HeartRateSample(70, 2000));
+        String uuid = insertHeartRateRecord(samples);
+
+        assertThat(insertHeartRateRecord(samples)).isEqualTo(uuid);
+        assertThat(readHeartRateSamples(uuid)).containsExactly(60, 70);
+
+        insertHeartRateRecord(Set.of(new HeartRateRecordInternal.HeartRateSample(80, 1500)));
+        assertThat(readHeartRateSamples(uuid)).containsExactly(80);
+    }
+
+    @Test
+    public void readRecordsAndPageToken_seriesRecordsWithoutSamples_returnsEachRecord() {
+        List<String> uuids =
+                mTransactionTestUtils.insertRecords(
+                        TEST_PACKAGE_NAME,
+                        createSpeedRecord(100, Set.of()),
+                        createSpeedRecord(200, Set.of()),
+                        createSpeedRecord(300, Set.of(new SpeedRecordSample(1.5, 350))),
+                        createSpeedRecord(400, Set.of()));
+
+        List<RecordInternal<?>> records = readSpeedRecords();
+
+        assertThat(records.stream().map(record -> record.getUuid().toString()).toList())
+                .containsExactlyElementsIn(uuids)
+                .inOrder();
+        assertThat(getSpeedSamples(records.get(0))).isEmpty();
+        assertThat(getSpeedSamples(records.get(1))).isEmpty();
+        assertThat(getSpeedSamples(records.get(2))).containsExactly(1.5);
+        assertThat(getSpeedSamples(records.get(3))).isEmpty();
+    }
+
+    @Test
+    public void readRecordsAndPageToken_packedAndUnpackedSeriesRecords_returnsAllSamples() {
+        List<String> uuids;
+        try {
+            SeriesRecordHelper.setPackedSamplesEnabled(true);
+            uuids =
+                    new ArrayList<>(
+                            mTransactionTestUtils.insertRecords(
+                                    TEST_PACKAGE_NAME,
+                                    createSpeedRecord(
+                                            100,
+                                            Set.of(
+                                                    new SpeedRecordSample(1.0, 110),
+                                                    new SpeedRecordSample(2.0, 120))),
+                                    createSpeedRecord(300, Set.of())));
+            SeriesRecordHelper.setPackedSamplesEnabled(false);
+            uuids.addAll(
+                    mTransactionTestUtils.insertRecords(
+                            TEST_PACKAGE_NAME,
+                            createSpeedRecord(
+                                    200,
+                                    Set.of(
+                                            new SpeedRecordSample(3.0, 210),
+                                            new SpeedRecordSample(4.0, 220))),
+                            createSpeedRecord(400, Set.of()),
+                            createSpeedRecord(500, Set.of(new SpeedRecordSample(5.0, 510)))));
+        } finally {
+            SeriesRecordHelper.setPackedSamplesEnabled(false);
+        }
+
+        List<RecordInternal<?>> records = readSpeedRecords();
+
+        assertThat(records.stream().map(record -> record.getUuid().toString()).toList())
+                .containsExactly(
+                        uuids.get(0), uuids.get(2), uuids.get(1), uuids.get(3), uuids.get(4))
+                .inOrder();
+        assertThat(getSpeedSamples(records.get(0))).containsExactly(1.0, 2.0);
+        assertThat(getSpeedSamples(records.get(1))).containsExactly(3.0, 4.0);
+        assertThat(getSpeedSamples(records.get(2))).isEmpty();
+        assertThat(getSpeedSamples(records.get(3))).isEmpty();
+        assertThat(getSpeedSamples(records.get(4))).containsExactly(5.0);
+    }
+
+    @Test
+    public void checkpoint_exportedDatabaseContainsCommittedRecords() {
+        String uuid =
+                mTransactionTestUtils
+                        .insertRecords(TEST_PACKAGE_NAME, createStepsRecord(100, 200, 10))
+                        .get(0);
+
+        String exportPath =
+                new ExportManager().exportLocally(testRule.getUserContext().getCurrentUserHandle());
+
+        try (SQLiteDatabase exportedDb =
+                        SQLiteDatabase.openDatabase(
+                                exportPath, null, SQLiteDatabase.OPEN_READWRITE);
+                Cursor cursor =
+                        exportedDb.rawQuery(
+                                "SELECT " + UUID_COLUMN_NAME + " FROM " + STEPS_TABLE_NAME, null)) {
+            assertThat(cursor.moveToFirst()).isTrue();
+            assertThat(convertBytesToUUID(cursor.getBlob(0))).isEqualTo(UUID.fromString(uuid));
+            assertThat(cursor.moveToNext()).isFalse();
+        }
+    }
+
+    @Test
+    public void getDatabaseSize_uncheckpointedWrites_includesWriteAheadLog() {
+        mTransactionTestUtils.insertRecords(TEST_PACKAGE_NAME, createStepsRecord(100, 200, 10));
+        HealthConnectUserContext context = testRule.getUserContext();
+        String path =
+                TransactionManager.getOpenDatabase(context.getCurrentUserHandle())
+                        .getReadableDatabase()
+                        .getPath();
+        File walFile = new File(path + "-wal");
+
+        assertThat(walFile.length()).isGreaterThan(0);
+        assertThat(mTransactionManager.getDatabaseSize(context))
+                .isAtLeast(new File(path).length() + walFile.length());
+    }
+
+    @Test
+    public void onUserUnlocked_switchBackToRecentUser_reusesItsDatabase() {
+        UserHandle userHandle = testRule.getUserContext().getCurrentUserHandle();
+        HealthConnectDatabase database = TransactionManager.getOpenDatabase(userHandle);
+        String uuid =
+                mTransactionTestUtils
+                        .insertRecords(TEST_PACKAGE_NAME, createStepsRecord(100, 200, 10))
+                        .get(0);
+
+        mTransactionManager.onUserUnlocked(createOtherUserContext(1));
+        mTransactionManager.onUserUnlocked(testRule.getUserContext());
+
+        assertThat(TransactionManager.getOpenDatabase(userHandle)).isSameInstanceAs(database);
+        assertThat(database.getWritableDatabase().isOpen()).isTrue();
+        List<RecordInternal<?>> records =
+                mTransactionManager.readRecordsByIds(
+                        getReadTransactionRequest(
+                                ImmutableMap.of(
+                                        RecordTypeIdentifier.RECORD_TYPE_STEPS,
+                                        List.of(UUID.fromString(uuid)))));
+        assertThat(records).hasSize(1);
+    }
+
+    @Test
+    public void onUserUnlocked_moreBackgroundUsersThanBudget_closesEldestDatabase() {
+        UserHandle userHandle = testRule.getUserContext().getCurrentUserHandle();
+        SQLiteDatabase eldestDb =
+                TransactionManager.getOpenDatabase(userHandle).getWritableDatabase();
+        HealthConnectUserContext firstUserContext = createOtherUserContext(1);
+
+        mTransactionManager.onUserUnlocked(firstUserContext);
+        mTransactionManager.onUserUnlocked(createOtherUserContext(2));
+        assertThat(TransactionManager.getOpenDatabase(userHandle)).isNotNull();
+        assertThat(eldestDb.isOpen()).isTrue();
+
+        mTransactionManager.onUserUnlocked(createOtherUserContext(3));
+
+        assertThat(TransactionManager.getOpenDatabase(userHandle)).isNull();
+        assertThat(eldestDb.isOpen()).isFalse();
+        assertThat(TransactionManager.getOpenDatabase(firstUserContext.getCurrentUserHandle()))
+                .isNotNull();
+    }
+
+    @Test
+    public void onUserUnlocked_switchBackToRecentUser_restoresItsCaches() {
+        UserHandle userHandle = testRule.getUserContext().getCurrentUserHandle();
+        AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
+        long appInfoId = appInfoHelper.getAppInfoId(TEST_PACKAGE_NAME);
+        assertThat(appInfoId).isAtLeast(1L);
+
+        mTransactionManager.onUserSwitching();
+        mTransactionManager.onUserUnlocked(createOtherUserContext(1));
+        mTransactionManager.onUserSwitching();
+        mTransactionManager.onUserUnlocked(testRule.getUserContext());
+        // Only the restored cache still knows the app once it's deleted from the table.
+        TransactionManager.getOpenDatabase(userHandle)
+                .getWritableDatabase()
+                .delete(AppInfoHelper.TABLE_NAME, null, null);
+
+        assertThat(appInfoHelper.getAppInfoId(TEST_PACKAGE_NAME)).isEqualTo(appInfoId);
+    }
+
+    @Test
+    public void onUserStopping_currentUser_keepsDatabaseOpen() {
+        UserHandle userHandle = testRule.getUserContext().getCurrentUserHandle();
+        HealthConnectDatabase database = TransactionManager.getOpenDatabase(userHandle);
+        SQLiteDatabase db = database.getWritableDatabase();
+
+        mTransactionManager.onUserStopping(userHandle);
+
+        assertThat(TransactionManager.getOpenDatabase(userHandle)).isSameInstanceAs(database);
+        assertThat(db.isOpen()).isTrue();
+        assertThat(
+                        mTransactionTestUtils.insertRecords(
+                                TEST_PACKAGE_NAME, createStepsRecord(100, 200, 10)))
+                .hasSize(1);
+    }
+
+    @Test
+    public void onUserStopping_backgroundUser_closesItsDatabase() {
+        UserHandle userHandle = testRule.getUserContext().getCurrentUserHandle();
+        SQLiteDatabase db = TransactionManager.getOpenDatabase(userHandle).getWritableDatabase();
+        mTransactionManager.onUserUnlocked(createOtherUserContext(1));
+
+        mTransactionManager.onUserStopping(userHandle);
+
+        assertThat(TransactionManager.getOpenDatabase(userHandle)).isNull();
+        assertThat(db.isOpen()).isFalse();
+    }
+
+    private HealthConnectUserContext createOtherUserContext(int userIdOffset) {
+        HealthConnectUserContext context = testRule.getUserContext();
+        return new HealthConnectUserContext(
+                context.getBaseContext(),
+                UserHandle.of(context.getCurrentUserHandle().getIdentifier() + userIdOffset));
+    }
+
+    private String insertStepsRecord(long version, int count) {
+        RecordInternal<StepsRecord> record = createStepsRecord("client.id", 100, 200, count);
+        record.setClientRecordVersion(version);
+        return mTransactionTestUtils.insertRecords(TEST_PACKAGE_NAME, record).get(0);
+    }
+
+    private int readStepsCount(String uuid) {
+        List<RecordInternal<?>> records =
+                mTransactionManager.readRecordsByIds(
+                        getReadTransactionRequest(
+                                ImmutableMap.of(
+                                        RecordTypeIdentifier.RECORD_TYPE_STEPS,
+                                        List.of(UUID.fromString(uuid)))));
+        assertThat(records).hasSize(1);
+        return ((StepsRecordInternal) records.get(0)).getCount();
+    }
+
+    private String insertHeartRateRecord(Set<HeartRateRecordInternal.HeartRateSample> samples) {
+        HeartRateRecordInternal record = new HeartRateRecordInternal();
+        record.setSamples(samples);
+        record.setStartTime(500);
+        record.setEndTime(2500);
+        record.setClientRecordId("heart.rate");
+        return mTransactionTestUtils.insertRecords(TEST_PACKAGE_NAME, record).get(0);
+    }
+
+    private List<Integer> readHeartRateSamples(String uuid) {
+        List<RecordInternal<?>> records =
+                mTransactionManager.readRecordsByIds(
+                        getReadTransactionRequest(
+                                ImmutableMap.of(
+                                        RecordTypeIdentifier.RECORD_TYPE_HEART_RATE,
+                                        List.of(UUID.fromString(uuid)))));
+        assertThat(records).hasSize(1);
+        return ((HeartRateRecordInternal) records.get(0))
+                .getSamples().stream()
+                        .map(HeartRateRecordInternal.HeartRateSample::getBeatsPerMinute)
+                        .toList();
+    }
+
+    private List<RecordInternal<?>> readSpeedRecords() {
+        ReadRecordsRequestUsingFilters<SpeedRecord> request =
+                new ReadRecordsRequestUsingFilters.Builder<>(SpeedRecord.class)
+                        .setTimeRangeFilter(
+                                new TimeInstantRangeFilter.Builder()
+                                        .setStartTime(Instant.EPOCH)
+                                        .setEndTime(Instant.ofEpochMilli(1000))
+                                        .build())
+                        .setPageSize(100)
+                        .build();
+        return mTransactionManager.readRecordsAndPageToken(
+                        getReadTransactionRequest(request.toReadRecordsRequestParcel()))
+                .first;
+    }
+
+    private static SpeedRecordInternal createSpeedRecord(
+            long startTimeMillis, Set<SpeedRecordSample> samples) {
+        SpeedRecordInternal record = new SpeedRecordInternal();
+        record.setSamples(samples);
+        record.setStartTime(startTimeMillis);
+        record.setEndTime(startTimeMillis + 50);
+        return record;
+    }
+
+    private static List<Double> getSpeedSamples(RecordInternal<?> record) {
+        return ((SpeedRecordInternal) record)
+                .getSamples().stream()
+                        .sorted(Comparator.comparingLong(SpeedRecordSample::getEpochMillis))
+                        .map(SpeedRecordSample::getSpeed)
+                        .toList();
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.accesslog.AccessLog.OperationType.OPERATION_TYPE_READ;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import android.database.Cursor;
+import android.health.connect.accesslog.AccessLog;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+@RunWith(AndroidJUnit4.class)
+public class AccessLogsHelperTest {
+    private static final String TEST_PACKAGE_NAME = "package.name";
+    private static final long WAIT_TIMEOUT_MILLIS = 10_000;
+
+    @Rule public final HealthConnectDatabaseTestRule testRule = new HealthConnectDatabaseTestRule();
+    private TransactionManager mTransactionManager;
+    private AccessLogsHelper mAccessLogsHelper;
+
+    @Before
+    public void setup() throws Exception {
+        HealthConnectUserContext context = testRule.getUserContext();
+        mTransactionManager = TransactionManager.getInstance(context);
+        DatabaseHelper.clearAllData(mTransactionManager);
+        new TransactionTestUtils(context, mTransactionManager).insertApp(TEST_PACKAGE_NAME);
+        mAccessLogsHelper = AccessLogsHelper.getInstance();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseHelper.clearAllData(mTransactionManager);
+        TransactionManager.clearInstance();
+    }
+
+    @Test
+    public void enqueueAccessLog_beforeFlush_queryAccessLogsIncludesIt() {
+        mAccessLogsHelper.enqueueAccessLog(
+                TEST_PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+
+        List<AccessLog> accessLogs = mAccessLogsHelper.queryAccessLogs();
+
+        assertThat(accessLogs).hasSize(1);
+        assertThat(accessLogs.get(0).getPackageName()).isEqualTo(TEST_PACKAGE_NAME);
+        assertThat(accessLogs.get(0).getOperationType()).isEqualTo(OPERATION_TYPE_READ);
+    }
+
+    @Test
+    public void flushPendingAccessLogs_queryAccessLogsReturnsEachOnce() {
+        mAccessLogsHelper.enqueueAccessLog(
+                TEST_PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+        mAccessLogsHelper.enqueueAccessLog(
+                TEST_PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+
+        mAccessLogsHelper.flushPendingAccessLogs();
+        mAccessLogsHelper.flushPendingAccessLogs();
+
+        assertThat(mAccessLogsHelper.queryAccessLogs()).hasSize(2);
+    }
+
+    @Test
+    public void getLatestAccessLogTimeStamp_pendingAccessLog_returnsItsAccessTime() {
+        long beforeMillis = Instant.now().toEpochMilli();
+
+        mAccessLogsHelper.enqueueAccessLog(
+                TEST_PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+
+        assertThat(mAccessLogsHelper.getLatestAccessLogTimeStamp()).isAtLeast(beforeMillis);
+    }
+
+    @Test
+    public void getLatestAccessLogTimeStamp_flushBeforeTableRead_returnsFlushedAccessTime() {
+        long beforeMillis = Instant.now().toEpochMilli();
+        mAccessLogsHelper.enqueueAccessLog(
+                TEST_PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+
+        long latestAccessTime =
+                mAccessLogsHelper.getLatestAccessLogTimeStamp(
+                        mAccessLogsHelper::flushPendingAccessLogs);
+
+        assertThat(latestAccessTime).isAtLeast(beforeMillis);
+        assertThat(mAccessLogsHelper.getLatestAccessLogTimeStamp()).isEqualTo(latestAccessTime);
+    }
+
+    @Test
+    public void clearAllData_pendingAccessLogs_areDropped() {
+        mAccessLogsHelper.enqueueAccessLog(
+                TEST_PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+
+        DatabaseHelper.clearAllData(mTransactionManager);
+        mAccessLogsHelper.flushPendingAccessLogs();
+
+        assertThat(mAccessLogsHelper.queryAccessLogs()).isEmpty();
+    }
+
+    @Test
+    public void enqueueAccessLog_duringScheduledFlush_schedulesAnotherFlush() throws Exception {
+        mAccessLogsHelper.enqueueAccessLog(
+                TEST_PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+        assertThat(mAccessLogsHelper.isFlushScheduled()).isTrue();
+
+        // Holds the database write lock, so that the scheduled flush blocks once started.
+        CountDownLatch writeLockHeld = new CountDownLatch(1);
+        CountDownLatch releaseWriteLock = new CountDownLatch(1);
+        Thread writer =
+                new Thread(
+                        () ->
+                                mTransactionManager.runAsTransaction(
+                                        db -> {
+                                            writeLockHeld.countDown();
+                                            awaitUninterruptibly(releaseWriteLock);
+                                        }));
+        writer.start();
+        try {
+            assertThat(writeLockHeld.await(WAIT_TIMEOUT_MILLIS, MILLISECONDS)).isTrue();
+            waitFor(() -> !mAccessLogsHelper.isFlushScheduled());
+
+            mAccessLogsHelper.enqueueAccessLog(
+                    TEST_PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+
+            assertThat(mAccessLogsHelper.isFlushScheduled()).isTrue();
+        } finally {
+            releaseWriteLock.countDown();
+            writer.join();
+        }
+        waitFor(() -> getWrittenAccessLogCount() == 2);
+        assertThat(mAccessLogsHelper.queryAccessLogs()).hasSize(2);
+    }
+
+    private int getWrittenAccessLogCount() {
+        try (Cursor cursor =
+                mTransactionManager.read(new ReadTableRequest(AccessLogsHelper.TABLE_NAME))) {
+            return cursor.getCount();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws Exception {
+        long deadline = SystemClock.uptimeMillis() + WAIT_TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                throw new TimeoutException();
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.START_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.StepsRecordHelper.STEPS_TABLE_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.TransactionTestUtils.createStepsRecord;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.health.connect.datatypes.HeartRateRecord;
+import android.health.connect.datatypes.StepsRecord;
+import android.health.connect.internal.datatypes.RecordInternal;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.DeleteTableRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class ActivityDateHelperTest {
+    private static final String TEST_PACKAGE_NAME = "package.name";
+    private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+    private static final long START_TIME_MILLIS = 1_700_000_000_000L;
+
+    @Rule public final HealthConnectDatabaseTestRule testRule = new HealthConnectDatabaseTestRule();
+    private TransactionTestUtils mTransactionTestUtils;
+    private TransactionManager mTransactionManager;
+    private ActivityDateHelper mActivityDateHelper;
+
+    @Before
+    public void setup() {
+        HealthConnectUserContext context = testRule.getUserContext();
+        mTransactionManager = TransactionManager.getInstance(context);
+        DatabaseHelper.clearAllData(mTransactionManager);
+        mTransactionTestUtils = new TransactionTestUtils(context, mTransactionManager);
+        mTransactionTestUtils.insertApp(TEST_PACKAGE_NAME);
+        mActivityDateHelper = ActivityDateHelper.getInstance();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseHelper.clearAllData(mTransactionManager);
+        TransactionManager.clearInstance();
+    }
+
+    @Test
+    public void getActivityDates_recordsInserted_returnsTheirDatesInOrder() {
+        RecordInternal<?> secondDay = createSteps(START_TIME_MILLIS + DAY_MILLIS);
+        RecordInternal<?> firstDay = createSteps(START_TIME_MILLIS);
+        assertThat(getStepsActivityDates()).isEmpty();
+
+        mTransactionTestUtils.insertRecords(TEST_PACKAGE_NAME, secondDay, firstDay);
+
+        assertThat(getStepsActivityDates())
+                .containsExactly(firstDay.getLocalDate(), secondDay.getLocalDate())
+                .inOrder();
+        assertThat(mActivityDateHelper.getActivityDates(List.of(HeartRateRecord.class))).isEmpty();
+    }
+
+    @Test
+    public void getActivityDates_someRecordsOfDateDeleted_keepsDate() {
+        RecordInternal<?> record = createSteps(START_TIME_MILLIS);
+        mTransactionTestUtils.insertRecords(
+                TEST_PACKAGE_NAME, record, createSteps(START_TIME_MILLIS + 60_000));
+        assertThat(getStepsActivityDates()).containsExactly(record.getLocalDate());
+
+        deleteSteps(START_TIME_MILLIS, START_TIME_MILLIS + 1);
+
+        assertThat(getStepsActivityDates()).containsExactly(record.getLocalDate());
+    }
+
+    @Test
+    public void getActivityDates_allRecordsOfDateDeleted_removesDate() {
+        RecordInternal<?> firstDay = createSteps(START_TIME_MILLIS);
+        RecordInternal<?> secondDay = createSteps(START_TIME_MILLIS + DAY_MILLIS);
+        mTransactionTestUtils.insertRecords(TEST_PACKAGE_NAME, firstDay, secondDay);
+        assertThat(getStepsActivityDates()).hasSize(2);
+
+        deleteSteps(START_TIME_MILLIS, START_TIME_MILLIS + 1);
+
+        assertThat(getStepsActivityDates()).containsExactly(secondDay.getLocalDate());
+    }
+
+    @Test
+    public void reSyncForAllRecords_keepsDatesAndCounts() {
+        RecordInternal<?> record = createSteps(START_TIME_MILLIS);
+        mTransactionTestUtils.insertRecords(
+                TEST_PACKAGE_NAME, record, createSteps(START_TIME_MILLIS + 60_000));
+
+        mActivityDateHelper.reSyncForAllRecords();
+        assertThat(getStepsActivityDates()).containsExactly(record.getLocalDate());
+
+        deleteSteps(START_TIME_MILLIS, START_TIME_MILLIS + 1);
+        assertThat(getStepsActivityDates()).containsExactly(record.getLocalDate());
+    }
+
+    private List<LocalDate> getStepsActivityDates() {
+        return mActivityDateHelper.getActivityDates(List.of(StepsRecord.class));
+    }
+
+    private void deleteSteps(long startTime, long endTime) {
+        mTransactionManager.delete(
+                new DeleteTableRequest(STEPS_TABLE_NAME)
+                        .setTimeFilter(START_TIME_COLUMN_NAME, startTime, endTime));
+    }
+
+    private static RecordInternal<?> createSteps(long startTime) {
+        return createStepsRecord(startTime, startTime + 60_000, 100);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.TransactionTestUtils.createStepsRecord;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.health.connect.changelog.ChangeLogTokenRequest;
+import android.health.connect.changelog.ChangeLogsRequest;
+import android.health.connect.datatypes.StepsRecord;
+import android.health.connect.internal.datatypes.RecordInternal;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.storage.TransactionManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@RunWith(AndroidJUnit4.class)
+public class ChangeLogsHelperTest {
+    private static final String TEST_PACKAGE_NAME = "package.name";
+
+    @Rule public final HealthConnectDatabaseTestRule testRule = new HealthConnectDatabaseTestRule();
+    private TransactionTestUtils mTransactionTestUtils;
+    private TransactionManager mTransactionManager;
+    private long mNextStartTimeMillis = 1000;
+
+    @Before
+    public void setup() throws Exception {
+        HealthConnectUserContext context = testRule.getUserContext();
+        mTransactionManager = TransactionManager.getInstance(context);
+        DatabaseHelper.clearAllData(mTransactionManager);
+        mTransactionTestUtils = new TransactionTestUtils(context, mTransactionManager);
+        mTransactionTestUtils.insertApp(TEST_PACKAGE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseHelper.clearAllData(mTransactionManager);
+        TransactionManager.clearInstance();
+    }
+
+    @Test
+    public void getChangeLogs_pageEndsWithinChangeLogRow_continuesFromNextUuid() {
+        String token = getChangeLogToken();
+        List<String> uuids = insertStepsRecords(5);
+        insertStepsRecords(1);
+
+        ChangeLogsHelper.ChangeLogsResponse page1 = getChangeLogs(token, /* pageSize= */ 2);
+        ChangeLogsHelper.ChangeLogsResponse page2 =
+                getChangeLogs(page1.getNextPageToken(), /* pageSize= */ 2);
+
+        assertThat(getInsertedUuids(page1)).containsExactlyElementsIn(uuids.subList(0, 2));
+        assertThat(page1.hasMorePages()).isTrue();
+        assertThat(getInsertedUuids(page2)).containsExactlyElementsIn(uuids.subList(2, 4));
+        assertThat(page2.hasMorePages()).isTrue();
+    }
+
+    @Test
+    public void getChangeLogs_pageSpansChangeLogRows_returnsExactlyPageSizeUuids() {
+        String token = getChangeLogToken();
+        List<String> uuids = new ArrayList<>(insertStepsRecords(3));
+        uuids.addAll(insertStepsRecords(3));
+
+        ChangeLogsHelper.ChangeLogsResponse page1 = getChangeLogs(token, /* pageSize= */ 4);
+        ChangeLogsHelper.ChangeLogsResponse page2 =
+                getChangeLogs(page1.getNextPageToken(), /* pageSize= */ 4);
+
+        assertThat(getInsertedUuids(page1)).containsExactlyElementsIn(uuids.subList(0, 4));
+        assertThat(page1.hasMorePages()).isTrue();
+        assertThat(getInsertedUuids(page2)).containsExactlyElementsIn(uuids.subList(4, 6));
+        assertThat(page2.hasMorePages()).isFalse();
+    }
+
+    @Test
+    public void getChangeLogs_pageEndsAtEndOfLastRow_hasNoMorePages() {
+        String token = getChangeLogToken();
+        List<String> uuids = insertStepsRecords(3);
+
+        ChangeLogsHelper.ChangeLogsResponse page = getChangeLogs(token, /* pageSize= */ 3);
+
+        assertThat(getInsertedUuids(page)).containsExactlyElementsIn(uuids);
+        assertThat(page.hasMorePages()).isFalse();
+    }
+
+    private String getChangeLogToken() {
+        return ChangeLogsRequestHelper.getInstance()
+                .getToken(
+                        TEST_PACKAGE_NAME,
+                        new ChangeLogTokenRequest.Builder()
+                                .addRecordType(StepsRecord.class)
+                                .build());
+    }
+
+    private List<String> insertStepsRecords(int count) {
+        List<RecordInternal<?>> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(createStepsRecord(mNextStartTimeMillis, mNextStartTimeMillis + 500, 100));
+            mNextStartTimeMillis += 1000;
+        }
+        return mTransactionTestUtils.insertRecords(TEST_PACKAGE_NAME, records);
+    }
+
+    private static ChangeLogsHelper.ChangeLogsResponse getChangeLogs(String token, int pageSize) {
+        return ChangeLogsHelper.getInstance()
+                .getChangeLogs(
+                        ChangeLogsRequestHelper.getRequest(TEST_PACKAGE_NAME, token),
+                        new ChangeLogsRequest.Builder(token).setPageSize(pageSize).build());
+    }
+
+    private static List<String> getInsertedUuids(ChangeLogsHelper.ChangeLogsResponse response) {
+        List<UUID> uuids =
+                ChangeLogsHelper.getRecordTypeToInsertedUuids(response.getChangeLogsMap())
+                        .getOrDefault(RECORD_TYPE_STEPS, List.of());
+        return uuids.stream().map(UUID::toString).toList();
+    }
+}
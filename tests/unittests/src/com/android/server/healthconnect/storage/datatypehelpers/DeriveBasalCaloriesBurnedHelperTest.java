@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.BasalMetabolicRateRecordHelper.BASAL_METABOLIC_RATE_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.BasalMetabolicRateRecordHelper.BASAL_METABOLIC_RATE_RECORD_TABLE_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.InstantRecordHelper.TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.utils.WhereClauses.LogicalOperator.AND;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import android.database.Cursor;
+import android.health.connect.internal.datatypes.BasalMetabolicRateRecordInternal;
+import android.health.connect.internal.datatypes.HeightRecordInternal;
+import android.health.connect.internal.datatypes.LeanBodyMassRecordInternal;
+import android.health.connect.internal.datatypes.RecordInternal;
+import android.health.connect.internal.datatypes.WeightRecordInternal;
+import android.util.Pair;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.utils.OrderByClause;
+import com.android.server.healthconnect.storage.utils.WhereClauses;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+@RunWith(AndroidJUnit4.class)
+public class DeriveBasalCaloriesBurnedHelperTest {
+    private static final String TEST_PACKAGE_NAME = "package.name";
+    private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+    private static final long START_TIME_MILLIS = 1_700_000_000_000L;
+    private static final int NUM_DAYS = 30;
+
+    @Rule public final HealthConnectDatabaseTestRule testRule = new HealthConnectDatabaseTestRule();
+    private TransactionTestUtils mTransactionTestUtils;
+    private TransactionManager mTransactionManager;
+
+    @Before
+    public void setup() throws Exception {
+        HealthConnectUserContext context = testRule.getUserContext();
+        mTransactionManager = TransactionManager.getInstance(context);
+        DatabaseHelper.clearAllData(mTransactionManager);
+        mTransactionTestUtils = new TransactionTestUtils(context, mTransactionManager);
+        mTransactionTestUtils.insertApp(TEST_PACKAGE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseHelper.clearAllData(mTransactionManager);
+        TransactionManager.clearInstance();
+    }
+
+    @Test
+    public void getBasalCaloriesBurned_randomHistories_sameAsPerIntervalDerivation() {
+        for (int seed = 0; seed < 20; seed++) {
+            DatabaseHelper.clearAllData(mTransactionManager);
+            mTransactionTestUtils.insertApp(TEST_PACKAGE_NAME);
+            Random random = new Random(seed);
+            insertRandomHistory(random);
+            List<Pair<Long, Long>> groups = getRandomGroups(random);
+
+            double[] expected = getBasalCaloriesBurnedPerInterval(groups);
+            double[] actual;
+            try (Cursor cursor = readBasalMetabolicRates(groups)) {
+                actual =
+                        new DeriveBasalCaloriesBurnedHelper(
+                                        cursor, BASAL_METABOLIC_RATE_COLUMN_NAME, TIME_COLUMN_NAME)
+                                .getBasalCaloriesBurned(groups);
+            }
+
+            for (int group = 0; group < groups.size(); group++) {
+                assertWithMessage("seed " + seed + ", group " + group)
+                        .that(actual[group])
+                        .isWithin(1e-6)
+                        .of(expected[group]);
+            }
+        }
+    }
+
+    /** Derives each interval on its own, reading the fallback tables for that interval only. */
+    private double[] getBasalCaloriesBurnedPerInterval(List<Pair<Long, Long>> groups) {
+        double[] basalCaloriesBurned = new double[groups.size()];
+        try (Cursor cursor = readBasalMetabolicRates(groups)) {
+            DeriveBasalCaloriesBurnedHelper helper =
+                    new DeriveBasalCaloriesBurnedHelper(
+                            cursor, BASAL_METABOLIC_RATE_COLUMN_NAME, TIME_COLUMN_NAME);
+            for (int group = 0; group < groups.size(); group++) {
+                basalCaloriesBurned[group] =
+                        helper.getBasalCaloriesBurned(
+                                groups.get(group).first, groups.get(group).second);
+            }
+        }
+        return basalCaloriesBurned;
+    }
+
+    private Cursor readBasalMetabolicRates(List<Pair<Long, Long>> groups) {
+        return mTransactionManager.read(
+                new ReadTableRequest(BASAL_METABOLIC_RATE_RECORD_TABLE_NAME)
+                        .setWhereClause(
+                                new WhereClauses(AND)
+                                        .addWhereBetweenTimeClause(
+                                                TIME_COLUMN_NAME,
+                                                groups.get(0).first,
+                                                groups.get(groups.size() - 1).second))
+                        .setOrderBy(new OrderByClause().addOrderByClause(TIME_COLUMN_NAME, true)));
+    }
+
+    private void insertRandomHistory(Random random) {
+        // Times are distinct, as the order of rows with the same time isn't defined.
+        Set<Long> usedTimes = new HashSet<>();
+        List<RecordInternal<?>> records = new ArrayList<>();
+        for (int i = random.nextInt(4); i > 0; i--) {
+            records.add(
+                    new BasalMetabolicRateRecordInternal()
+                            .setBasalMetabolicRate(50 + random.nextInt(50))
+                            .setTime(getRandomTime(random, usedTimes)));
+        }
+        for (int i = random.nextInt(5); i > 0; i--) {
+            records.add(
+                    new LeanBodyMassRecordInternal()
+                            .setMass(40_000 + random.nextInt(30_000))
+                            .setTime(getRandomTime(random, usedTimes)));
+        }
+        for (int i = random.nextInt(5); i > 0; i--) {
+            records.add(
+                    new HeightRecordInternal()
+                            .setHeight(1.5 + random.nextDouble() / 2)
+                            .setTime(getRandomTime(random, usedTimes)));
+        }
+        for (int i = random.nextInt(8); i > 0; i--) {
+            records.add(
+                    new WeightRecordInternal()
+                            .setWeight(50_000 + random.nextInt(50_000))
+                            .setTime(getRandomTime(random, usedTimes)));
+        }
+        if (!records.isEmpty()) {
+            mTransactionTestUtils.insertRecords(TEST_PACKAGE_NAME, records);
+        }
+    }
+
+    /** Returns a time up to a few days before or after the groups, or within them. */
+    private static long getRandomTime(Random random, Set<Long> usedTimes) {
+        long time;
+        do {
+            time =
+                    START_TIME_MILLIS
+                            - 5 * DAY_MILLIS
+                            + (long) (random.nextDouble() * (NUM_DAYS + 10) * DAY_MILLIS);
+        } while (!usedTimes.add(time));
+        return time;
+    }
+
+    /** Returns consecutive groups of one to three days, some of them starting at midday. */
+    private static List<Pair<Long, Long>> getRandomGroups(Random random) {
+        List<Pair<Long, Long>> groups = new ArrayList<>();
+        long groupStartTime = START_TIME_MILLIS + random.nextInt(2) * DAY_MILLIS / 2;
+        while (groupStartTime < START_TIME_MILLIS + NUM_DAYS * DAY_MILLIS) {
+            long groupEndTime = groupStartTime + (1 + random.nextInt(3)) * DAY_MILLIS;
+            groups.add(new Pair<>(groupStartTime, groupEndTime));
+            groupStartTime = groupEndTime;
+        }
+        return groups;
+    }
+}
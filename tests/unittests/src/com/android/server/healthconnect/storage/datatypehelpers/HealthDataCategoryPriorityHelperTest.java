@@ -21,6 +21,7 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.flatte
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.clearInvocations;
@@ -540,7 +541,7 @@ public class HealthDataCategoryPriorityHelperTest {
         HealthDataCategoryPriorityHelper spy = Mockito.spy(HealthDataCategoryPriorityHelper.class);
 
         spy.getPriorityOrder(HealthDataCategory.ACTIVITY, mContext);
-        verify(spy, never()).reSyncHealthDataPriorityTable(mContext);
+        verify(spy, never()).reSyncHealthDataPriorityTable(any(), anyBoolean());
     }
 
     @Test
@@ -550,10 +551,10 @@ public class HealthDataCategoryPriorityHelperTest {
         when(mAppInfoHelper.getPackageNames(any()))
                 .thenReturn(List.of(APP_PACKAGE_NAME, APP_PACKAGE_NAME_2));
         HealthDataCategoryPriorityHelper spy = Mockito.spy(HealthDataCategoryPriorityHelper.class);
-        doNothing().when(spy).reSyncHealthDataPriorityTable(any());
+        doNothing().when(spy).reSyncHealthDataPriorityTable(any(), anyBoolean());
 
         spy.getPriorityOrder(HealthDataCategory.ACTIVITY, mContext);
-        verify(spy, times(1)).reSyncHealthDataPriorityTable(mContext);
+        verify(spy, times(1)).reSyncHealthDataPriorityTable(mContext, true);
     }
 
     @Test
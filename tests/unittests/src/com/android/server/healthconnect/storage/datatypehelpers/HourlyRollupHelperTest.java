@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+
+import static com.android.server.healthconnect.TestUtils.TEST_USER;
+import static com.android.server.healthconnect.storage.datatypehelpers.TransactionTestUtils.createStepsRecord;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.health.connect.AggregateResult;
+import android.health.connect.TimeInstantRangeFilter;
+import android.health.connect.datatypes.StepsRecord;
+import android.health.connect.internal.datatypes.RecordInternal;
+import android.os.Environment;
+import android.os.Parcel;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.modules.utils.testing.ExtendedMockitoRule;
+import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
+import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.AggregateTableRequest;
+import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.quality.Strictness;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+public class HourlyRollupHelperTest {
+    private static final String TEST_PACKAGE_NAME = "package.name";
+    private static final String OTHER_PACKAGE_NAME = "other.package.name";
+    private static final long MINUTE_MILLIS = Duration.ofMinutes(1).toMillis();
+    private static final long HOUR_MILLIS = Duration.ofHours(1).toMillis();
+    // Hour aligned.
+    private static final long START_TIME_MILLIS = 1_699_999_200_000L;
+    private static final int NUM_HOURS = 48;
+
+    @Rule
+    public final ExtendedMockitoRule mExtendedMockitoRule =
+            new ExtendedMockitoRule.Builder(this)
+                    .mockStatic(Environment.class)
+                    .mockStatic(HealthConnectDeviceConfigManager.class)
+                    .setStrictness(Strictness.LENIENT)
+                    .build();
+
+    @Mock private HealthConnectDeviceConfigManager mHealthConnectDeviceConfigManager;
+    private File mMockDataDirectory;
+    private TransactionManager mTransactionManager;
+    private TransactionTestUtils mTransactionTestUtils;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        HealthConnectUserContext context =
+                new HealthConnectUserContext(
+                        InstrumentationRegistry.getInstrumentation().getContext(), TEST_USER);
+        mMockDataDirectory = context.getDir("mock_data", Context.MODE_PRIVATE);
+        when(Environment.getDataDirectory()).thenReturn(mMockDataDirectory);
+        when(HealthConnectDeviceConfigManager.getInitialisedInstance())
+                .thenReturn(mHealthConnectDeviceConfigManager);
+        when(mHealthConnectDeviceConfigManager.isAggregationSourceControlsEnabled())
+                .thenReturn(false);
+
+        mTransactionManager = TransactionManager.getInstance(context);
+        mTransactionTestUtils = new TransactionTestUtils(context, mTransactionManager);
+        clearData();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseHelper.clearAllData(mTransactionManager);
+        TransactionManager.clearInstance();
+        deleteDir(mMockDataDirectory);
+    }
+
+    @Test
+    public void populateWithRollup_recordsWithinHours_sameResultsAsAggregatingRecords() {
+        for (int seed = 0; seed < 20; seed++) {
+            clearData();
+            insertRandomSteps(new Random(seed), /* crossHours= */ false);
+            HourlyRollupHelper.getInstance().refresh();
+
+            for (int groupHours : new int[] {1, 5, 24}) {
+                AggregateTableRequest expected = createRequest(groupHours);
+                AggregateTableRequest actual = createRequest(groupHours);
+                aggregateRecords(expected);
+                String message = "seed " + seed + ", group hours " + groupHours;
+                assertWithMessage(message).that(populateWithRollup(actual)).isTrue();
+                assertSameResults(message, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void populateWithRollup_recordsCrossingHours_sameResultsOrNotUsed() {
+        for (int seed = 0; seed < 20; seed++) {
+            clearData();
+            insertRandomSteps(new Random(seed), /* crossHours= */ true);
+            HourlyRollupHelper.getInstance().refresh();
+
+            for (int groupHours : new int[] {1, 5, 24}) {
+                AggregateTableRequest expected = createRequest(groupHours);
+                AggregateTableRequest actual = createRequest(groupHours);
+                aggregateRecords(expected);
+                if (populateWithRollup(actual)) {
+                    assertSameResults(
+                            "seed " + seed + ", group hours " + groupHours, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void populateWithRollup_recordsWrittenSinceRefresh_notUsed() {
+        long startTime = START_TIME_MILLIS + 60_000;
+        mTransactionTestUtils.insertRecords(
+                TEST_PACKAGE_NAME, createStepsRecord(startTime, startTime + 60_000, 100));
+        HourlyRollupHelper.getInstance().refresh();
+        assertThat(populateWithRollup(createRequest(/* groupHours= */ 1))).isTrue();
+
+        startTime += HOUR_MILLIS;
+        mTransactionTestUtils.insertRecords(
+                TEST_PACKAGE_NAME, createStepsRecord(startTime, startTime + 60_000, 100));
+
+        assertThat(populateWithRollup(createRequest(/* groupHours= */ 1))).isFalse();
+    }
+
+    @Test
+    public void rebuild_sameResultsAsAggregatingRecords() {
+        insertRandomSteps(new Random(1), /* crossHours= */ false);
+
+        HourlyRollupHelper.getInstance().rebuild();
+
+        AggregateTableRequest expected = createRequest(/* groupHours= */ 1);
+        AggregateTableRequest actual = createRequest(/* groupHours= */ 1);
+        aggregateRecords(expected);
+        assertThat(populateWithRollup(actual)).isTrue();
+        assertSameResults("rebuild", expected, actual);
+    }
+
+    private void clearData() {
+        DatabaseHelper.clearAllData(mTransactionManager);
+        mTransactionTestUtils.insertApp(TEST_PACKAGE_NAME);
+        mTransactionTestUtils.insertApp(OTHER_PACKAGE_NAME);
+    }
+
+    /**
+     * Inserts records from two apps, a few hours before and after the aggregated hours too. If
+     * {@code crossHours} is false, records don't overlap and each of them is within an hour.
+     */
+    private void insertRandomSteps(Random random, boolean crossHours) {
+        List<RecordInternal<?>> records = new ArrayList<>();
+        List<RecordInternal<?>> otherRecords = new ArrayList<>();
+        for (int hour = -2; hour < NUM_HOURS + 2; hour++) {
+            long hourEndTime = START_TIME_MILLIS + (hour + 1) * HOUR_MILLIS;
+            long time = hourEndTime - HOUR_MILLIS;
+            while (random.nextBoolean()) {
+                long startTime = time + MINUTE_MILLIS * random.nextInt(20);
+                long endTime =
+                        startTime + MINUTE_MILLIS * (1 + random.nextInt(crossHours ? 120 : 20));
+                if (!crossHours && endTime >= hourEndTime) {
+                    break;
+                }
+                (random.nextInt(4) == 0 ? otherRecords : records)
+                        .add(createStepsRecord(startTime, endTime, 1 + random.nextInt(2000)));
+                time = crossHours ? startTime + MINUTE_MILLIS * random.nextInt(30) : endTime;
+            }
+        }
+        if (!records.isEmpty()) {
+            mTransactionTestUtils.insertRecords(TEST_PACKAGE_NAME, records);
+        }
+        if (!otherRecords.isEmpty()) {
+            mTransactionTestUtils.insertRecords(OTHER_PACKAGE_NAME, otherRecords);
+        }
+    }
+
+    private static AggregateTableRequest createRequest(int groupHours) {
+        long endTime = START_TIME_MILLIS + NUM_HOURS * HOUR_MILLIS;
+        AggregateTableRequest request =
+                RecordHelperProvider.getInstance()
+                        .getRecordHelper(RECORD_TYPE_STEPS)
+                        .getAggregateTableRequest(
+                                StepsRecord.STEPS_COUNT_TOTAL,
+                                TEST_PACKAGE_NAME,
+                                /* packageFilters= */ List.of(),
+                                START_TIME_MILLIS,
+                                endTime,
+                                /* startDateAccess= */ 0,
+                                /* useLocalTime= */ false,
+                                /* aggregationSourceControlsEnabled= */ false);
+        request.setGroupBy(
+                request.getRecordHelper().getDurationGroupByColumnName(),
+                /* period= */ null,
+                Duration.ofHours(groupHours),
+                new TimeInstantRangeFilter.Builder()
+                        .setStartTime(Instant.ofEpochMilli(START_TIME_MILLIS))
+                        .setEndTime(Instant.ofEpochMilli(endTime))
+                        .build());
+        return request;
+    }
+
+    private void aggregateRecords(AggregateTableRequest request) {
+        mTransactionManager.runAsTransaction(
+                db -> {
+                    List<String> dataOrigins;
+                    try (Cursor cursor =
+                            db.rawQuery(request.getCommandToFetchAggregateMetadata(), null)) {
+                        dataOrigins = AggregateTableRequest.getDataOriginPackageNames(cursor);
+                    }
+                    try (Cursor cursor = db.rawQuery(request.getAggregationCommand(), null)) {
+                        request.onResultsFetched(cursor, dataOrigins);
+                    }
+                });
+    }
+
+    private boolean populateWithRollup(AggregateTableRequest request) {
+        boolean[] populated = new boolean[1];
+        mTransactionManager.runAsTransaction(
+                db ->
+                        populated[0] =
+                                HourlyRollupHelper.getInstance().populateWithRollup(db, request));
+        return populated[0];
+    }
+
+    private static void assertSameResults(
+            String message, AggregateTableRequest expected, AggregateTableRequest actual) {
+        List<AggregateResult<?>> expectedResults = expected.getAggregateResults();
+        List<AggregateResult<?>> actualResults = actual.getAggregateResults();
+        assertWithMessage(message).that(actualResults).hasSize(expectedResults.size());
+        for (int group = 0; group < expectedResults.size(); group++) {
+            AggregateResult<?> expectedResult = expectedResults.get(group);
+            AggregateResult<?> actualResult = actualResults.get(group);
+            String groupMessage = message + ", group " + group;
+            if (expectedResult == null) {
+                assertWithMessage(groupMessage).that(actualResult).isNull();
+                continue;
+            }
+            assertWithMessage(groupMessage).that(actualResult).isNotNull();
+            assertWithMessage(groupMessage)
+                    .that(getLongResult(actualResult))
+                    .isEqualTo(getLongResult(expectedResult));
+            assertWithMessage(groupMessage)
+                    .that(actualResult.getZoneOffset())
+                    .isEqualTo(expectedResult.getZoneOffset());
+            assertWithMessage(groupMessage)
+                    .that(actualResult.getDataOrigins())
+                    .isEqualTo(expectedResult.getDataOrigins());
+        }
+    }
+
+    private static long getLongResult(AggregateResult<?> result) {
+        Parcel parcel = Parcel.obtain();
+        result.putToParcel(parcel);
+        parcel.setDataPosition(0);
+        long value = parcel.readLong();
+        parcel.recycle();
+        return value;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDir(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.END_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.START_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.APP_INFO_ID_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.LAST_MODIFIED_TIME_COLUMN_NAME;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import android.database.MatrixCursor;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+@RunWith(AndroidJUnit4.class)
+public class MergeDataHelperTest {
+    private static final String VALUE_COLUMN_NAME = "energy";
+    private static final String[] COLUMNS = {
+        START_TIME_COLUMN_NAME,
+        END_TIME_COLUMN_NAME,
+        APP_INFO_ID_COLUMN_NAME,
+        LAST_MODIFIED_TIME_COLUMN_NAME,
+        VALUE_COLUMN_NAME
+    };
+    private static final long MINUTE_MILLIS = Duration.ofMinutes(1).toMillis();
+    private static final long START_TIME_MILLIS = 1_700_000_000_000L;
+    private static final int NUM_APPS = 4;
+
+    @Test
+    public void readCursor_noRecords_returnsZeroAndWholeIntervalEmpty() {
+        MergeDataHelper helper = createHelper(List.of(), List.of(1L));
+
+        assertThat(helper.readCursor(START_TIME_MILLIS, START_TIME_MILLIS + MINUTE_MILLIS))
+                .isEqualTo(0);
+        assertThat(helper.getEmptyIntervals(START_TIME_MILLIS, START_TIME_MILLIS + MINUTE_MILLIS))
+                .asList()
+                .containsExactly(START_TIME_MILLIS, START_TIME_MILLIS + MINUTE_MILLIS)
+                .inOrder();
+    }
+
+    @Test
+    public void readCursor_overlappingRecords_higherPriorityAppWins() {
+        long start = START_TIME_MILLIS;
+        // App 2 covers [start, start + 4m), app 1 covers [start + 1m, start + 2m).
+        List<long[]> rows =
+                List.of(
+                        new long[] {start, start + 4 * MINUTE_MILLIS, 2, 1, 400},
+                        new long[] {start + MINUTE_MILLIS, start + 2 * MINUTE_MILLIS, 1, 2, 50});
+        MergeDataHelper helper = createHelper(rows, List.of(1L, 2L));
+
+        double total = helper.readCursor(start, start + 5 * MINUTE_MILLIS);
+
+        assertThat(total).isWithin(1e-6).of(100 + 50 + 200);
+        assertThat(helper.getEmptyIntervals(start, start + 5 * MINUTE_MILLIS))
+                .asList()
+                .containsExactly(start + 4 * MINUTE_MILLIS, start + 5 * MINUTE_MILLIS)
+                .inOrder();
+    }
+
+    @Test
+    public void readCursor_zeroLengthRecordAtIntervalStart_isIgnored() {
+        long start = START_TIME_MILLIS;
+        // The previous merge read the zero length record, but dropped it as it has no duration.
+        List<long[]> rows =
+                List.of(
+                        new long[] {start, start, 1, 1, 500},
+                        new long[] {start, start + MINUTE_MILLIS, 2, 2, 60});
+        MergeDataHelper helper = createHelper(rows, List.of(1L, 2L));
+
+        assertThat(helper.readCursor(start, start + MINUTE_MILLIS)).isWithin(1e-6).of(60);
+        assertThat(helper.getEmptyIntervals(start, start + MINUTE_MILLIS)).isEmpty();
+    }
+
+    @Test
+    public void readCursor_randomRecords_matchesMergeOfAllRowsPerInterval() {
+        for (int seed = 0; seed < 40; seed++) {
+            Random random = new Random(seed);
+            boolean sourceControlsEnabled = random.nextBoolean();
+
+            List<long[]> rows = createRandomRows(random);
+            List<Long> priorityList = createRandomPriorityList(random);
+            MergeDataHelper helper = createHelper(rows, priorityList, sourceControlsEnabled);
+            ReferenceMerge reference =
+                    new ReferenceMerge(rows, priorityList, sourceControlsEnabled);
+
+            long groupStart = START_TIME_MILLIS - random.nextInt(60) * MINUTE_MILLIS;
+            for (int group = 0; group < 30; group++) {
+                long groupEnd = groupStart + (1 + random.nextInt(90)) * MINUTE_MILLIS;
+                String message = "seed " + seed + ", group " + group;
+
+                assertWithMessage(message)
+                        .that(helper.readCursor(groupStart, groupEnd))
+                        .isWithin(1e-6)
+                        .of(reference.readCursor(groupStart, groupEnd));
+                assertWithMessage(message)
+                        .that(helper.getEmptyIntervals(groupStart, groupEnd))
+                        .isEqualTo(reference.getEmptyIntervals(groupStart, groupEnd));
+                groupStart = groupEnd;
+            }
+        }
+    }
+
+    private MergeDataHelper createHelper(List<long[]> rows, List<Long> priorityList) {
+        return createHelper(rows, priorityList, /* sourceControlsEnabled= */ false);
+    }
+
+    private MergeDataHelper createHelper(
+            List<long[]> rows, List<Long> priorityList, boolean sourceControlsEnabled) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (long[] row : rows) {
+            cursor.addRow(new Object[] {row[0], row[1], row[2], row[3], (double) row[4]});
+        }
+        return new MergeDataHelper(
+                cursor,
+                priorityList,
+                VALUE_COLUMN_NAME,
+                Double.class,
+                /* useLocalTime= */ false,
+                sourceControlsEnabled);
+    }
+
+    /**
+     * Returns rows of {start, end, app id, last modified time, value}, mostly in increasing order
+     * of start time, as the callers query them.
+     */
+    private static List<long[]> createRandomRows(Random random) {
+        List<long[]> rows = new ArrayList<>();
+        int numRows = random.nextInt(60);
+        long startTime = START_TIME_MILLIS;
+        for (int i = 0; i < numRows; i++) {
+            startTime +=
+                    random.nextInt(30) * MINUTE_MILLIS
+                            + (random.nextBoolean() ? 0 : random.nextInt(1000));
+            long endTime =
+                    random.nextInt(10) == 0
+                            ? startTime
+                            : startTime + 1 + random.nextInt(120) * MINUTE_MILLIS;
+            rows.add(
+                    new long[] {
+                        startTime, endTime, 1 + random.nextInt(NUM_APPS), i, random.nextInt(1000)
+                    });
+        }
+        // The helper must still give the same result when the rows are not ordered.
+        if (random.nextInt(5) == 0) {
+            Collections.shuffle(rows, random);
+        }
+        return rows;
+    }
+
+    /** Returns a random subset of the app ids, in random order. */
+    private static List<Long> createRandomPriorityList(Random random) {
+        List<Long> priorityList = new ArrayList<>();
+        for (long appId = 1; appId <= NUM_APPS; appId++) {
+            if (random.nextInt(4) != 0) {
+                priorityList.add(appId);
+            }
+        }
+        Collections.shuffle(priorityList, random);
+        return priorityList;
+    }
+
+    /**
+     * The merge as it was before rows were read once: every interval reads all the rows and looks
+     * up priorities in the priority list.
+     */
+    private static final class ReferenceMerge {
+        private final List<long[]> mRows;
+        private final List<Long> mReversedPriorityList;
+        private final boolean mSourceControlsEnabled;
+        private final Comparator<Data> mComparator;
+        private final List<Data> mMerged = new ArrayList<>();
+        private long mStartTime;
+        private long mEndTime;
+
+        private static final class Data {
+            final long mStartTime;
+            final long mEndTime;
+            final long mAppId;
+            final long mLastModifiedTime;
+            final double mValue;
+
+            Data(long startTime, long endTime, long appId, long lastModifiedTime, double value) {
+                mStartTime = startTime;
+                mEndTime = endTime;
+                mAppId = appId;
+                mLastModifiedTime = lastModifiedTime;
+                mValue = value;
+            }
+        }
+
+        ReferenceMerge(List<long[]> rows, List<Long> priorityList, boolean sourceControlsEnabled) {
+            mRows = rows;
+            mReversedPriorityList = new ArrayList<>(priorityList);
+            Collections.reverse(mReversedPriorityList);
+            mSourceControlsEnabled = sourceControlsEnabled;
+            mComparator =
+                    Comparator.<Data>comparingLong(data -> data.mStartTime)
+                            .thenComparing((a, b) -> compare(b, a));
+        }
+
+        double readCursor(long startTime, long endTime) {
+            mStartTime = startTime;
+            mEndTime = endTime;
+            mMerged.clear();
+            TreeSet<Data> window = new TreeSet<>(mComparator);
+            Iterator<long[]> rows = mRows.iterator();
+            while (true) {
+                if (!window.isEmpty()) {
+                    mMerged.add(window.pollFirst());
+                }
+                while ((window.size() < 2 || window.last().mStartTime < window.first().mEndTime)
+                        && rows.hasNext()) {
+                    long[] row = rows.next();
+                    if ((row[0] < mStartTime && row[1] <= mStartTime)
+                            || (row[0] > mEndTime && row[1] > mEndTime)) {
+                        continue;
+                    }
+                    Data data = getData(row);
+                    if (data != null
+                            && (!mSourceControlsEnabled
+                                    || mReversedPriorityList.contains(data.mAppId))) {
+                        window.add(data);
+                    }
+                }
+                if (window.isEmpty()) {
+                    break;
+                }
+                window = eliminateEarliestOverlaps(window);
+            }
+            double total = 0;
+            for (Data data : mMerged) {
+                total += data.mValue;
+            }
+            return total;
+        }
+
+        long[] getEmptyIntervals(long startTime, long endTime) {
+            List<Long> intervals = new ArrayList<>();
+            if (mMerged.isEmpty()) {
+                if (startTime != endTime) {
+                    intervals.add(startTime);
+                    intervals.add(endTime);
+                }
+            } else {
+                if (startTime < mMerged.get(0).mStartTime) {
+                    intervals.add(startTime);
+                    intervals.add(mMerged.get(0).mStartTime);
+                }
+                for (int i = 0; i < mMerged.size() - 1; i++) {
+                    long currentEnd = mMerged.get(i).mEndTime;
+                    long nextStart = mMerged.get(i + 1).mStartTime;
+                    if (nextStart > currentEnd) {
+                        intervals.add(currentEnd);
+                        intervals.add(nextStart);
+                    }
+                }
+                long lastEnd = mMerged.get(mMerged.size() - 1).mEndTime;
+                if (endTime > lastEnd) {
+                    intervals.add(lastEnd);
+                    intervals.add(endTime);
+                }
+            }
+            return intervals.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        private TreeSet<Data> eliminateEarliestOverlaps(TreeSet<Data> window) {
+            Data first = window.pollFirst();
+            TreeSet<Data> newWindow = new TreeSet<>(mComparator);
+            Iterator<Data> iterator = window.iterator();
+            while (iterator.hasNext()) {
+                Data data = iterator.next();
+                if (compare(first, data) > 0) {
+                    if (data.mEndTime > first.mEndTime) {
+                        addIfNotNull(
+                                newWindow,
+                                trim(
+                                        data,
+                                        Math.max(first.mEndTime, data.mStartTime),
+                                        data.mEndTime));
+                    }
+                } else {
+                    newWindow.add(data);
+                    if (first.mEndTime > data.mEndTime) {
+                        addIfNotNull(newWindow, trim(first, data.mEndTime, first.mEndTime));
+                    }
+                    first =
+                            trim(
+                                    first,
+                                    first.mStartTime,
+                                    Math.min(first.mEndTime, data.mStartTime));
+                    break;
+                }
+            }
+            addIfNotNull(newWindow, first);
+            while (iterator.hasNext()) {
+                newWindow.add(iterator.next());
+            }
+            return newWindow;
+        }
+
+        private Data getData(long[] row) {
+            long startTime = Math.max(row[0], mStartTime);
+            long endTime = Math.min(row[1], mEndTime);
+            double value = row[4];
+            if (startTime == mStartTime || endTime == mEndTime) {
+                value *= (double) (endTime - startTime) / (row[1] - row[0]);
+            }
+            if (endTime <= startTime) {
+                return null;
+            }
+            return new Data(startTime, endTime, row[2], row[3], value);
+        }
+
+        private static Data trim(Data data, long startTime, long endTime) {
+            if (startTime > data.mEndTime || endTime <= startTime || endTime < data.mStartTime) {
+                return null;
+            }
+            startTime = Math.max(startTime, data.mStartTime);
+            endTime = Math.min(endTime, data.mEndTime);
+            double factor = (double) (endTime - startTime) / (data.mEndTime - data.mStartTime);
+            if (endTime <= startTime) {
+                return null;
+            }
+            return new Data(
+                    startTime, endTime, data.mAppId, data.mLastModifiedTime, data.mValue * factor);
+        }
+
+        private int compare(Data data1, Data data2) {
+            int priority1 = mReversedPriorityList.indexOf(data1.mAppId);
+            int priority2 = mReversedPriorityList.indexOf(data2.mAppId);
+            if (priority1 != priority2) {
+                return priority1 - priority2;
+            }
+            return data1.mLastModifiedTime > data2.mLastModifiedTime ? 1 : -1;
+        }
+
+        private static void addIfNotNull(TreeSet<Data> window, Data data) {
+            if (data != null) {
+                window.add(data);
+            }
+        }
+    }
+}
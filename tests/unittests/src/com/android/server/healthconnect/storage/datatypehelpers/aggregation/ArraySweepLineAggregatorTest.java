@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers.aggregation;
+
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.DISTANCE_RECORD_DISTANCE_TOTAL;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.SLEEP_SESSION_DURATION_TOTAL;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.STEPS_RECORD_COUNT_TOTAL;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.END_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.LOCAL_DATE_TIME_END_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.LOCAL_DATE_TIME_START_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.START_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.START_ZONE_OFFSET_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.APP_INFO_ID_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.LAST_MODIFIED_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.UUID_COLUMN_NAME;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import static org.mockito.Mockito.when;
+
+import android.database.MatrixCursor;
+
+import com.android.modules.utils.testing.ExtendedMockitoRule;
+import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
+import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.quality.Strictness;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Differential tests checking that {@link ArraySweepLineAggregator} produces bit-identical results
+ * to {@link PriorityRecordsAggregator} on randomized data. Cursors are sorted by the time column,
+ * same as the aggregation query does.
+ */
+public class ArraySweepLineAggregatorTest {
+    private static final String VALUE_COLUMN_NAME = "value";
+    private static final String EXCLUDE_START_COLUMN_NAME = "stage_start_time";
+    private static final String EXCLUDE_END_COLUMN_NAME = "stage_end_time";
+    private static final String[] VALUE_COLUMNS = {
+        START_TIME_COLUMN_NAME,
+        END_TIME_COLUMN_NAME,
+        LOCAL_DATE_TIME_START_TIME_COLUMN_NAME,
+        LOCAL_DATE_TIME_END_TIME_COLUMN_NAME,
+        START_ZONE_OFFSET_COLUMN_NAME,
+        LAST_MODIFIED_TIME_COLUMN_NAME,
+        APP_INFO_ID_COLUMN_NAME,
+        VALUE_COLUMN_NAME
+    };
+    private static final String[] SESSION_COLUMNS = {
+        START_TIME_COLUMN_NAME,
+        END_TIME_COLUMN_NAME,
+        LOCAL_DATE_TIME_START_TIME_COLUMN_NAME,
+        LOCAL_DATE_TIME_END_TIME_COLUMN_NAME,
+        START_ZONE_OFFSET_COLUMN_NAME,
+        LAST_MODIFIED_TIME_COLUMN_NAME,
+        APP_INFO_ID_COLUMN_NAME,
+        UUID_COLUMN_NAME,
+        EXCLUDE_START_COLUMN_NAME,
+        EXCLUDE_END_COLUMN_NAME
+    };
+    private static final List<Long> PRIORITY_LIST = List.of(3L, 1L, 2L);
+    private static final int ITERATIONS = 200;
+    // Keeps physical and local times positive, as they are for real epoch millis.
+    private static final long BASE_TIME = 100_000L;
+
+    @Rule
+    public final ExtendedMockitoRule mExtendedMockitoRule =
+            new ExtendedMockitoRule.Builder(this)
+                    .mockStatic(HealthConnectDeviceConfigManager.class)
+                    .setStrictness(Strictness.LENIENT)
+                    .build();
+
+    @Mock HealthConnectDeviceConfigManager mHealthConnectDeviceConfigManager;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(HealthConnectDeviceConfigManager.getInitialisedInstance())
+                .thenReturn(mHealthConnectDeviceConfigManager);
+        when(mHealthConnectDeviceConfigManager.isAggregationSourceControlsEnabled())
+                .thenReturn(false);
+    }
+
+    @Test
+    public void testLongValueRecords_sameResultsAsReference() {
+        Random random = new Random(42);
+        for (int i = 0; i < ITERATIONS; i++) {
+            boolean useLocalTime = random.nextBoolean();
+            List<Object[]> rows = createValueRows(random, /* isDouble= */ false, useLocalTime);
+            List<Long> splits = createGroupSplits(random);
+            assertSameResults(
+                    rows,
+                    VALUE_COLUMNS,
+                    splits,
+                    STEPS_RECORD_COUNT_TOTAL,
+                    new AggregateParams.PriorityAggregationExtraParams(
+                            VALUE_COLUMN_NAME, Long.class),
+                    useLocalTime,
+                    /* aggregationSourceControlsEnabled= */ false);
+        }
+    }
+
+    @Test
+    public void testDoubleValueRecords_sameResultsAsReference() {
+        Random random = new Random(7);
+        for (int i = 0; i < ITERATIONS; i++) {
+            boolean useLocalTime = random.nextBoolean();
+            List<Object[]> rows = createValueRows(random, /* isDouble= */ true, useLocalTime);
+            List<Long> splits = createGroupSplits(random);
+            assertSameResults(
+                    rows,
+                    VALUE_COLUMNS,
+                    splits,
+                    DISTANCE_RECORD_DISTANCE_TOTAL,
+                    new AggregateParams.PriorityAggregationExtraParams(
+                            VALUE_COLUMN_NAME, Double.class),
+                    useLocalTime,
+                    /* aggregationSourceControlsEnabled= */ false);
+        }
+    }
+
+    @Test
+    public void testSessionRecords_sameResultsAsReference() {
+        Random random = new Random(1234);
+        for (int i = 0; i < ITERATIONS; i++) {
+            boolean useLocalTime = random.nextBoolean();
+            List<Object[]> rows = createSessionRows(random, useLocalTime);
+            List<Long> splits = createGroupSplits(random);
+            assertSameResults(
+                    rows,
+                    SESSION_COLUMNS,
+                    splits,
+                    SLEEP_SESSION_DURATION_TOTAL,
+                    new AggregateParams.PriorityAggregationExtraParams(
+                            EXCLUDE_START_COLUMN_NAME, EXCLUDE_END_COLUMN_NAME),
+                    useLocalTime,
+                    /* aggregationSourceControlsEnabled= */ false);
+        }
+    }
+
+    @Test
+    public void testSourceControlsEnabled_sameResultsAsReference() {
+        when(mHealthConnectDeviceConfigManager.isAggregationSourceControlsEnabled())
+                .thenReturn(true);
+        Random random = new Random(99);
+        for (int i = 0; i < ITERATIONS; i++) {
+            List<Object[]> rows = createValueRows(random, /* isDouble= */ false, false);
+            List<Long> splits = createGroupSplits(random);
+            assertSameResults(
+                    rows,
+                    VALUE_COLUMNS,
+                    splits,
+                    STEPS_RECORD_COUNT_TOTAL,
+                    new AggregateParams.PriorityAggregationExtraParams(
+                            VALUE_COLUMN_NAME, Long.class),
+                    /* useLocalTime= */ false,
+                    /* aggregationSourceControlsEnabled= */ true);
+        }
+    }
+
+    @Test
+    public void testNoRecords_allGroupsEmpty() {
+        ArraySweepLineAggregator aggregator =
+                new ArraySweepLineAggregator(
+                        List.of(10L, 20L, 30L),
+                        PRIORITY_LIST,
+                        STEPS_RECORD_COUNT_TOTAL,
+                        new AggregateParams.PriorityAggregationExtraParams(
+                                VALUE_COLUMN_NAME, Long.class),
+                        /* useLocalTime= */ false,
+                        /* aggregationSourceControlsEnabled= */ false);
+        aggregator.calculateAggregation(new MatrixCursor(VALUE_COLUMNS));
+
+        assertThat(aggregator.getResultForGroup(0)).isNull();
+        assertThat(aggregator.getResultForGroup(1)).isNull();
+        assertThat(aggregator.getZoneOffsetForGroup(0)).isNull();
+    }
+
+    private static void assertSameResults(
+            List<Object[]> rows,
+            String[] columns,
+            List<Long> splits,
+            int aggregationType,
+            AggregateParams.PriorityAggregationExtraParams params,
+            boolean useLocalTime,
+            boolean aggregationSourceControlsEnabled) {
+        PriorityRecordsAggregator reference =
+                new PriorityRecordsAggregator(
+                        splits, PRIORITY_LIST, aggregationType, params, useLocalTime);
+        reference.calculateAggregation(createCursor(columns, rows));
+        ArraySweepLineAggregator aggregator =
+                new ArraySweepLineAggregator(
+                        splits,
+                        PRIORITY_LIST,
+                        aggregationType,
+                        params,
+                        useLocalTime,
+                        aggregationSourceControlsEnabled);
+        aggregator.calculateAggregation(createCursor(columns, rows));
+
+        for (int group = 0; group < splits.size() - 1; group++) {
+            Double expected = reference.getResultForGroup(group);
+            Double actual = aggregator.getResultForGroup(group);
+            if (expected == null) {
+                assertWithMessage("group " + group).that(actual).isNull();
+                continue;
+            }
+            assertWithMessage("group " + group).that(actual).isNotNull();
+            assertWithMessage("group " + group + " expected " + expected + " actual " + actual)
+                    .that(Double.doubleToRawLongBits(actual))
+                    .isEqualTo(Double.doubleToRawLongBits(expected));
+            assertWithMessage("zone offset of group " + group)
+                    .that(aggregator.getZoneOffsetForGroup(group))
+                    .isEqualTo(reference.getZoneOffsetForGroup(group));
+        }
+    }
+
+    private static MatrixCursor createCursor(String[] columns, List<Object[]> rows) {
+        MatrixCursor cursor = new MatrixCursor(columns, rows.size());
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static List<Long> createGroupSplits(Random random) {
+        List<Long> splits = new ArrayList<>();
+        long split = BASE_TIME - 1000 + random.nextInt(50);
+        int numberOfSplits = 2 + random.nextInt(10);
+        for (int i = 0; i < numberOfSplits; i++) {
+            splits.add(split);
+            split += 1 + random.nextInt(500);
+        }
+        return splits;
+    }
+
+    private static List<Object[]> createValueRows(
+            Random random, boolean isDouble, boolean useLocalTime) {
+        List<Object[]> rows = new ArrayList<>();
+        int numberOfRecords = random.nextInt(60);
+        for (int i = 0; i < numberOfRecords; i++) {
+            long start = BASE_TIME + random.nextInt(3000);
+            // Mostly short intervals, some instant and some invalid ones.
+            long end = start + random.nextInt(300) - 20;
+            int offsetSeconds = random.nextInt(3) - 1;
+            Object value = isDouble ? random.nextDouble() * 1000 : (long) random.nextInt(1000);
+            Object[] row = {
+                start,
+                end,
+                start + 1000L * offsetSeconds,
+                end + 1000L * offsetSeconds,
+                offsetSeconds,
+                (long) random.nextInt(5),
+                (long) random.nextInt(5),
+                value
+            };
+            rows.add(row);
+            if (random.nextInt(10) == 0) {
+                // Exact duplicate record from the same app.
+                rows.add(row.clone());
+            }
+        }
+        int timeColumn = useLocalTime ? 2 : 0;
+        rows.sort(Comparator.comparingLong(row -> (long) row[timeColumn]));
+        return rows;
+    }
+
+    private static List<Object[]> createSessionRows(Random random, boolean useLocalTime) {
+        List<List<Object[]>> sessions = new ArrayList<>();
+        int numberOfSessions = random.nextInt(30);
+        for (int i = 0; i < numberOfSessions; i++) {
+            long start = BASE_TIME + random.nextInt(3000);
+            long end = start + random.nextInt(600);
+            int offsetSeconds = random.nextInt(3) - 1;
+            long lastModifiedTime = random.nextInt(5);
+            long appId = random.nextInt(5);
+            byte[] uuid = StorageUtils.convertUUIDToBytes(UUID.randomUUID());
+
+            List<Object[]> sessionRows = new ArrayList<>();
+            int numberOfStages = random.nextInt(4);
+            if (numberOfStages == 0) {
+                sessionRows.add(
+                        new Object[] {
+                            start,
+                            end,
+                            start + 1000L * offsetSeconds,
+                            end + 1000L * offsetSeconds,
+                            offsetSeconds,
+                            lastModifiedTime,
+                            appId,
+                            uuid,
+                            null,
+                            null
+                        });
+            }
+            for (int stage = 0; stage < numberOfStages; stage++) {
+                long stageStart = start + random.nextInt((int) (end - start) + 1);
+                long stageEnd = stageStart + random.nextInt((int) (end - stageStart) + 1);
+                sessionRows.add(
+                        new Object[] {
+                            start,
+                            end,
+                            start + 1000L * offsetSeconds,
+                            end + 1000L * offsetSeconds,
+                            offsetSeconds,
+                            lastModifiedTime,
+                            appId,
+                            uuid,
+                            stageStart,
+                            stageEnd
+                        });
+            }
+            sessions.add(sessionRows);
+        }
+        int timeColumn = useLocalTime ? 2 : 0;
+        sessions.sort(Comparator.comparingLong(session -> (long) session.get(0)[timeColumn]));
+
+        List<Object[]> rows = new ArrayList<>();
+        for (List<Object[]> session : sessions) {
+            rows.addAll(session);
+        }
+        return rows;
+    }
+}
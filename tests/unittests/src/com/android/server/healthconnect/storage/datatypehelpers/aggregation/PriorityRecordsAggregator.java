@@ -45,7 +45,8 @@ import java.util.TreeSet;
 /**
  * Aggregates records with priorities.
  *
- * @hide
+ * <p>Reference implementation of priority aggregation, used by tests to check that {@link
+ * ArraySweepLineAggregator}, which serves requests, produces the same results.
  */
 public class PriorityRecordsAggregator {
     static final String TAG = "HealthPriorityRecordsAggregator";
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.request;
+
+import static android.health.connect.datatypes.AggregationType.MAX;
+import static android.health.connect.datatypes.AggregationType.MIN;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import android.health.connect.AggregateResult;
+import android.health.connect.TimeInstantRangeFilter;
+import android.health.connect.datatypes.AggregationType;
+import android.health.connect.datatypes.HeartRateRecord;
+import android.health.connect.datatypes.NutritionRecord;
+import android.health.connect.datatypes.WeightRecord;
+import android.health.connect.internal.datatypes.HeartRateRecordInternal;
+import android.health.connect.internal.datatypes.HeartRateRecordInternal.HeartRateSample;
+import android.health.connect.internal.datatypes.NutritionRecordInternal;
+import android.health.connect.internal.datatypes.RecordInternal;
+import android.health.connect.internal.datatypes.WeightRecordInternal;
+import android.os.Parcel;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.datatypehelpers.DatabaseHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.HealthConnectDatabaseTestRule;
+import com.android.server.healthconnect.storage.datatypehelpers.TransactionTestUtils;
+import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+@RunWith(AndroidJUnit4.class)
+public class AggregateTableRequestTest {
+    private static final String TEST_PACKAGE_NAME = "package.name";
+    private static final String OTHER_PACKAGE_NAME = "other.package.name";
+    private static final long MINUTE_MILLIS = Duration.ofMinutes(1).toMillis();
+    private static final long HOUR_MILLIS = Duration.ofHours(1).toMillis();
+    private static final long START_TIME_MILLIS = 1_699_999_200_000L;
+    private static final int NUM_HOURS = 48;
+    private static final int NUM_RECORDS = 60;
+
+    private static final List<AggregationType<?>> AGGREGATION_TYPES =
+            List.of(
+                    WeightRecord.WEIGHT_MIN,
+                    WeightRecord.WEIGHT_AVG,
+                    WeightRecord.WEIGHT_MAX,
+                    HeartRateRecord.BPM_MAX,
+                    HeartRateRecord.BPM_AVG,
+                    HeartRateRecord.HEART_MEASUREMENTS_COUNT,
+                    HeartRateRecord.BPM_MIN,
+                    NutritionRecord.CAFFEINE_TOTAL,
+                    NutritionRecord.CALCIUM_TOTAL,
+                    NutritionRecord.BIOTIN_TOTAL);
+    private static final List<List<String>> PACKAGE_FILTERS =
+            List.of(List.of(), List.of(TEST_PACKAGE_NAME), List.of(OTHER_PACKAGE_NAME));
+
+    @Rule public final HealthConnectDatabaseTestRule testRule = new HealthConnectDatabaseTestRule();
+    private TransactionManager mTransactionManager;
+    private TransactionTestUtils mTransactionTestUtils;
+
+    @Before
+    public void setup() {
+        HealthConnectUserContext context = testRule.getUserContext();
+        mTransactionManager = TransactionManager.getInstance(context);
+        mTransactionTestUtils = new TransactionTestUtils(context, mTransactionManager);
+        clearData();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseHelper.clearAllData(mTransactionManager);
+        TransactionManager.clearInstance();
+    }
+
+    @Test
+    public void groupBySharedQuery_sharesQueriesOverSameRows_atMostOneMinOrMaxEach() {
+        List<AggregateTableRequest> requests = createRequests(/* groupHours= */ 5);
+
+        List<List<AggregateTableRequest>> groups =
+                AggregateTableRequest.groupBySharedQuery(requests);
+
+        assertThat(groups.size()).isLessThan(requests.size());
+        List<AggregateTableRequest> groupedRequests = new ArrayList<>();
+        for (List<AggregateTableRequest> group : groups) {
+            groupedRequests.addAll(group);
+            String sharedQueryKey = group.get(0).getSharedQueryKey();
+            int minOrMaxCount = 0;
+            for (AggregateTableRequest request : group) {
+                assertThat(request.getSharedQueryKey()).isEqualTo(sharedQueryKey);
+                if (isMinOrMax(request)) {
+                    minOrMaxCount++;
+                }
+            }
+            assertThat(minOrMaxCount).isAtMost(1);
+        }
+        assertThat(groupedRequests).containsExactlyElementsIn(requests);
+    }
+
+    @Test
+    public void populateWithAggregation_sharedQueries_sameResultsAsEachRequestOnItsOwn() {
+        for (int seed = 0; seed < 10; seed++) {
+            clearData();
+            insertRandomRecords(new Random(seed));
+
+            for (int groupHours : new int[] {1, 5, NUM_HOURS}) {
+                List<AggregateTableRequest> expected = createRequests(groupHours);
+                for (AggregateTableRequest request : expected) {
+                    mTransactionManager.populateWithAggregation(request);
+                }
+                List<AggregateTableRequest> actual = createRequests(groupHours);
+                mTransactionManager.populateWithAggregation(actual);
+
+                for (int i = 0; i < expected.size(); i++) {
+                    assertSameResults(
+                            "seed "
+                                    + seed
+                                    + ", group hours "
+                                    + groupHours
+                                    + ", request "
+                                    + i
+                                    + " "
+                                    + expected.get(i).getAggregationType(),
+                            expected.get(i),
+                            actual.get(i));
+                }
+            }
+        }
+    }
+
+    private void clearData() {
+        DatabaseHelper.clearAllData(mTransactionManager);
+        mTransactionTestUtils.insertApp(TEST_PACKAGE_NAME);
+        mTransactionTestUtils.insertApp(OTHER_PACKAGE_NAME);
+    }
+
+    /**
+     * Inserts weight, heart rate and nutrition records from two apps, with different zone offsets.
+     * Weights and heart rates are distinct, so that the record holding each minimum and maximum is
+     * unique.
+     */
+    private void insertRandomRecords(Random random) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 2 * NUM_RECORDS; i++) {
+            values.add(40 + i);
+        }
+        Collections.shuffle(values, random);
+
+        List<RecordInternal<?>> records = new ArrayList<>();
+        List<RecordInternal<?>> otherRecords = new ArrayList<>();
+        long time = START_TIME_MILLIS - HOUR_MILLIS;
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            time += MINUTE_MILLIS * (1 + random.nextInt(2 * NUM_HOURS));
+            int zoneOffsetSeconds = (int) Duration.ofHours(random.nextInt(25) - 12).toSeconds();
+            List<RecordInternal<?>> appRecords = random.nextInt(3) == 0 ? otherRecords : records;
+
+            appRecords.add(
+                    new WeightRecordInternal()
+                            .setWeight(values.get(i) * 1000.0)
+                            .setTime(time)
+                            .setZoneOffset(zoneOffsetSeconds));
+
+            HeartRateRecordInternal heartRate = new HeartRateRecordInternal();
+            heartRate.setSamples(
+                    Set.of(
+                            new HeartRateSample(values.get(NUM_RECORDS + i), time),
+                            new HeartRateSample(
+                                    values.get(NUM_RECORDS + i) + 2 * NUM_RECORDS, time + 1000)));
+            heartRate
+                    .setStartTime(time)
+                    .setEndTime(time + 2000)
+                    .setStartZoneOffset(zoneOffsetSeconds)
+                    .setEndZoneOffset(zoneOffsetSeconds);
+            appRecords.add(heartRate);
+
+            appRecords.add(
+                    new NutritionRecordInternal()
+                            .setCaffeine(random.nextDouble())
+                            .setCalcium(random.nextDouble() * 100)
+                            .setBiotin(random.nextDouble() / 100)
+                            .setStartTime(time)
+                            .setEndTime(time + MINUTE_MILLIS)
+                            .setStartZoneOffset(zoneOffsetSeconds)
+                            .setEndZoneOffset(zoneOffsetSeconds));
+        }
+        if (!records.isEmpty()) {
+            mTransactionTestUtils.insertRecords(TEST_PACKAGE_NAME, records);
+        }
+        if (!otherRecords.isEmpty()) {
+            mTransactionTestUtils.insertRecords(OTHER_PACKAGE_NAME, otherRecords);
+        }
+    }
+
+    private static List<AggregateTableRequest> createRequests(int groupHours) {
+        List<AggregateTableRequest> requests = new ArrayList<>();
+        for (List<String> packageFilters : PACKAGE_FILTERS) {
+            for (AggregationType<?> aggregationType : AGGREGATION_TYPES) {
+                requests.add(createRequest(aggregationType, packageFilters, groupHours));
+            }
+        }
+        return requests;
+    }
+
+    private static AggregateTableRequest createRequest(
+            AggregationType<?> aggregationType, List<String> packageFilters, int groupHours) {
+        long endTime = START_TIME_MILLIS + NUM_HOURS * HOUR_MILLIS;
+        AggregateTableRequest request =
+                RecordHelperProvider.getInstance()
+                        .getRecordHelper(aggregationType.getApplicableRecordTypeIds().get(0))
+                        .getAggregateTableRequest(
+                                aggregationType,
+                                TEST_PACKAGE_NAME,
+                                packageFilters,
+                                START_TIME_MILLIS,
+                                endTime,
+                                /* startDateAccess= */ 0,
+                                /* useLocalTime= */ false,
+                                /* aggregationSourceControlsEnabled= */ false);
+        request.setGroupBy(
+                request.getRecordHelper().getDurationGroupByColumnName(),
+                /* period= */ null,
+                Duration.ofHours(groupHours),
+                new TimeInstantRangeFilter.Builder()
+                        .setStartTime(Instant.ofEpochMilli(START_TIME_MILLIS))
+                        .setEndTime(Instant.ofEpochMilli(endTime))
+                        .build());
+        return request;
+    }
+
+    private static boolean isMinOrMax(AggregateTableRequest request) {
+        int operationType = request.getAggregationType().getAggregateOperationType();
+        return operationType == MIN || operationType == MAX;
+    }
+
+    private static void assertSameResults(
+            String message, AggregateTableRequest expected, AggregateTableRequest actual) {
+        List<AggregateResult<?>> expectedResults = expected.getAggregateResults();
+        List<AggregateResult<?>> actualResults = actual.getAggregateResults();
+        assertWithMessage(message).that(actualResults).hasSize(expectedResults.size());
+        for (int group = 0; group < expectedResults.size(); group++) {
+            AggregateResult<?> expectedResult = expectedResults.get(group);
+            AggregateResult<?> actualResult = actualResults.get(group);
+            String groupMessage = message + ", group " + group;
+            if (expectedResult == null) {
+                assertWithMessage(groupMessage).that(actualResult).isNull();
+                continue;
+            }
+            assertWithMessage(groupMessage).that(actualResult).isNotNull();
+            assertWithMessage(groupMessage)
+                    .that(getResultBits(actualResult))
+                    .isEqualTo(getResultBits(expectedResult));
+            // Other aggregations take the zone offset of an unspecified record of the group.
+            if (isMinOrMax(expected)) {
+                assertWithMessage(groupMessage)
+                        .that(actualResult.getZoneOffset())
+                        .isEqualTo(expectedResult.getZoneOffset());
+            }
+            assertWithMessage(groupMessage)
+                    .that(actualResult.getDataOrigins())
+                    .isEqualTo(expectedResult.getDataOrigins());
+        }
+    }
+
+    /** Returns the bits of the long or double result. */
+    private static long getResultBits(AggregateResult<?> result) {
+        Parcel parcel = Parcel.obtain();
+        result.putToParcel(parcel);
+        parcel.setDataPosition(0);
+        long bits = parcel.readLong();
+        parcel.recycle();
+        return bits;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.database.MatrixCursor;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ColumnIndexCacheTest {
+
+    @Test
+    public void get_returnsCursorColumnIndex() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {"a", "b", "c"});
+        ColumnIndexCache columns = new ColumnIndexCache(cursor);
+
+        assertThat(columns.get("c")).isEqualTo(2);
+        assertThat(columns.get("a")).isEqualTo(0);
+        assertThat(columns.get("b")).isEqualTo(1);
+        assertThat(columns.get("c")).isEqualTo(2);
+    }
+
+    @Test
+    public void get_missingColumn_returnsMinusOne() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {"a"});
+        ColumnIndexCache columns = new ColumnIndexCache(cursor);
+
+        assertThat(columns.get("missing")).isEqualTo(-1);
+        assertThat(columns.get("missing")).isEqualTo(-1);
+    }
+
+    @Test
+    public void get_equalNameDifferentInstance_returnsSameIndex() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {"a", "b"});
+        ColumnIndexCache columns = new ColumnIndexCache(cursor);
+
+        assertThat(columns.get("b")).isEqualTo(1);
+        assertThat(columns.get(new String("b"))).isEqualTo(1);
+    }
+
+    @Test
+    public void get_equalNamesDifferentInstances_resolvesOnce() {
+        int[] lookups = new int[1];
+        MatrixCursor cursor =
+                new MatrixCursor(new String[] {"prefix_a", "b"}) {
+                    @Override
+                    public int getColumnIndex(String columnName) {
+                        lookups[0]++;
+                        return super.getColumnIndex(columnName);
+                    }
+                };
+        ColumnIndexCache columns = new ColumnIndexCache(cursor);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(columns.get("prefix_" + "abc".substring(0, 1))).isEqualTo(0);
+        }
+        assertThat(lookups[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void get_manyColumns_resolvesAllAfterGrowing() {
+        String[] names = new String[100];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "column_" + i;
+        }
+        MatrixCursor cursor = new MatrixCursor(names);
+        ColumnIndexCache columns = new ColumnIndexCache(cursor);
+
+        for (int i = 0; i < names.length; i++) {
+            assertThat(columns.get(names[i])).isEqualTo(i);
+        }
+        for (int i = names.length - 1; i >= 0; i--) {
+            assertThat(columns.get(names[i])).isEqualTo(i);
+        }
+    }
+}
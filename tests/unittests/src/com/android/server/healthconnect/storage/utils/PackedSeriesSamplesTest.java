@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class PackedSeriesSamplesTest {
+    private static final long START_TIME_MILLIS = 1_700_000_000_000L;
+
+    @Test
+    public void encode_integerValues_decodesSameSamples() {
+        long[] epochMillis = {START_TIME_MILLIS, START_TIME_MILLIS + 1000, START_TIME_MILLIS + 500};
+        double[] values = {72, 75, -3};
+
+        byte[] blob = PackedSeriesSamples.encode(epochMillis, values, /* count= */ 3);
+
+        assertThat(PackedSeriesSamples.getSampleCount(blob)).isEqualTo(3);
+        long[] decodedEpochMillis = new long[3];
+        double[] decodedValues = new double[3];
+        PackedSeriesSamples.decode(blob, decodedEpochMillis, decodedValues);
+        assertThat(decodedEpochMillis).isEqualTo(epochMillis);
+        assertThat(decodedValues).isEqualTo(values);
+    }
+
+    @Test
+    public void encode_doubleValues_decodesSameSamples() {
+        long[] epochMillis = {Long.MIN_VALUE, 0, Long.MAX_VALUE};
+        double[] values = {1.5, -0.0, Double.MAX_VALUE};
+
+        byte[] blob = PackedSeriesSamples.encode(epochMillis, values, /* count= */ 3);
+
+        long[] decodedEpochMillis = new long[3];
+        double[] decodedValues = new double[3];
+        PackedSeriesSamples.decode(blob, decodedEpochMillis, decodedValues);
+        assertThat(decodedEpochMillis).isEqualTo(epochMillis);
+        assertThat(decodedValues).isEqualTo(values);
+    }
+
+    @Test
+    public void encode_regularSamples_takesFewBytesPerSample() {
+        int count = 60;
+        long[] epochMillis = new long[count];
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            epochMillis[i] = START_TIME_MILLIS + i * 1000L;
+            values[i] = 70 + i % 5;
+        }
+
+        byte[] blob = PackedSeriesSamples.encode(epochMillis, values, count);
+
+        // Two bytes for each time delta and one for each value delta, after the first sample.
+        assertThat(blob.length).isLessThan(4 * count);
+    }
+
+    @Test
+    public void encode_noSamples_decodesNoSamples() {
+        byte[] blob = PackedSeriesSamples.encode(new long[0], new double[0], /* count= */ 0);
+
+        assertThat(PackedSeriesSamples.getSampleCount(blob)).isEqualTo(0);
+    }
+
+    @Test
+    public void decode_arraysTooSmall_throws() {
+        byte[] blob =
+                PackedSeriesSamples.encode(
+                        new long[] {START_TIME_MILLIS, START_TIME_MILLIS + 1},
+                        new double[] {1, 2},
+                        /* count= */ 2);
+
+        assertThrows(
+                IndexOutOfBoundsException.class,
+                () -> PackedSeriesSamples.decode(blob, new long[1], new double[1]));
+    }
+
+    @Test
+    public void getSampleCount_unknownFormat_throws() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> PackedSeriesSamples.getSampleCount(new byte[] {0, 0}));
+    }
+}
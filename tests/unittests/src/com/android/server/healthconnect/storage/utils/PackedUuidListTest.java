@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.UUID;
+
+@RunWith(AndroidJUnit4.class)
+public class PackedUuidListTest {
+    private static final List<UUID> UUIDS =
+            List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+
+    @Test
+    public void add_growsBeyondInitialCapacity() {
+        PackedUuidList uuids = new PackedUuidList(/* initialCapacity= */ 1);
+        UUIDS.forEach(uuids::add);
+
+        assertThat(uuids.size()).isEqualTo(3);
+        assertThat(uuids.toUuidList()).containsExactlyElementsIn(UUIDS).inOrder();
+        assertThat(uuids.getMostSignificantBits(1))
+                .isEqualTo(UUIDS.get(1).getMostSignificantBits());
+        assertThat(uuids.getLeastSignificantBits(1))
+                .isEqualTo(UUIDS.get(1).getLeastSignificantBits());
+    }
+
+    @Test
+    public void addFromBlob_range_addsUuidsOfRange() {
+        PackedUuidList source = new PackedUuidList();
+        UUIDS.forEach(source::add);
+        byte[] blob = source.toByteArray();
+
+        PackedUuidList uuids = new PackedUuidList();
+        uuids.addFromBlob(blob, /* fromIndex= */ 1, /* count= */ 2);
+
+        assertThat(PackedUuidList.getUuidCount(blob)).isEqualTo(3);
+        assertThat(uuids.toUuidList()).containsExactly(UUIDS.get(1), UUIDS.get(2)).inOrder();
+    }
+
+    @Test
+    public void addFromBlob_rangeOutOfBounds_throws() {
+        PackedUuidList source = new PackedUuidList();
+        UUIDS.forEach(source::add);
+        byte[] blob = source.toByteArray();
+
+        assertThrows(
+                IndexOutOfBoundsException.class,
+                () -> new PackedUuidList().addFromBlob(blob, /* fromIndex= */ 2, /* count= */ 2));
+    }
+
+    @Test
+    public void toLongArray_interleavesBits() {
+        PackedUuidList uuids = new PackedUuidList();
+        uuids.add(UUIDS.get(0));
+        PackedUuidList other = new PackedUuidList();
+        other.add(UUIDS.get(1));
+        uuids.addAll(other);
+
+        assertThat(uuids.toLongArray())
+                .asList()
+                .containsExactly(
+                        UUIDS.get(0).getMostSignificantBits(),
+                        UUIDS.get(0).getLeastSignificantBits(),
+                        UUIDS.get(1).getMostSignificantBits(),
+                        UUIDS.get(1).getLeastSignificantBits())
+                .inOrder();
+    }
+}